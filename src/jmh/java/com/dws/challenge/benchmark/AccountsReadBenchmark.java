@@ -0,0 +1,103 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.IdempotencyRepositoryInMemory;
+import com.dws.challenge.repository.OutboxRepositoryInMemory;
+import com.dws.challenge.repository.TransferRepositoryLogInMemory;
+import com.dws.challenge.service.AccountsServiceImp;
+import com.dws.challenge.service.AdmissionServiceImp;
+import com.dws.challenge.service.AdvisoryLockServiceImp;
+import com.dws.challenge.service.HotAccountRegistry;
+import com.dws.challenge.service.IdempotencyServiceImp;
+import com.dws.challenge.service.TransferServiceImp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * AccountsServiceImp.getAccount of accounts picked with uniform or Zipf distribution.
+ * The readWrite group runs 3 readers with 1 transferring thread,readers retry the snapshot
+ * when the transfer changes the account,so it shows how much the writes cost the reads.
+ */
+@State(Scope.Benchmark)
+public class AccountsReadBenchmark {
+
+    @Param({"uniform", "zipf"})
+    private String distribution;
+
+    @Param({"1000"})
+    private int accounts;
+
+    private AdvisoryLockServiceImp lockService;
+    private OutboxRepositoryInMemory outboxRepository;
+    private TransferServiceImp transferService;
+    private HotAccountRegistry hotAccountRegistry;
+    private AccountsServiceImp accountsService;
+    private ZipfGenerator generator;
+    private String[] accountIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+        TransferRepositoryLogInMemory transferRepositoryLog = new TransferRepositoryLogInMemory();
+        lockService = new AdvisoryLockServiceImp();
+        outboxRepository = new OutboxRepositoryInMemory();
+        transferService = BenchmarkFixture.transferService(lockService, accountsRepository, transferRepositoryLog, outboxRepository);
+        hotAccountRegistry = new HotAccountRegistry(accountsRepository, transferService, new String[0], 8, Duration.ZERO, Account.FLOATING,
+                "memory", null);
+        accountsService = new AccountsServiceImp(accountsRepository, transferService, transferRepositoryLog,
+                new IdempotencyServiceImp(new IdempotencyRepositoryInMemory(1000), Duration.ofHours(1), Duration.ofSeconds(5)),
+                new AdmissionServiceImp(false, 150, 50), hotAccountRegistry);
+        accountIds = BenchmarkFixture.createAccounts(accountsRepository, accounts, Account.FLOATING).stream()
+                .map(Account::getAccountId)
+                .toArray(String[]::new);
+        generator = BenchmarkFixture.generator(distribution, accounts);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drainOutbox() {
+        BenchmarkFixture.drain(outboxRepository);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        hotAccountRegistry.close();
+        transferService.close();
+        lockService.close();
+    }
+
+    @Benchmark
+    public Optional<Account> getAccount() {
+        return accountsService.getAccount(accountIds[generator.next()]);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public Optional<Account> read() {
+        return getAccount();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void write() {
+        int from = generator.next();
+        int to = generator.next();
+        if (to == from) {
+            to = (from + 1) % accounts;
+        }
+        accountsService.transfer(accountIds[from], accountIds[to], BigDecimal.ONE);
+    }
+}
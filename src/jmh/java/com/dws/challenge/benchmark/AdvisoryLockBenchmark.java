@@ -0,0 +1,64 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.service.AdvisoryLockService;
+import com.dws.challenge.service.AdvisoryLockServiceImp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Acquire and release the locks of 1 or 2 random accounts,the contention grows with threads and
+ * shrinks with the number of accounts (2 accounts: every thread waits for every other one).
+ */
+@State(Scope.Benchmark)
+public class AdvisoryLockBenchmark {
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Param({"2", "64", "4096"})
+    private int accounts;
+
+    private AdvisoryLockServiceImp lockService;
+    private String[] accountIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        lockService = new AdvisoryLockServiceImp();
+        accountIds = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            accountIds[i] = "acc-" + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        lockService.close();
+    }
+
+    @Benchmark
+    public Optional<AdvisoryLockService.Token> acquireReleaseOne() {
+        return acquireRelease(List.of(accountIds[ThreadLocalRandom.current().nextInt(accounts)]));
+    }
+
+    @Benchmark
+    public Optional<AdvisoryLockService.Token> acquireReleasePair() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(accounts);
+        int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+        return acquireRelease(List.of(accountIds[from], accountIds[to]));
+    }
+
+    private Optional<AdvisoryLockService.Token> acquireRelease(List<String> ids) {
+        Optional<AdvisoryLockService.Token> token = lockService.acquire(ids, TIMEOUT);
+        token.ifPresent(lockService::release);
+        return token;
+    }
+}
@@ -0,0 +1,85 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.OutboxMessage;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.OutboxRepository;
+import com.dws.challenge.repository.TransferRepositoryLog;
+import com.dws.challenge.service.AdvisoryLockService;
+import com.dws.challenge.service.TransferServiceImp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Wire the services without Spring,the same way the unit tests do.
+ */
+final class BenchmarkFixture {
+    //large enough that transfers of 1 never run out of money during the benchmark
+    static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1_000_000_000L);
+
+    private BenchmarkFixture() {
+    }
+
+    /**
+     * Zipf exponent of the distribution name: uniform picks every account equally,
+     * zipf makes a few accounts hot like real payment traffic.
+     */
+    static ZipfGenerator generator(String distribution, int accountCount) {
+        switch (distribution) {
+            case "uniform":
+                return new ZipfGenerator(accountCount, 0);
+            case "zipf":
+                return new ZipfGenerator(accountCount, 1.1);
+            default:
+                throw new IllegalArgumentException("Unknown distribution " + distribution);
+        }
+    }
+
+    static List<Account> createAccounts(AccountsRepository accountsRepository, int count, int moneyScale) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> {
+                    Account account = new Account("acc-" + i, INITIAL_BALANCE);
+                    account.useScale(moneyScale);
+                    accountsRepository.createAccount(account);
+                    return account;
+                })
+                .collect(Collectors.toList());
+    }
+
+    static TransferServiceImp transferService(AdvisoryLockService lockService, AccountsRepository accountsRepository,
+                                              TransferRepositoryLog transferRepositoryLog, OutboxRepository outboxRepository) {
+        TransferServiceImp transferService = new TransferServiceImp();
+        transferService.setLockService(lockService);
+        transferService.setAccountsRepository(accountsRepository);
+        transferService.setTransferRepositoryLog(transferRepositoryLog);
+        transferService.setOutboxRepository(outboxRepository);
+        return transferService;
+    }
+
+    /**
+     * Mark the outbox as delivered,otherwise pending notifications grow during the run and skew the gc profile.
+     */
+    static void drain(OutboxRepository outboxRepository) {
+        List<OutboxMessage> pending;
+        while (!(pending = outboxRepository.findPending(10_000)).isEmpty()) {
+            outboxRepository.markDelivered(pending.stream().map(OutboxMessage::getTransferId).collect(Collectors.toList()));
+        }
+    }
+
+    static void delete(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot delete " + dir, ex);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.dws.challenge.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Run the benchmarks once per thread count,every run reports throughput (ops/us),
+ * latency percentiles (sample mode,us/op) and allocation rate (gc profiler).
+ * Results are written to build/reports/jmh/results-{threads}-threads.json.
+ * Arguments: the regexp of benchmarks (.* by default) and the thread counts (1,4,16 by default),
+ * it's started by './gradlew jmhThreads -PjmhInclude=Transfer -PjmhThreads=1,8'.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : ".*";
+        String threadCounts = args.length > 1 ? args[1] : "1,4,16";
+        File reports = new File("build/reports/jmh");
+        reports.mkdirs();
+        for (String threadCount : threadCounts.split(",")) {
+            int threads = Integer.parseInt(threadCount.trim());
+            Options options = new OptionsBuilder()
+                    .include(BenchmarkRunner.class.getPackageName() + ".*" + include)
+                    .threads(threads)
+                    .mode(Mode.Throughput)
+                    .mode(Mode.SampleTime)
+                    .timeUnit(TimeUnit.MICROSECONDS)
+                    .addProfiler(GCProfiler.class)
+                    .warmupIterations(3)
+                    .warmupTime(TimeValue.seconds(2))
+                    .measurementIterations(5)
+                    .measurementTime(TimeValue.seconds(2))
+                    .forks(1)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(reports, "results-" + threads + "-threads.json").getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.OutboxRepositoryInMemory;
+import com.dws.challenge.repository.TransferRepositoryLogInMemory;
+import com.dws.challenge.service.AdvisoryLockServiceImp;
+import com.dws.challenge.service.TransferServiceImp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * TransferServiceImp.transfer of 1 between two accounts picked with uniform or Zipf distribution,
+ * with BigDecimal (scale -1) or fixed-point (scale 2) balances.
+ * The repositories are in memory,so it measures the locks and the transfer itself.
+ */
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+    @Param({"uniform", "zipf"})
+    private String distribution;
+
+    @Param({"1000"})
+    private int accounts;
+
+    @Param({"-1", "2"})
+    private int moneyScale;
+
+    private AdvisoryLockServiceImp lockService;
+    private OutboxRepositoryInMemory outboxRepository;
+    private TransferServiceImp transferService;
+    private List<Account> accountList;
+    private ZipfGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+        lockService = new AdvisoryLockServiceImp();
+        outboxRepository = new OutboxRepositoryInMemory();
+        transferService = BenchmarkFixture.transferService(lockService, accountsRepository,
+                new TransferRepositoryLogInMemory(), outboxRepository);
+        accountList = BenchmarkFixture.createAccounts(accountsRepository, accounts, moneyScale);
+        generator = BenchmarkFixture.generator(distribution, accounts);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drainOutbox() {
+        BenchmarkFixture.drain(outboxRepository);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        transferService.close();
+        lockService.close();
+    }
+
+    @Benchmark
+    public void transfer() {
+        int from = generator.next();
+        int to = generator.next();
+        if (to == from) {
+            to = (from + 1) % accounts;
+        }
+        transferService.transfer(accountList.get(from), accountList.get(to), BigDecimal.ONE);
+    }
+}
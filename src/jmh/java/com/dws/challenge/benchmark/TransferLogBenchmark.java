@@ -0,0 +1,81 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.domain.TransferLog;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.repository.TransferRepositoryLog;
+import com.dws.challenge.repository.TransferRepositoryLogInMemory;
+import com.dws.challenge.repository.TransferRepositoryLogMappedFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TransferRepositoryLog.save of the in-memory log and of the memory-mapped log with every fsync policy.
+ * Every thread saves its own transferLog with the statuses of a transfer (START,DEBIT,CREDIT,COMPLETED) in a loop,
+ * so the unfinished transfers don't pile up.
+ * The mapped log is created in a new directory for every iteration and deleted after it.
+ */
+@State(Scope.Benchmark)
+public class TransferLogBenchmark {
+    private static final TransferStatus[] STATUSES = {TransferStatus.START, TransferStatus.DEBIT_FROM_ACCOUNT,
+            TransferStatus.CREDIT_TO_ACCOUNT, TransferStatus.COMPLETED};
+
+    @Param({"memory", "mapped-OS", "mapped-GROUP_COMMIT", "mapped-EVERY_RECORD"})
+    private String store;
+
+    private TransferRepositoryLog transferRepositoryLog;
+    private Path dir;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Transfer {
+        private TransferLog transferLog;
+        private int step;
+
+        @Setup(Level.Trial)
+        public void setUp(TransferLogBenchmark benchmark) {
+            int thread = benchmark.threads.getAndIncrement();
+            transferLog = new TransferLog("from-" + thread, "to-" + thread, BigDecimal.ONE);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        if (store.equals("memory")) {
+            transferRepositoryLog = new TransferRepositoryLogInMemory();
+            return;
+        }
+        dir = Files.createTempDirectory("transfer-log-benchmark");
+        TransferRepositoryLogMappedFile.FsyncPolicy fsyncPolicy =
+                TransferRepositoryLogMappedFile.FsyncPolicy.valueOf(store.substring("mapped-".length()));
+        transferRepositoryLog = new TransferRepositoryLogMappedFile(dir, DataSize.ofMegabytes(64), fsyncPolicy,
+                Duration.ofMillis(2), 256);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        if (transferRepositoryLog instanceof TransferRepositoryLogMappedFile) {
+            ((TransferRepositoryLogMappedFile) transferRepositoryLog).close();
+            BenchmarkFixture.delete(dir);
+        }
+    }
+
+    @Benchmark
+    public void save(Transfer transfer) {
+        transfer.transferLog.setStatus(STATUSES[transfer.step]);
+        transfer.step = (transfer.step + 1) % STATUSES.length;
+        transferRepositoryLog.save(transfer.transferLog);
+    }
+}
@@ -0,0 +1,38 @@
+package com.dws.challenge.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Pick indexes 0..n-1 with Zipf distribution: the probability of index k is proportional to 1/(k+1)^exponent,
+ * so index 0 is the hottest one (exponent 1 gives ~12% of picks to the first of 1000 accounts).
+ * The cumulative distribution is computed once,next() is a binary search and doesn't allocate.
+ */
+public final class ZipfGenerator {
+    private final double[] cdf;
+
+    public ZipfGenerator(int n, double exponent) {
+        if (n <= 0 || exponent < 0) {
+            throw new IllegalArgumentException("n must be positive and exponent can't be negative");
+        }
+        cdf = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cdf[k] /= sum;
+        }
+        cdf[n - 1] = 1;
+    }
+
+    public int next() {
+        int index = Arrays.binarySearch(cdf, ThreadLocalRandom.current().nextDouble());
+        return index >= 0 ? index : -index - 1;
+    }
+
+    public int size() {
+        return cdf.length;
+    }
+}
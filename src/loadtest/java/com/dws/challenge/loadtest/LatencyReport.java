@@ -0,0 +1,112 @@
+package com.dws.challenge.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency distributions of every operation in microseconds.
+ * The corrected latency is measured from the time the request should have been sent by the schedule,
+ * so the time it waited behind the slow requests is counted (coordinated omission),
+ * the service latency is measured from the time it was actually sent.
+ */
+public class LatencyReport {
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(5);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99, 100};
+
+    public enum Operation {
+        GET,
+        TRANSFER
+    }
+
+    private final Map<Operation, Histogram> corrected = new EnumMap<>(Operation.class);
+    private final Map<Operation, Histogram> service = new EnumMap<>(Operation.class);
+    private final Map<Operation, Map<Integer, LongAdder>> statuses = new EnumMap<>(Operation.class);
+    private final LongAdder errors = new LongAdder();
+
+    public LatencyReport() {
+        for (Operation operation : Operation.values()) {
+            corrected.put(operation, new ConcurrentHistogram(HIGHEST_MICROS, 3));
+            service.put(operation, new ConcurrentHistogram(HIGHEST_MICROS, 3));
+            statuses.put(operation, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Record the response,times are System.nanoTime() of the schedule,of the send and of the response.
+     */
+    public void record(Operation operation, long intendedNanos, long sentNanos, long doneNanos, int status) {
+        corrected.get(operation).recordValue(toMicros(doneNanos - intendedNanos));
+        service.get(operation).recordValue(toMicros(doneNanos - sentNanos));
+        statuses.get(operation).computeIfAbsent(status, s -> new LongAdder()).increment();
+    }
+
+    /**
+     * The request failed without the response (e.g. the connection was refused).
+     */
+    public void recordError() {
+        errors.increment();
+    }
+
+    public Histogram getCorrected(Operation operation) {
+        return corrected.get(operation);
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public void print(PrintStream out, int durationSeconds) {
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = corrected.get(operation);
+            Map<Integer, Long> counts = new TreeMap<>();
+            statuses.get(operation).forEach((status, count) -> counts.put(status, count.sum()));
+            out.printf("%s: %d requests,%.1f/s,statuses %s%n", operation, histogram.getTotalCount(),
+                    histogram.getTotalCount() / (double) durationSeconds, counts);
+            printPercentiles(out, "  corrected (us)", histogram);
+            printPercentiles(out, "  service   (us)", service.get(operation));
+        }
+        out.printf("errors without response: %d%n", errors.sum());
+    }
+
+    private static void printPercentiles(PrintStream out, String title, Histogram histogram) {
+        StringBuilder line = new StringBuilder(title);
+        for (double percentile : PERCENTILES) {
+            line.append(String.format(" p%s=%d", percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile),
+                    histogram.getValueAtPercentile(percentile)));
+        }
+        out.println(line);
+    }
+
+    /**
+     * Write the full distributions as .hgrm files,they can be plotted by HdrHistogram plotter.
+     */
+    public void write(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        for (Operation operation : Operation.values()) {
+            writeHistogram(dir.resolve(operation.name().toLowerCase() + "-corrected.hgrm"), corrected.get(operation));
+            writeHistogram(dir.resolve(operation.name().toLowerCase() + "-service.hgrm"), service.get(operation));
+        }
+    }
+
+    private static void writeHistogram(Path file, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file))) {
+            //values are in microseconds,the plotter expects milliseconds
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+
+    private static long toMicros(long nanos) {
+        return Math.min(HIGHEST_MICROS, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+}
@@ -0,0 +1,105 @@
+package com.dws.challenge.loadtest;
+
+import com.dws.challenge.ChallengeApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * End-to-end load test: start ChallengeApplication on a random port,seed the accounts by POST /v1/accounts,
+ * send the open-loop mix of GET /v1/accounts/{id} and PUT /v1/accounts/transfer/... (OpenLoopDriver),
+ * print the latency distributions and check that the transfers neither created nor lost money.
+ * It's started by './gradlew loadTest -PloadTestArgs="rate=2000 duration=60 skew=0 --transfer.engine=sharded"',
+ * the exit code is 1 if the money isn't conserved.
+ */
+@Slf4j
+public class LoadTest {
+    private static final String ACCOUNT_PREFIX = "load-";
+
+    private final LoadTestConfig config;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private URI baseUri;
+
+    public LoadTest(LoadTestConfig config) {
+        this.config = config;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.parse(args);
+        boolean conserved = new LoadTest(config).run();
+        System.exit(conserved ? 0 : 1);
+    }
+
+    /**
+     * @return true if the total balance after the load is equal to the seeded one.
+     */
+    public boolean run() throws IOException, InterruptedException {
+        log.info("Load test {}", config);
+        List<String> applicationArgs = new ArrayList<>(config.getApplicationArgs());
+        applicationArgs.add("--server.port=0");
+        try (ConfigurableApplicationContext context = SpringApplication.run(ChallengeApplication.class, applicationArgs.toArray(new String[0]))) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            baseUri = URI.create("http://localhost:" + port);
+            List<String> accountIds = seedAccounts();
+            LatencyReport report = new LatencyReport();
+            new OpenLoopDriver(config, client, baseUri, accountIds).run(report);
+            report.print(System.out, config.getDuration());
+            report.write(Path.of(config.getReportDir()));
+            return checkConservation(accountIds);
+        }
+    }
+
+    private List<String> seedAccounts() throws IOException, InterruptedException {
+        List<String> accountIds = new ArrayList<>(config.getAccounts());
+        for (int i = 0; i < config.getAccounts(); i++) {
+            String accountId = ACCOUNT_PREFIX + i;
+            String body = objectMapper.writeValueAsString(Map.of("accountId", accountId, "balance", config.getInitialBalance()));
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(baseUri.resolve("/v1/accounts"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 201) {
+                throw new IllegalStateException("Cannot create account " + accountId + ": " + response.statusCode() + " " + response.body());
+            }
+            accountIds.add(accountId);
+        }
+        log.info("Seeded {} accounts with balance {}", accountIds.size(), config.getInitialBalance());
+        return accountIds;
+    }
+
+    private boolean checkConservation(List<String> accountIds) throws IOException, InterruptedException {
+        BigDecimal expected = config.getInitialBalance().multiply(BigDecimal.valueOf(accountIds.size()));
+        BigDecimal total = BigDecimal.ZERO;
+        for (String accountId : accountIds) {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(baseUri.resolve("/v1/accounts/" + accountId)).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            total = total.add(objectMapper.readTree(response.body()).get("balance").decimalValue());
+        }
+        boolean conserved = total.compareTo(expected) == 0;
+        if (conserved) {
+            System.out.printf("money is conserved: total balance %s%n", total.toPlainString());
+        } else {
+            System.out.printf("MONEY IS NOT CONSERVED: total balance %s,expected %s%n", total.toPlainString(), expected.toPlainString());
+        }
+        return conserved;
+    }
+}
@@ -0,0 +1,100 @@
+package com.dws.challenge.loadtest;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings of the load test,they are passed as key=value arguments,
+ * arguments starting with -- are passed to ChallengeApplication (e.g. --transfer.engine=sharded).
+ */
+@Getter
+public class LoadTestConfig {
+    //number of seeded accounts
+    private int accounts = 1000;
+    private BigDecimal initialBalance = BigDecimal.valueOf(1000);
+    //requests per second,they are sent at this rate whatever the response time is (open loop)
+    private int rate = 1000;
+    //seconds of the measured load,the warmup load is sent before it and isn't recorded
+    private int duration = 30;
+    private int warmup = 5;
+    //share of GET requests,the rest are transfers
+    private double readRatio = 0.8;
+    //Zipf exponent of the account selection,0 picks accounts uniformly
+    private double skew = 1.1;
+    private BigDecimal amount = BigDecimal.ONE;
+    //X-Deadline-Ms header of transfers,0 doesn't send it
+    private long deadlineMs;
+    //directory of .hgrm files with the latency distributions
+    private String reportDir = "build/reports/loadtest";
+    private final List<String> applicationArgs = new ArrayList<>();
+
+    public static LoadTestConfig parse(String[] args) {
+        LoadTestConfig config = new LoadTestConfig();
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                config.applicationArgs.add(arg);
+                continue;
+            }
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Argument must be key=value or --application.property=value: " + arg);
+            }
+            values.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String value = entry.getValue();
+            switch (entry.getKey()) {
+                case "accounts":
+                    config.accounts = Integer.parseInt(value);
+                    break;
+                case "initialBalance":
+                    config.initialBalance = new BigDecimal(value);
+                    break;
+                case "rate":
+                    config.rate = Integer.parseInt(value);
+                    break;
+                case "duration":
+                    config.duration = Integer.parseInt(value);
+                    break;
+                case "warmup":
+                    config.warmup = Integer.parseInt(value);
+                    break;
+                case "readRatio":
+                    config.readRatio = Double.parseDouble(value);
+                    break;
+                case "skew":
+                    config.skew = Double.parseDouble(value);
+                    break;
+                case "amount":
+                    config.amount = new BigDecimal(value);
+                    break;
+                case "deadlineMs":
+                    config.deadlineMs = Long.parseLong(value);
+                    break;
+                case "reportDir":
+                    config.reportDir = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown load test setting " + entry.getKey());
+            }
+        }
+        if (config.accounts < 2 || config.rate <= 0 || config.duration <= 0 || config.warmup < 0
+                || config.readRatio < 0 || config.readRatio > 1) {
+            throw new IllegalArgumentException("accounts must be at least 2,rate and duration positive,readRatio in 0..1");
+        }
+        return config;
+    }
+
+    @Override
+    public String toString() {
+        return "accounts=" + accounts + ",initialBalance=" + initialBalance + ",rate=" + rate + "/s,duration=" + duration
+                + "s,warmup=" + warmup + "s,readRatio=" + readRatio + ",skew=" + skew + ",amount=" + amount
+                + ",deadlineMs=" + deadlineMs + ",application " + applicationArgs;
+    }
+}
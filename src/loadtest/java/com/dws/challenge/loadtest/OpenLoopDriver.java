@@ -0,0 +1,111 @@
+package com.dws.challenge.loadtest;
+
+import com.dws.challenge.benchmark.ZipfGenerator;
+import com.dws.challenge.web.AccountsController;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Send requests at the constant rate (open loop): the request i is due at start + i/rate
+ * and it's sent when it's due even if the previous requests haven't got the response yet,
+ * the way independent clients do. Closed loop clients wait for the response and so slow down
+ * with the server,that hides its latency spikes.
+ */
+@Slf4j
+public class OpenLoopDriver {
+    private final LoadTestConfig config;
+    private final HttpClient client;
+    private final URI baseUri;
+    private final List<String> accountIds;
+    private final ZipfGenerator generator;
+    private final AtomicLong outstanding = new AtomicLong();
+    private long maxOutstanding;
+
+    public OpenLoopDriver(LoadTestConfig config, HttpClient client, URI baseUri, List<String> accountIds) {
+        this.config = config;
+        this.client = client;
+        this.baseUri = baseUri;
+        this.accountIds = accountIds;
+        this.generator = new ZipfGenerator(accountIds.size(), config.getSkew());
+    }
+
+    /**
+     * Send the warmup load and then the measured load,responses of the measured requests are recorded to the report.
+     * It returns when all responses are received.
+     */
+    public void run(LatencyReport report) throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.getRate();
+        long total = (long) config.getRate() * (config.getWarmup() + config.getDuration());
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(config.getWarmup());
+        for (long i = 0; i < total; i++) {
+            long intended = start + i * intervalNanos;
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            send(report, intended, intended >= measureFrom);
+            if (i % config.getRate() == 0 && i > 0) {
+                log.info("Sent {} of {} requests,{} waiting for the response", i, total, outstanding.get());
+            }
+        }
+        while (outstanding.get() > 0) {
+            Thread.sleep(10);
+        }
+        log.info("Load finished,up to {} requests were waiting for the response at once", maxOutstanding);
+    }
+
+    private void send(LatencyReport report, long intended, boolean measured) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LatencyReport.Operation operation = random.nextDouble() < config.getReadRatio()
+                ? LatencyReport.Operation.GET : LatencyReport.Operation.TRANSFER;
+        HttpRequest request = operation == LatencyReport.Operation.GET ? getRequest() : transferRequest();
+        maxOutstanding = Math.max(maxOutstanding, outstanding.incrementAndGet());
+        long sent = System.nanoTime();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, ex) -> {
+                    long done = System.nanoTime();
+                    if (measured) {
+                        if (ex != null) {
+                            report.recordError();
+                        } else {
+                            report.record(operation, intended, sent, done, response.statusCode());
+                        }
+                    }
+                    outstanding.decrementAndGet();
+                });
+    }
+
+    private HttpRequest getRequest() {
+        return HttpRequest.newBuilder(baseUri.resolve("/v1/accounts/" + accountIds.get(generator.next())))
+                .timeout(Duration.ofSeconds(60))
+                .GET()
+                .build();
+    }
+
+    private HttpRequest transferRequest() {
+        int from = generator.next();
+        int to = generator.next();
+        if (to == from) {
+            to = (from + 1) % accountIds.size();
+        }
+        HttpRequest.Builder request = HttpRequest.newBuilder(baseUri.resolve("/v1/accounts/transfer/" + accountIds.get(from)
+                        + "/" + accountIds.get(to) + "?amount=" + config.getAmount().toPlainString()))
+                .timeout(Duration.ofSeconds(60))
+                .PUT(HttpRequest.BodyPublishers.noBody());
+        if (config.getDeadlineMs() > 0) {
+            request.header(AccountsController.DEADLINE_HEADER, String.valueOf(config.getDeadlineMs()));
+        }
+        return request.build();
+    }
+}
@@ -0,0 +1,42 @@
+package com.dws.challenge.config;
+
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.IdempotencyRepository;
+import com.dws.challenge.repository.OutboxRepository;
+import com.dws.challenge.repository.TransferRepositoryLog;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Sizes of the repositories,they are read only when the metrics are scraped (/actuator/prometheus),
+ * so they cost nothing on the request path.
+ * Metrics of the locks and of the transfer phases are recorded by AdvisoryLockServiceImp and TransferServiceImp.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder repositoryMetrics(AccountsRepository accountsRepository, TransferRepositoryLog transferRepositoryLog,
+                                         OutboxRepository outboxRepository, IdempotencyRepository idempotencyRepository) {
+        return registry -> {
+            Gauge.builder("repository.size", accountsRepository, AccountsRepository::count)
+                    .description("Number of entries kept by the repository")
+                    .tag("repository", "accounts")
+                    .register(registry);
+            Gauge.builder("repository.size", transferRepositoryLog, TransferRepositoryLog::count)
+                    .description("Number of entries kept by the repository")
+                    .tag("repository", "transfer-log")
+                    .register(registry);
+            Gauge.builder("repository.size", outboxRepository, OutboxRepository::countPending)
+                    .description("Number of entries kept by the repository")
+                    .tag("repository", "outbox")
+                    .register(registry);
+            Gauge.builder("repository.size", idempotencyRepository, IdempotencyRepository::count)
+                    .description("Number of entries kept by the repository")
+                    .tag("repository", "idempotency")
+                    .register(registry);
+        };
+    }
+}
@@ -0,0 +1,46 @@
+package com.dws.challenge.config;
+
+import com.dws.challenge.service.ContentionReport;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.exporter.logging.LoggingSpanExporter;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * OpenTelemetry for the spans of transfers (AccountsController,TransferServiceImp,AdvisoryLockServiceImp).
+ * With tracing.enabled=true the sampled spans are written to the application log and ContentionReport,
+ * sample-ratio is the share of sampled transfers,the child spans follow the decision of the transfer.
+ * Otherwise the no-op OpenTelemetry is used,its spans aren't recorded.
+ */
+@Configuration
+@Slf4j
+public class TracingConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "tracing.enabled", havingValue = "true")
+    public OpenTelemetry openTelemetry(@Value("${tracing.sample-ratio:1.0}") double sampleRatio,
+                                       ContentionReport contentionReport) {
+        log.info("Tracing is enabled,sample ratio {}", sampleRatio);
+        SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+                .setSampler(Sampler.parentBased(Sampler.traceIdRatioBased(sampleRatio)))
+                .addSpanProcessor(contentionReport)
+                .addSpanProcessor(BatchSpanProcessor.builder(LoggingSpanExporter.create()).build())
+                .build();
+        return OpenTelemetrySdk.builder()
+                .setTracerProvider(tracerProvider)
+                .build();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "tracing.enabled", havingValue = "false", matchIfMissing = true)
+    public OpenTelemetry noopOpenTelemetry() {
+        return OpenTelemetry.noop();
+    }
+}
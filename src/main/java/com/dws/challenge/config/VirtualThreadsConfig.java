@@ -0,0 +1,30 @@
+package com.dws.challenge.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Handle every request on its own virtual thread instead of the Tomcat pool.
+ * Transfers waiting for the advisory lock park the virtual thread (see AdvisoryLockServiceImp),
+ * it unmounts from the carrier thread,so thousands of waiting transfers take only a few platform threads.
+ * Blocking code on the request path uses java.util.concurrent locks instead of synchronized,
+ * so virtual threads aren't pinned to the carrier while they wait.
+ * Tomcat pool doesn't limit the number of requests anymore,admission.max-in-flight does it.
+ * It's enabled by threads.virtual.enabled=true.
+ */
+@Configuration
+@Slf4j
+@ConditionalOnProperty(name = "threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadsConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+        log.info("Requests are handled by virtual threads");
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+}
@@ -1,13 +1,20 @@
 package com.dws.challenge.domain;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NonNull;
+import lombok.Setter;
 
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
@@ -16,6 +23,12 @@ import javax.validation.constraints.NotNull;
 @Data
 public class Account {
 
+    private static final AtomicLongFieldUpdater<Account> VERSION = AtomicLongFieldUpdater.newUpdater(Account.class, "version");
+    private static final AtomicLongFieldUpdater<Account> FENCE = AtomicLongFieldUpdater.newUpdater(Account.class, "fence");
+
+    //the balance is BigDecimal,it's not fixed-point money
+    public static final int FLOATING = -1;
+
     @NotNull
     @NotEmpty
     private final String accountId;
@@ -24,7 +37,43 @@ public class Account {
     @Min(value = 0, message = "Initial balance must be positive.")
     private volatile BigDecimal balance;
 
-    private LocalDateTime updateAt;  //it needs to rollback failed transfer using by TransferLog
+    private volatile LocalDateTime updateAt;  //it needs to rollback failed transfer using by TransferLog
+
+    //fixed-point money: if scale isn't FLOATING,the balance is kept in balanceMinor (see Money)
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private volatile int scale = FLOATING;
+
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private volatile long balanceMinor;
+
+    //seqlock: it's odd while the balance is being changed
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private volatile long version;
+
+    //the greatest fence of the lease the account was saved with (see AccountsRepository.save(account,fence))
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private volatile long fence;
+
+    //id of the transfer which made the last change of the balance,it's saved with the balance:
+    //the recovery checks by it whether the step of the interrupted transfer was applied
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    private volatile String lastTransferId;
+
+    //ids of lock-free credits/debits applied to the balance whose transferLog isn't finished yet,they are saved
+    //with the balance: other writers of the account don't overwrite them like lastTransferId (see TransferService.credit)
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private volatile Set<String> pendingTransferIds = Set.of();
 
     public Account(String accountId) {
         this.accountId = accountId;
@@ -39,4 +88,214 @@ public class Account {
         this.balance = balance;
         this.updateAt = LocalDateTime.now();
     }
+
+    /**
+     * Restore account read from the storage.
+     */
+    public static Account restore(String accountId, BigDecimal balance, LocalDateTime updateAt) {
+        return restore(accountId, balance, updateAt, null);
+    }
+
+    public static Account restore(String accountId, BigDecimal balance, LocalDateTime updateAt, String lastTransferId) {
+        return restore(accountId, balance, updateAt, lastTransferId, Set.of());
+    }
+
+    public static Account restore(String accountId, BigDecimal balance, LocalDateTime updateAt, String lastTransferId,
+                                  Set<String> pendingTransferIds) {
+        return new Account(accountId, balance, updateAt, FLOATING, 0, 0, lastTransferId, Set.copyOf(pendingTransferIds));
+    }
+
+    private Account(String accountId, BigDecimal balance, LocalDateTime updateAt, int scale, long balanceMinor, long version,
+                    String lastTransferId, Set<String> pendingTransferIds) {
+        this.accountId = accountId;
+        this.balance = balance;
+        this.updateAt = updateAt;
+        this.scale = scale;
+        this.balanceMinor = balanceMinor;
+        this.version = version;
+        this.lastTransferId = lastTransferId;
+        this.pendingTransferIds = pendingTransferIds;
+    }
+
+    /**
+     * Keep the balance as long minor units of the scale,it's called before the account is shared.
+     * It throws ServiceException if the balance doesn't fit the scale.
+     */
+    public void useScale(int newScale) {
+        if (newScale == scale) {
+            return;
+        }
+        BigDecimal current = getBalance();
+        if (newScale == FLOATING) {
+            balance = current;
+        } else {
+            balanceMinor = Money.toMinor(current, newScale);
+            balance = null;
+        }
+        scale = newScale;
+    }
+
+    @JsonIgnore
+    public boolean isFixedPoint() {
+        return scale != FLOATING;
+    }
+
+    public BigDecimal getBalance() {
+        int currentScale = scale;
+        return currentScale == FLOATING ? balance : Money.toDecimal(balanceMinor, currentScale);
+    }
+
+    public void setBalance(BigDecimal balance) {
+        int currentScale = scale;
+        if (currentScale == FLOATING) {
+            this.balance = balance;
+        } else {
+            this.balanceMinor = Money.toMinor(balance, currentScale);
+        }
+    }
+
+    /**
+     * Add the amount to the balance,it's called between beginWrite() and endWrite().
+     * Fixed-point account doesn't allocate new BigDecimal for the balance.
+     */
+    public void addToBalance(BigDecimal amount) {
+        addToBalance(Amount.of(amount, scale));
+    }
+
+    /**
+     * The amount converted once by the transfer (see Amount),fixed-point account adds its minor units.
+     */
+    public void addToBalance(Amount amount) {
+        int currentScale = scale;
+        if (currentScale == FLOATING) {
+            balance = balance.add(amount.getValue());
+        } else {
+            balanceMinor = Money.add(balanceMinor, amount.minorOf(currentScale));
+        }
+    }
+
+    public void subtractFromBalance(BigDecimal amount) {
+        subtractFromBalance(Amount.of(amount, scale));
+    }
+
+    public void subtractFromBalance(Amount amount) {
+        int currentScale = scale;
+        if (currentScale == FLOATING) {
+            balance = balance.subtract(amount.getValue());
+        } else {
+            balanceMinor = Money.subtract(balanceMinor, amount.minorOf(currentScale));
+        }
+    }
+
+    /**
+     * Subtract the amount only if the balance has enough money,it's called between beginWrite() and endWrite(),
+     * so the check and the change are atomic for all writers of the account.
+     *
+     * @return false if the balance is less than the amount,the balance isn't changed.
+     */
+    public boolean trySubtractFromBalance(BigDecimal amount) {
+        return trySubtractFromBalance(Amount.of(amount, scale));
+    }
+
+    public boolean trySubtractFromBalance(Amount amount) {
+        if (!hasAtLeast(amount)) {
+            return false;
+        }
+        subtractFromBalance(amount);
+        return true;
+    }
+
+    public boolean hasAtLeast(BigDecimal amount) {
+        return hasAtLeast(Amount.of(amount, scale));
+    }
+
+    public boolean hasAtLeast(Amount amount) {
+        int currentScale = scale;
+        if (currentScale == FLOATING) {
+            return balance.compareTo(amount.getValue()) >= 0;
+        }
+        return balanceMinor >= amount.minorOf(currentScale);
+    }
+
+    /**
+     * Keep the id of the lock-free change until its transferLog is finished,it's called between beginWrite() and endWrite().
+     * The set is copied on write,so snapshot() shares it.
+     */
+    public void addPendingTransferId(String transferId) {
+        Set<String> ids = new HashSet<>(pendingTransferIds);
+        ids.add(transferId);
+        pendingTransferIds = Set.copyOf(ids);
+    }
+
+    public void removePendingTransferId(String transferId) {
+        if (pendingTransferIds.contains(transferId)) {
+            Set<String> ids = new HashSet<>(pendingTransferIds);
+            ids.remove(transferId);
+            pendingTransferIds = Set.copyOf(ids);
+        }
+    }
+
+    /**
+     * The step of the transfer was applied to the balance: it's the last transfer of the account
+     * or the lock-free change which isn't finished yet.
+     */
+    public boolean isApplied(String transferId) {
+        return transferId.equals(lastTransferId) || pendingTransferIds.contains(transferId);
+    }
+
+    /**
+     * Start changing balance and updateAt,
+     * readers of snapshot() retry until endWrite() is called.
+     * Transfers of the same account are serialized by the advisory lock or by the shard,
+     * the CAS of the version serializes them with lock-free credits/debits (see TransferServiceImp.credit).
+     */
+    public void beginWrite() {
+        while (true) {
+            long current = version;
+            if ((current & 1) == 0 && VERSION.compareAndSet(this, current, current + 1)) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    public void endWrite() {
+        VERSION.incrementAndGet(this);
+    }
+
+    /**
+     * Remember the fence of the writer,it's false if the account was already written with the greater one.
+     * Fence 0 is the write without the lease,it's always accepted.
+     */
+    public boolean advanceFence(long newFence) {
+        if (newFence == 0) {
+            return true;
+        }
+        while (true) {
+            long current = fence;
+            if (newFence < current) {
+                return false;
+            }
+            if (newFence == current || FENCE.compareAndSet(this, current, newFence)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Return the consistent copy of the account without any lock:
+     * it retries only if a writer has changed the account while it was copied.
+     */
+    public Account snapshot() {
+        while (true) {
+            long before = version;
+            if ((before & 1) == 0) {
+                Account copy = new Account(accountId, balance, updateAt, scale, balanceMinor, before, lastTransferId, pendingTransferIds);
+                if (version == before) {
+                    return copy;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
 }
@@ -0,0 +1,16 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+
+/**
+ * How long the sampled transfers waited for the lock of the account,
+ * lastOwner is the token of the operation which held it the last time they waited.
+ */
+@Data
+public class AccountContention {
+    private final String accountId;
+    private final long waits;
+    private final long totalWaitMicros;
+    private final long maxWaitMicros;
+    private final String lastOwner;
+}
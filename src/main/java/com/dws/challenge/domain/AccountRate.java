@@ -0,0 +1,13 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+
+/**
+ * Estimated number of lock acquires of the account in the last window,it may be overestimated but never underestimated.
+ */
+@Data
+public class AccountRate {
+    private final String accountId;
+    private final long acquires;
+    private final double perSecond;
+}
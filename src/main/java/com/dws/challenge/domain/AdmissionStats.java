@@ -0,0 +1,18 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * Current queue depth of admitted transfers,hotAccounts is the depth of the busiest accounts.
+ */
+@Data
+public class AdmissionStats {
+    private final int inFlight;
+    private final int maxInFlight;
+    private final long serviceTimeMicros;
+    private final long admitted;
+    private final long rejected;
+    private final Map<String, Integer> hotAccounts;
+}
@@ -0,0 +1,31 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * The amount of the transfer converted to long minor units of the money scale once at the start of the transfer,
+ * so the check,the debit and the credit of fixed-point accounts use the long and don't convert (allocate) it again.
+ * The minor units are 0 if the scale is FLOATING,the BigDecimal value is used then.
+ */
+@Data
+public final class Amount {
+    private final BigDecimal value;
+    private final int scale;
+    private final long minor;
+
+    /**
+     * It throws ServiceException if the amount doesn't fit the scale.
+     */
+    public static Amount of(BigDecimal value, int scale) {
+        return new Amount(value, scale, scale == Account.FLOATING ? 0 : Money.toMinor(value, scale));
+    }
+
+    /**
+     * Minor units of the given scale,it converts the value only if the account has other scale than the amount.
+     */
+    public long minorOf(int accountScale) {
+        return accountScale == scale ? minor : Money.toMinor(value, accountScale);
+    }
+}
@@ -0,0 +1,15 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+
+/**
+ * Advisory lock of the account at the moment it's asked,owner is null if the account is free
+ * but somebody waits for it,heldMillis is how long the owner holds it.
+ */
+@Data
+public class HeldLock {
+    private final String accountId;
+    private final String owner;
+    private final long heldMillis;
+    private final int waiters;
+}
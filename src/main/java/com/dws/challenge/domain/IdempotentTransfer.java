@@ -0,0 +1,23 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+import lombok.NonNull;
+
+/**
+ * Result of the transfer stored by its Idempotency-Key,
+ * fingerprint is the request (fromAccountId:toAccountId:amount),the key can't be used for another transfer.
+ */
+@Data
+public class IdempotentTransfer {
+    @NonNull
+    private final String key;
+    @NonNull
+    private final String fingerprint;
+    @NonNull
+    private final TransferResult result;
+    private final long expiresAt;
+
+    public boolean isExpired(long now) {
+        return expiresAt <= now;
+    }
+}
@@ -0,0 +1,14 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Locks held or waited for right now (the oldest first) and the accounts acquired most often in the last window.
+ */
+@Data
+public class LockStats {
+    private final List<HeldLock> heldLocks;
+    private final List<AccountRate> hottest;
+}
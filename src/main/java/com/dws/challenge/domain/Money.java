@@ -0,0 +1,45 @@
+package com.dws.challenge.domain;
+
+import com.dws.challenge.exception.ServiceException;
+
+import java.math.BigDecimal;
+
+/**
+ * Fixed-point money: the amount is kept as long minor units of the scale,
+ * e.g. 10.25 with the scale 2 is 1025.
+ * The arithmetic is checked,it throws ServiceException instead of the silent overflow or rounding.
+ */
+public final class Money {
+
+    private Money() {
+    }
+
+    public static long toMinor(BigDecimal amount, int scale) {
+        try {
+            //it throws if the amount has more fraction digits than the scale or doesn't fit long
+            return amount.scaleByPowerOfTen(scale).longValueExact();
+        } catch (ArithmeticException ex) {
+            throw new ServiceException("Amount " + amount + " doesn't fit the money scale " + scale);
+        }
+    }
+
+    public static BigDecimal toDecimal(long minor, int scale) {
+        return BigDecimal.valueOf(minor, scale);
+    }
+
+    public static long add(long minor, long otherMinor) {
+        try {
+            return Math.addExact(minor, otherMinor);
+        } catch (ArithmeticException ex) {
+            throw new ServiceException("Balance overflow: " + minor + " + " + otherMinor);
+        }
+    }
+
+    public static long subtract(long minor, long otherMinor) {
+        try {
+            return Math.subtractExact(minor, otherMinor);
+        } catch (ArithmeticException ex) {
+            throw new ServiceException("Balance overflow: " + minor + " - " + otherMinor);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Notifications of one transfer waiting in the outbox,
+ * transferId (the id of TransferLog) is the key of the message.
+ */
+@Data
+public class OutboxMessage {
+    @NonNull
+    private final String transferId;
+    @NonNull
+    private final List<Notification> notifications;
+
+    @Data
+    public static class Notification {
+        @NonNull
+        private final String accountId;
+        @NonNull
+        private final String description;
+    }
+
+    /**
+     * Notifications are sent to the owners of the accounts,stripes of the hot account notify the hot account.
+     * Moving money between the stripes of the same account (the rebalance) isn't notified.
+     */
+    public static OutboxMessage completed(String transferId, String fromAccountId, String toAccountId, BigDecimal amount) {
+        String fromOwner = SubAccount.ownerOf(fromAccountId);
+        String toOwner = SubAccount.ownerOf(toAccountId);
+        if (!fromAccountId.equals(toAccountId) && fromOwner.equals(toOwner)) {
+            return new OutboxMessage(transferId, List.of());
+        }
+        return new OutboxMessage(transferId, List.of(
+                new Notification(fromOwner, "Debited the account by " + amount),
+                new Notification(toOwner, "Credited the account by " + amount)));
+    }
+
+    public static OutboxMessage notEnoughMoney(String transferId, String accountId) {
+        return new OutboxMessage(transferId, List.of(new Notification(SubAccount.ownerOf(accountId), "Doesn't have enough money for transfer")));
+    }
+}
@@ -0,0 +1,29 @@
+package com.dws.challenge.domain;
+
+/**
+ * Internal sub-balance (stripe) of the hot account,it's the usual Account with id accountId#stripe-N,
+ * so transfers,TransferLogs and the recovery work with it like with any other account.
+ * Clients can't create accounts with such ids.
+ */
+public final class SubAccount {
+    public static final String SEPARATOR = "#stripe-";
+
+    private SubAccount() {
+    }
+
+    public static String id(String accountId, int stripe) {
+        return accountId + SEPARATOR + stripe;
+    }
+
+    public static boolean isSubAccount(String accountId) {
+        return accountId.contains(SEPARATOR);
+    }
+
+    /**
+     * @return the id of the hot account for its stripe,other ids are returned as they are.
+     */
+    public static String ownerOf(String accountId) {
+        int separator = accountId.lastIndexOf(SEPARATOR);
+        return separator < 0 ? accountId : accountId.substring(0, separator);
+    }
+}
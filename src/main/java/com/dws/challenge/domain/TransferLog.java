@@ -1,7 +1,10 @@
 package com.dws.challenge.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NonNull;
+import lombok.ToString;
 
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
@@ -14,6 +17,9 @@ import java.util.UUID;
  */
 @Data
 public class TransferLog {
+    //the counterparty of single account credit/debit (deposit,withdrawal,fee)
+    public static final String EXTERNAL = "EXTERNAL";
+
     @NonNull
     @NotEmpty
     private final String id;
@@ -30,13 +36,48 @@ public class TransferLog {
     private TransferStatus status;
     @NonNull
     private LocalDateTime updatedAt;
+    //bits of the id,so the binary storage doesn't parse the id on every save
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final long idMostBits;
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final long idLeastBits;
 
     public TransferLog(String fromAccountId, String toAccountId, BigDecimal amount) {
-        this(UUID.randomUUID().toString(), fromAccountId, toAccountId, amount, TransferStatus.START, LocalDateTime.now());
+        this(UUID.randomUUID(), fromAccountId, toAccountId, amount);
+    }
+
+    private TransferLog(UUID id, String fromAccountId, String toAccountId, BigDecimal amount) {
+        this(id.toString(), id.getMostSignificantBits(), id.getLeastSignificantBits(), fromAccountId, toAccountId, amount,
+                TransferStatus.START, LocalDateTime.now());
+    }
+
+    /**
+     * Restore transferLog read from the storage.
+     */
+    public static TransferLog restore(String id, String fromAccountId, String toAccountId, BigDecimal amount, TransferStatus status, LocalDateTime updatedAt) {
+        UUID uuid = UUID.fromString(id);
+        return new TransferLog(id, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), fromAccountId, toAccountId,
+                amount, status, updatedAt);
+    }
+
+    /**
+     * Restore transferLog read from the binary storage,which keeps the bits of the id.
+     */
+    public static TransferLog restore(long idMostBits, long idLeastBits, String fromAccountId, String toAccountId, BigDecimal amount,
+                                      TransferStatus status, LocalDateTime updatedAt) {
+        return new TransferLog(new UUID(idMostBits, idLeastBits).toString(), idMostBits, idLeastBits, fromAccountId, toAccountId,
+                amount, status, updatedAt);
     }
 
-    private TransferLog(String id, String fromAccountId, String toAccountId, BigDecimal amount, TransferStatus status, LocalDateTime updatedAt) {
+    private TransferLog(String id, long idMostBits, long idLeastBits, String fromAccountId, String toAccountId, BigDecimal amount,
+                        TransferStatus status, LocalDateTime updatedAt) {
         this.id = id;
+        this.idMostBits = idMostBits;
+        this.idLeastBits = idLeastBits;
         this.amount = amount;
         this.fromAccountId = fromAccountId;
         this.toAccountId = toAccountId;
@@ -0,0 +1,22 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+
+/**
+ * Outcome of one transfer of the batch,results are returned in the order of the requests.
+ * transferId is the id of TransferLog,it's null if the transfer wasn't started.
+ */
+@Data
+public class TransferResult {
+    private final String transferId;
+    private final TransferStatus status;
+    private final String message;
+
+    public static TransferResult completed(String transferId) {
+        return new TransferResult(transferId, TransferStatus.COMPLETED, null);
+    }
+
+    public static TransferResult failed(String transferId, String message) {
+        return new TransferResult(transferId, TransferStatus.FAILED, message);
+    }
+}
@@ -0,0 +1,17 @@
+package com.dws.challenge.exception;
+
+import lombok.Getter;
+
+/**
+ * Throw by AdmissionService when the transfer would wait longer than the client deadline,
+ * it maps to HTTP 429 with Retry-After seconds.
+ */
+public class AdmissionRejectedException extends LockServiceException {
+    @Getter
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(String msg, long retryAfterSeconds) {
+        super(msg);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
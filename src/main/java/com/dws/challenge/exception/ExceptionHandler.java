@@ -1,6 +1,9 @@
 package com.dws.challenge.exception;
 
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -9,10 +12,28 @@ import org.springframework.web.bind.annotation.ControllerAdvice;
  * Handle exceptions thrown by the service layer:
  * LockServiceException maps to HTTP 429 too many requests,in this
  * case client app can't acquire the lock to make account operation.
+ * AdmissionRejectedException is 429 too with Retry-After header,the transfer is rejected before it waits for the lock.
+ * StaleFenceException is 429 as LockServiceException,the lease of the transfer expired before it was done.
+ * NodeUnavailableException is 429 as LockServiceException,the node of the account in the cluster didn't reply.
  * ServiceException is for other error cases.
+ * Every 429 is counted by http.rejected metric with the reason: lock or admission.
  */
 @ControllerAdvice
 public class ExceptionHandler {
+    private final Counter lockRejected;
+    private final Counter admissionRejected;
+
+    public ExceptionHandler(MeterRegistry meterRegistry) {
+        this.lockRejected = rejected(meterRegistry, "lock");
+        this.admissionRejected = rejected(meterRegistry, "admission");
+    }
+
+    private static Counter rejected(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("http.rejected")
+                .description("Requests rejected by 429 too many requests")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
 
     @org.springframework.web.bind.annotation.ExceptionHandler
     public ResponseEntity<ErrorMessage> handleException(ServiceException ex) {
@@ -21,9 +42,18 @@ public class ExceptionHandler {
 
     @org.springframework.web.bind.annotation.ExceptionHandler
     public ResponseEntity<ErrorMessage> handleException(LockServiceException ex) {
+        lockRejected.increment();
         return createErrMessage(ex, HttpStatus.TOO_MANY_REQUESTS);
     }
 
+    @org.springframework.web.bind.annotation.ExceptionHandler
+    public ResponseEntity<ErrorMessage> handleException(AdmissionRejectedException ex) {
+        admissionRejected.increment();
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(new ErrorMessage(ex.getMessage()));
+    }
+
     @org.springframework.web.bind.annotation.ExceptionHandler
     public ResponseEntity<ErrorMessage> handleException(javax.validation.ConstraintViolationException ex) {
         return createErrMessage(ex, HttpStatus.BAD_REQUEST);
@@ -0,0 +1,11 @@
+package com.dws.challenge.exception;
+
+/**
+ * Throw when the account doesn't contain enough money for the transfer.
+ * It maps to HTTP 400 like ServiceException,it's the business rejection and isn't counted as the failed transfer.
+ */
+public class InsufficientFundsException extends ServiceException {
+    public InsufficientFundsException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,11 @@
+package com.dws.challenge.exception;
+
+/**
+ * Throw by ClusterRouter when the node which owns the account doesn't reply.
+ * It maps to HTTP 429 like LockServiceException: nothing was changed,so the client may retry later.
+ */
+public class NodeUnavailableException extends LockServiceException {
+    public NodeUnavailableException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,12 @@
+package com.dws.challenge.exception;
+
+/**
+ * Throw by AccountsRepository when the account is saved with the fence older than the last saved one:
+ * the lease of the writer has expired and the account is locked by other operation.
+ * It maps to HTTP 429 like LockServiceException,the transfer is rolled back,so the client may retry it.
+ */
+public class StaleFenceException extends LockServiceException {
+    public StaleFenceException(String msg) {
+        super(msg);
+    }
+}
@@ -2,6 +2,7 @@ package com.dws.challenge.repository;
 
 import com.dws.challenge.domain.Account;
 import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.exception.StaleFenceException;
 
 /**
  * CRUD for account entity.
@@ -15,4 +16,22 @@ public interface AccountsRepository {
     void clearAccounts();
 
     void save(Account account);
+
+    /**
+     * Save the account changed under the lease with the fence of its token (see AdvisoryLockService.Token).
+     * It's rejected if the account was saved with the greater fence: the lease of this writer has expired
+     * and the next owner of the account has already written it. Fence 0 is the write without the lease,it isn't checked.
+     * The fence is checked by the account,it's called between beginWrite() and endWrite() like save().
+     */
+    default void save(Account account, long fence) throws StaleFenceException {
+        if (!account.advanceFence(fence)) {
+            throw new StaleFenceException("The account " + account.getAccountId() + " was written with the newer fence than " + fence + ",the lease has expired.");
+        }
+        save(account);
+    }
+
+    /**
+     * Number of accounts,it's exported as the metric.
+     */
+    int count();
 }
@@ -3,6 +3,7 @@ package com.dws.challenge.repository;
 import com.dws.challenge.domain.Account;
 import com.dws.challenge.exception.DuplicateAccountIdException;
 import lombok.NonNull;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 import org.springframework.validation.annotation.Validated;
 
@@ -12,6 +13,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 @Repository
 @Validated
+@ConditionalOnProperty(name = "accounts.store", havingValue = "memory", matchIfMissing = true)
 public class AccountsRepositoryInMemory implements AccountsRepository {
 
     private final Map<String, Account> accounts = new ConcurrentHashMap<>();
@@ -41,4 +43,9 @@ public class AccountsRepositoryInMemory implements AccountsRepository {
         accounts.put(account.getAccountId(), account);
     }
 
+    @Override
+    public int count() {
+        return accounts.size();
+    }
+
 }
@@ -0,0 +1,503 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.repository.TransferRepositoryLogMappedFile.FsyncPolicy;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+import org.springframework.validation.annotation.Validated;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Accounts are kept in memory and every change is appended to the change log.
+ * Periodically it writes the snapshot of all accounts to the binary file:
+ * first it starts the new epoch of the change log, then copies accounts without any lock
+ * (every account is read by its seqlock snapshot), so transfers are never paused.
+ * The snapshot of epoch N with change logs of epochs >= N gives the latest state of accounts,
+ * older snapshots and change logs are deleted (compaction).
+ * On start it loads the newest snapshot and replays the tail of the change log,
+ * restored accounts get the scale of fixed-point money (money.scale).
+ * lastTransferId and pendingTransferIds are saved with the balance,the recovery of transfers checks by them which steps were applied.
+ * The change log is striped by accountId (accounts.changes.stripes files per epoch with own locks),
+ * so saves of different accounts don't wait for each other. Changes of one account are always in the same stripe.
+ * accounts.changes.fsync decides when the change is forced to the disk: EVERY_RECORD forces every save,
+ * GROUP_COMMIT forces all changes appended to the stripe while the previous force was running at once
+ * (save returns when its change is forced,so the transfer is COMPLETED only after its balances are durable),
+ * OS only flushes the buffer every accounts.changes.flush-interval.
+ * It's enabled by accounts.store=persistent.
+ */
+@Repository
+@Validated
+@Slf4j
+@ConditionalOnProperty(name = "accounts.store", havingValue = "persistent")
+public class AccountsRepositoryPersistent implements AccountsRepository {
+
+    private static final int SNAPSHOT_MAGIC = 0x41434e54;
+    private static final byte PUT = 1;
+    //it's read from the files written before clearAccounts started the new epoch instead
+    private static final byte CLEAR = 2;
+    //PUT with lastTransferId of the account,PUT is still read from the files written before it
+    private static final byte PUT_MARKED = 3;
+    //PUT_MARKED with pendingTransferIds of lock-free credits/debits,it's written only when there are any
+    private static final byte PUT_PENDING = 4;
+    private static final byte END = 0;
+    private static final String SNAPSHOT_PREFIX = "accounts-snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String CHANGES_PREFIX = "accounts-changes-";
+    private static final String CHANGES_SUFFIX = ".log";
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final Path dir;
+    private final int moneyScale;
+    private final FsyncPolicy fsyncPolicy;
+    private final Stripe[] stripes;
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+    private final ScheduledExecutorService scheduler;
+
+    private volatile long epoch;
+
+    /**
+     * The change log of the accounts whose ids hash to this stripe.
+     */
+    private static class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition forced = lock.newCondition();
+        FileOutputStream file;
+        DataOutputStream changes;
+        long appendedRecords;
+        long forcedRecords;
+        //the force runs outside the lock,the changes appended meanwhile are forced by the next one
+        boolean forcing;
+    }
+
+    @Autowired
+    public AccountsRepositoryPersistent(@Value("${accounts.dir:./data/accounts}") Path dir,
+                                        @Value("${accounts.snapshot.interval:5m}") Duration snapshotInterval,
+                                        @Value("${accounts.changes.flush-interval:10ms}") Duration flushInterval,
+                                        @Value("${accounts.changes.stripes:16}") int stripes,
+                                        @Value("${accounts.changes.fsync:GROUP_COMMIT}") FsyncPolicy fsyncPolicy,
+                                        @Value("${money.scale:-1}") int moneyScale) {
+        this.dir = dir;
+        this.moneyScale = moneyScale;
+        this.fsyncPolicy = fsyncPolicy;
+        this.stripes = new Stripe[Math.max(1, stripes)];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        try {
+            Files.createDirectories(dir);
+            load();
+            openChanges(epoch);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot load accounts from " + dir, ex);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "accounts-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!snapshotInterval.isZero()) {
+            scheduler.scheduleWithFixedDelay(this::snapshotQuietly, snapshotInterval.toMillis(), snapshotInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (!flushInterval.isZero()) {
+            scheduler.scheduleWithFixedDelay(this::flush, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void createAccount(Account account) throws DuplicateAccountIdException {
+        Account previousAccount = accounts.putIfAbsent(account.getAccountId(), account);
+        if (previousAccount != null) {
+            throw new DuplicateAccountIdException(
+                    "Account id " + account.getAccountId() + " already exists!");
+        }
+        appendPut(account);
+    }
+
+    @Override
+    public Account getAccount(String accountId) {
+        return accounts.get(accountId);
+    }
+
+    /**
+     * The empty snapshot of the new epoch replaces older change logs of all stripes.
+     */
+    @Override
+    public void clearAccounts() {
+        snapshotLock.lock();
+        try {
+            accounts.clear();
+            snapshot();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot clear the accounts in " + dir, ex);
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    @Override
+    public void save(@NonNull Account account) {
+        account.setUpdateAt(LocalDateTime.now());
+        accounts.put(account.getAccountId(), account);
+        appendPut(account);
+    }
+
+    @Override
+    public int count() {
+        return accounts.size();
+    }
+
+    private void appendPut(Account account) {
+        Stripe stripe = stripes[Math.floorMod(account.getAccountId().hashCode(), stripes.length)];
+        long record;
+        stripe.lock.lock();
+        try {
+            writeAccount(stripe.changes, account.getAccountId(), account.getBalance(), account.getUpdateAt(), account.getLastTransferId(),
+                    account.getPendingTransferIds());
+            record = ++stripe.appendedRecords;
+            if (fsyncPolicy == FsyncPolicy.EVERY_RECORD) {
+                stripe.changes.flush();
+                stripe.file.getChannel().force(false);
+                stripe.forcedRecords = record;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot write the change log of accounts", ex);
+        } finally {
+            stripe.lock.unlock();
+        }
+        if (fsyncPolicy == FsyncPolicy.GROUP_COMMIT) {
+            awaitForced(stripe, record);
+        }
+    }
+
+    /**
+     * Group commit: the first waiting save forces all changes appended to the stripe so far,
+     * the saves appended during its force wait for it and then one of them forces them all.
+     */
+    private void awaitForced(Stripe stripe, long record) {
+        stripe.lock.lock();
+        try {
+            while (stripe.forcedRecords < record) {
+                if (stripe.forcing) {
+                    stripe.forced.awaitUninterruptibly();
+                    continue;
+                }
+                stripe.forcing = true;
+                long appendedRecords = stripe.appendedRecords;
+                try {
+                    stripe.changes.flush();
+                    FileOutputStream file = stripe.file;
+                    stripe.lock.unlock();
+                    try {
+                        file.getChannel().force(false);
+                    } finally {
+                        stripe.lock.lock();
+                    }
+                    stripe.forcedRecords = Math.max(stripe.forcedRecords, appendedRecords);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException("Cannot force the change log of accounts", ex);
+                } finally {
+                    stripe.forcing = false;
+                    stripe.forced.signalAll();
+                }
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private static void writeAccount(DataOutputStream out, String accountId, BigDecimal balance, LocalDateTime updateAt,
+                                     String lastTransferId, Set<String> pendingTransferIds) throws IOException {
+        out.writeByte(pendingTransferIds.isEmpty() ? PUT_MARKED : PUT_PENDING);
+        out.writeUTF(accountId);
+        out.writeInt(balance.scale());
+        byte[] unscaled = balance.unscaledValue().toByteArray();
+        out.writeByte(unscaled.length);
+        out.write(unscaled);
+        Instant instant = updateAt.toInstant(ZoneOffset.UTC);
+        out.writeLong(instant.getEpochSecond());
+        out.writeInt(instant.getNano());
+        out.writeUTF(lastTransferId != null ? lastTransferId : "");
+        if (!pendingTransferIds.isEmpty()) {
+            out.writeInt(pendingTransferIds.size());
+            for (String transferId : pendingTransferIds) {
+                out.writeUTF(transferId);
+            }
+        }
+    }
+
+    private Account readAccount(DataInputStream in, byte type) throws IOException {
+        String accountId = in.readUTF();
+        int scale = in.readInt();
+        int length = in.readUnsignedByte();
+        BigDecimal balance;
+        if (length <= Long.BYTES) {
+            //most of balances fit in long,it doesn't need BigInteger
+            long unscaled = length == 0 ? 0 : in.readByte();
+            for (int i = 1; i < length; i++) {
+                unscaled = (unscaled << 8) | in.readUnsignedByte();
+            }
+            balance = BigDecimal.valueOf(unscaled, scale);
+        } else {
+            byte[] unscaled = new byte[length];
+            in.readFully(unscaled);
+            balance = new BigDecimal(new BigInteger(unscaled), scale);
+        }
+        LocalDateTime updateAt = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+        String lastTransferId = type == PUT_MARKED || type == PUT_PENDING ? in.readUTF() : "";
+        Set<String> pendingTransferIds = new HashSet<>();
+        if (type == PUT_PENDING) {
+            for (int i = in.readInt(); i > 0; i--) {
+                pendingTransferIds.add(in.readUTF());
+            }
+        }
+        Account account = Account.restore(accountId, balance, updateAt, lastTransferId.isEmpty() ? null : lastTransferId,
+                pendingTransferIds);
+        account.useScale(moneyScale);
+        return account;
+    }
+
+    public void flush() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.changes.flush();
+            } catch (IOException ex) {
+                log.error("Cannot flush the change log of accounts", ex);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (Exception ex) {
+            log.error("Cannot write the snapshot of accounts", ex);
+        }
+    }
+
+    /**
+     * Start the new epoch of the change log and write all accounts to the snapshot of this epoch.
+     */
+    public void snapshot() throws IOException {
+        snapshotLock.lock();
+        try {
+            long snapshotEpoch = epoch + 1;
+            openChanges(snapshotEpoch);
+            long startedAt = System.nanoTime();
+            Path tmp = dir.resolve(SNAPSHOT_PREFIX + snapshotEpoch + ".tmp");
+            long count = 0;
+            try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, BUFFER_SIZE))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeLong(snapshotEpoch);
+                for (Account account : accounts.values()) {
+                    Account copy = account.snapshot();
+                    writeAccount(out, copy.getAccountId(), copy.getBalance(), copy.getUpdateAt(), copy.getLastTransferId(),
+                            copy.getPendingTransferIds());
+                    count++;
+                }
+                out.writeByte(END);
+                out.writeLong(count);
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(tmp, fileOf(SNAPSHOT_PREFIX, snapshotEpoch, SNAPSHOT_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+            compact(snapshotEpoch);
+            log.info("Snapshot {} of {} accounts is written in {} ms", snapshotEpoch, count, (System.nanoTime() - startedAt) / 1_000_000);
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * Delete snapshots and change logs older than the given snapshot.
+     */
+    private void compact(long snapshotEpoch) throws IOException {
+        for (Path file : listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (epochOf(file, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < snapshotEpoch) {
+                Files.deleteIfExists(file);
+            }
+        }
+        for (Path file : listFiles(CHANGES_PREFIX, CHANGES_SUFFIX)) {
+            if (epochOf(file, CHANGES_PREFIX, CHANGES_SUFFIX) < snapshotEpoch) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Load the newest complete snapshot and replay change logs of its epoch and later ones.
+     * The new change log is started after the last found epoch.
+     */
+    private void load() throws IOException {
+        long startedAt = System.nanoTime();
+        long snapshotEpoch = -1;
+        List<Path> snapshots = listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        for (int i = snapshots.size() - 1; i >= 0 && snapshotEpoch < 0; i--) {
+            if (loadSnapshot(snapshots.get(i))) {
+                snapshotEpoch = epochOf(snapshots.get(i), SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+            } else {
+                accounts.clear();
+            }
+        }
+        long lastEpoch = Math.max(snapshotEpoch, 0);
+        for (Path changesFile : listFiles(CHANGES_PREFIX, CHANGES_SUFFIX)) {
+            long changesEpoch = epochOf(changesFile, CHANGES_PREFIX, CHANGES_SUFFIX);
+            lastEpoch = Math.max(lastEpoch, changesEpoch);
+            if (changesEpoch >= snapshotEpoch) {
+                replay(changesFile);
+            }
+        }
+        epoch = lastEpoch + 1;
+        log.info("Loaded {} accounts from {} in {} ms", accounts.size(), dir, (System.nanoTime() - startedAt) / 1_000_000);
+    }
+
+    private boolean loadSnapshot(Path snapshotFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile), BUFFER_SIZE))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                return false;
+            }
+            in.readLong();
+            long count = 0;
+            byte type;
+            while ((type = in.readByte()) == PUT || type == PUT_MARKED || type == PUT_PENDING) {
+                Account account = readAccount(in, type);
+                accounts.put(account.getAccountId(), account);
+                count++;
+            }
+            return in.readLong() == count;
+        } catch (EOFException ex) {
+            log.warn("Snapshot {} is incomplete,the older one is used", snapshotFile);
+            return false;
+        }
+    }
+
+    private void replay(Path changesFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(changesFile), BUFFER_SIZE))) {
+            while (true) {
+                byte type = in.readByte();
+                if (type == PUT || type == PUT_MARKED || type == PUT_PENDING) {
+                    Account account = readAccount(in, type);
+                    accounts.put(account.getAccountId(), account);
+                } else if (type == CLEAR) {
+                    accounts.clear();
+                } else {
+                    log.warn("Change log {} has unknown record {},the rest is skipped", changesFile, type);
+                    return;
+                }
+            }
+        } catch (EOFException ignored) {
+            //the end of the change log,the last record may be written partially by the crash
+        }
+    }
+
+    /**
+     * Switch every stripe to its change log of the given epoch,the previous one is forced and closed.
+     */
+    private void openChanges(long changesEpoch) throws IOException {
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe stripe = stripes[i];
+            FileOutputStream file = new FileOutputStream(changesFileOf(changesEpoch, i).toFile(), true);
+            stripe.lock.lock();
+            try {
+                closeChanges(stripe);
+                stripe.file = file;
+                stripe.changes = new DataOutputStream(new BufferedOutputStream(file, BUFFER_SIZE));
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        epoch = changesEpoch;
+    }
+
+    /**
+     * Called under the lock of the stripe,it waits for the running force,so it doesn't force the closed file.
+     */
+    private void closeChanges(Stripe stripe) throws IOException {
+        if (stripe.changes == null) {
+            return;
+        }
+        while (stripe.forcing) {
+            stripe.forced.awaitUninterruptibly();
+        }
+        stripe.changes.flush();
+        if (fsyncPolicy != FsyncPolicy.OS) {
+            stripe.file.getChannel().force(false);
+        }
+        stripe.forcedRecords = stripe.appendedRecords;
+        stripe.forced.signalAll();
+        stripe.changes.close();
+    }
+
+    private Path fileOf(String prefix, long fileEpoch, String suffix) {
+        return dir.resolve(String.format("%s%020d%s", prefix, fileEpoch, suffix));
+    }
+
+    private Path changesFileOf(long changesEpoch, int stripe) {
+        return dir.resolve(String.format("%s%020d-%d%s", CHANGES_PREFIX, changesEpoch, stripe, CHANGES_SUFFIX));
+    }
+
+    private List<Path> listFiles(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix) && file.getFileName().toString().endsWith(suffix))
+                    .sorted(Comparator.comparingLong(file -> epochOf(file, prefix, suffix)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * The epoch is followed by the stripe in the name of the change log,the logs written before striping have no stripe.
+     */
+    private static long epochOf(Path file, String prefix, String suffix) {
+        String name = file.getFileName().toString();
+        int end = name.indexOf('-', prefix.length());
+        return Long.parseLong(name.substring(prefix.length(), end >= 0 ? end : name.length() - suffix.length()));
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdown();
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                closeChanges(stripe);
+            } catch (IOException ex) {
+                log.error("Cannot close the change log of accounts", ex);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.IdempotentTransfer;
+
+import java.util.Optional;
+
+/**
+ * Bounded store of transfer results by Idempotency-Key,results expire after the configured time.
+ */
+public interface IdempotencyRepository {
+    /**
+     * @return empty if the key is unknown or its result has expired.
+     */
+    Optional<IdempotentTransfer> find(String key);
+
+    void save(IdempotentTransfer transfer);
+
+    int count();
+}
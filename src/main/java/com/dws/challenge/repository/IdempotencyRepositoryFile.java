@@ -0,0 +1,171 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.IdempotentTransfer;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.domain.TransferStatus;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+import org.springframework.validation.annotation.Validated;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Results of transfers which survive the restart,so the client may retry the transfer after it:
+ * they are kept in IdempotencyRepositoryInMemory and every saved result is appended to the journal file.
+ * The journal is flushed to the operating system on every save,
+ * when maxKeys results are appended,it's rewritten with the results which haven't expired.
+ * On start it replays the journal and skips expired results,the last record may be written partially by the crash.
+ * It's enabled by idempotency.store=file.
+ */
+@Repository
+@Validated
+@Slf4j
+@ConditionalOnProperty(name = "idempotency.store", havingValue = "file")
+public class IdempotencyRepositoryFile implements IdempotencyRepository {
+    private static final String JOURNAL = "idempotency.log";
+
+    private final IdempotencyRepositoryInMemory transfers;
+    private final ReentrantLock journalLock = new ReentrantLock();
+    private final Path journalFile;
+    private final int maxKeys;
+    private DataOutputStream journal;
+    private int savedSinceCompaction;
+
+    @Autowired
+    public IdempotencyRepositoryFile(@Value("${idempotency.dir:./data/idempotency}") Path dir,
+                                     @Value("${idempotency.max-keys:100000}") int maxKeys) {
+        this.transfers = new IdempotencyRepositoryInMemory(maxKeys);
+        this.journalFile = dir.resolve(JOURNAL);
+        this.maxKeys = maxKeys;
+        try {
+            Files.createDirectories(dir);
+            replay();
+            //rewrite the journal to drop the partial record and expired results
+            compact();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot load idempotency keys from " + dir, ex);
+        }
+    }
+
+    @Override
+    public Optional<IdempotentTransfer> find(@NonNull String key) {
+        return transfers.find(key);
+    }
+
+    @Override
+    public void save(@NonNull IdempotentTransfer transfer) {
+        journalLock.lock();
+        try {
+            write(journal, transfer);
+            journal.flush();
+            transfers.save(transfer);
+            if (++savedSinceCompaction >= maxKeys) {
+                compact();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot write the idempotency journal", ex);
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    @Override
+    public int count() {
+        return transfers.count();
+    }
+
+    private static void write(DataOutputStream out, IdempotentTransfer transfer) throws IOException {
+        TransferResult result = transfer.getResult();
+        out.writeUTF(transfer.getKey());
+        out.writeUTF(transfer.getFingerprint());
+        out.writeLong(transfer.getExpiresAt());
+        out.writeUTF(result.getStatus().name());
+        writeNullable(out, result.getTransferId());
+        writeNullable(out, result.getMessage());
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, IdempotentTransfer> loaded = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            while (true) {
+                String key = in.readUTF();
+                String fingerprint = in.readUTF();
+                long expiresAt = in.readLong();
+                TransferStatus status = TransferStatus.valueOf(in.readUTF());
+                TransferResult result = new TransferResult(readNullable(in), status, readNullable(in));
+                //the key saved again moves to the end of the order
+                loaded.remove(key);
+                loaded.put(key, new IdempotentTransfer(key, fingerprint, result, expiresAt));
+            }
+        } catch (EOFException ignored) {
+            //the end of the journal
+        } catch (IllegalArgumentException ex) {
+            log.warn("Idempotency journal {} has unknown record,the rest is skipped", journalFile, ex);
+        }
+        loaded.values().stream()
+                .filter(transfer -> !transfer.isExpired(now))
+                .forEach(transfers::save);
+        log.info("Loaded {} idempotency keys from {}", transfers.count(), journalFile);
+    }
+
+    /**
+     * Write results which haven't expired to the new journal and replace the old one by it.
+     */
+    private void compact() throws IOException {
+        Path tmp = journalFile.resolveSibling(JOURNAL + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            for (IdempotentTransfer transfer : transfers.findAll()) {
+                write(out, transfer);
+            }
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        try {
+            Files.move(tmp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            savedSinceCompaction = 0;
+        } finally {
+            //if the move fails,it keeps appending to the old journal
+            journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile.toFile(), true)));
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        journalLock.lock();
+        try {
+            journal.close();
+        } catch (IOException ex) {
+            log.error("Cannot close the idempotency journal", ex);
+        } finally {
+            journalLock.unlock();
+        }
+    }
+}
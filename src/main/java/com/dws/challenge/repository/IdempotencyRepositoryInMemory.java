@@ -0,0 +1,86 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.IdempotentTransfer;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+import org.springframework.validation.annotation.Validated;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Results are kept in the order they were saved,all of them live for the same time,
+ * so the oldest result expires first: expired results are removed from the head of the order queue on every save
+ * and if there are more than maxKeys results,the oldest ones are evicted before they expire.
+ */
+@Repository
+@Validated
+@ConditionalOnProperty(name = "idempotency.store", havingValue = "memory", matchIfMissing = true)
+public class IdempotencyRepositoryInMemory implements IdempotencyRepository {
+    private final ConcurrentMap<String, IdempotentTransfer> transfers = new ConcurrentHashMap<>();
+    private final Queue<IdempotentTransfer> order = new ConcurrentLinkedQueue<>();
+    private final int maxKeys;
+
+    @Autowired
+    public IdempotencyRepositoryInMemory(@Value("${idempotency.max-keys:100000}") int maxKeys) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("idempotency.max-keys must be positive");
+        }
+        this.maxKeys = maxKeys;
+    }
+
+    @Override
+    public Optional<IdempotentTransfer> find(@NonNull String key) {
+        IdempotentTransfer transfer = transfers.get(key);
+        if (transfer == null) {
+            return Optional.empty();
+        }
+        if (transfer.isExpired(System.currentTimeMillis())) {
+            transfers.remove(key, transfer);
+            return Optional.empty();
+        }
+        return Optional.of(transfer);
+    }
+
+    @Override
+    public void save(@NonNull IdempotentTransfer transfer) {
+        transfers.put(transfer.getKey(), transfer);
+        order.add(transfer);
+        long now = System.currentTimeMillis();
+        IdempotentTransfer head;
+        while ((head = order.peek()) != null && (head.isExpired(now) || transfers.size() > maxKeys)) {
+            IdempotentTransfer oldest = order.poll();
+            if (oldest != null) {
+                //the key saved again has the newer result in the map,it stays
+                transfers.remove(oldest.getKey(), oldest);
+            }
+        }
+    }
+
+    /**
+     * @return results which haven't expired in the order they were saved.
+     */
+    List<IdempotentTransfer> findAll() {
+        long now = System.currentTimeMillis();
+        List<IdempotentTransfer> found = new ArrayList<>(transfers.size());
+        for (IdempotentTransfer transfer : order) {
+            if (!transfer.isExpired(now) && transfers.get(transfer.getKey()) == transfer) {
+                found.add(transfer);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int count() {
+        return transfers.size();
+    }
+}
@@ -0,0 +1,45 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.OutboxMessage;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Notifications of transfers waiting for OutboxRelay,they are saved before the transfer is marked as COMPLETED
+ * and removed when they are delivered.
+ * Messages are keyed by transferId: the message of the pending or recently delivered transfer isn't added again.
+ */
+public interface OutboxRepository {
+    /**
+     * @return false if the message of the transfer is pending or delivered already.
+     */
+    boolean add(OutboxMessage message);
+
+    void addAll(Collection<OutboxMessage> messages);
+
+    /**
+     * Remove the pending message of the transfer which is rolled back.
+     *
+     * @return false if the relay has claimed or delivered the message,its notifications may be sent already,
+     * so the transfer mustn't be rolled back.
+     */
+    boolean remove(String transferId);
+
+    /**
+     * Return up to limit oldest pending messages.
+     */
+    List<OutboxMessage> findPending(int limit);
+
+    /**
+     * The relay claims the message right before it sends it,from then remove() doesn't take it back.
+     * The claimed message stays pending until it's delivered,so it's retried if the sending fails.
+     *
+     * @return false if the message was removed.
+     */
+    boolean claim(String transferId);
+
+    void markDelivered(Collection<String> transferIds);
+
+    int countPending();
+}
@@ -0,0 +1,238 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.OutboxMessage;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+import org.springframework.validation.annotation.Validated;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Outbox which survives the restart: messages are kept in OutboxRepositoryInMemory
+ * and every change is appended to the journal file (ADD of the message, DONE of delivered or removed transferId).
+ * The journal is flushed to the operating system on every change,so it isn't lost if the process dies.
+ * When compactAfter messages are done,the journal is rewritten with the pending messages only.
+ * On start it replays the journal,the last record may be written partially by the crash.
+ * It's enabled by notification.outbox.store=file.
+ */
+@Repository
+@Validated
+@Slf4j
+@ConditionalOnProperty(name = "notification.outbox.store", havingValue = "file")
+public class OutboxRepositoryFile implements OutboxRepository {
+    private static final byte ADD = 1;
+    private static final byte DONE = 2;
+    private static final String JOURNAL = "outbox.log";
+
+    private final OutboxRepositoryInMemory messages = new OutboxRepositoryInMemory();
+    private final ReentrantLock journalLock = new ReentrantLock();
+    private final Path journalFile;
+    private final int compactAfter;
+    private DataOutputStream journal;
+    private int doneSinceCompaction;
+
+    @Autowired
+    public OutboxRepositoryFile(@Value("${notification.outbox.dir:./data/outbox}") Path dir,
+                                @Value("${notification.outbox.compact-after:10000}") int compactAfter) {
+        this.journalFile = dir.resolve(JOURNAL);
+        this.compactAfter = compactAfter;
+        try {
+            Files.createDirectories(dir);
+            replay();
+            //rewrite the journal to drop the partial record and delivered messages
+            compact();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot load the outbox from " + dir, ex);
+        }
+    }
+
+    @Override
+    public boolean add(@NonNull OutboxMessage message) {
+        journalLock.lock();
+        try {
+            if (!messages.add(message)) {
+                return false;
+            }
+            writeAdd(journal, message);
+            journal.flush();
+            return true;
+        } catch (IOException ex) {
+            messages.remove(message.getTransferId());
+            throw new UncheckedIOException("Cannot write the outbox journal", ex);
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    @Override
+    public void addAll(@NonNull Collection<OutboxMessage> outboxMessages) {
+        journalLock.lock();
+        try {
+            List<OutboxMessage> added = new ArrayList<>(outboxMessages.size());
+            try {
+                for (OutboxMessage message : outboxMessages) {
+                    if (messages.add(message)) {
+                        added.add(message);
+                        writeAdd(journal, message);
+                    }
+                }
+                journal.flush();
+            } catch (IOException ex) {
+                added.forEach(message -> messages.remove(message.getTransferId()));
+                throw new UncheckedIOException("Cannot write the outbox journal", ex);
+            }
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    /**
+     * DONE is written even if the relay has claimed the message,it's delivered by the relay before the restart anyway.
+     */
+    @Override
+    public boolean remove(@NonNull String transferId) {
+        return done(List.of(transferId), false);
+    }
+
+    @Override
+    public List<OutboxMessage> findPending(int limit) {
+        return messages.findPending(limit);
+    }
+
+    /**
+     * Claims are kept in memory only: after the restart the transfer is finished and the message may be sent.
+     */
+    @Override
+    public boolean claim(@NonNull String transferId) {
+        return messages.claim(transferId);
+    }
+
+    @Override
+    public void markDelivered(@NonNull Collection<String> transferIds) {
+        done(transferIds, true);
+    }
+
+    @Override
+    public int countPending() {
+        return messages.countPending();
+    }
+
+    /**
+     * @return false if any message wasn't removed because the relay has claimed it.
+     */
+    private boolean done(Collection<String> transferIds, boolean delivered) {
+        journalLock.lock();
+        try {
+            for (String transferId : transferIds) {
+                journal.writeByte(DONE);
+                journal.writeUTF(transferId);
+            }
+            journal.flush();
+            boolean removed = true;
+            if (delivered) {
+                messages.markDelivered(transferIds);
+            } else {
+                for (String transferId : transferIds) {
+                    removed &= messages.remove(transferId);
+                }
+            }
+            doneSinceCompaction += transferIds.size();
+            if (doneSinceCompaction >= compactAfter) {
+                compact();
+            }
+            return removed;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot write the outbox journal", ex);
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    private static void writeAdd(DataOutputStream out, OutboxMessage message) throws IOException {
+        out.writeByte(ADD);
+        out.writeUTF(message.getTransferId());
+        out.writeInt(message.getNotifications().size());
+        for (OutboxMessage.Notification notification : message.getNotifications()) {
+            out.writeUTF(notification.getAccountId());
+            out.writeUTF(notification.getDescription());
+        }
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        Map<String, OutboxMessage> pending = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            while (true) {
+                byte type = in.readByte();
+                String transferId = in.readUTF();
+                if (type == ADD) {
+                    int count = in.readInt();
+                    List<OutboxMessage.Notification> notifications = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        notifications.add(new OutboxMessage.Notification(in.readUTF(), in.readUTF()));
+                    }
+                    pending.put(transferId, new OutboxMessage(transferId, notifications));
+                } else if (type == DONE) {
+                    pending.remove(transferId);
+                } else {
+                    log.warn("Outbox journal {} has unknown record {},the rest is skipped", journalFile, type);
+                    break;
+                }
+            }
+        } catch (EOFException ignored) {
+            //the end of the journal
+        }
+        pending.values().forEach(messages::add);
+        log.info("Loaded {} pending notifications from {}", pending.size(), journalFile);
+    }
+
+    /**
+     * Write pending messages to the new journal and replace the old one by it.
+     */
+    private void compact() throws IOException {
+        Path tmp = journalFile.resolveSibling(JOURNAL + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            for (OutboxMessage message : messages.findPending(Integer.MAX_VALUE)) {
+                writeAdd(out, message);
+            }
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        try {
+            Files.move(tmp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            doneSinceCompaction = 0;
+        } finally {
+            //if the move fails,it keeps appending to the old journal
+            journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile.toFile(), true)));
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        journalLock.lock();
+        try {
+            journal.close();
+        } catch (IOException ex) {
+            log.error("Cannot close the outbox journal", ex);
+        } finally {
+            journalLock.unlock();
+        }
+    }
+}
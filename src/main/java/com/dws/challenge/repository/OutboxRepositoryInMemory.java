@@ -0,0 +1,117 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.OutboxMessage;
+import lombok.NonNull;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+import org.springframework.validation.annotation.Validated;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pending messages are kept in the order they were added,
+ * ids of the last DELIVERED_IDS delivered messages are remembered to skip their duplicates.
+ * claim() and remove() of the message are atomic by compute of the pending map.
+ */
+@Repository
+@Validated
+@ConditionalOnProperty(name = "notification.outbox.store", havingValue = "memory", matchIfMissing = true)
+public class OutboxRepositoryInMemory implements OutboxRepository {
+    private static final int DELIVERED_IDS = 100_000;
+
+    private final Map<String, OutboxMessage> pending = new ConcurrentHashMap<>();
+    private final Queue<String> order = new ConcurrentLinkedQueue<>();
+    private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+    private final Set<String> delivered = ConcurrentHashMap.newKeySet();
+    private final Queue<String> deliveredOrder = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public boolean add(@NonNull OutboxMessage message) {
+        String transferId = message.getTransferId();
+        if (delivered.contains(transferId) || pending.putIfAbsent(transferId, message) != null) {
+            return false;
+        }
+        order.add(transferId);
+        return true;
+    }
+
+    @Override
+    public void addAll(@NonNull Collection<OutboxMessage> messages) {
+        messages.forEach(this::add);
+    }
+
+    @Override
+    public boolean remove(@NonNull String transferId) {
+        boolean[] removed = new boolean[1];
+        //the id is left in the order queue,findPending skips it
+        pending.computeIfPresent(transferId, (id, message) -> {
+            if (claimed.contains(id)) {
+                return message;
+            }
+            removed[0] = true;
+            return null;
+        });
+        return removed[0] || (!claimed.contains(transferId) && !delivered.contains(transferId));
+    }
+
+    @Override
+    public boolean claim(@NonNull String transferId) {
+        return pending.computeIfPresent(transferId, (id, message) -> {
+            claimed.add(id);
+            return message;
+        }) != null;
+    }
+
+    @Override
+    public List<OutboxMessage> findPending(int limit) {
+        String head;
+        while ((head = order.peek()) != null && !pending.containsKey(head)) {
+            order.poll();
+        }
+        List<OutboxMessage> messages = new ArrayList<>(Math.min(limit, pending.size()));
+        //the removed and added again message is twice in the order queue
+        Set<String> found = new HashSet<>();
+        Iterator<String> transferIds = order.iterator();
+        while (messages.size() < limit && transferIds.hasNext()) {
+            String transferId = transferIds.next();
+            OutboxMessage message = pending.get(transferId);
+            if (message != null && found.add(transferId)) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public void markDelivered(@NonNull Collection<String> transferIds) {
+        for (String transferId : transferIds) {
+            //it's delivered before it leaves pending,so remove() never misses both
+            if (pending.containsKey(transferId) && delivered.add(transferId)) {
+                deliveredOrder.add(transferId);
+            }
+            pending.remove(transferId);
+            claimed.remove(transferId);
+        }
+        while (delivered.size() > DELIVERED_IDS) {
+            String oldest = deliveredOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            delivered.remove(oldest);
+        }
+    }
+
+    @Override
+    public int countPending() {
+        return pending.size();
+    }
+}
@@ -3,6 +3,8 @@ package com.dws.challenge.repository;
 import com.dws.challenge.domain.TransferLog;
 
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -14,4 +16,20 @@ public interface TransferRepositoryLog {
     Optional<TransferLog> findFor(String fromAccountId, String toAccountId);
 
     void save(TransferLog transferLog);
+
+    /**
+     * Save all transferLogs at once (group commit).
+     */
+    void saveAll(Collection<TransferLog> transferLogs);
+
+    /**
+     * Return transferLogs which are neither COMPLETED nor FAILED,
+     * they are left by transfers interrupted by the crash.
+     */
+    List<TransferLog> findUnfinished();
+
+    /**
+     * Number of kept transferLogs (the last one of every pair of accounts),it's exported as the metric.
+     */
+    int count();
 }
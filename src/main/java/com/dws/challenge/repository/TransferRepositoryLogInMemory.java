@@ -1,16 +1,20 @@
 package com.dws.challenge.repository;
 
 import com.dws.challenge.domain.TransferLog;
+import com.dws.challenge.domain.TransferStatus;
 import lombok.NonNull;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 import org.springframework.validation.annotation.Validated;
 
 import java.math.BigDecimal;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 @Repository
 @Validated
+@ConditionalOnProperty(name = "transfer.log.store", havingValue = "memory", matchIfMissing = true)
 public class TransferRepositoryLogInMemory implements TransferRepositoryLog {
     private static String KEY_SEP = ":";
     private final Map<String, TransferLog> accountToTransfer = new ConcurrentHashMap<>();
@@ -34,6 +38,23 @@ public class TransferRepositoryLogInMemory implements TransferRepositoryLog {
         accountToTransfer.put(key, transferLog);
     }
 
+    @Override
+    public void saveAll(@NonNull Collection<TransferLog> transferLogs) {
+        transferLogs.forEach(this::save);
+    }
+
+    @Override
+    public List<TransferLog> findUnfinished() {
+        return accountToTransfer.values().stream()
+                .filter(transferLog -> transferLog.getStatus() != TransferStatus.COMPLETED && transferLog.getStatus() != TransferStatus.FAILED)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public int count() {
+        return accountToTransfer.size();
+    }
+
     private String createKey(String fromAccountId, String toAccountId) {
         return fromAccountId + KEY_SEP + toAccountId;
     }
@@ -0,0 +1,426 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.TransferLog;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.ServiceException;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable append-only transfer log: every save appends fixed-size binary record
+ * to the memory-mapped segment file, segments roll when they are full.
+ * Records are appended under short lock without per-record allocation (the id is kept as UUID bits by TransferLog,
+ * the index is keyed by fromAccountId and then by toAccountId),
+ * fsync policy decides when the appended records are forced to the disk:
+ * EVERY_RECORD forces every save, GROUP_COMMIT forces all records appended in the time/size window at once
+ * (save returns when its record is forced), OS leaves it to the operating system.
+ * On start it scans the segments to find the end of the log and to restore the latest state of the transfers.
+ * It's enabled by transfer.log.store=mapped.
+ */
+@Repository
+@Validated
+@Slf4j
+@ConditionalOnProperty(name = "transfer.log.store", havingValue = "mapped")
+public class TransferRepositoryLogMappedFile implements TransferRepositoryLog {
+
+    public enum FsyncPolicy {
+        EVERY_RECORD,
+        GROUP_COMMIT,
+        OS
+    }
+
+    static final int RECORD_SIZE = 192;
+    static final int MAX_ACCOUNT_ID_BYTES = 64;
+    private static final int MAGIC = 0x54524c47;
+    private static final int STATUS_OFFSET = 4;
+    private static final int FROM_LENGTH_OFFSET = 5;
+    private static final int TO_LENGTH_OFFSET = 6;
+    private static final int ID_OFFSET = 8;
+    private static final int UPDATED_AT_OFFSET = 24;
+    private static final int LOGGED_AT_OFFSET = 32;
+    private static final int AMOUNT_OFFSET = 40;
+    private static final int SCALE_OFFSET = 48;
+    private static final int CHECKSUM_OFFSET = 52;
+    private static final int FROM_OFFSET = 56;
+    private static final int TO_OFFSET = FROM_OFFSET + MAX_ACCOUNT_ID_BYTES;
+    private static final String SEGMENT_PREFIX = "transfer-log-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final TransferStatus[] STATUSES = TransferStatus.values();
+
+    private final Path dir;
+    private final int recordsPerSegment;
+    private final FsyncPolicy fsyncPolicy;
+    private final int groupCommitMaxRecords;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition forced = appendLock.newCondition();
+    private final CRC32C checksum = new CRC32C();
+    //fromAccountId -> toAccountId -> the last transferLog
+    private final Map<String, Map<String, TransferLog>> accountToTransfer = new ConcurrentHashMap<>();
+    private final Map<String, TransferLog> unfinishedTransfers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    private long segmentIndex;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private long appendedRecords;
+    private long forcedRecords;
+
+    @Autowired
+    public TransferRepositoryLogMappedFile(@Value("${transfer.log.dir:./data/transfer-log}") Path dir,
+                                           @Value("${transfer.log.segment-size:64MB}") DataSize segmentSize,
+                                           @Value("${transfer.log.fsync:GROUP_COMMIT}") FsyncPolicy fsyncPolicy,
+                                           @Value("${transfer.log.group-commit.interval:2ms}") Duration groupCommitInterval,
+                                           @Value("${transfer.log.group-commit.max-records:256}") int groupCommitMaxRecords) {
+        this.dir = dir;
+        this.recordsPerSegment = (int) Math.min(Integer.MAX_VALUE / RECORD_SIZE, segmentSize.toBytes() / RECORD_SIZE);
+        if (recordsPerSegment <= 0) {
+            throw new IllegalArgumentException("transfer.log.segment-size must hold at least one record of " + RECORD_SIZE + " bytes");
+        }
+        this.fsyncPolicy = fsyncPolicy;
+        this.groupCommitMaxRecords = Math.max(1, groupCommitMaxRecords);
+        try {
+            Files.createDirectories(dir);
+            open();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot open the transfer log in " + dir, ex);
+        }
+        if (fsyncPolicy == FsyncPolicy.GROUP_COMMIT) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "transfer-log-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalNanos = Math.max(1, groupCommitInterval.toNanos());
+            flusher.scheduleWithFixedDelay(this::forcePending, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    @Override
+    public TransferLog create(@NonNull String fromAccountId, @NonNull String toAccountId, @NonNull BigDecimal amount) {
+        return new TransferLog(fromAccountId, toAccountId, amount);
+    }
+
+    @Override
+    public Optional<TransferLog> findFor(String fromAccountId, String toAccountId) {
+        Map<String, TransferLog> transfers = accountToTransfer.get(fromAccountId);
+        return Optional.ofNullable(transfers != null ? transfers.get(toAccountId) : null);
+    }
+
+    @Override
+    public void save(@NonNull TransferLog transferLog) {
+        long record;
+        appendLock.lock();
+        try {
+            record = append(transferLog);
+            awaitForced(record);
+        } finally {
+            appendLock.unlock();
+        }
+        index(transferLog);
+    }
+
+    @Override
+    public void saveAll(@NonNull Collection<TransferLog> transferLogs) {
+        if (transferLogs.isEmpty()) {
+            return;
+        }
+        appendLock.lock();
+        try {
+            long record = 0;
+            for (TransferLog transferLog : transferLogs) {
+                record = append(transferLog);
+            }
+            awaitForced(record);
+        } finally {
+            appendLock.unlock();
+        }
+        for (TransferLog transferLog : transferLogs) {
+            index(transferLog);
+        }
+    }
+
+    @Override
+    public List<TransferLog> findUnfinished() {
+        return new ArrayList<>(unfinishedTransfers.values());
+    }
+
+    @Override
+    public int count() {
+        return accountToTransfer.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private void index(TransferLog transferLog) {
+        accountToTransfer.computeIfAbsent(transferLog.getFromAccountId(), fromAccountId -> new ConcurrentHashMap<>())
+                .put(transferLog.getToAccountId(), transferLog);
+        if (transferLog.getStatus() == TransferStatus.COMPLETED || transferLog.getStatus() == TransferStatus.FAILED) {
+            unfinishedTransfers.remove(transferLog.getId());
+        } else {
+            unfinishedTransfers.put(transferLog.getId(), transferLog);
+        }
+    }
+
+    /**
+     * Write the record to the current segment,it's called under appendLock.
+     *
+     * @return the sequence number of the appended record.
+     */
+    private long append(TransferLog transferLog) {
+        if (segment.remaining() < RECORD_SIZE) {
+            rollSegment();
+        }
+        int offset = segment.position();
+        BigDecimal amount = transferLog.getAmount();
+        segment.put(offset + STATUS_OFFSET, (byte) transferLog.getStatus().ordinal());
+        segment.put(offset + FROM_LENGTH_OFFSET, (byte) putAccountId(offset + FROM_OFFSET, transferLog.getFromAccountId()));
+        segment.put(offset + TO_LENGTH_OFFSET, (byte) putAccountId(offset + TO_OFFSET, transferLog.getToAccountId()));
+        segment.putLong(offset + ID_OFFSET, transferLog.getIdMostBits());
+        segment.putLong(offset + ID_OFFSET + 8, transferLog.getIdLeastBits());
+        segment.putLong(offset + UPDATED_AT_OFFSET, toEpochNanos(transferLog.getUpdatedAt()));
+        segment.putLong(offset + LOGGED_AT_OFFSET, System.currentTimeMillis() * 1_000_000L);
+        segment.putLong(offset + AMOUNT_OFFSET, unscaledAmount(amount));
+        segment.putInt(offset + SCALE_OFFSET, amount.scale());
+        segment.putInt(offset + CHECKSUM_OFFSET, checksum(segment, offset));
+        //the magic number is written last,so the scan never sees the partially written record as valid
+        segment.putInt(offset, MAGIC);
+        segment.position(offset + RECORD_SIZE);
+        appendedRecords++;
+        if (fsyncPolicy == FsyncPolicy.EVERY_RECORD
+                || (fsyncPolicy == FsyncPolicy.GROUP_COMMIT && appendedRecords - forcedRecords >= groupCommitMaxRecords)) {
+            forceAppended();
+        }
+        return appendedRecords;
+    }
+
+    /**
+     * Wait until the record is forced to the disk by the size or time window of group commit.
+     */
+    private void awaitForced(long record) {
+        if (fsyncPolicy != FsyncPolicy.GROUP_COMMIT) {
+            return;
+        }
+        boolean interrupted = false;
+        while (forcedRecords < record) {
+            try {
+                forced.await();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void forcePending() {
+        appendLock.lock();
+        try {
+            if (forcedRecords < appendedRecords) {
+                forceAppended();
+            }
+        } catch (RuntimeException ex) {
+            log.error("Cannot force the transfer log", ex);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void forceAppended() {
+        segment.force();
+        forcedRecords = appendedRecords;
+        forced.signalAll();
+    }
+
+    private int putAccountId(int offset, String accountId) {
+        int length = accountId.length();
+        boolean ascii = length <= MAX_ACCOUNT_ID_BYTES;
+        for (int i = 0; ascii && i < length; i++) {
+            char c = accountId.charAt(i);
+            if (c > 0x7F) {
+                ascii = false;
+            } else {
+                segment.put(offset + i, (byte) c);
+            }
+        }
+        if (ascii) {
+            return length;
+        }
+        byte[] bytes = accountId.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_ACCOUNT_ID_BYTES) {
+            throw new ServiceException("Account id " + accountId + " is longer than " + MAX_ACCOUNT_ID_BYTES + " bytes to be stored in the transfer log");
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            segment.put(offset + i, bytes[i]);
+        }
+        return bytes.length;
+    }
+
+    private static long unscaledAmount(BigDecimal amount) {
+        try {
+            return amount.unscaledValue().longValueExact();
+        } catch (ArithmeticException ex) {
+            throw new ServiceException("Amount " + amount + " is too big to be stored in the transfer log");
+        }
+    }
+
+    private int checksum(MappedByteBuffer buffer, int offset) {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        checksum.reset();
+        buffer.limit(offset + CHECKSUM_OFFSET).position(offset + STATUS_OFFSET);
+        checksum.update(buffer);
+        buffer.limit(offset + RECORD_SIZE).position(offset + FROM_OFFSET);
+        checksum.update(buffer);
+        buffer.limit(limit).position(position);
+        return (int) checksum.getValue();
+    }
+
+    private static long toEpochNanos(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + dateTime.getNano();
+    }
+
+    private static LocalDateTime fromEpochNanos(long epochNanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L), (int) Math.floorMod(epochNanos, 1_000_000_000L), ZoneOffset.UTC);
+    }
+
+    /**
+     * Scan all segments,restore the latest state of transfers and continue writing after the last valid record.
+     */
+    private void open() throws IOException {
+        List<Path> segments = listSegments();
+        int lastPosition = 0;
+        for (Path segmentFile : segments) {
+            lastPosition = scan(segmentFile);
+        }
+        if (segments.isEmpty()) {
+            segmentIndex = 0;
+            mapSegment(0);
+        } else {
+            segmentIndex = parseSegmentIndex(segments.get(segments.size() - 1));
+            mapSegment(lastPosition);
+        }
+        log.info("Transfer log {} is opened: {} segments,{} transfers,{} unfinished", dir, segments.size(), count(), unfinishedTransfers.size());
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted(Comparator.comparingLong(TransferRepositoryLogMappedFile::parseSegmentIndex))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long parseSegmentIndex(Path segmentFile) {
+        String name = segmentFile.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private Path segmentPath(long index) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * @return the position after the last valid record of the segment.
+     */
+    private int scan(Path segmentFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int offset = 0;
+            while (offset + RECORD_SIZE <= buffer.limit() && buffer.getInt(offset) == MAGIC) {
+                if (buffer.getInt(offset + CHECKSUM_OFFSET) != checksum(buffer, offset)) {
+                    log.warn("Transfer log {} has the broken record at {},the rest of the segment is skipped", segmentFile, offset);
+                    break;
+                }
+                index(read(buffer, offset));
+                offset += RECORD_SIZE;
+            }
+            return offset;
+        }
+    }
+
+    private TransferLog read(MappedByteBuffer buffer, int offset) {
+        String fromAccountId = readAccountId(buffer, offset + FROM_OFFSET, buffer.get(offset + FROM_LENGTH_OFFSET));
+        String toAccountId = readAccountId(buffer, offset + TO_OFFSET, buffer.get(offset + TO_LENGTH_OFFSET));
+        BigDecimal amount = new BigDecimal(BigInteger.valueOf(buffer.getLong(offset + AMOUNT_OFFSET)), buffer.getInt(offset + SCALE_OFFSET));
+        TransferStatus status = STATUSES[buffer.get(offset + STATUS_OFFSET)];
+        return TransferLog.restore(buffer.getLong(offset + ID_OFFSET), buffer.getLong(offset + ID_OFFSET + 8), fromAccountId, toAccountId,
+                amount, status, fromEpochNanos(buffer.getLong(offset + UPDATED_AT_OFFSET)));
+    }
+
+    private static String readAccountId(MappedByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void mapSegment(int position) throws IOException {
+        segmentChannel = FileChannel.open(segmentPath(segmentIndex), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(segmentChannel.size() / RECORD_SIZE, recordsPerSegment) * RECORD_SIZE;
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        segment.position(position);
+    }
+
+    private void rollSegment() {
+        try {
+            if (fsyncPolicy != FsyncPolicy.OS) {
+                forceAppended();
+            }
+            segmentChannel.close();
+            segmentIndex++;
+            mapSegment(0);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot roll the transfer log segment " + segmentIndex, ex);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        appendLock.lock();
+        try {
+            forceAppended();
+            segmentChannel.close();
+        } catch (IOException ex) {
+            log.error("Cannot close the transfer log {}", dir, ex);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+}
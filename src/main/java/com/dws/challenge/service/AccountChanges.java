@@ -0,0 +1,138 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.Amount;
+import com.dws.challenge.exception.InsufficientFundsException;
+import com.dws.challenge.repository.AccountsRepository;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Balance changes of the transfer engines,every change is made and saved between beginWrite() and endWrite() of the account.
+ * The transfer which owns the account (the advisory lock or the shard) saves its id as lastTransferId,
+ * the change is saved with the fence of its lease (0 without the lease) and undone if the save fails.
+ */
+@Slf4j
+final class AccountChanges {
+
+    private AccountChanges() {
+    }
+
+    /**
+     * transferId is null if the debit undoes the transfer.
+     */
+    static void debit(AccountsRepository accountsRepository, Account account, Amount amount, String transferId,
+                      boolean allowNegative, long fence) {
+        account.beginWrite();
+        try {
+            String previousTransferId = account.getLastTransferId();
+            subtract(account, amount, allowNegative);
+            account.setLastTransferId(transferId);
+            save(accountsRepository, account, fence, () -> {
+                account.addToBalance(amount);
+                account.setLastTransferId(previousTransferId);
+            });
+        } finally {
+            account.endWrite();
+        }
+    }
+
+    /**
+     * transferId is null if the credit undoes the transfer.
+     */
+    static void credit(AccountsRepository accountsRepository, Account account, Amount amount, String transferId, long fence) {
+        account.beginWrite();
+        try {
+            String previousTransferId = account.getLastTransferId();
+            account.addToBalance(amount);
+            account.setLastTransferId(transferId);
+            save(accountsRepository, account, fence, () -> {
+                account.subtractFromBalance(amount);
+                account.setLastTransferId(previousTransferId);
+            });
+        } finally {
+            account.endWrite();
+        }
+    }
+
+    private static void subtract(Account account, Amount amount, boolean allowNegative) {
+        if (allowNegative) {
+            account.subtractFromBalance(amount);
+        } else if (!account.trySubtractFromBalance(amount)) {
+            //check it again,the fold of the hot account or the lock-free debit could take the money after the check of the balance
+            throw new InsufficientFundsException(account.getAccountId() + " doesn't contain enough money.");
+        }
+    }
+
+    /**
+     * Lock-free change (it doesn't own the account): transferId is kept in pendingTransferIds of the account
+     * instead of lastTransferId,so the writers which come after it don't overwrite it until the change is finished.
+     */
+    static void changePending(AccountsRepository accountsRepository, Account account, Amount amount, boolean credit,
+                              String transferId, boolean allowNegative, long fence) {
+        account.beginWrite();
+        try {
+            if (credit) {
+                account.addToBalance(amount);
+            } else {
+                subtract(account, amount, allowNegative);
+            }
+            account.addPendingTransferId(transferId);
+            save(accountsRepository, account, fence, () -> {
+                if (credit) {
+                    account.subtractFromBalance(amount);
+                } else {
+                    account.addToBalance(amount);
+                }
+                account.removePendingTransferId(transferId);
+            });
+        } finally {
+            account.endWrite();
+        }
+    }
+
+    /**
+     * The pending change is finished,so the account doesn't keep its id any more.
+     */
+    static void finishPending(AccountsRepository accountsRepository, Account account, String transferId) {
+        if (!account.getPendingTransferIds().contains(transferId)) {
+            return;
+        }
+        account.beginWrite();
+        try {
+            account.removePendingTransferId(transferId);
+            accountsRepository.save(account);
+        } finally {
+            account.endWrite();
+        }
+    }
+
+    private static void save(AccountsRepository accountsRepository, Account account, long fence, Runnable undo) {
+        try {
+            accountsRepository.save(account, fence);
+        } catch (RuntimeException ex) {
+            undo.run();
+            throw ex;
+        }
+    }
+
+    /**
+     * The change is undone,so lastTransferId is cleared: the recovery doesn't undo it again after the crash.
+     * It's saved without the fence,so it's saved even if the lease has expired.
+     */
+    static void undo(AccountsRepository accountsRepository, Account account, Amount amount, boolean credit) {
+        account.beginWrite();
+        try {
+            if (credit) {
+                account.addToBalance(amount);
+            } else {
+                account.subtractFromBalance(amount);
+            }
+            account.setLastTransferId(null);
+            accountsRepository.save(account);
+        } catch (Exception ex) {
+            log.error("Cannot rollback {} of the account {}", amount.getValue(), account.getAccountId(), ex);
+        } finally {
+            account.endWrite();
+        }
+    }
+}
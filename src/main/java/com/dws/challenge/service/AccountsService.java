@@ -1,13 +1,21 @@
 package com.dws.challenge.service;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
 
+import javax.validation.Valid;
 import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * Manage account: create it,return account and transfer money from one account to another.
+ * Manage account: create it,return account,credit/debit it and transfer money from one account to another.
  */
 public interface AccountsService {
     void createAccount(Account account);
@@ -15,4 +23,61 @@ public interface AccountsService {
     Optional<Account> getAccount(String accountId);
 
     void transfer(String fromAccountId, String toAccountId, @Min(1) BigDecimal amount);
+
+    /**
+     * Transfer money if it can be done before the deadline of the client.
+     *
+     * @param deadline how long the client waits,null is lock.acquire.timeout.
+     * @throws com.dws.challenge.exception.AdmissionRejectedException if the accounts are too busy to make it in time.
+     */
+    void transfer(String fromAccountId, String toAccountId, @Min(1) BigDecimal amount, Duration deadline);
+
+    /**
+     * Transfer money like transfer() without blocking the caller while it waits for the locks of the accounts.
+     *
+     * @param deadline how long the client waits,null is lock.acquire.timeout.
+     * @return the future is completed exceptionally by the same exceptions as transfer() throws,
+     * cancel() cancels the transfer only until it starts changing balances.
+     */
+    CompletableFuture<Void> transferAsync(String fromAccountId, String toAccountId, @Min(1) BigDecimal amount, Duration deadline);
+
+    /**
+     * Transfer money once for the idempotencyKey,the retry with the same key gets the result of the first transfer
+     * (the failed one too) without the lock and without reading the accounts.
+     *
+     * @param deadline how long the client waits,null is lock.acquire.timeout.
+     * @return the result of the transfer,it's FAILED if the transfer failed by ServiceException.
+     */
+    TransferResult transfer(String idempotencyKey, String fromAccountId, String toAccountId, @Min(1) BigDecimal amount,
+                            Duration deadline);
+
+    /**
+     * Transfer money like transfer(idempotencyKey) without blocking the caller.
+     */
+    CompletableFuture<TransferResult> transferAsync(String idempotencyKey, String fromAccountId, String toAccountId,
+                                                    @Min(1) BigDecimal amount, Duration deadline);
+
+    /**
+     * Add money to the account (deposit),it doesn't take the advisory lock.
+     */
+    void credit(String accountId, @Min(1) BigDecimal amount);
+
+    /**
+     * Take money from the account (withdrawal,fee),it doesn't take the advisory lock.
+     *
+     * @param allowNegative the balance may become negative,e.g. for fees.
+     */
+    void debit(String accountId, @Min(1) BigDecimal amount, boolean allowNegative);
+
+    default void debit(String accountId, BigDecimal amount) {
+        debit(accountId, amount, false);
+    }
+
+    /**
+     * Transfer money for every request in the given order under one lock of all their accounts.
+     *
+     * @param transfers
+     * @return result for every request in the same order.
+     */
+    List<TransferResult> transferBatch(@NotEmpty @Size(max = 10000) List<@Valid TransferRequest> transfers);
 }
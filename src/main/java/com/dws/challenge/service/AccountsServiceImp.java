@@ -1,61 +1,104 @@
 package com.dws.challenge.service;
 
 import com.dws.challenge.domain.Account;
-import com.dws.challenge.exception.LockServiceException;
+import com.dws.challenge.domain.SubAccount;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
 import com.dws.challenge.exception.ServiceException;
 import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.TransferRepositoryLog;
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.annotation.Validated;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Service
 @Validated
 public class AccountsServiceImp implements AccountsService {
-    private static int RETRY_TIMES_TO_TAKE_LOCK = 300;
     @Getter
     private final AccountsRepository accountsRepository;
     @Getter
     private final TransferService transferService;
-    private final AdvisoryLockService lockService;
+    @Getter
+    private final TransferRepositoryLog transferRepositoryLog;
+    @Getter
+    private final IdempotencyService idempotencyService;
+    @Getter
+    private final AdmissionService admissionService;
+    @Getter
+    private final HotAccountRegistry hotAccountRegistry;
+
+    //the scale of fixed-point balances,Account.FLOATING keeps BigDecimal balances
+    @Setter
+    @Value("${money.scale:-1}")
+    private int moneyScale = Account.FLOATING;
+
+    //deadline of the transfer if the client doesn't send it
+    @Setter
+    @Value("${lock.acquire.timeout:5s}")
+    private Duration defaultDeadline = Duration.ofSeconds(5);
+
+    //the fold of the hot account and the transfer to other node block,transferAsync runs them on virtual threads
+    private final ExecutorService blockingExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    //the single node until the cluster is injected (e.g. the service is created by the benchmark)
+    private volatile ClusterRouter clusterRouter = new ClusterRouter();
+    private volatile ClusterTransferService clusterTransferService;
 
     @Autowired
-    public AccountsServiceImp(AccountsRepository accountsRepository, TransferService transferService, AdvisoryLockService lockService) {
+    public AccountsServiceImp(AccountsRepository accountsRepository, TransferService transferService,
+                              TransferRepositoryLog transferRepositoryLog, IdempotencyService idempotencyService,
+                              AdmissionService admissionService, HotAccountRegistry hotAccountRegistry) {
         this.accountsRepository = accountsRepository;
         this.transferService = transferService;
-        this.lockService = lockService;
+        this.transferRepositoryLog = transferRepositoryLog;
+        this.idempotencyService = idempotencyService;
+        this.admissionService = admissionService;
+        this.hotAccountRegistry = hotAccountRegistry;
+    }
+
+    @Autowired(required = false)
+    public void setClusterRouter(ClusterRouter clusterRouter) {
+        this.clusterRouter = clusterRouter;
+    }
+
+    @Autowired(required = false)
+    public void setClusterTransferService(ClusterTransferService clusterTransferService) {
+        this.clusterTransferService = clusterTransferService;
     }
 
     public void createAccount(Account account) {
+        if (SubAccount.isSubAccount(account.getAccountId())) {
+            throw new ServiceException("Account id can't contain " + SubAccount.SEPARATOR);
+        }
+        account.useScale(moneyScale);
         this.accountsRepository.createAccount(account);
     }
 
     /**
-     * Return an account by accountId.First acquire the lock to
-     * get the exclusive access and reach out strong consistency.
-     * If account can't be locked, it throws exception.
-     * Transfer money is fast,so this operation waits for short time.
-     * RETRY_TIMES_TO_TAKE_LOCK is allows to eliminate the starvation.
+     * Return a consistent snapshot of an account by accountId.
+     * It doesn't take the lock,so reading never waits for transfers and never blocks them:
+     * the snapshot is copied again only if a transfer changed the account while it was copied.
+     * The balance of the hot account is the sum of its main account and its stripes.
      *
      * @param accountId
      * @return
      */
     public Optional<Account> getAccount(@NonNull String accountId) {
-        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(accountId), RETRY_TIMES_TO_TAKE_LOCK);
-        if (locked.isEmpty())
-            throw new LockServiceException("Cannot acquired the lock for the account " + accountId);
-        try {
-            Account account = this.accountsRepository.getAccount(accountId);
-            return Optional.ofNullable(account);
-        } finally {
-            locked.ifPresent(lck -> lockService.release(lck));
-        }
-
+        Account account = this.accountsRepository.getAccount(accountId);
+        return Optional.ofNullable(account).map(hotAccountRegistry::snapshot);
     }
 
     /**
@@ -68,11 +111,226 @@ public class AccountsServiceImp implements AccountsService {
      * @param amount
      */
     public void transfer(@NonNull String fromAccountId, @NonNull String toAccountId, @NonNull BigDecimal amount) {
-        Account fromAccount = accountsRepository.getAccount(fromAccountId);
-        checkAccount(fromAccount, fromAccountId);
-        Account toAccount = accountsRepository.getAccount(toAccountId);
-        checkAccount(toAccount, toAccountId);
-        transferService.transfer(fromAccount, toAccount, amount);
+        transfer(fromAccountId, toAccountId, amount, null);
+    }
+
+    /**
+     * Transfer money like transfer(),but first AdmissionService checks that it can be done before the deadline,
+     * otherwise it's rejected at once instead of waiting for the lock.
+     * The money to the hot account goes to its random stripe,so the transfers to it don't wait for one lock.
+     * The money from the hot account is taken from its main account,the stripes are folded first if it's not enough.
+     * If toAccount belongs to other node of the cluster,ClusterTransferService transfers it in two phases.
+     *
+     * @param fromAccountId
+     * @param toAccountId
+     * @param amount
+     * @param deadline
+     */
+    public void transfer(@NonNull String fromAccountId, @NonNull String toAccountId, @NonNull BigDecimal amount,
+                         Duration deadline) {
+        Account fromAccount = findAccount(fromAccountId);
+        if (!clusterRouter.isLocal(toAccountId)) {
+            transferToNode(fromAccount, toAccountId, amount, deadline);
+            return;
+        }
+        Account toAccount = findAccount(toAccountId);
+        if (needsFold(fromAccount, amount)) {
+            hotAccountRegistry.fold(fromAccountId);
+        }
+        Account creditedAccount = creditedAccount(toAccount);
+        AdmissionService.Ticket ticket = admit(fromAccount, creditedAccount, deadline);
+        try {
+            transferService.transfer(fromAccount, creditedAccount, amount);
+        } finally {
+            admissionService.release(ticket);
+        }
+    }
+
+    /**
+     * Transfer money like transfer(deadline),but the caller doesn't wait for the locks:
+     * the fold of the hot account (it's rare) runs on a virtual thread,then the transfer waits for the locks
+     * in the queues of AdvisoryLockService without any thread. The transfer to other node of the cluster
+     * runs on a virtual thread,it waits for the replies of that node.
+     * cancel() of the future cancels the transfer only until it starts changing balances (see TransferFuture).
+     *
+     * @param fromAccountId
+     * @param toAccountId
+     * @param amount
+     * @param deadline
+     * @return
+     */
+    public CompletableFuture<Void> transferAsync(@NonNull String fromAccountId, @NonNull String toAccountId,
+                                                 @NonNull BigDecimal amount, Duration deadline) {
+        Account fromAccount = findAccount(fromAccountId);
+        TransferFuture result = new TransferFuture();
+        if (!clusterRouter.isLocal(toAccountId)) {
+            CompletableFuture.runAsync(() -> {
+                if (result.start()) {
+                    transferToNode(fromAccount, toAccountId, amount, deadline);
+                }
+            }, blockingExecutor).whenComplete((ignored, ex) -> complete(result, ex));
+            return result;
+        }
+        Account toAccount = findAccount(toAccountId);
+        if (!needsFold(fromAccount, amount)) {
+            return transferLocalAsync(fromAccount, toAccount, amount, deadline);
+        }
+        CompletableFuture.runAsync(() -> hotAccountRegistry.fold(fromAccountId), blockingExecutor)
+                .thenRun(() -> result.follow(transferLocalAsync(fromAccount, toAccount, amount, deadline)))
+                .whenComplete((ignored, ex) -> {
+                    if (ex != null) {
+                        complete(result, ex);
+                    }
+                });
+        return result;
+    }
+
+    private CompletableFuture<Void> transferLocalAsync(Account fromAccount, Account toAccount, BigDecimal amount, Duration deadline) {
+        Account creditedAccount = creditedAccount(toAccount);
+        AdmissionService.Ticket ticket = admit(fromAccount, creditedAccount, deadline);
+        CompletableFuture<Void> transfer;
+        try {
+            transfer = transferService.transferAsync(fromAccount, creditedAccount, amount);
+        } catch (RuntimeException ex) {
+            admissionService.release(ticket);
+            throw ex;
+        }
+        //the future of the transfer itself is returned,so cancel() reaches the transfer
+        transfer.whenComplete((ignored, ex) -> admissionService.release(ticket));
+        return transfer;
+    }
+
+    private static void complete(CompletableFuture<Void> result, Throwable ex) {
+        if (ex == null) {
+            result.complete(null);
+        } else {
+            result.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+        }
+    }
+
+    /**
+     * Transfer money like transfer(idempotencyKey) by transferAsync(),so no thread waits for the locks:
+     * the result of the key is stored when the future is completed,so the retry of the client doesn't transfer again.
+     *
+     * @param idempotencyKey
+     * @param fromAccountId
+     * @param toAccountId
+     * @param amount
+     * @param deadline
+     * @return
+     */
+    public CompletableFuture<TransferResult> transferAsync(@NonNull String idempotencyKey, @NonNull String fromAccountId,
+                                                           @NonNull String toAccountId, @NonNull BigDecimal amount,
+                                                           Duration deadline) {
+        return idempotencyService.executeAsync(idempotencyKey, fingerprint(fromAccountId, toAccountId, amount),
+                () -> transferAsync(fromAccountId, toAccountId, amount, deadline).thenApply(ignored -> TransferResult.completed(null)));
+    }
+
+    /**
+     * The transfer to the account of other node is coordinated by this node under the lock of fromAccount only,
+     * the admission counts it for both accounts like the local one.
+     */
+    private void transferToNode(Account fromAccount, String toAccountId, BigDecimal amount, Duration deadline) {
+        if (needsFold(fromAccount, amount)) {
+            hotAccountRegistry.fold(fromAccount.getAccountId());
+        }
+        AdmissionService.Ticket ticket = admissionService.admit(List.of(fromAccount.getAccountId(), toAccountId),
+                deadline != null ? deadline : defaultDeadline);
+        try {
+            clusterTransferService.transfer(fromAccount, toAccountId, amount);
+        } finally {
+            admissionService.release(ticket);
+        }
+    }
+
+    private Account findAccount(String accountId) {
+        Account account = accountsRepository.getAccount(accountId);
+        checkAccount(account, accountId);
+        return account;
+    }
+
+    private boolean needsFold(Account fromAccount, BigDecimal amount) {
+        return hotAccountRegistry.isHot(fromAccount.getAccountId()) && !fromAccount.snapshot().hasAtLeast(amount);
+    }
+
+    private Account creditedAccount(Account toAccount) {
+        return hotAccountRegistry.isHot(toAccount.getAccountId()) ? hotAccountRegistry.pickStripe(toAccount.getAccountId()) : toAccount;
+    }
+
+    private AdmissionService.Ticket admit(Account fromAccount, Account toAccount, Duration deadline) {
+        return admissionService.admit(List.of(fromAccount.getAccountId(), toAccount.getAccountId()),
+                deadline != null ? deadline : defaultDeadline);
+    }
+
+    /**
+     * Transfer money like transfer() once for the idempotencyKey,
+     * the key is bound to the accounts and the amount,so it can't be reused for another transfer.
+     *
+     * @param idempotencyKey
+     * @param fromAccountId
+     * @param toAccountId
+     * @param amount
+     * @param deadline
+     * @return
+     */
+    public TransferResult transfer(@NonNull String idempotencyKey, @NonNull String fromAccountId,
+                                   @NonNull String toAccountId, @NonNull BigDecimal amount, Duration deadline) {
+        return idempotencyService.execute(idempotencyKey, fingerprint(fromAccountId, toAccountId, amount), () -> {
+            transfer(fromAccountId, toAccountId, amount, deadline);
+            return TransferResult.completed(null);
+        });
+    }
+
+    private static String fingerprint(String fromAccountId, String toAccountId, BigDecimal amount) {
+        return fromAccountId + ":" + toAccountId + ":" + amount.stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * The batch is done under one lock of all its accounts,so the hot accounts are credited to their main accounts,
+     * stripes of the hot accounts debited by the batch are folded before it.
+     *
+     * @param transfers
+     * @return
+     */
+    public List<TransferResult> transferBatch(@NonNull List<TransferRequest> transfers) {
+        transfers.stream()
+                .map(TransferRequest::getFromAccountId)
+                .filter(hotAccountRegistry::isHot)
+                .distinct()
+                .forEach(hotAccountRegistry::fold);
+        return transferService.transferBatch(transfers);
+    }
+
+    /**
+     * Credit the account without its advisory lock,the change is serialized with transfers by the write window of the account
+     * and the recovery knows by pendingTransferIds whether it was applied.
+     * The hot account is credited to its random stripe.
+     *
+     * @param accountId
+     * @param amount
+     */
+    public void credit(@NonNull String accountId, @NonNull BigDecimal amount) {
+        Account found = accountsRepository.getAccount(accountId);
+        checkAccount(found, accountId);
+        Account account = hotAccountRegistry.isHot(accountId) ? hotAccountRegistry.pickStripe(accountId) : found;
+        transferService.credit(account, amount);
+    }
+
+    /**
+     * Debit the account without its advisory lock like credit(),the transferLog to EXTERNAL is rolled back after the crash.
+     * The hot account is debited from its main account like by transfer().
+     *
+     * @param accountId
+     * @param amount
+     * @param allowNegative
+     */
+    public void debit(@NonNull String accountId, @NonNull BigDecimal amount, boolean allowNegative) {
+        Account account = accountsRepository.getAccount(accountId);
+        checkAccount(account, accountId);
+        if (!allowNegative && hotAccountRegistry.isHot(accountId) && !account.snapshot().hasAtLeast(amount)) {
+            hotAccountRegistry.fold(accountId);
+        }
+        transferService.debit(account, amount, allowNegative);
     }
 
     private void checkAccount(Account account, String accountId) {
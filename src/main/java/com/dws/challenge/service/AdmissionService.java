@@ -0,0 +1,40 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.AdmissionStats;
+import com.dws.challenge.exception.AdmissionRejectedException;
+import lombok.Data;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Admission control in front of transfers: it counts transfers in flight globally and per account
+ * and rejects the transfer at once if it can't finish before the deadline of the client,
+ * so threads don't pile up waiting for the locks of hot accounts.
+ */
+public interface AdmissionService {
+    /**
+     * Admit the transfer of the accounts,the ticket must be released when the transfer is finished.
+     *
+     * @param accountIds
+     * @param deadline how long the client waits for the transfer.
+     * @return
+     * @throws AdmissionRejectedException if there are too many transfers in flight or
+     *                                    the projected wait for the accounts is longer than the deadline.
+     */
+    Ticket admit(List<String> accountIds, Duration deadline) throws AdmissionRejectedException;
+
+    void release(Ticket ticket);
+
+    AdmissionStats getStats();
+
+    /**
+     * Admitted transfer,depth is the number of transfers of its busiest account admitted before it.
+     */
+    @Data
+    class Ticket {
+        private final List<String> accountIds;
+        private final int depth;
+        private final long admittedAt;
+    }
+}
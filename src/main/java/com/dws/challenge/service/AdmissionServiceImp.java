@@ -0,0 +1,111 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.AdmissionStats;
+import com.dws.challenge.exception.AdmissionRejectedException;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Transfers of the same account are serialized by its lock,so the transfer waits about
+ * depth * serviceTime,where depth is the number of transfers of its busiest account in flight.
+ * serviceTime is the moving average of latency / (depth + 1) of finished transfers.
+ * The transfer is rejected if the projected wait is longer than the deadline,
+ * if the account has maxPerAccount transfers in flight or if there are maxInFlight transfers in flight,
+ * so the rest of the threads serve other accounts and reads.
+ * With admission.enabled=false it only counts transfers and never rejects them.
+ */
+@Service
+@Slf4j
+public class AdmissionServiceImp implements AdmissionService {
+    private static final int HOT_ACCOUNTS = 10;
+    //weight of the new sample in the moving average is 1/8
+    private static final int SMOOTHING_SHIFT = 3;
+
+    private final boolean enabled;
+    private final int maxInFlight;
+    private final int maxPerAccount;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ConcurrentMap<String, Integer> depths = new ConcurrentHashMap<>();
+    private final AtomicLong serviceTimeNanos = new AtomicLong();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    @Autowired
+    public AdmissionServiceImp(@Value("${admission.enabled:true}") boolean enabled,
+                               @Value("${admission.max-in-flight:150}") int maxInFlight,
+                               @Value("${admission.max-per-account:50}") int maxPerAccount) {
+        if (maxInFlight <= 0 || maxPerAccount <= 0) {
+            throw new IllegalArgumentException("admission max-in-flight and max-per-account must be positive");
+        }
+        this.enabled = enabled;
+        this.maxInFlight = maxInFlight;
+        this.maxPerAccount = maxPerAccount;
+    }
+
+    @Override
+    public Ticket admit(@NonNull List<String> accountIds, @NonNull Duration deadline) {
+        if (inFlight.incrementAndGet() > maxInFlight && enabled) {
+            inFlight.decrementAndGet();
+            throw reject("Too many transfers in flight", inFlight.get() * serviceTimeNanos.get());
+        }
+        List<String> distinctIds = accountIds.stream().distinct().collect(Collectors.toList());
+        int depth = 0;
+        for (String accountId : distinctIds) {
+            depth = Math.max(depth, depths.merge(accountId, 1, Integer::sum) - 1);
+        }
+        long projectedWait = depth * serviceTimeNanos.get();
+        if (enabled && (depth >= maxPerAccount || projectedWait > deadline.toNanos())) {
+            leave(distinctIds);
+            throw reject("Accounts " + String.join(",", distinctIds) + " are busy: " + depth + " transfers in flight,projected wait "
+                    + TimeUnit.NANOSECONDS.toMillis(projectedWait) + "ms", projectedWait);
+        }
+        admitted.increment();
+        return new Ticket(distinctIds, depth, System.nanoTime());
+    }
+
+    @Override
+    public void release(@NonNull Ticket ticket) {
+        leave(ticket.getAccountIds());
+        long sample = (System.nanoTime() - ticket.getAdmittedAt()) / (ticket.getDepth() + 1);
+        serviceTimeNanos.getAndUpdate(average -> average == 0 ? sample : average + ((sample - average) >> SMOOTHING_SHIFT));
+    }
+
+    private void leave(List<String> accountIds) {
+        for (String accountId : accountIds) {
+            depths.computeIfPresent(accountId, (id, depth) -> depth == 1 ? null : depth - 1);
+        }
+        inFlight.decrementAndGet();
+    }
+
+    private AdmissionRejectedException reject(String message, long projectedWaitNanos) {
+        rejected.increment();
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(projectedWaitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        log.debug("Rejected transfer: {}", message);
+        return new AdmissionRejectedException(message, retryAfter);
+    }
+
+    @Override
+    public AdmissionStats getStats() {
+        Map<String, Integer> hotAccounts = depths.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .limit(HOT_ACCOUNTS)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+        return new AdmissionStats(inFlight.get(), maxInFlight, TimeUnit.NANOSECONDS.toMicros(serviceTimeNanos.get()),
+                admitted.sum(), rejected.sum(), hotAccounts);
+    }
+}
@@ -1,30 +1,50 @@
 package com.dws.challenge.service;
 
+import com.dws.challenge.domain.HeldLock;
 import com.dws.challenge.exception.LockServiceException;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Simple advisory lock used by service layer.
  * If it acquires many accountIds, it makes sorting accountIds in lexicographical order.
  * It's simpler and scalable,than use real mutex in Java.
- * You may use Redis or Zookeeper to implement it.
+ * AdvisoryLockServiceImp keeps locks in this instance,AdvisoryLockServiceRedis shares them between instances by Redis.
  */
 public interface AdvisoryLockService {
     /**
      * Acquire accountsIds, it does take all-or-nothing accountIds,
      * so if some of them is used by other account operation,
-     * This service try to get lock it with exponential retry,if it can't do it at once.
+     * the caller waits in FIFO order until the accounts are released or timeout expires.
+     * Duration.ZERO makes only one attempt.
      *
      * @param accountId
-     * @return
+     * @param timeout
+     * @return empty if the accounts can't be acquired before timeout.
      */
-    Optional<Token> acquire(List<String> accountId, int retryTimes);
+    Optional<Token> acquire(List<String> accountId, Duration timeout);
+
+    /**
+     * Acquire accountIds like acquire() without blocking the caller:
+     * the future is completed when all accountIds are taken or timeout expires.
+     * If the future is cancelled,the accounts taken for it are released.
+     *
+     * @param accountId
+     * @param timeout
+     * @return the future of the token,it's empty if the accounts can't be acquired before timeout.
+     */
+    CompletableFuture<Optional<Token>> acquireAsync(List<String> accountId, Duration timeout);
 
     /**
      * Release lock if it's known otherwise throws an exception.
+     * If the lease has expired and the accounts were already released,it does nothing:
+     * the writes of the owner after the expiry are rejected by their fence once the next owner has written the accounts.
      *
      * @param token
      * @throws LockServiceException
@@ -32,14 +52,47 @@ public interface AdvisoryLockService {
     void release(Token token) throws LockServiceException;
 
     /**
-     * If locked is acquired, it contains unique token.
+     * Accounts which are locked or waited for right now,the longest held first.
+     * The lock leaked by the failed operation stays here with growing heldMillis.
+     */
+    List<HeldLock> heldLocks();
+
+    /**
+     * If locked is acquired, it contains unique token (accountIds and the number of the acquire) and the lease:
+     * if the owner doesn't release the accounts before expiresAt,they are released by the lock service.
+     * fence grows with every acquire,the writes under the lease carry it (see AccountsRepository.save(account,fence)),
+     * so the storage rejects the writes of the owner whose lease has expired and the accounts were locked by other one.
      */
     @Data
     class Token {
+        static final String KEY_SEP = ":";
+        static final String ACQUIRE_SEP = "#";
         private final String token;
+        private final List<String> accountIds;
+        private final long fence;
+        //System.nanoTime() when the lock was acquired to measure how long it's held,0 if it's unknown
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private final long acquiredAt;
+        //System.nanoTime() when the lease expires,0 if it never expires
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private final long expiresAt;
 
         Token(String token) {
+            this(token, List.of(token.split(ACQUIRE_SEP)[0].split(KEY_SEP)), 0, 0, 0);
+        }
+
+        Token(String token, List<String> accountIds, long fence, long acquiredAt, long expiresAt) {
             this.token = token;
+            this.accountIds = accountIds;
+            this.fence = fence;
+            this.acquiredAt = acquiredAt;
+            this.expiresAt = expiresAt;
+        }
+
+        public boolean isExpired() {
+            return expiresAt != 0 && System.nanoTime() - expiresAt >= 0;
         }
     }
 }
@@ -1,83 +1,485 @@
 package com.dws.challenge.service;
 
+import com.dws.challenge.domain.HeldLock;
 import com.dws.challenge.exception.LockServiceException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.annotation.Validated;
 
+import javax.annotation.PreDestroy;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Collectors;
 
 /**
- * Simple implementation of advisory locks. it needs to add ttl to prevent forever locks.
+ * Simple implementation of advisory locks,they are held only in this instance (lock.store=memory).
+ * Every accountId is an independent entry of the lock table (accountId -> token of the owner + FIFO queue of waiters),
+ * so transfers of disjoint accounts never touch the same monitor.
+ * If accountId is busy, the thread parks in the queue of that account and the owner unparks
+ * the head of the queue when it releases the account.
+ * There is no synchronized around the wait,so the parked virtual thread unmounts from its carrier.
+ * acquireAsync() waits in the same queues without any thread: the release schedules the next attempt
+ * of the async waiter on the lock-async thread,which completes its future when it takes all accounts.
  */
 @Service
 @Validated
 @Slf4j
+@ConditionalOnProperty(name = "lock.store", havingValue = "memory", matchIfMissing = true)
 public class AdvisoryLockServiceImp implements AdvisoryLockService {
 
-    //must be part of the configuration
-    private static long START_LOCK_PAUSE_IN_MILLIS = 100l;
+    private final ConcurrentMap<String, LockEntry> acquiredAccounts = new ConcurrentHashMap<>();
+    //owner tokens and fences
+    private final AtomicLong sequence = new AtomicLong();
+    private final long leaseTtlNanos;
+    private final LeaseWheel leases;
+    private final ScheduledExecutorService asyncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "lock-async");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //no-op meters and tracer until they are injected (e.g. the service is created by the test)
+    private volatile LockMeters meters = new LockMeters(new CompositeMeterRegistry(), acquiredAccounts);
+    private volatile LockTracing tracing = new LockTracing(OpenTelemetry.noop());
+    private volatile LockHeatSketch heatSketch = new LockHeatSketch();
 
-    private static String KEY_SEP = ":";
-    private final Set<String> acquiredAccounts = new HashSet<>();
+    public AdvisoryLockServiceImp() {
+        this(Duration.ofSeconds(30), Duration.ofMillis(100));
+    }
+
+    @Autowired
+    public AdvisoryLockServiceImp(@Value("${lock.lease.ttl:30s}") Duration leaseTtl,
+                                  @Value("${lock.lease.tick:100ms}") Duration leaseTick) {
+        if (leaseTtl.isNegative() || leaseTtl.isZero() || leaseTick.isNegative() || leaseTick.isZero()) {
+            throw new IllegalArgumentException("lock.lease.ttl and lock.lease.tick must be positive");
+        }
+        this.leaseTtlNanos = leaseTtl.toNanos();
+        this.leases = new LeaseWheel(leaseTick.toNanos(), this::isHeld, this::expire);
+        asyncExecutor.scheduleAtFixedRate(() -> {
+            try {
+                leases.advance(System.nanoTime());
+            } catch (RuntimeException ex) {
+                log.error("Cannot expire leases", ex);
+            }
+        }, leaseTick.toNanos(), leaseTick.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Autowired(required = false)
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meters = new LockMeters(meterRegistry, acquiredAccounts);
+    }
+
+    @Autowired(required = false)
+    public void setOpenTelemetry(OpenTelemetry openTelemetry) {
+        this.tracing = new LockTracing(openTelemetry);
+    }
+
+    @Autowired(required = false)
+    public void setHeatSketch(LockHeatSketch heatSketch) {
+        this.heatSketch = heatSketch;
+    }
+
+    /**
+     * State of the single accountId. waiters is changed only inside ConcurrentHashMap.compute for this accountId.
+     */
+    private static final class LockEntry {
+        private volatile String owner;
+        private volatile long ownedSince;
+        private final Deque<Waiter> waiters = new ArrayDeque<>();
+    }
+
+    /**
+     * The waiter in the queue of the account,the release wakes the head of the queue up.
+     */
+    private interface Waiter {
+        void wake();
+    }
+
+    private static final class ThreadWaiter implements Waiter {
+        private final Thread thread = Thread.currentThread();
+
+        @Override
+        public void wake() {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Attempts of the async waiter run one at a time on asyncExecutor:
+     * wake() during the attempt makes one more attempt,so the release isn't missed.
+     */
+    private final class AsyncWaiter implements Waiter {
+        private final List<String> accountIds;
+        private final String owner;
+        private final long started;
+        private final long deadline;
+        private final Span span;
+        private final CompletableFuture<Optional<Token>> result = new CompletableFuture<>();
+        private final AtomicInteger wakeUps = new AtomicInteger();
+        private String queuedOn;
+        private ScheduledFuture<?> timeout;
+        private int retries;
+
+        private AsyncWaiter(List<String> accountIds, long started, long deadline) {
+            this.accountIds = accountIds;
+            this.owner = createOwner(accountIds);
+            this.started = started;
+            this.deadline = deadline;
+            this.span = tracing.start(accountIds);
+        }
+
+        @Override
+        public void wake() {
+            if (wakeUps.getAndIncrement() == 0) {
+                asyncExecutor.execute(this::attempts);
+            }
+        }
+
+        private void attempts() {
+            do {
+                attempt();
+            } while (wakeUps.decrementAndGet() > 0);
+        }
+
+        private void attempt() {
+            while (true) {
+                if (result.isDone()) {
+                    //cancelled by the caller,it leaves the queue
+                    finish(Optional.empty());
+                    return;
+                }
+                String busyAccount = tryAcquireAll(accountIds, owner, this, queuedOn);
+                if (busyAccount == null) {
+                    finish(Optional.of(grant(accountIds, owner)));
+                    return;
+                }
+                retries++;
+                if (deadline - System.nanoTime() <= 0) {
+                    finish(Optional.empty());
+                    return;
+                }
+                if (busyAccount.equals(queuedOn)) {
+                    //wait for the release or the timeout
+                    if (timeout == null) {
+                        timeout = asyncExecutor.schedule(this::wake, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    }
+                    return;
+                }
+                //like the blocking waiter,move to the queue of the busy account and check it again
+                busy(span, busyAccount);
+                enqueue(busyAccount, this);
+                leave(queuedOn, this);
+                queuedOn = busyAccount;
+            }
+        }
+
+        private void finish(Optional<Token> token) {
+            leave(queuedOn, this);
+            queuedOn = null;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            meters.recordWait(true, token.isPresent(), System.nanoTime() - started, retries);
+            LockTracing.end(span, token.isPresent(), retries);
+            if (!result.complete(token)) {
+                token.ifPresent(AdvisoryLockServiceImp.this::release);
+            }
+        }
+    }
 
     @Override
-    public Optional<Token> acquire(@NonNull List<String> accountId, int retryTimes) {
+    public Optional<Token> acquire(@NonNull List<String> accountId, @NonNull Duration timeout) {
         if (accountId.size() == 0) {
             return Optional.empty();
         }
-        List<String> sortedAccountIds = new ArrayList<>();
-        sortedAccountIds.addAll(accountId);
         //sort accountId to get acquiring lock in the specific order
-        sortedAccountIds.sort(Comparator.naturalOrder());
-        return tryAcquireLockFewTimes(sortedAccountIds, START_LOCK_PAUSE_IN_MILLIS, retryTimes);
+        List<String> sortedAccountIds = accountId.stream().distinct().sorted(Comparator.naturalOrder()).collect(Collectors.toList());
+        heatSketch.record(sortedAccountIds);
+        long started = System.nanoTime();
+        return acquireBefore(sortedAccountIds, started, started + timeout.toNanos(), tracing.start(sortedAccountIds));
     }
 
-    private Boolean canAcquireAll(List<String> accIds) {
-        synchronized (acquiredAccounts) {
-            //if any of required accountId has been already acquired, it returns false
-            if (accIds.stream().filter(accId -> acquiredAccounts.contains(accId)).count() > 0) {
-                return false;
+    @Override
+    public CompletableFuture<Optional<Token>> acquireAsync(@NonNull List<String> accountId, @NonNull Duration timeout) {
+        if (accountId.size() == 0) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        List<String> sortedAccountIds = accountId.stream().distinct().sorted(Comparator.naturalOrder()).collect(Collectors.toList());
+        heatSketch.record(sortedAccountIds);
+        long started = System.nanoTime();
+        AsyncWaiter waiter = new AsyncWaiter(sortedAccountIds, started, started + timeout.toNanos());
+        waiter.result.whenComplete((token, ex) -> {
+            if (ex != null) {
+                waiter.wake();
             }
-            acquiredAccounts.addAll(accIds);
+        });
+        waiter.wake();
+        return waiter.result;
+    }
+
+    /**
+     * Every acquire gets the unique owner token,so the stale owner can't release the accounts of the next one.
+     */
+    private String createOwner(List<String> accIds) {
+        return String.join(Token.KEY_SEP, accIds) + Token.ACQUIRE_SEP + sequence.incrementAndGet();
+    }
+
+    /**
+     * All accounts are taken by the owner,the fence is taken now,so the next owner of any of them gets the greater one.
+     */
+    private Token grant(List<String> accountIds, String owner) {
+        long now = System.nanoTime();
+        Token token = new Token(owner, accountIds, sequence.incrementAndGet(), now, now + leaseTtlNanos);
+        leases.add(token);
+        return token;
+    }
+
+    /**
+     * Try to take all accountIds,if it can't do it, wait in the queue of the busy account
+     * until the owner releases it or the deadline comes.
+     */
+    private Optional<Token> acquireBefore(List<String> accountIds, long started, long deadline, Span span) {
+        String owner = createOwner(accountIds);
+        ThreadWaiter current = null;
+        String queuedOn = null;
+        boolean acquired = false;
+        int retries = 0;
+        try {
+            while (true) {
+                String busyAccount = tryAcquireAll(accountIds, owner, current, queuedOn);
+                if (busyAccount == null) {
+                    acquired = true;
+                    return Optional.of(grant(accountIds, owner));
+                }
+                retries++;
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return Optional.empty();
+                }
+                if (!busyAccount.equals(queuedOn)) {
+                    //move to the queue of the account which is busy now and check it again
+                    //to not miss the release happened before this thread was enqueued
+                    if (current == null) {
+                        current = new ThreadWaiter();
+                    }
+                    busy(span, busyAccount);
+                    enqueue(busyAccount, current);
+                    leave(queuedOn, current);
+                    queuedOn = busyAccount;
+                    continue;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    return Optional.empty();
+                }
+            }
+        } finally {
+            leave(queuedOn, current);
+            meters.recordWait(false, acquired, System.nanoTime() - started, retries);
+            LockTracing.end(span, acquired, retries);
         }
-        return true;
     }
 
-    private String createKey(List<String> accIds) {
-        return accIds.stream().collect(Collectors.joining(KEY_SEP));
+    /**
+     * The waiter found busy accountId,the event tells who owns it now (it's checked only for sampled spans).
+     */
+    private void busy(Span span, String accountId) {
+        if (!span.isRecording()) {
+            return;
+        }
+        LockEntry entry = acquiredAccounts.get(accountId);
+        LockTracing.busy(span, accountId, entry != null ? entry.owner : null);
     }
 
-    private Optional<Token> tryAcquireLockFewTimes(List<String> accountIds, long pause, int times) {
-        if (times == 0) {
-            return Optional.empty();
+    /**
+     * Take accountIds one by one in the sorted order.
+     * If any of them is owned by other operation, it gives back already taken ones (all-or-nothing).
+     *
+     * @return null if all accountIds are taken, otherwise the accountId that is busy.
+     */
+    private String tryAcquireAll(List<String> accIds, String key, Waiter waiter, String queuedOn) {
+        for (int i = 0; i < accIds.size(); i++) {
+            if (!tryTake(accIds.get(i), key, waiter, queuedOn)) {
+                for (int j = 0; j < i; j++) {
+                    releaseAccount(accIds.get(j), key);
+                }
+                return accIds.get(i);
+            }
         }
-        if (canAcquireAll(accountIds))
-            return Optional.of(new Token(createKey(accountIds)));
-        else {
-            try {
-                Thread.sleep(pause);
-            } catch (InterruptedException ignored) {
+        return null;
+    }
+
+    /**
+     * A newcomer doesn't overtake the threads waiting for accountId.
+     * A waiter takes the account of its queue only if it's the head of the queue
+     * and takes other free accounts regardless of their queues, so waiters can't block each other.
+     */
+    private boolean tryTake(String accId, String key, Waiter waiter, String queuedOn) {
+        boolean[] taken = new boolean[1];
+        acquiredAccounts.compute(accId, (k, entry) -> {
+            if (entry == null) {
+                entry = new LockEntry();
+            }
+            if (entry.owner == null) {
+                boolean canTake;
+                if (queuedOn == null) {
+                    canTake = entry.waiters.isEmpty();
+                } else if (queuedOn.equals(accId)) {
+                    canTake = entry.waiters.peekFirst() == waiter;
+                } else {
+                    canTake = true;
+                }
+                if (canTake) {
+                    entry.owner = key;
+                    entry.ownedSince = System.nanoTime();
+                    taken[0] = true;
+                }
+            }
+            return entry;
+        });
+        return taken[0];
+    }
+
+    /**
+     * @return false if accId isn't owned by key.
+     */
+    private boolean releaseAccount(String accId, String key) {
+        Waiter[] next = new Waiter[1];
+        boolean[] released = new boolean[1];
+        acquiredAccounts.computeIfPresent(accId, (k, entry) -> {
+            if (!key.equals(entry.owner)) {
+                return entry;
+            }
+            entry.owner = null;
+            released[0] = true;
+            next[0] = entry.waiters.peekFirst();
+            return entry.waiters.isEmpty() ? null : entry;
+        });
+        if (next[0] != null) {
+            next[0].wake();
+        }
+        return released[0];
+    }
+
+    private void enqueue(String accId, Waiter waiter) {
+        acquiredAccounts.compute(accId, (k, entry) -> {
+            if (entry == null) {
+                entry = new LockEntry();
+            }
+            entry.waiters.addLast(waiter);
+            return entry;
+        });
+    }
+
+    /**
+     * Remove the thread from the queue of accountId,
+     * if it was the head of the queue of the free account, the next waiter gets its turn.
+     */
+    private void leave(String accId, Waiter waiter) {
+        if (accId == null) {
+            return;
+        }
+        Waiter[] next = new Waiter[1];
+        acquiredAccounts.computeIfPresent(accId, (k, entry) -> {
+            boolean wasHead = entry.waiters.peekFirst() == waiter;
+            entry.waiters.remove(waiter);
+            if (entry.owner == null) {
+                if (wasHead) {
+                    next[0] = entry.waiters.peekFirst();
+                }
+                return entry.waiters.isEmpty() ? null : entry;
             }
-            return tryAcquireLockFewTimes(accountIds, pause * 2, times - 1);
+            return entry;
+        });
+        if (next[0] != null) {
+            next[0].wake();
         }
     }
 
     @Override
     public void release(@NonNull Token token) throws LockServiceException {
-        synchronized (acquiredAccounts) {
-            String parsedAccIds[] = token.getToken().split(KEY_SEP);
-            if (parsedAccIds.length == 0)
-                throw new LockServiceException("Cannot release the lock: token is invalid,it should be non empty.");
-            if (Arrays.stream(parsedAccIds).allMatch(acc -> acquiredAccounts.contains(acc))) {
-                acquiredAccounts.removeAll(List.of(parsedAccIds));
-            } else {
-                throw new LockServiceException("Cannot release the lock: it DIDN'T acquired all necessary accounts: " + Arrays.stream(parsedAccIds).collect(Collectors.joining(",")));
+        List<String> accIds = token.getAccountIds();
+        if (accIds.isEmpty())
+            throw new LockServiceException("Cannot release the lock: token is invalid,it should be non empty.");
+        //only the owner of all accountIds can release them
+        if (accIds.stream().allMatch(acc -> isOwnedBy(acc, token.getToken()))) {
+            for (String acc : accIds) {
+                releaseAccount(acc, token.getToken());
+            }
+            if (token.getAcquiredAt() != 0) {
+                meters.recordHold(System.nanoTime() - token.getAcquiredAt());
             }
+        } else if (token.isExpired()) {
+            log.warn("The lease {} had expired before it was released", token);
+        } else {
+            throw new LockServiceException("Cannot release the lock: it DIDN'T acquired all necessary accounts: " + String.join(",", accIds));
         }
     }
 
+    /**
+     * The lease is held until its owner releases it or it expires,the first account tells it
+     * because the owner takes and releases all accounts together.
+     */
+    private boolean isHeld(Token token) {
+        return isOwnedBy(token.getAccountIds().get(0), token.getToken());
+    }
 
+    private void expire(Token token) {
+        boolean expired = false;
+        for (String acc : token.getAccountIds()) {
+            expired |= releaseAccount(acc, token.getToken());
+        }
+        if (expired) {
+            meters.expired();
+            log.warn("The lease {} has expired,its accounts are released", token);
+        }
+    }
+
+    /**
+     * Every entry is read inside compute,so the owner and the waiters of the account are consistent,
+     * but the entries are read one by one,it isn't the snapshot of the whole table.
+     */
+    @Override
+    public List<HeldLock> heldLocks() {
+        long now = System.nanoTime();
+        List<HeldLock> heldLocks = new ArrayList<>();
+        for (String accId : acquiredAccounts.keySet()) {
+            acquiredAccounts.computeIfPresent(accId, (k, entry) -> {
+                String owner = entry.owner;
+                long heldMillis = owner != null ? TimeUnit.NANOSECONDS.toMillis(now - entry.ownedSince) : 0;
+                heldLocks.add(new HeldLock(accId, owner, Math.max(heldMillis, 0), entry.waiters.size()));
+                return entry;
+            });
+        }
+        heldLocks.sort(Comparator.comparingLong(HeldLock::getHeldMillis).reversed());
+        return heldLocks;
+    }
+
+    @PreDestroy
+    public void close() {
+        asyncExecutor.shutdownNow();
+    }
+
+    private boolean isOwnedBy(String accId, String key) {
+        LockEntry entry = acquiredAccounts.get(accId);
+        return entry != null && key.equals(entry.owner);
+    }
 }
@@ -0,0 +1,419 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.HeldLock;
+import com.dws.challenge.exception.LockServiceException;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.annotation.Validated;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Advisory locks shared by all instances of the application through the server of the Redis protocol,
+ * it's enabled by lock.store=redis.
+ * The lock of accountId is the key prefix+accountId,its value is the owner token and its expiry (PX) is the lease ttl,
+ * the fence is INCR of prefix+"fence". ACQUIRE_SCRIPT and RELEASE_SCRIPT take or release all accounts atomically,
+ * so every attempt to acquire and every release is one round trip whatever the number of accounts is,
+ * and the commands of all threads are pipelined in one connection (RespConnection).
+ * Near-cache: the accounts held by this instance are known locally,the requests for them wait for the local release
+ * without asking the server,and the account found busy on the server isn't asked by any local request
+ * until its backoff passes. Waiters retry with the backoff,they aren't queued in FIFO order like AdvisoryLockServiceImp.
+ * The attempt which failed or timed out may still have taken the accounts on the server,so RELEASE_SCRIPT of its owner
+ * is sent without waiting for it: the accounts don't stay locked by the owner which gave up until the lease expires.
+ * heldLocks() lists only the locks of this instance.
+ */
+@Service
+@Validated
+@Slf4j
+@ConditionalOnProperty(name = "lock.store", havingValue = "redis")
+public class AdvisoryLockServiceRedis implements AdvisoryLockService {
+    //KEYS[1] is the fence counter,KEYS[2..] are the accounts,ARGV[1] is the owner,ARGV[2] is ttl in millis.
+    //It returns the new fence or -i if KEYS[i] is busy.
+    static final String ACQUIRE_SCRIPT = String.join("\n",
+            "for i = 2, #KEYS do",
+            "  if redis.call('exists', KEYS[i]) == 1 then return -i end",
+            "end",
+            "for i = 2, #KEYS do",
+            "  redis.call('set', KEYS[i], ARGV[1], 'PX', ARGV[2])",
+            "end",
+            "return redis.call('incr', KEYS[1])");
+    //It deletes KEYS and returns 1 only if all of them are owned by ARGV[1],otherwise it returns 0.
+    static final String RELEASE_SCRIPT = String.join("\n",
+            "for i = 1, #KEYS do",
+            "  if redis.call('get', KEYS[i]) ~= ARGV[1] then return 0 end",
+            "end",
+            "redis.call('del', unpack(KEYS))",
+            "return 1");
+    private static final String ACQUIRE_SHA = sha1(ACQUIRE_SCRIPT);
+    private static final String RELEASE_SHA = sha1(RELEASE_SCRIPT);
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    //the hints of busy accounts are cleaned when there are more of them
+    private static final int MAX_BUSY_HINTS = 10_000;
+
+    private final RespConnection connection;
+    private final String keyPrefix;
+    private final long leaseTtlMillis;
+    private final long commandTimeoutNanos;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final AtomicLong sequence = new AtomicLong();
+    //near-cache: accounts held by this instance and the accounts which were busy on the server (until System.nanoTime())
+    private final ConcurrentMap<String, LocalLease> heldHere = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> busyUntil = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "lock-redis");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile LockHeatSketch heatSketch = new LockHeatSketch();
+
+    private static final class LocalLease {
+        private final Token token;
+        private final CompletableFuture<Void> released = new CompletableFuture<>();
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        private LocalLease(Token token) {
+            this.token = token;
+        }
+    }
+
+    @Autowired
+    public AdvisoryLockServiceRedis(@Value("${lock.redis.host:localhost}") String host,
+                                    @Value("${lock.redis.port:6379}") int port,
+                                    @Value("${lock.redis.key-prefix:lock:}") String keyPrefix,
+                                    @Value("${lock.redis.timeout:1s}") Duration commandTimeout,
+                                    @Value("${lock.lease.ttl:30s}") Duration leaseTtl) {
+        if (leaseTtl.toMillis() <= 0 || commandTimeout.toMillis() <= 0) {
+            throw new IllegalArgumentException("lock.lease.ttl and lock.redis.timeout must be at least 1ms");
+        }
+        this.connection = new RespConnection(host, port, (int) commandTimeout.toMillis());
+        this.keyPrefix = keyPrefix;
+        this.leaseTtlMillis = leaseTtl.toMillis();
+        this.commandTimeoutNanos = commandTimeout.toNanos();
+    }
+
+    @Autowired(required = false)
+    public void setHeatSketch(LockHeatSketch heatSketch) {
+        this.heatSketch = heatSketch;
+    }
+
+    /**
+     * One acquire: every attempt runs on the lock-redis thread or on the reply of the server,nothing waits in between.
+     */
+    private final class Request {
+        private final List<String> accountIds;
+        private final String owner;
+        private final long deadline;
+        private final CompletableFuture<Optional<Token>> result = new CompletableFuture<>();
+        private int retries;
+
+        private Request(List<String> accountIds, long deadline) {
+            this.accountIds = accountIds;
+            this.owner = String.join(Token.KEY_SEP, accountIds) + Token.ACQUIRE_SEP + instanceId + "-" + sequence.incrementAndGet();
+            this.deadline = deadline;
+        }
+
+        private void attempt() {
+            if (result.isDone()) {
+                return;
+            }
+            long now = System.nanoTime();
+            LocalLease local = heldHere(accountIds);
+            if (local != null) {
+                waitFor(local, now);
+                return;
+            }
+            long busy = busyUntil(accountIds, now);
+            if (busy != 0) {
+                retryAt(busy, now);
+                return;
+            }
+            List<String> keys = new ArrayList<>(accountIds.size() + 1);
+            keys.add(keyPrefix + "fence");
+            keys.addAll(keys(accountIds));
+            eval(ACQUIRE_SCRIPT, ACQUIRE_SHA, keys, List.of(owner, String.valueOf(leaseTtlMillis)))
+                    .whenCompleteAsync(this::onReply, scheduler);
+        }
+
+        private void onReply(Object reply, Throwable ex) {
+            if (ex != null) {
+                abandon(accountIds, owner);
+                result.completeExceptionally(lockException(ex));
+                return;
+            }
+            long value = (Long) reply;
+            long now = System.nanoTime();
+            if (value > 0) {
+                Token token = grant(accountIds, owner, value, now);
+                if (!result.complete(Optional.of(token))) {
+                    //cancelled by the caller
+                    release(token, false);
+                }
+                return;
+            }
+            //lost to the request of this instance,its release wakes this one without the backoff
+            LocalLease local = heldHere(accountIds);
+            if (local != null) {
+                waitFor(local, now);
+                return;
+            }
+            retries++;
+            long backoff = Math.min(MAX_BACKOFF_NANOS, MIN_BACKOFF_NANOS << Math.min(retries, 16));
+            long retryAt = now + ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+            //other local requests for this account don't ask the server until then
+            busyUntil.merge(accountIds.get((int) -value - 2), retryAt, Math::max);
+            if (busyUntil.size() > MAX_BUSY_HINTS) {
+                busyUntil.values().removeIf(until -> until - now <= 0);
+            }
+            retryAt(retryAt, now);
+        }
+
+        /**
+         * The last attempt is made at the deadline,so the timeout is never shorter than the caller asked.
+         */
+        private void retryAt(long at, long now) {
+            if (deadline - now <= 0) {
+                result.complete(Optional.empty());
+                return;
+            }
+            long next = at - deadline < 0 ? at : deadline;
+            scheduler.schedule(this::attempt, next - now, TimeUnit.NANOSECONDS);
+        }
+
+        private void waitFor(LocalLease local, long now) {
+            if (deadline - now <= 0) {
+                result.complete(Optional.empty());
+                return;
+            }
+            local.waiters.incrementAndGet();
+            AtomicBoolean woken = new AtomicBoolean();
+            Runnable wake = () -> {
+                if (woken.compareAndSet(false, true)) {
+                    local.waiters.decrementAndGet();
+                    attempt();
+                }
+            };
+            long until = local.token.getExpiresAt() - deadline < 0 ? local.token.getExpiresAt() : deadline;
+            ScheduledFuture<?> timer = scheduler.schedule(wake, until - now, TimeUnit.NANOSECONDS);
+            local.released.thenRunAsync(() -> {
+                timer.cancel(false);
+                wake.run();
+            }, scheduler);
+        }
+    }
+
+    @Override
+    public Optional<Token> acquire(@NonNull List<String> accountId, @NonNull Duration timeout) {
+        CompletableFuture<Optional<Token>> result = acquireAsync(accountId, timeout);
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            //the accounts taken after the cancel are released
+            result.cancel(false);
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } catch (ExecutionException ex) {
+            throw lockException(ex.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Optional<Token>> acquireAsync(@NonNull List<String> accountId, @NonNull Duration timeout) {
+        if (accountId.size() == 0) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        List<String> sortedAccountIds = accountId.stream().distinct().sorted(Comparator.naturalOrder()).collect(Collectors.toList());
+        heatSketch.record(sortedAccountIds);
+        Request request = new Request(sortedAccountIds, System.nanoTime() + timeout.toNanos());
+        request.attempt();
+        return request.result;
+    }
+
+    private Token grant(List<String> accountIds, String owner, long fence, long now) {
+        Token token = new Token(owner, accountIds, fence, now, now + TimeUnit.MILLISECONDS.toNanos(leaseTtlMillis));
+        LocalLease lease = new LocalLease(token);
+        for (String accountId : accountIds) {
+            heldHere.put(accountId, lease);
+            busyUntil.remove(accountId);
+        }
+        return token;
+    }
+
+    /**
+     * The lease of this instance which holds one of accountIds,the expired leases are forgotten.
+     */
+    private LocalLease heldHere(List<String> accountIds) {
+        for (String accountId : accountIds) {
+            LocalLease lease = heldHere.get(accountId);
+            if (lease != null) {
+                if (!lease.token.isExpired()) {
+                    return lease;
+                }
+                forget(lease);
+            }
+        }
+        return null;
+    }
+
+    private long busyUntil(List<String> accountIds, long now) {
+        long latest = 0;
+        for (String accountId : accountIds) {
+            Long until = busyUntil.get(accountId);
+            if (until != null && until - now > 0 && (latest == 0 || until - latest > 0)) {
+                latest = until;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Fire and forget: the server runs it after the attempt (the connection is pipelined),
+     * it deletes nothing if the attempt didn't take the accounts or the lease has passed to other owner.
+     * It's sent by EVAL,the fallback of EVALSHA wouldn't be sent if NOSCRIPT came after the timeout.
+     */
+    private void abandon(List<String> accountIds, String owner) {
+        connection.send(command("EVAL", RELEASE_SCRIPT, keys(accountIds), List.of(owner)))
+                .whenComplete((released, ex) -> {
+                    if (ex != null) {
+                        log.debug("Cannot release the accounts {} of the failed attempt,they expire with the lease", accountIds, ex);
+                    }
+                });
+    }
+
+    private List<String> keys(List<String> accountIds) {
+        return accountIds.stream().map(accountId -> keyPrefix + accountId).collect(Collectors.toList());
+    }
+
+    private void forget(LocalLease lease) {
+        for (String accountId : lease.token.getAccountIds()) {
+            heldHere.remove(accountId, lease);
+        }
+        lease.released.complete(null);
+    }
+
+    @Override
+    public void release(@NonNull Token token) throws LockServiceException {
+        release(token, true);
+    }
+
+    private void release(Token token, boolean await) {
+        List<String> accIds = token.getAccountIds();
+        if (accIds.isEmpty())
+            throw new LockServiceException("Cannot release the lock: token is invalid,it should be non empty.");
+        CompletableFuture<Object> reply = eval(RELEASE_SCRIPT, RELEASE_SHA, keys(accIds), List.of(token.getToken()))
+                .whenComplete((released, ex) -> {
+                    LocalLease lease = heldHere.get(accIds.get(0));
+                    if (lease != null && lease.token.equals(token)) {
+                        forget(lease);
+                    }
+                });
+        if (!await) {
+            return;
+        }
+        Object released;
+        try {
+            released = reply.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new LockServiceException("Interrupted while the lock is released");
+        } catch (ExecutionException ex) {
+            throw lockException(ex.getCause());
+        }
+        if (!Long.valueOf(1).equals(released)) {
+            if (token.isExpired()) {
+                log.warn("The lease {} had expired before it was released", token);
+            } else {
+                throw new LockServiceException("Cannot release the lock: it DIDN'T acquired all necessary accounts: " + String.join(",", accIds));
+            }
+        }
+    }
+
+    /**
+     * The locks of this instance only,the locks of other instances are known only to the server.
+     */
+    @Override
+    public List<HeldLock> heldLocks() {
+        long now = System.nanoTime();
+        return heldHere.entrySet().stream()
+                .filter(entry -> !entry.getValue().token.isExpired())
+                .map(entry -> new HeldLock(entry.getKey(), entry.getValue().token.getToken(),
+                        TimeUnit.NANOSECONDS.toMillis(now - entry.getValue().token.getAcquiredAt()), entry.getValue().waiters.get()))
+                .sorted(Comparator.comparingLong(HeldLock::getHeldMillis).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * EVALSHA sends only the digest of the script,the server which doesn't know it yet gets the script by EVAL.
+     */
+    private CompletableFuture<Object> eval(String script, String sha, List<String> keys, List<String> args) {
+        return connection.send(command("EVALSHA", sha, keys, args))
+                .exceptionallyCompose(ex -> ex.getMessage() != null && ex.getMessage().contains("NOSCRIPT")
+                        ? connection.send(command("EVAL", script, keys, args))
+                        : CompletableFuture.failedFuture(ex))
+                .orTimeout(commandTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static List<String> command(String name, String script, List<String> keys, List<String> args) {
+        List<String> command = new ArrayList<>(keys.size() + args.size() + 3);
+        command.add(name);
+        command.add(script);
+        command.add(String.valueOf(keys.size()));
+        command.addAll(keys);
+        command.addAll(args);
+        return command;
+    }
+
+    private static LockServiceException lockException(Throwable ex) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        if (cause instanceof LockServiceException lockServiceException) {
+            return lockServiceException;
+        }
+        if (cause instanceof TimeoutException) {
+            return new LockServiceException("The lock server didn't reply in time");
+        }
+        return new LockServiceException("The lock server failed: " + cause);
+    }
+
+    private static String sha1(String script) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+        connection.close();
+    }
+}
@@ -0,0 +1,369 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Send notifications in the background,so transfers don't wait for the email while they hold the locks.
+ * Notifications of the same account are coalesced: the account is queued once and
+ * the worker sends all its pending descriptions by one call of the email service (up to maxBatch).
+ * The queue of accounts is bounded,if it's full (or the account has maxBatch pending descriptions)
+ * the overflow policy is applied: SPILL appends the notification to the spill file in notification.async.spill-dir,
+ * the spill thread puts it back to the queue when there is room (after the restart only the id of the account is known),
+ * DROP counts and drops the notification,
+ * CALLER_RUNS sends it in the calling thread (backpressure),the caller may be the transfer which holds the locks.
+ * OutboxRelay sends by notifyAboutTransferAsync(),its future is completed after the coalesced email is sent,
+ * so the message leaves the outbox only then. Its overflow is never spilled: the future fails and the relay retries it.
+ * It's enabled by notification.async.enabled=true.
+ */
+@Service
+@Primary
+@Slf4j
+@ConditionalOnProperty(name = "notification.async.enabled", havingValue = "true", matchIfMissing = true)
+public class AsyncNotificationService implements NotificationService {
+
+    public enum OverflowPolicy {
+        SPILL,
+        DROP,
+        CALLER_RUNS
+    }
+
+    private static final String SEPARATOR = "\n";
+    private static final String SPILL_FILE = "notifications.spill";
+
+    private final NotificationService delegate;
+    private final BlockingQueue<String> queue;
+    private final ConcurrentMap<String, Pending> pending = new ConcurrentHashMap<>();
+    private final int maxBatch;
+    private final OverflowPolicy overflowPolicy;
+    private final List<Thread> workers = new ArrayList<>();
+    private final Thread spillWorker;
+    private volatile boolean closed;
+
+    //SPILL: records are appended at spillWritten and taken back from spillRead,the file is truncated when they meet
+    private final Object spillLock = new Object();
+    private final RandomAccessFile spill;
+    private final Map<String, Account> spilledAccounts = new ConcurrentHashMap<>();
+    private long spillRead;
+    private long spillWritten;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Descriptions waiting for the worker,they are changed only inside compute() of the pending map.
+     */
+    private static class Pending {
+        private Account account;
+        private final List<String> descriptions = new ArrayList<>();
+        //futures of notifyAboutTransferAsync() completed when the descriptions are sent
+        private final List<CompletableFuture<Void>> sentFutures = new ArrayList<>();
+
+        Pending(Account account) {
+            this.account = account;
+        }
+    }
+
+    @Autowired
+    public AsyncNotificationService(@Qualifier("emailNotificationService") NotificationService delegate,
+                                    @Value("${notification.async.queue-capacity:10000}") int queueCapacity,
+                                    @Value("${notification.async.workers:2}") int workerCount,
+                                    @Value("${notification.async.max-batch:100}") int maxBatch,
+                                    @Value("${notification.async.overflow:DROP}") OverflowPolicy overflowPolicy,
+                                    @Value("${notification.async.spill-dir:./data/notification-spill}") Path spillDir) {
+        if (queueCapacity <= 0 || workerCount <= 0 || maxBatch <= 0) {
+            throw new IllegalArgumentException("notification.async queue-capacity,workers and max-batch must be positive");
+        }
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatch = maxBatch;
+        this.overflowPolicy = overflowPolicy;
+        if (overflowPolicy == OverflowPolicy.SPILL) {
+            try {
+                Files.createDirectories(spillDir);
+                spill = new RandomAccessFile(spillDir.resolve(SPILL_FILE).toFile(), "rw");
+                //notifications spilled before the restart are sent again
+                spillWritten = spill.length();
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Cannot open the spill file of notifications in " + spillDir, ex);
+            }
+            spillWorker = new Thread(this::unspill, "notification-spill");
+            spillWorker.setDaemon(true);
+            spillWorker.start();
+        } else {
+            spill = null;
+            spillWorker = null;
+        }
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::work, "notification-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    @Override
+    public void notifyAboutTransfer(Account account, String transferDescription) {
+        submitted.increment();
+        enqueue(account, transferDescription, null);
+    }
+
+    @Override
+    public CompletableFuture<Void> notifyAboutTransferAsync(Account account, String transferDescription) {
+        submitted.increment();
+        CompletableFuture<Void> sentFuture = new CompletableFuture<>();
+        enqueue(account, transferDescription, sentFuture);
+        return sentFuture;
+    }
+
+    private void enqueue(Account account, String transferDescription, CompletableFuture<Void> sentFuture) {
+        String accountId = account.getAccountId();
+        //1: queue the account, 0: added to pending descriptions, -1: overflow
+        int[] outcome = new int[1];
+        pending.compute(accountId, (id, current) -> {
+            if (current == null) {
+                current = new Pending(account);
+                outcome[0] = 1;
+            } else if (current.descriptions.size() >= maxBatch) {
+                outcome[0] = -1;
+                return current;
+            }
+            current.account = account;
+            current.descriptions.add(transferDescription);
+            if (sentFuture != null) {
+                current.sentFutures.add(sentFuture);
+            }
+            return current;
+        });
+        if (outcome[0] == 0) {
+            coalesced.increment();
+        } else if (outcome[0] < 0) {
+            overflow(account, transferDescription, sentFuture != null ? List.of(sentFuture) : List.of());
+        } else if (closed || !queue.offer(accountId)) {
+            //nobody will take the account from the queue,so its descriptions are taken back
+            Pending taken = pending.remove(accountId);
+            if (taken != null) {
+                overflow(taken.account, String.join(SEPARATOR, taken.descriptions), taken.sentFutures);
+            }
+        }
+    }
+
+    private void overflow(Account account, String transferDescription, List<CompletableFuture<Void>> sentFutures) {
+        //the caller of notifyAboutTransferAsync() retries it,so it isn't spilled
+        if (overflowPolicy == OverflowPolicy.SPILL && sentFutures.isEmpty() && spill(account, transferDescription)) {
+            spilled.increment();
+        } else if (overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+            callerRuns.increment();
+            deliver(account, transferDescription, sentFutures);
+        } else {
+            dropped.increment();
+            log.warn("Notification queue is full,dropped notification to owner of {}: {}", account.getAccountId(), transferDescription);
+            IllegalStateException full = new IllegalStateException("Notification queue is full");
+            sentFutures.forEach(sentFuture -> sentFuture.completeExceptionally(full));
+        }
+    }
+
+    private boolean spill(Account account, String transferDescription) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(bytes);
+            record.writeUTF(account.getAccountId());
+            byte[] description = transferDescription.getBytes(StandardCharsets.UTF_8);
+            record.writeInt(description.length);
+            record.write(description);
+            synchronized (spillLock) {
+                spilledAccounts.put(account.getAccountId(), account);
+                spill.seek(spillWritten);
+                spill.write(bytes.toByteArray());
+                spillWritten = spill.getFilePointer();
+            }
+            return true;
+        } catch (IOException ex) {
+            log.error("Cannot spill notification to owner of {}", account.getAccountId(), ex);
+            return false;
+        }
+    }
+
+    /**
+     * Take the next spilled notification back,null if the spill file is empty.
+     */
+    private Map.Entry<Account, String> takeSpilled() {
+        synchronized (spillLock) {
+            try {
+                if (spillRead < spillWritten) {
+                    spill.seek(spillRead);
+                    String accountId = spill.readUTF();
+                    byte[] description = new byte[spill.readInt()];
+                    spill.readFully(description);
+                    spillRead = spill.getFilePointer();
+                    Account account = spilledAccounts.get(accountId);
+                    return Map.entry(account != null ? account : new Account(accountId), new String(description, StandardCharsets.UTF_8));
+                }
+            } catch (EOFException ex) {
+                log.warn("The last spilled notification was written partially,it's skipped");
+            } catch (IOException ex) {
+                log.error("Cannot read spilled notifications,they are skipped", ex);
+            }
+            try {
+                spill.setLength(0);
+            } catch (IOException ex) {
+                log.error("Cannot truncate the spill file of notifications", ex);
+            }
+            spillRead = 0;
+            spillWritten = 0;
+            spilledAccounts.clear();
+            return null;
+        }
+    }
+
+    /**
+     * Put spilled notifications back to the queue while it has room.
+     */
+    private void unspill() {
+        while (!closed) {
+            try {
+                Map.Entry<Account, String> taken = queue.remainingCapacity() > 0 ? takeSpilled() : null;
+                if (taken != null) {
+                    enqueue(taken.getKey(), taken.getValue(), null);
+                } else {
+                    Thread.sleep(100);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void work() {
+        while (!closed || !queue.isEmpty()) {
+            try {
+                String accountId = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (accountId != null) {
+                    Pending taken = pending.remove(accountId);
+                    if (taken != null) {
+                        deliver(taken.account, String.join(SEPARATOR, taken.descriptions), taken.sentFutures);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void deliver(Account account, String transferDescription, List<CompletableFuture<Void>> sentFutures) {
+        try {
+            delegate.notifyAboutTransfer(account, transferDescription);
+            delivered.increment();
+            sentFutures.forEach(sentFuture -> sentFuture.complete(null));
+        } catch (Exception ex) {
+            failed.increment();
+            log.error("Cannot send notification to owner of {}", account.getAccountId(), ex);
+            sentFutures.forEach(sentFuture -> sentFuture.completeExceptionally(ex));
+        }
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getCallerRuns() {
+        return callerRuns.sum();
+    }
+
+    public long getSpilled() {
+        return spilled.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Stop accepting notifications to the queue and send the queued and spilled ones.
+     */
+    @PreDestroy
+    public void close() {
+        closed = true;
+        List<Thread> threads = new ArrayList<>(workers);
+        if (spillWorker != null) {
+            threads.add(spillWorker);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        //accounts queued after the workers have stopped
+        String accountId;
+        while ((accountId = queue.poll()) != null) {
+            Pending taken = pending.remove(accountId);
+            if (taken != null) {
+                deliver(taken.account, String.join(SEPARATOR, taken.descriptions), taken.sentFutures);
+            }
+        }
+        if (spill != null) {
+            Map.Entry<Account, String> spilledNotification;
+            while ((spilledNotification = takeSpilled()) != null) {
+                deliver(spilledNotification.getKey(), spilledNotification.getValue(), List.of());
+            }
+            try {
+                spill.close();
+            } catch (IOException ex) {
+                log.error("Cannot close the spill file of notifications", ex);
+            }
+        }
+    }
+}
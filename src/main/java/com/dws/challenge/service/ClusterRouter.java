@@ -0,0 +1,227 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.SubAccount;
+import com.dws.challenge.exception.NodeUnavailableException;
+import com.dws.challenge.exception.ServiceException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of accounts between the nodes of the cluster (cluster.nodes),every node owns the accounts,
+ * the locks and the transfer logs of its partitions. Every node is put on the ring cluster.virtual-nodes times,
+ * the account belongs to the first node clockwise from its hash: the node added to the cluster takes
+ * about 1/N of the accounts from the others and the rest of them stay where they are.
+ * Stripes of the hot account (SubAccount) live with their main account.
+ * The cluster is disabled if cluster.nodes is empty,then every account is local.
+ * Requests sent to other nodes carry FORWARDED_HEADER,so the node never forwards them again.
+ */
+@Service
+@Slf4j
+public class ClusterRouter {
+    public static final String FORWARDED_HEADER = "X-Cluster-Forwarded";
+    //HttpClient sets them itself,the rest of the headers of the client are forwarded
+    private static final Set<String> HOP_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade",
+            "keep-alive", "transfer-encoding", "te", "trailer", "http2-settings");
+    //headers of the reply of the owner returned to the client
+    private static final List<String> REPLY_HEADERS = List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.RETRY_AFTER, HttpHeaders.LOCATION);
+
+    /**
+     * FORWARD: the node sends the request to the owner of the account and returns its reply,
+     * REDIRECT: the client gets 307 with the owner in Location and sends the request again.
+     */
+    public enum Routing {
+        FORWARD,
+        REDIRECT
+    }
+
+    @Getter
+    private final List<String> nodes;
+    @Getter
+    private final String self;
+    @Getter
+    private final Routing routing;
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+    @Getter
+    private final Duration timeout;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * The single node: every account is local.
+     */
+    public ClusterRouter() {
+        this(new String[0], "", 128, Routing.FORWARD, Duration.ofSeconds(2));
+    }
+
+    @Autowired
+    public ClusterRouter(@Value("${cluster.nodes:}") String[] nodes,
+                         @Value("${cluster.self:}") String self,
+                         @Value("${cluster.virtual-nodes:128}") int virtualNodes,
+                         @Value("${cluster.routing:FORWARD}") Routing routing,
+                         @Value("${cluster.timeout:2s}") Duration timeout) {
+        List<String> members = new ArrayList<>();
+        for (String node : nodes) {
+            if (!node.isBlank()) {
+                members.add(baseUrl(node));
+            }
+        }
+        this.nodes = List.copyOf(members);
+        this.self = members.isEmpty() ? "" : baseUrl(self);
+        if (!members.isEmpty() && !members.contains(this.self)) {
+            throw new IllegalArgumentException("cluster.self " + self + " isn't one of cluster.nodes " + members);
+        }
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("cluster.virtual-nodes must be positive");
+        }
+        for (String node : members) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+        this.routing = routing;
+        this.timeout = timeout;
+        //the single node never sends requests to other nodes
+        this.client = members.isEmpty() ? null : HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+        if (!members.isEmpty()) {
+            log.info("Node {} of the cluster {}", this.self, members);
+        }
+    }
+
+    private static String baseUrl(String node) {
+        String trimmed = node.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    public boolean isEnabled() {
+        return !ring.isEmpty();
+    }
+
+    /**
+     * Base URL of the node which owns the account.
+     */
+    public String ownerOf(String accountId) {
+        if (ring.isEmpty()) {
+            return self;
+        }
+        Map.Entry<Long, String> owner = ring.ceilingEntry(hash(SubAccount.ownerOf(accountId)));
+        return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+    }
+
+    public boolean isLocal(String accountId) {
+        return ring.isEmpty() || ownerOf(accountId).equals(self);
+    }
+
+    /**
+     * Send the request of the client to the node and return its reply as it is (errors too).
+     *
+     * @param body it's sent as JSON,null is no body.
+     * @throws NodeUnavailableException if the node doesn't reply.
+     */
+    public ResponseEntity<String> forward(String node, String method, String pathAndQuery, HttpHeaders headers, Object body) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(node + pathAndQuery))
+                .timeout(timeout)
+                .method(method, body != null ? HttpRequest.BodyPublishers.ofString(json(body)) : HttpRequest.BodyPublishers.noBody());
+        headers.forEach((name, values) -> {
+            if (!HOP_HEADERS.contains(name.toLowerCase()) && !name.equalsIgnoreCase(FORWARDED_HEADER)) {
+                values.forEach(value -> request.header(name, value));
+            }
+        });
+        HttpResponse<String> reply = send(node, request);
+        HttpHeaders replyHeaders = new HttpHeaders();
+        REPLY_HEADERS.forEach(name -> reply.headers().firstValue(name).ifPresent(value -> replyHeaders.add(name, value)));
+        return new ResponseEntity<>(reply.body(), replyHeaders, HttpStatus.valueOf(reply.statusCode()));
+    }
+
+    /**
+     * POST the request of the cluster protocol (see ClusterTransferService) to the node.
+     *
+     * @throws ServiceException         if the node rejected it,its message is the error of the node.
+     * @throws NodeUnavailableException if the node doesn't reply or is overloaded.
+     */
+    public void call(String node, String pathAndQuery) {
+        HttpResponse<String> reply = send(node, HttpRequest.newBuilder(URI.create(node + pathAndQuery))
+                .timeout(timeout)
+                .POST(HttpRequest.BodyPublishers.noBody()));
+        int status = reply.statusCode();
+        if (status / 100 == 2) {
+            return;
+        }
+        String message = errorMessage(reply.body());
+        if (status == HttpStatus.BAD_REQUEST.value()) {
+            throw new ServiceException(message);
+        }
+        throw new NodeUnavailableException("The node " + node + " replied " + status + ": " + message);
+    }
+
+    private HttpResponse<String> send(String node, HttpRequest.Builder request) {
+        try {
+            return client.send(request.header(FORWARDED_HEADER, self).build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            throw new NodeUnavailableException("The node " + node + " is unavailable: " + ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new NodeUnavailableException("Interrupted while waiting for the node " + node);
+        }
+    }
+
+    private String json(Object body) {
+        try {
+            return objectMapper.writeValueAsString(body);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException("Cannot write the body " + body, ex);
+        }
+    }
+
+    private String errorMessage(String body) {
+        try {
+            JsonNode msg = objectMapper.readTree(body).get("msg");
+            return msg != null ? msg.asText() : body;
+        } catch (JsonProcessingException ex) {
+            return body;
+        }
+    }
+
+    /**
+     * FNV-1a of UTF-8 bytes with the finalizer of MurmurHash3,the same on every node and JVM
+     * (String.hashCode() puts the similar virtual nodes next to each other).
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,50 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+
+import javax.validation.constraints.Min;
+import java.math.BigDecimal;
+
+/**
+ * Transfer money between the accounts of different nodes of the cluster (see ClusterRouter) in two phases,
+ * the node of fromAccount coordinates it under the lock of fromAccount and its TransferLog tracks the progress:
+ * START: the balance is checked,then the node of toAccount is asked to prepare (phase 1),
+ * DEBIT_FROM_ACCOUNT: fromAccount is debited,
+ * CREDIT_TO_ACCOUNT: the commit decision,from now on the transfer is only rolled forward,
+ * the node of toAccount is asked to commit (phase 2),it credits toAccount once for the transfer id,
+ * COMPLETED: the node of toAccount is told to forget the id of the transfer.
+ * The credit can't be refused once toAccount exists,so the node of toAccount keeps neither state nor lock between the phases.
+ * If the commit isn't acknowledged,the transfer stays in CREDIT_TO_ACCOUNT (in doubt) and the commit is sent again:
+ * periodically and before the next transfer between the same accounts (TransferRepositoryLog keeps the last one).
+ */
+public interface ClusterTransferService {
+
+    /**
+     * Coordinate the transfer to the account of other node.
+     *
+     * @throws com.dws.challenge.exception.NodeUnavailableException if the node of toAccount doesn't reply to prepare.
+     */
+    void transfer(Account fromAccount, String toAccountId, @Min(1) BigDecimal amount);
+
+    /**
+     * Phase 1 on the node of toAccount: it owns toAccount and is ready to credit it.
+     */
+    void prepare(String transferId, String fromAccountId, String toAccountId, @Min(1) BigDecimal amount);
+
+    /**
+     * Phase 2 on the node of toAccount: credit it,the repeated commit of the same transfer does nothing.
+     */
+    void commit(String transferId, String fromAccountId, String toAccountId, @Min(1) BigDecimal amount);
+
+    /**
+     * On the node of toAccount: the coordinator has completed the transfer and doesn't commit it again.
+     */
+    void forget(String transferId, String toAccountId);
+
+    /**
+     * Send the commit of the transfers in doubt again.
+     *
+     * @return number of committed transfers.
+     */
+    int resolveInDoubt();
+}
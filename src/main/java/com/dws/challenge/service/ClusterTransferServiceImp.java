@@ -0,0 +1,267 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.Amount;
+import com.dws.challenge.domain.OutboxMessage;
+import com.dws.challenge.domain.TransferLog;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.InsufficientFundsException;
+import com.dws.challenge.exception.LockServiceException;
+import com.dws.challenge.exception.ServiceException;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.OutboxRepository;
+import com.dws.challenge.repository.TransferRepositoryLog;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.annotation.Validated;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The requests of the phases are sent by ClusterRouter to ClusterController of the node of toAccount.
+ * The transfers in doubt are committed again every cluster.retry-interval,
+ * TransferRecoveryService leaves them to this service after the crash.
+ * The participant keeps the id of the committed transfer in pendingTransferIds of toAccount (it's saved with the balance
+ * and isn't overwritten by other transfers) until the coordinator acknowledges the completed transfer by forget,
+ * so the repeated commit doesn't credit toAccount twice.
+ */
+@Service
+@Validated
+@Slf4j
+public class ClusterTransferServiceImp implements ClusterTransferService {
+    public static final String TRANSFERS_PATH = "/v1/cluster/transfers/";
+    //the lock of the transfer id doesn't collide with the accounts
+    private static final String TRANSFER_LOCK_PREFIX = "transfer:";
+
+    private final ClusterRouter clusterRouter;
+    private final AdvisoryLockService lockService;
+    private final TransferRepositoryLog transferRepositoryLog;
+    private final OutboxRepository outboxRepository;
+    private final AccountsRepository accountsRepository;
+    private final Duration lockTimeout;
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public ClusterTransferServiceImp(ClusterRouter clusterRouter, AdvisoryLockService lockService,
+                                     TransferRepositoryLog transferRepositoryLog, OutboxRepository outboxRepository,
+                                     AccountsRepository accountsRepository,
+                                     @Value("${lock.acquire.timeout:5s}") Duration lockTimeout,
+                                     @Value("${cluster.retry-interval:5s}") Duration retryInterval) {
+        this.clusterRouter = clusterRouter;
+        this.lockService = lockService;
+        this.transferRepositoryLog = transferRepositoryLog;
+        this.outboxRepository = outboxRepository;
+        this.accountsRepository = accountsRepository;
+        this.lockTimeout = lockTimeout;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-in-doubt");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (clusterRouter.isEnabled() && !retryInterval.isZero()) {
+            scheduler.scheduleWithFixedDelay(this::resolveInDoubtQuietly, retryInterval.toMillis(), retryInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void resolveInDoubtQuietly() {
+        try {
+            resolveInDoubt();
+        } catch (Exception ex) {
+            log.error("Cannot resolve transfers in doubt", ex);
+        }
+    }
+
+    @Override
+    public void transfer(@NonNull Account fromAccount, @NonNull String toAccountId, @NonNull BigDecimal amount) {
+        String toNode = clusterRouter.ownerOf(toAccountId);
+        Amount transferAmount = Amount.of(amount, fromAccount.getScale());
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(fromAccount.getAccountId()), lockTimeout);
+        if (locked.isEmpty())
+            throw new LockServiceException("Cannot acquired the lock for the accounts " + fromAccount.getAccountId());
+        try {
+            //the log keeps only the last transfer between these accounts,so the one in doubt is committed first
+            transferRepositoryLog.findFor(fromAccount.getAccountId(), toAccountId)
+                    .filter(previous -> previous.getStatus() == TransferStatus.CREDIT_TO_ACCOUNT)
+                    .ifPresent(previous -> commitRemote(previous, toNode));
+            TransferLog transferLog = transferRepositoryLog.create(fromAccount.getAccountId(), toAccountId, amount);
+            prepareAndDebit(transferLog, fromAccount, transferAmount, toNode, locked.get().getFence());
+            try {
+                commitRemote(transferLog, toNode);
+            } catch (RuntimeException ex) {
+                //the money has left fromAccount,the client isn't asked to retry it
+                log.warn("The transfer {} is committed,but {} didn't acknowledge the credit,it's sent again later", transferLog.getId(), toNode, ex);
+            }
+        } finally {
+            lockService.release(locked.get());
+        }
+    }
+
+    /**
+     * Everything before the commit decision is rolled back if it fails.
+     */
+    private void prepareAndDebit(TransferLog transferLog, Account fromAccount, Amount amount, String toNode, long fence) {
+        boolean debited = false;
+        try {
+            if (!fromAccount.hasAtLeast(amount)) {
+                outboxRepository.add(OutboxMessage.notEnoughMoney(transferLog.getId(), fromAccount.getAccountId()));
+                throw new InsufficientFundsException(fromAccount + " doesn't contain enough money.");
+            }
+            clusterRouter.call(toNode, path(transferLog, "prepare"));
+            transferLog.setStatus(TransferStatus.DEBIT_FROM_ACCOUNT);
+            transferRepositoryLog.save(transferLog);
+            AccountChanges.debit(accountsRepository, fromAccount, amount, transferLog.getId(), false, fence);
+            debited = true;
+            //the commit decision
+            transferLog.setStatus(TransferStatus.CREDIT_TO_ACCOUNT);
+            transferRepositoryLog.save(transferLog);
+        } catch (RuntimeException ex) {
+            if (debited) {
+                AccountChanges.undo(accountsRepository, fromAccount, amount, true);
+            }
+            transferLog.setStatus(TransferStatus.FAILED);
+            transferRepositoryLog.save(transferLog);
+            throw ex;
+        }
+    }
+
+    /**
+     * Phase 2,then the transfer is completed and its notifications are saved to the outbox like TransferServiceImp does.
+     * The completed transfer isn't committed again,so the node of toAccount may forget it.
+     */
+    private void commitRemote(TransferLog transferLog, String toNode) {
+        clusterRouter.call(toNode, path(transferLog, "commit"));
+        outboxRepository.add(OutboxMessage.completed(transferLog.getId(), transferLog.getFromAccountId(), transferLog.getToAccountId(), transferLog.getAmount()));
+        transferLog.setStatus(TransferStatus.COMPLETED);
+        try {
+            transferRepositoryLog.save(transferLog);
+        } catch (RuntimeException ex) {
+            outboxRepository.remove(transferLog.getId());
+            throw ex;
+        }
+        try {
+            clusterRouter.call(toNode, path(transferLog, "forget"));
+        } catch (RuntimeException ex) {
+            //it only keeps the id on toAccount,the credit is made once anyway
+            log.warn("{} didn't get the acknowledgment of the completed transfer {}", toNode, transferLog.getId(), ex);
+        }
+    }
+
+    private static String path(TransferLog transferLog, String phase) {
+        return TRANSFERS_PATH + encode(transferLog.getId()) + "/" + phase
+                + "?fromAccountId=" + encode(transferLog.getFromAccountId())
+                + "&toAccountId=" + encode(transferLog.getToAccountId())
+                + "&amount=" + transferLog.getAmount().toPlainString();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void prepare(@NonNull String transferId, @NonNull String fromAccountId, @NonNull String toAccountId, @NonNull BigDecimal amount) {
+        if (!clusterRouter.isLocal(toAccountId) || accountsRepository.getAccount(toAccountId) == null) {
+            throw new ServiceException("Cannot find the account " + toAccountId);
+        }
+    }
+
+    /**
+     * The credit is logged with the id of the transfer of the coordinator,the id is saved as pending with the balance
+     * of toAccount,so the repeated commit of the same transfer returns without the credit even if other transfers
+     * of toAccount came after it. The credit is saved with the fence of the lease.
+     * toAccount is locked together with the transfer id,but the lock is waited for only half of cluster.timeout:
+     * the coordinator waits for the commit under the lock of fromAccount,so two nodes committing transfers
+     * in the opposite directions would wait for each other,the commit which gives up is sent again later.
+     * If it fails,the log stays in CREDIT_TO_ACCOUNT without the credit and the repeated commit makes it again
+     * (after the crash the recovery finishes it before the node serves requests).
+     */
+    @Override
+    public void commit(@NonNull String transferId, @NonNull String fromAccountId, @NonNull String toAccountId, @NonNull BigDecimal amount) {
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(TRANSFER_LOCK_PREFIX + transferId, toAccountId),
+                clusterRouter.getTimeout().dividedBy(2));
+        if (locked.isEmpty())
+            throw new LockServiceException("Cannot acquired the lock for the transfer " + transferId + " and the account " + toAccountId);
+        try {
+            Optional<TransferLog> last = transferRepositoryLog.findFor(fromAccountId, toAccountId);
+            if (last.isPresent() && last.get().getId().equals(transferId) && last.get().getStatus() == TransferStatus.COMPLETED) {
+                return;
+            }
+            Account toAccount = accountsRepository.getAccount(toAccountId);
+            if (toAccount == null) {
+                throw new ServiceException("Cannot find the account " + toAccountId);
+            }
+            if (toAccount.isApplied(transferId)) {
+                return;
+            }
+            TransferLog transferLog = TransferLog.restore(transferId, fromAccountId, toAccountId, amount,
+                    TransferStatus.CREDIT_TO_ACCOUNT, LocalDateTime.now());
+            //write ahead log
+            transferRepositoryLog.save(transferLog);
+            AccountChanges.changePending(accountsRepository, toAccount, Amount.of(amount, toAccount.getScale()), true,
+                    transferId, false, locked.get().getFence());
+            transferLog.setStatus(TransferStatus.COMPLETED);
+            transferRepositoryLog.save(transferLog);
+        } finally {
+            lockService.release(locked.get());
+        }
+    }
+
+    @Override
+    public void forget(@NonNull String transferId, @NonNull String toAccountId) {
+        Account toAccount = accountsRepository.getAccount(toAccountId);
+        if (toAccount != null) {
+            AccountChanges.finishPending(accountsRepository, toAccount, transferId);
+        }
+    }
+
+    /**
+     * The transfer in doubt is committed under the lock of fromAccount,
+     * if fromAccount is locked,its transfer commits the previous one itself.
+     */
+    @Override
+    public int resolveInDoubt() {
+        int committed = 0;
+        for (TransferLog inDoubt : transferRepositoryLog.findUnfinished()) {
+            String fromAccountId = inDoubt.getFromAccountId();
+            String toAccountId = inDoubt.getToAccountId();
+            if (inDoubt.getStatus() != TransferStatus.CREDIT_TO_ACCOUNT || TransferLog.EXTERNAL.equals(fromAccountId)
+                    || !clusterRouter.isLocal(fromAccountId) || clusterRouter.isLocal(toAccountId)) {
+                continue;
+            }
+            Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(fromAccountId), Duration.ZERO);
+            if (locked.isEmpty()) {
+                continue;
+            }
+            try {
+                Optional<TransferLog> current = transferRepositoryLog.findFor(fromAccountId, toAccountId)
+                        .filter(transferLog -> transferLog.getId().equals(inDoubt.getId()) && transferLog.getStatus() == TransferStatus.CREDIT_TO_ACCOUNT);
+                if (current.isPresent()) {
+                    commitRemote(current.get(), clusterRouter.ownerOf(toAccountId));
+                    committed++;
+                }
+            } catch (RuntimeException ex) {
+                log.warn("Cannot commit the transfer {} in doubt,it's retried later", inDoubt.getId(), ex);
+            } finally {
+                lockService.release(locked.get());
+            }
+        }
+        return committed;
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,115 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.AccountContention;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.EventData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Top contended accounts built from the sampled lock.acquire spans of AdvisoryLockServiceImp:
+ * every lock.busy event of the span says which account it waited for and who owned it,
+ * the time till the next event (or the end of the span) is the wait for that account.
+ * It's registered to the tracer provider by TracingConfig,so it's empty if tracing is disabled.
+ * At most maxAccounts accounts are tracked,the new ones are skipped when it's full.
+ */
+@Service
+public class ContentionReport implements SpanProcessor {
+    private final int maxAccounts;
+    private final ConcurrentMap<String, Contention> accounts = new ConcurrentHashMap<>();
+
+    private static final class Contention {
+        private final LongAdder waits = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+        private volatile String lastOwner;
+    }
+
+    @Autowired
+    public ContentionReport(@Value("${tracing.contention.max-accounts:10000}") int maxAccounts) {
+        this.maxAccounts = maxAccounts;
+    }
+
+    @Override
+    public void onStart(Context parentContext, ReadWriteSpan span) {
+    }
+
+    @Override
+    public boolean isStartRequired() {
+        return false;
+    }
+
+    @Override
+    public void onEnd(ReadableSpan span) {
+        if (!LockTracing.ACQUIRE_SPAN.equals(span.getName())) {
+            return;
+        }
+        SpanData spanData = span.toSpanData();
+        List<EventData> events = spanData.getEvents();
+        for (int i = 0; i < events.size(); i++) {
+            EventData event = events.get(i);
+            if (!LockTracing.BUSY_EVENT.equals(event.getName())) {
+                continue;
+            }
+            long waitedUntil = i + 1 < events.size() ? events.get(i + 1).getEpochNanos() : spanData.getEndEpochNanos();
+            record(event.getAttributes().get(LockTracing.ACCOUNT_ID),
+                    event.getAttributes().get(LockTracing.OWNER),
+                    waitedUntil - event.getEpochNanos());
+        }
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return true;
+    }
+
+    private void record(String accountId, String owner, long waitNanos) {
+        if (accountId == null) {
+            return;
+        }
+        Contention contention = accounts.get(accountId);
+        if (contention == null) {
+            if (accounts.size() >= maxAccounts) {
+                return;
+            }
+            contention = accounts.computeIfAbsent(accountId, id -> new Contention());
+        }
+        contention.waits.increment();
+        contention.waitNanos.add(waitNanos);
+        contention.maxWaitNanos.accumulate(waitNanos);
+        if (owner != null) {
+            contention.lastOwner = owner;
+        }
+    }
+
+    /**
+     * Accounts with the longest total wait first.
+     */
+    public List<AccountContention> top(int limit) {
+        return accounts.entrySet().stream()
+                .map(entry -> new AccountContention(entry.getKey(), entry.getValue().waits.sum(),
+                        TimeUnit.NANOSECONDS.toMicros(entry.getValue().waitNanos.sum()),
+                        TimeUnit.NANOSECONDS.toMicros(entry.getValue().maxWaitNanos.get()), entry.getValue().lastOwner))
+                .sorted(Comparator.comparingLong(AccountContention::getTotalWaitMicros).reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    public void clear() {
+        accounts.clear();
+    }
+}
@@ -0,0 +1,296 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.SubAccount;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.exception.LockServiceException;
+import com.dws.challenge.exception.ServiceException;
+import com.dws.challenge.repository.AccountsRepository;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Hot accounts (fee collectors,merchant settlement) are split into the main account and K stripes (see SubAccount):
+ * credits go to a random stripe,so they don't wait for the lock of the main account and for each other,
+ * debits take money from the main account,the stripes are folded into it first if it's not enough.
+ * The stripes are also folded periodically (rebalance). The fold is the usual transfer from the stripe
+ * to the main account,so it's saved to TransferLog and the recovery finishes it after the crash.
+ * Readers get the sum of the main account and the stripes,the fold counter works like the seqlock of Account:
+ * it's odd while the money moves between the stripe and the main account and readers retry.
+ * Hot accounts are set by hot-accounts.ids or enabled at runtime,
+ * the account can't be removed from hot-accounts.ids while its stripes have money.
+ * With accounts.store=persistent the hot accounts enabled at runtime are saved to accounts.dir,
+ * they are enabled again on start,so the money of their restored stripes is still seen by readers and debits.
+ */
+@Service
+@Slf4j
+public class HotAccountRegistry {
+
+    private static final String HOT_ACCOUNTS_FILE = "hot-accounts.txt";
+
+    private final AccountsRepository accountsRepository;
+    private final TransferService transferService;
+    private final int stripeCount;
+    private final int moneyScale;
+    private final ConcurrentMap<String, HotAccount> hotAccounts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    //null if accounts aren't persistent
+    private final Path hotAccountsFile;
+
+    private static class HotAccount {
+        private final ReentrantLock foldLock = new ReentrantLock();
+        private final AtomicLong folds = new AtomicLong();
+    }
+
+    @Autowired
+    public HotAccountRegistry(AccountsRepository accountsRepository, TransferService transferService,
+                              @Value("${hot-accounts.ids:}") String[] accountIds,
+                              @Value("${hot-accounts.stripes:8}") int stripeCount,
+                              @Value("${hot-accounts.rebalance-interval:1s}") Duration rebalanceInterval,
+                              @Value("${money.scale:-1}") int moneyScale,
+                              @Value("${accounts.store:memory}") String accountsStore,
+                              @Value("${accounts.dir:./data/accounts}") Path accountsDir) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("hot-accounts.stripes must be positive");
+        }
+        this.accountsRepository = accountsRepository;
+        this.transferService = transferService;
+        this.stripeCount = stripeCount;
+        this.moneyScale = moneyScale;
+        this.hotAccountsFile = "persistent".equals(accountsStore) ? accountsDir.resolve(HOT_ACCOUNTS_FILE) : null;
+        //the accounts of hot-accounts.ids may be created later,so they aren't checked
+        for (String accountId : accountIds) {
+            if (!accountId.isBlank()) {
+                split(accountId.trim());
+            }
+        }
+        for (String accountId : loadHotAccountIds()) {
+            split(accountId);
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hot-account-rebalance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!rebalanceInterval.isZero()) {
+            scheduler.scheduleWithFixedDelay(this::rebalanceQuietly, rebalanceInterval.toMillis(), rebalanceInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Split the existing account into stripes and save it to the hot accounts which are enabled on start.
+     */
+    public void enable(@NonNull String accountId) {
+        if (accountsRepository.getAccount(accountId) == null) {
+            throw new ServiceException("Not found the account:" + accountId);
+        }
+        if (split(accountId)) {
+            saveHotAccountIds();
+        }
+    }
+
+    /**
+     * The existing stripes (e.g. restored by the persistent store) are reused.
+     *
+     * @return false if the account is hot already.
+     */
+    private boolean split(String accountId) {
+        if (SubAccount.isSubAccount(accountId)) {
+            throw new ServiceException("The stripe " + accountId + " can't be split again");
+        }
+        for (int i = 0; i < stripeCount; i++) {
+            createStripe(SubAccount.id(accountId, i));
+        }
+        if (hotAccounts.putIfAbsent(accountId, new HotAccount()) != null) {
+            return false;
+        }
+        log.info("Account {} is split into {} stripes", accountId, stripeCount);
+        return true;
+    }
+
+    private List<String> loadHotAccountIds() {
+        if (hotAccountsFile == null || !Files.exists(hotAccountsFile)) {
+            return List.of();
+        }
+        try {
+            return Files.readAllLines(hotAccountsFile).stream()
+                    .filter(accountId -> !accountId.isBlank())
+                    .collect(Collectors.toList());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot load hot accounts from " + hotAccountsFile, ex);
+        }
+    }
+
+    /**
+     * The whole set is written to the temporary file which replaces the old one.
+     */
+    private synchronized void saveHotAccountIds() {
+        if (hotAccountsFile == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(hotAccountsFile.getParent());
+            Path tmp = hotAccountsFile.resolveSibling(HOT_ACCOUNTS_FILE + ".tmp");
+            Files.write(tmp, new ArrayList<>(hotAccounts.keySet()));
+            Files.move(tmp, hotAccountsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot save hot accounts to " + hotAccountsFile, ex);
+        }
+    }
+
+    public boolean isHot(String accountId) {
+        return hotAccounts.containsKey(accountId);
+    }
+
+    public Set<String> getHotAccountIds() {
+        return Set.copyOf(hotAccounts.keySet());
+    }
+
+    /**
+     * @return a random stripe of the hot account to credit.
+     */
+    public Account pickStripe(@NonNull String accountId) {
+        return getStripe(SubAccount.id(accountId, ThreadLocalRandom.current().nextInt(stripeCount)));
+    }
+
+    /**
+     * Return the consistent snapshot of the hot account with the balance of the main account and all its stripes.
+     */
+    public Account snapshot(@NonNull Account account) {
+        HotAccount hotAccount = hotAccounts.get(account.getAccountId());
+        if (hotAccount == null) {
+            return account.snapshot();
+        }
+        for (int attempt = 0; ; attempt++) {
+            long before = hotAccount.folds.get();
+            if ((before & 1) == 0) {
+                Account total = account.snapshot();
+                BigDecimal balance = total.getBalance();
+                for (int i = 0; i < stripeCount; i++) {
+                    Account stripe = accountsRepository.getAccount(SubAccount.id(account.getAccountId(), i));
+                    if (stripe != null) {
+                        Account stripeSnapshot = stripe.snapshot();
+                        balance = balance.add(stripeSnapshot.getBalance());
+                        if (stripeSnapshot.getUpdateAt().isAfter(total.getUpdateAt())) {
+                            total.setUpdateAt(stripeSnapshot.getUpdateAt());
+                        }
+                    }
+                }
+                if (hotAccount.folds.get() == before) {
+                    total.setBalance(balance);
+                    return total;
+                }
+            }
+            //the fold of one stripe is one short transfer,the stripes are locked only by credits
+            if (attempt < 100) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            }
+        }
+    }
+
+    /**
+     * Move money of all stripes to the main account,it's called before the debit if the main account doesn't have enough.
+     * The stripes are only credited between the folds,so the stripe always has the money of its snapshot.
+     *
+     * @throws LockServiceException if the stripe or the main account can't be locked,
+     *                              the stripes folded before it stay folded.
+     */
+    public void fold(@NonNull String accountId) {
+        HotAccount hotAccount = hotAccounts.get(accountId);
+        if (hotAccount == null) {
+            return;
+        }
+        Account main = accountsRepository.getAccount(accountId);
+        if (main == null) {
+            return;
+        }
+        hotAccount.foldLock.lock();
+        try {
+            for (int i = 0; i < stripeCount; i++) {
+                Account stripe = getStripe(SubAccount.id(accountId, i));
+                BigDecimal balance = stripe.snapshot().getBalance();
+                if (balance.signum() <= 0) {
+                    continue;
+                }
+                hotAccount.folds.incrementAndGet();
+                try {
+                    transferService.transfer(stripe, main, balance);
+                } finally {
+                    hotAccount.folds.incrementAndGet();
+                }
+            }
+        } finally {
+            hotAccount.foldLock.unlock();
+        }
+    }
+
+    /**
+     * Fold the stripes of all hot accounts.
+     */
+    public void rebalance() {
+        for (String accountId : new ArrayList<>(hotAccounts.keySet())) {
+            try {
+                fold(accountId);
+            } catch (LockServiceException ex) {
+                log.debug("Account {} is busy,it's rebalanced later", accountId);
+            }
+        }
+    }
+
+    private void rebalanceQuietly() {
+        try {
+            rebalance();
+        } catch (Exception ex) {
+            log.error("Cannot rebalance hot accounts", ex);
+        }
+    }
+
+    private Account getStripe(String stripeId) {
+        Account stripe = accountsRepository.getAccount(stripeId);
+        //the stripe is created again if the accounts were cleared
+        return stripe != null ? stripe : createStripe(stripeId);
+    }
+
+    private Account createStripe(String stripeId) {
+        Account stripe = new Account(stripeId, BigDecimal.ZERO);
+        stripe.useScale(moneyScale);
+        try {
+            accountsRepository.createAccount(stripe);
+            return stripe;
+        } catch (DuplicateAccountIdException ex) {
+            return accountsRepository.getAccount(stripeId);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
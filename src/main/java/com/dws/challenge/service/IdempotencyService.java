@@ -0,0 +1,32 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.TransferResult;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Run the transfer once for the Idempotency-Key,retries of the client get the result of the first run.
+ */
+public interface IdempotencyService {
+    /**
+     * Return the stored result of the key or run the transfer and store its result.
+     * The result is stored if the transfer is completed or failed by ServiceException (e.g. not enough money),
+     * other exceptions (e.g. LockServiceException) are thrown and the retry runs the transfer again.
+     * The concurrent duplicate waits for the result of the running transfer.
+     *
+     * @param key         Idempotency-Key of the client.
+     * @param fingerprint the request,the key of another request is rejected by ServiceException.
+     * @param transfer    it's run only if the key is unknown.
+     * @return the result of the transfer,the failed result is returned too.
+     */
+    TransferResult execute(String key, String fingerprint, Supplier<TransferResult> transfer);
+
+    /**
+     * Run the transfer like execute() without blocking the caller: the transfer returns its future,
+     * the result is stored when the future is completed and the concurrent duplicate gets the future of the running one.
+     *
+     * @return the future is completed exceptionally by the same exceptions as execute() throws.
+     */
+    CompletableFuture<TransferResult> executeAsync(String key, String fingerprint, Supplier<CompletableFuture<TransferResult>> transfer);
+}
@@ -0,0 +1,161 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.IdempotentTransfer;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.LockServiceException;
+import com.dws.challenge.exception.ServiceException;
+import com.dws.challenge.repository.IdempotencyRepository;
+import lombok.Data;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Running transfers are kept as futures by their keys,so the concurrent duplicate waits for the first run
+ * instead of transferring the money again. The finished result is saved to IdempotencyRepository
+ * (bounded,it expires after ttl) before the future is removed,so the duplicate always finds one of them.
+ * The stored result is returned without locks and without AccountsRepository.
+ */
+@Service
+public class IdempotencyServiceImp implements IdempotencyService {
+
+    private final IdempotencyRepository idempotencyRepository;
+    private final Duration ttl;
+    private final Duration waitTimeout;
+    private final ConcurrentMap<String, Running> running = new ConcurrentHashMap<>();
+
+    @Data
+    private static class Running {
+        private final String fingerprint;
+        private final CompletableFuture<TransferResult> result = new CompletableFuture<>();
+    }
+
+    /**
+     * @param waitTimeout how long the duplicate waits for the running transfer,
+     *                    the transfer waits for the lock the same time.
+     */
+    @Autowired
+    public IdempotencyServiceImp(IdempotencyRepository idempotencyRepository,
+                                 @Value("${idempotency.ttl:24h}") Duration ttl,
+                                 @Value("${lock.acquire.timeout:5s}") Duration waitTimeout) {
+        this.idempotencyRepository = idempotencyRepository;
+        this.ttl = ttl;
+        this.waitTimeout = waitTimeout;
+    }
+
+    @Override
+    public TransferResult execute(@NonNull String key, @NonNull String fingerprint, @NonNull Supplier<TransferResult> transfer) {
+        try {
+            return executeAsync(key, fingerprint, () -> CompletableFuture.completedFuture(transfer.get())).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<TransferResult> executeAsync(@NonNull String key, @NonNull String fingerprint,
+                                                          @NonNull Supplier<CompletableFuture<TransferResult>> transfer) {
+        Optional<TransferResult> stored = findStored(key, fingerprint);
+        if (stored.isPresent()) {
+            return CompletableFuture.completedFuture(stored.get());
+        }
+        Running mine = new Running(fingerprint);
+        Running other = running.putIfAbsent(key, mine);
+        if (other != null) {
+            checkFingerprint(key, fingerprint, other.getFingerprint());
+            return await(key, other);
+        }
+        //the first run could finish between findStored and putIfAbsent
+        try {
+            stored = findStored(key, fingerprint);
+        } catch (RuntimeException ex) {
+            finish(key, mine, null, ex);
+            throw ex;
+        }
+        if (stored.isPresent()) {
+            finish(key, mine, stored.get(), null);
+            return CompletableFuture.completedFuture(stored.get());
+        }
+        CompletableFuture<TransferResult> transferred;
+        try {
+            transferred = transfer.get();
+        } catch (RuntimeException ex) {
+            transferred = CompletableFuture.failedFuture(ex);
+        }
+        return transferred.handle((result, ex) -> {
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof ServiceException) {
+                result = TransferResult.failed(null, cause.getMessage());
+            } else if (cause != null) {
+                //not stored,the waiting duplicates get the exception and the next retry runs the transfer again
+                finish(key, mine, null, cause);
+                throw new CompletionException(cause);
+            }
+            try {
+                idempotencyRepository.save(new IdempotentTransfer(key, fingerprint, result,
+                        System.currentTimeMillis() + ttl.toMillis()));
+            } catch (RuntimeException saveEx) {
+                finish(key, mine, null, saveEx);
+                throw saveEx;
+            }
+            finish(key, mine, result, null);
+            return result;
+        });
+    }
+
+    /**
+     * The result is saved before the future is removed,so the duplicate always finds one of them.
+     */
+    private void finish(String key, Running mine, TransferResult result, Throwable ex) {
+        if (ex == null) {
+            mine.getResult().complete(result);
+        } else {
+            mine.getResult().completeExceptionally(ex);
+        }
+        running.remove(key, mine);
+    }
+
+    private Optional<TransferResult> findStored(String key, String fingerprint) {
+        return idempotencyRepository.find(key).map(stored -> {
+            checkFingerprint(key, fingerprint, stored.getFingerprint());
+            return stored.getResult();
+        });
+    }
+
+    private static void checkFingerprint(String key, String fingerprint, String storedFingerprint) {
+        if (!storedFingerprint.equals(fingerprint)) {
+            throw new ServiceException("Idempotency-Key " + key + " is already used by another transfer");
+        }
+    }
+
+    /**
+     * The duplicate waits for the running transfer at most waitTimeout.
+     */
+    private CompletableFuture<TransferResult> await(String key, Running other) {
+        return other.getResult().copy()
+                .orTimeout(waitTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .handle((result, ex) -> {
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    if (cause instanceof TimeoutException) {
+                        throw new LockServiceException("Transfer with Idempotency-Key " + key + " is still in progress");
+                    } else if (cause != null) {
+                        throw new CompletionException(cause);
+                    }
+                    return result;
+                });
+    }
+}
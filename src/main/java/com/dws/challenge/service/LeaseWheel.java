@@ -0,0 +1,83 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.service.AdvisoryLockService.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Hashed timer wheel of the leases of AdvisoryLockServiceImp: the lease is put to the slot of its expiry tick
+ * modulo the number of slots and every tick visits only its slot,so the expiry doesn't scan the lock table.
+ * add() only appends the lease to the queue,the timer thread moves it to its slot on the next tick:
+ * most leases are released before it,so they never get into the wheel.
+ * The lease released later stays in its slot until the slot is visited.
+ * Slots are changed only by the single timer thread which calls advance().
+ * The lease not released before lock.lease.ttl is expired by it (lock.expired metric).
+ */
+final class LeaseWheel {
+    private static final int SLOTS = 512;
+    private final long tickNanos;
+    private final long startedAt = System.nanoTime();
+    private final Queue<Token> added = new ConcurrentLinkedQueue<>();
+    private final List<List<Token>> slots = new ArrayList<>(SLOTS);
+    private final Predicate<Token> held;
+    private final Consumer<Token> expire;
+    //the next tick to visit
+    private long tick;
+
+    /**
+     * @param held   false if the owner has already released the lease
+     * @param expire release the accounts of the expired lease
+     */
+    LeaseWheel(long tickNanos, Predicate<Token> held, Consumer<Token> expire) {
+        this.tickNanos = tickNanos;
+        this.held = held;
+        this.expire = expire;
+        for (int i = 0; i < SLOTS; i++) {
+            slots.add(new ArrayList<>());
+        }
+    }
+
+    void add(Token lease) {
+        added.add(lease);
+    }
+
+    /**
+     * Visit the slots of the ticks passed till now,the slot of the tick is visited when the tick has started,
+     * so the leases of the slot which expire in this round have already expired.
+     */
+    void advance(long now) {
+        Token lease;
+        while ((lease = added.poll()) != null) {
+            if (held.test(lease)) {
+                long expiryTick = Math.max(Math.ceilDiv(lease.getExpiresAt() - startedAt, tickNanos), tick);
+                slots.get((int) (expiryTick % SLOTS)).add(lease);
+            }
+        }
+        long currentTick = (now - startedAt) / tickNanos;
+        for (; tick <= currentTick; tick++) {
+            slots.get((int) (tick % SLOTS)).removeIf(slotLease -> {
+                if (!held.test(slotLease)) {
+                    return true;
+                }
+                if (now - slotLease.getExpiresAt() >= 0) {
+                    expire.accept(slotLease);
+                    return true;
+                }
+                //it expires in one of the next rounds
+                return false;
+            });
+        }
+    }
+
+    /**
+     * Leases which are waiting in the queue or in the slots,it's for the tests.
+     */
+    int size() {
+        return added.size() + slots.stream().mapToInt(List::size).sum();
+    }
+}
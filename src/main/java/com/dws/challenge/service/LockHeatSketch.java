@@ -0,0 +1,256 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.AccountRate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+
+/**
+ * Acquire rate of accounts over the sliding window,it's cheap enough to be always on:
+ * the window is split into buckets and every bucket is the count-min sketch (depth rows of width counters),
+ * record() increments one counter per row of the current bucket,so the memory doesn't depend on the number of accounts.
+ * When the oldest bucket should become the current one,the pre-cleared spare bucket is swapped in by CAS,
+ * so the window slides by one bucket and record() doesn't wait for the clear: the expired bucket is cleared
+ * by the lock-heat-clear thread and becomes the spare. The late increment of the expired bucket may be left
+ * in the spare,it only makes the estimate higher.
+ * The rate is the estimate divided by the time the window covers (the current bucket is partial).
+ * The sketch can't list the accounts,so it keeps a few candidates for the top: the new account gets into them
+ * if it's estimated higher than the weakest candidate,the weakest ones are removed when there are too many of them.
+ * The estimates may be higher than the real count because of hash collisions,not lower.
+ */
+@Service
+public class LockHeatSketch {
+    private final int depth;
+    private final int mask;
+    private final long bucketNanos;
+    private final long windowNanos;
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final int bucketCount;
+    private final int bucketSize;
+    private final Queue<Bucket> spares = new ConcurrentLinkedQueue<>();
+    private final ExecutorService clearer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "lock-heat-clear");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long startedNanos = System.nanoTime();
+    private final int maxCandidates;
+    private final Set<String> candidates = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean pruning = new AtomicBoolean();
+    //estimate of the weakest candidate after the last prune,it's reset when the window slides
+    private volatile long floor;
+
+    private static final class Bucket {
+        //it's set before the bucket is swapped in,the CAS publishes it
+        private long epoch = Long.MIN_VALUE;
+        private final AtomicLongArray counters;
+
+        private Bucket(int size) {
+            counters = new AtomicLongArray(size);
+        }
+    }
+
+    public LockHeatSketch() {
+        this(Duration.ofSeconds(60), 6, 1024, 4, 100);
+    }
+
+    @Autowired
+    public LockHeatSketch(@Value("${lock.heat.window:60s}") Duration window,
+                          @Value("${lock.heat.buckets:6}") int bucketCount,
+                          @Value("${lock.heat.width:1024}") int width,
+                          @Value("${lock.heat.depth:4}") int depth,
+                          @Value("${lock.heat.candidates:100}") int maxCandidates) {
+        if (bucketCount <= 0 || depth <= 0 || maxCandidates <= 0 || window.toNanos() < bucketCount) {
+            throw new IllegalArgumentException("lock.heat.window,buckets,depth and candidates must be positive");
+        }
+        if (width <= 0 || Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("lock.heat.width must be the power of two");
+        }
+        this.depth = depth;
+        this.mask = width - 1;
+        this.bucketNanos = window.toNanos() / bucketCount;
+        this.windowNanos = bucketNanos * bucketCount;
+        this.maxCandidates = maxCandidates;
+        this.bucketCount = bucketCount;
+        this.bucketSize = width * depth;
+        this.buckets = new AtomicReferenceArray<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            buckets.set(i, new Bucket(bucketSize));
+        }
+        spares.add(new Bucket(bucketSize));
+    }
+
+    public void record(List<String> accountIds) {
+        long epoch = epoch();
+        Bucket bucket = current(epoch);
+        for (String accountId : accountIds) {
+            int hash = hash(accountId);
+            long current = Long.MAX_VALUE;
+            for (int row = 0; row < depth; row++) {
+                current = Math.min(current, bucket.counters.incrementAndGet(index(hash, row)));
+            }
+            offer(accountId, epoch, current);
+        }
+    }
+
+    /**
+     * Accounts acquired most often in the window,the most acquired first.
+     */
+    public List<AccountRate> top(int limit) {
+        long now = System.nanoTime();
+        long epoch = Math.floorDiv(now, bucketNanos);
+        //full buckets of the window and the part of the current one,but not more than the sketch has been running
+        long coveredNanos = Math.min(windowNanos - bucketNanos + (now - epoch * bucketNanos), now - startedNanos);
+        double windowSeconds = Math.max(coveredNanos, 1) / 1e9;
+        return candidates.stream()
+                .map(accountId -> new AccountRate(accountId, estimate(accountId, epoch), 0))
+                .filter(rate -> rate.getAcquires() > 0)
+                .sorted(Comparator.comparingLong(AccountRate::getAcquires).reversed())
+                .limit(limit)
+                .map(rate -> new AccountRate(rate.getAccountId(), rate.getAcquires(), rate.getAcquires() / windowSeconds))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Acquires of accountId in the window,it's never less than the real number.
+     */
+    public long estimate(String accountId) {
+        return estimate(accountId, epoch());
+    }
+
+    private long estimate(String accountId, long epoch) {
+        int hash = hash(accountId);
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int index = index(hash, row);
+            long count = 0;
+            for (int i = 0; i < bucketCount; i++) {
+                Bucket bucket = buckets.get(i);
+                if (bucket.epoch > epoch - bucketCount) {
+                    count += bucket.counters.get(index);
+                }
+            }
+            min = Math.min(min, count);
+        }
+        return min;
+    }
+
+    /**
+     * current is the estimate of the account in the current bucket. When there are enough candidates,
+     * the account is checked only at every 8th acquire in the bucket and the whole window is estimated
+     * only if it's hot enough in the current bucket,so the cold accounts don't pay for it.
+     */
+    private void offer(String accountId, long epoch, long current) {
+        if (candidates.size() >= maxCandidates
+                && ((current & 7) != 0 || current * bucketCount <= floor
+                || candidates.contains(accountId) || estimate(accountId, epoch) <= floor)) {
+            return;
+        }
+        candidates.add(accountId);
+        if (candidates.size() > 2 * maxCandidates) {
+            prune(epoch);
+        }
+    }
+
+    /**
+     * Keep maxCandidates of the highest estimates,only one thread prunes at a time,others don't wait for it.
+     */
+    private void prune(long epoch) {
+        if (!pruning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<AccountRate> ranked = candidates.stream()
+                    .map(accountId -> new AccountRate(accountId, estimate(accountId, epoch), 0))
+                    .sorted(Comparator.comparingLong(AccountRate::getAcquires).reversed())
+                    .collect(Collectors.toList());
+            for (int i = maxCandidates; i < ranked.size(); i++) {
+                candidates.remove(ranked.get(i).getAccountId());
+            }
+            floor = ranked.get(Math.min(maxCandidates, ranked.size()) - 1).getAcquires();
+        } finally {
+            pruning.set(false);
+        }
+    }
+
+    /**
+     * Only the thread which swaps the spare in hands the expired bucket to the clearer,
+     * the losers take the winner's bucket and put their spare back.
+     */
+    private Bucket current(long epoch) {
+        int slot = (int) Math.floorMod(epoch, (long) bucketCount);
+        Bucket bucket = buckets.get(slot);
+        while (bucket.epoch < epoch) {
+            Bucket spare = spares.poll();
+            if (spare == null) {
+                //the clearer is behind,the new bucket is clear too
+                spare = new Bucket(bucketSize);
+            }
+            spare.epoch = epoch;
+            if (buckets.compareAndSet(slot, bucket, spare)) {
+                clear(bucket);
+                //counts of the expired bucket are gone,the weakest candidate may be lower now
+                floor = 0;
+                return spare;
+            }
+            spares.add(spare);
+            bucket = buckets.get(slot);
+        }
+        return bucket;
+    }
+
+    private void clear(Bucket expired) {
+        try {
+            clearer.execute(() -> {
+                for (int i = 0; i < expired.counters.length(); i++) {
+                    expired.counters.set(i, 0);
+                }
+                spares.add(expired);
+            });
+        } catch (RejectedExecutionException ex) {
+            //it's shut down,the spare is allocated next time
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        clearer.shutdown();
+    }
+
+    private long epoch() {
+        return Math.floorDiv(System.nanoTime(), bucketNanos);
+    }
+
+    private int index(int hash, int row) {
+        //double hashing: row i uses hash1 + i * hash2
+        int hash2 = (hash >>> 16) | 1;
+        return row * (mask + 1) + ((hash + row * hash2) & mask);
+    }
+
+    private static int hash(String accountId) {
+        //murmur3 finalizer spreads the bits of String.hashCode() over the whole int
+        int h = accountId.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
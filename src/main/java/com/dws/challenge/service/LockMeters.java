@@ -0,0 +1,76 @@
+package com.dws.challenge.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of AdvisoryLockServiceImp: lock.wait (by mode and result),lock.retries (failed attempts of one acquire),
+ * lock.hold,lock.expired (leases which weren't released in time) and lock.accounts (size of the lock table).
+ * The meters are created once,so recording doesn't allocate.
+ */
+final class LockMeters {
+    private final Timer blockingAcquired;
+    private final Timer blockingTimeout;
+    private final Timer asyncAcquired;
+    private final Timer asyncTimeout;
+    private final DistributionSummary blockingRetries;
+    private final DistributionSummary asyncRetries;
+    private final Timer hold;
+    private final Counter expired;
+
+    LockMeters(MeterRegistry registry, Map<String, ?> lockTable) {
+        blockingAcquired = waitTimer(registry, "blocking", "acquired");
+        blockingTimeout = waitTimer(registry, "blocking", "timeout");
+        asyncAcquired = waitTimer(registry, "async", "acquired");
+        asyncTimeout = waitTimer(registry, "async", "timeout");
+        blockingRetries = retries(registry, "blocking");
+        asyncRetries = retries(registry, "async");
+        hold = Timer.builder("lock.hold")
+                .description("Time from acquiring the accounts to releasing them")
+                .publishPercentileHistogram()
+                .register(registry);
+        expired = Counter.builder("lock.expired")
+                .description("Leases which weren't released before they expired")
+                .register(registry);
+        Gauge.builder("lock.accounts", lockTable, Map::size)
+                .description("Accounts which are locked or waited for")
+                .register(registry);
+    }
+
+    private static Timer waitTimer(MeterRegistry registry, String mode, String result) {
+        return Timer.builder("lock.wait")
+                .description("Time to acquire the accounts or to give up")
+                .tag("mode", mode)
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static DistributionSummary retries(MeterRegistry registry, String mode) {
+        return DistributionSummary.builder("lock.retries")
+                .description("Attempts of one acquire which found a busy account")
+                .tag("mode", mode)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    void recordWait(boolean async, boolean acquired, long nanos, int retries) {
+        Timer timer = async ? (acquired ? asyncAcquired : asyncTimeout) : (acquired ? blockingAcquired : blockingTimeout);
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+        (async ? asyncRetries : blockingRetries).record(retries);
+    }
+
+    void recordHold(long nanos) {
+        hold.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void expired() {
+        expired.increment();
+    }
+}
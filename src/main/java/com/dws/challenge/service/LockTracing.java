@@ -0,0 +1,50 @@
+package com.dws.challenge.service;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+
+import java.util.List;
+
+/**
+ * Spans of AdvisoryLockServiceImp: every acquire is the lock.acquire span,when it finds a busy account it adds lock.busy event
+ * with the account and the token of its owner (ContentionReport builds the top contended accounts from them).
+ */
+final class LockTracing {
+    static final String ACQUIRE_SPAN = "lock.acquire";
+    static final String BUSY_EVENT = "lock.busy";
+    static final AttributeKey<String> ACCOUNT_ID = AttributeKey.stringKey("lock.account_id");
+    static final AttributeKey<String> OWNER = AttributeKey.stringKey("lock.owner");
+    private static final AttributeKey<List<String>> ACCOUNT_IDS = AttributeKey.stringArrayKey("lock.account_ids");
+    private static final AttributeKey<String> RESULT = AttributeKey.stringKey("lock.result");
+    private static final AttributeKey<Long> RETRIES = AttributeKey.longKey("lock.retries");
+
+    private final Tracer tracer;
+
+    LockTracing(OpenTelemetry openTelemetry) {
+        this.tracer = openTelemetry.getTracer(AdvisoryLockServiceImp.class.getName());
+    }
+
+    Span start(List<String> accountIds) {
+        return tracer.spanBuilder(ACQUIRE_SPAN)
+                .setAttribute(ACCOUNT_IDS, accountIds)
+                .startSpan();
+    }
+
+    /**
+     * The owner is null if the account was released meanwhile.
+     */
+    static void busy(Span span, String accountId, String owner) {
+        span.addEvent(BUSY_EVENT, owner != null ? Attributes.of(ACCOUNT_ID, accountId, OWNER, owner) : Attributes.of(ACCOUNT_ID, accountId));
+    }
+
+    static void end(Span span, boolean acquired, int retries) {
+        if (span.isRecording()) {
+            span.setAttribute(RESULT, acquired ? "acquired" : "timeout");
+            span.setAttribute(RETRIES, (long) retries);
+        }
+        span.end();
+    }
+}
@@ -2,7 +2,22 @@ package com.dws.challenge.service;
 
 import com.dws.challenge.domain.Account;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface NotificationService {
 
     void notifyAboutTransfer(Account account, String transferDescription);
+
+    /**
+     * Send the notification like notifyAboutTransfer(),the future is completed when it's sent
+     * or exceptionally if it can't be sent.
+     */
+    default CompletableFuture<Void> notifyAboutTransferAsync(Account account, String transferDescription) {
+        try {
+            notifyAboutTransfer(account, transferDescription);
+            return CompletableFuture.completedFuture(null);
+        } catch (Exception ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
 }
@@ -0,0 +1,145 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.OutboxMessage;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.OutboxRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Deliver notifications of transfers from the outbox to NotificationService in batches (at least once):
+ * the whole batch is handed to notifyAboutTransferAsync() (AsyncNotificationService coalesces the notifications of
+ * the same account),the message is marked as delivered only after the futures of all its notifications are completed,
+ * if NotificationService fails,the failed messages are retried by the next run.
+ * The message is claimed before it's sent,so the transfer which fails to complete doesn't take it back meanwhile.
+ * Transfers never wait for the notifications and their failure doesn't change the transfer.
+ */
+@Service
+@Slf4j
+public class OutboxRelay {
+
+    private final OutboxRepository outboxRepository;
+    private final NotificationService notificationService;
+    private final AccountsRepository accountsRepository;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler;
+    //one relay at a time,it's not synchronized to not pin the virtual thread while it sends the email
+    private final ReentrantLock relayLock = new ReentrantLock();
+
+    @Autowired
+    public OutboxRelay(OutboxRepository outboxRepository,
+                       NotificationService notificationService,
+                       AccountsRepository accountsRepository,
+                       @Value("${notification.outbox.batch-size:500}") int batchSize,
+                       @Value("${notification.outbox.poll-interval:20ms}") Duration pollInterval) {
+        this.outboxRepository = outboxRepository;
+        this.notificationService = notificationService;
+        this.accountsRepository = accountsRepository;
+        this.batchSize = batchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "outbox-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!pollInterval.isZero()) {
+            scheduler.scheduleWithFixedDelay(this::relayQuietly, pollInterval.toMillis(), pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void relayQuietly() {
+        try {
+            relay();
+        } catch (Exception ex) {
+            log.error("Cannot relay notifications from the outbox", ex);
+        }
+    }
+
+    /**
+     * Deliver pending messages until the outbox is empty or NotificationService fails.
+     *
+     * @return number of delivered messages.
+     */
+    public int relay() {
+        relayLock.lock();
+        try {
+            return relayBatches();
+        } finally {
+            relayLock.unlock();
+        }
+    }
+
+    private int relayBatches() {
+        int total = 0;
+        while (true) {
+            List<OutboxMessage> batch = outboxRepository.findPending(batchSize);
+            List<OutboxMessage> sending = new ArrayList<>(batch.size());
+            List<CompletableFuture<Void>> sent = new ArrayList<>(batch.size());
+            for (OutboxMessage message : batch) {
+                if (!outboxRepository.claim(message.getTransferId())) {
+                    //the transfer was rolled back after the batch was found
+                    continue;
+                }
+                sending.add(message);
+                sent.add(deliver(message));
+            }
+            List<String> delivered = new ArrayList<>(sending.size());
+            boolean failed = false;
+            for (int i = 0; i < sending.size(); i++) {
+                try {
+                    sent.get(i).join();
+                    delivered.add(sending.get(i).getTransferId());
+                } catch (CompletionException ex) {
+                    log.warn("Cannot deliver notifications of transfer {},it's retried later", sending.get(i).getTransferId(), ex.getCause());
+                    failed = true;
+                }
+            }
+            if (!delivered.isEmpty()) {
+                outboxRepository.markDelivered(delivered);
+                total += delivered.size();
+            }
+            if (failed || batch.size() < batchSize) {
+                return total;
+            }
+        }
+    }
+
+    private CompletableFuture<Void> deliver(OutboxMessage message) {
+        List<CompletableFuture<Void>> sent = new ArrayList<>(message.getNotifications().size());
+        for (OutboxMessage.Notification notification : message.getNotifications()) {
+            Account account = accountsRepository.getAccount(notification.getAccountId());
+            sent.add(notificationService.notifyAboutTransferAsync(account != null ? account : new Account(notification.getAccountId()),
+                    notification.getDescription()));
+        }
+        return CompletableFuture.allOf(sent.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Stop polling and deliver what is left in the outbox.
+     */
+    @PreDestroy
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            relay();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            log.error("Cannot relay notifications from the outbox", ex);
+        }
+    }
+}
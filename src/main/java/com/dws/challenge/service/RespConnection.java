@@ -0,0 +1,246 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.exception.LockServiceException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Connection to the server of the Redis protocol (RESP2). Commands of all threads are pipelined in one socket:
+ * the server replies in the order of the commands,so the reader thread completes the oldest pending command
+ * with every reply and nobody waits for the reply of other command to send its own.
+ * The broken connection fails its pending commands by LockServiceException,the next command opens the new one.
+ */
+@Slf4j
+final class RespConnection implements Closeable {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private final String host;
+    private final int port;
+    private final int connectTimeoutMillis;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private Session session;
+    private boolean closed;
+
+    /**
+     * The error reply of the server.
+     */
+    static final class RespError {
+        private final String message;
+
+        RespError(String message) {
+            this.message = message;
+        }
+
+        String getMessage() {
+            return message;
+        }
+    }
+
+    private final class Session {
+        private final Socket socket;
+        private final OutputStream out;
+        private final InputStream in;
+        private final Queue<CompletableFuture<Object>> pending = new ConcurrentLinkedQueue<>();
+        private volatile boolean broken;
+
+        private Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+            this.in = new BufferedInputStream(socket.getInputStream());
+        }
+
+        private void readReplies() {
+            try {
+                while (!broken) {
+                    Object reply = read(in);
+                    CompletableFuture<Object> command = pending.poll();
+                    if (command == null) {
+                        throw new IOException("The reply without the command");
+                    }
+                    if (reply instanceof RespError error) {
+                        command.completeExceptionally(new LockServiceException("The lock server replied: " + error.getMessage()));
+                    } else {
+                        command.complete(reply);
+                    }
+                }
+            } catch (IOException ex) {
+                if (!broken) {
+                    log.warn("The connection to the lock server {}:{} is lost", host, port, ex);
+                }
+            } finally {
+                breakSession(this);
+            }
+        }
+    }
+
+    RespConnection(String host, int port, int connectTimeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Send the command,the future is completed by the reply: String,Long,List or null.
+     */
+    CompletableFuture<Object> send(List<String> command) {
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        Session current = null;
+        writeLock.lock();
+        try {
+            current = session();
+            current.pending.add(reply);
+            write(current.out, command);
+            current.out.flush();
+        } catch (IOException ex) {
+            if (current != null) {
+                breakSession(current);
+            }
+            reply.completeExceptionally(new LockServiceException("Cannot send the command to the lock server " + host + ":" + port + ": " + ex.getMessage()));
+        } finally {
+            writeLock.unlock();
+        }
+        return reply;
+    }
+
+    private Session session() throws IOException {
+        if (closed) {
+            throw new IOException("The connection is closed");
+        }
+        if (session == null || session.broken) {
+            Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+                session = new Session(socket);
+            } catch (IOException ex) {
+                socket.close();
+                throw ex;
+            }
+            Thread reader = new Thread(session::readReplies, "lock-server-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+        return session;
+    }
+
+    /**
+     * Commands sent before the session is broken don't get their replies,they are failed.
+     * The command is added to pending before it's written,so it's failed here or by its failed write.
+     */
+    private void breakSession(Session broken) {
+        broken.broken = true;
+        try {
+            broken.socket.close();
+        } catch (IOException ex) {
+            log.debug("Cannot close the connection to the lock server", ex);
+        }
+        CompletableFuture<Object> command;
+        while ((command = broken.pending.poll()) != null) {
+            command.completeExceptionally(new LockServiceException("The connection to the lock server " + host + ":" + port + " is lost"));
+        }
+    }
+
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            closed = true;
+            if (session != null) {
+                breakSession(session);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * The command is the array of bulk strings.
+     */
+    static void write(OutputStream out, List<String> command) throws IOException {
+        out.write(('*' + String.valueOf(command.size())).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        for (String arg : command) {
+            byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+            out.write(('$' + String.valueOf(bytes.length)).getBytes(StandardCharsets.US_ASCII));
+            out.write(CRLF);
+            out.write(bytes);
+            out.write(CRLF);
+        }
+    }
+
+    /**
+     * Read one reply: simple string and bulk string are String,integer is Long,array is List,
+     * null bulk string and null array are null,error is RespError.
+     */
+    static Object read(InputStream in) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            throw new EOFException("The connection is closed by the server");
+        }
+        String line = readLine(in);
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                return new RespError(line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                byte[] bytes = in.readNBytes(length);
+                if (bytes.length < length || in.read() != '\r' || in.read() != '\n') {
+                    throw new EOFException("The bulk string is truncated");
+                }
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            case '*': {
+                int count = Integer.parseInt(line);
+                if (count < 0) {
+                    return null;
+                }
+                List<Object> items = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    items.add(read(in));
+                }
+                return items;
+            }
+            default:
+                throw new IOException("Unknown type of the reply: " + (char) type);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("The line is truncated");
+            }
+            if (b == '\r') {
+                if (in.read() != '\n') {
+                    throw new IOException("The line doesn't end with CRLF");
+                }
+                return line.toString();
+            }
+            line.append((char) b);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.Amount;
+import com.dws.challenge.domain.OutboxMessage;
+import com.dws.challenge.domain.TransferLog;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.InsufficientFundsException;
+import com.dws.challenge.exception.LockServiceException;
+import com.dws.challenge.exception.ServiceException;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.OutboxRepository;
+import com.dws.challenge.repository.TransferRepositoryLog;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.annotation.Validated;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Transfer money without advisory locks: every account belongs to one single-threaded shard
+ * (hash of accountId),only that shard changes its balance.
+ * Debit runs in the shard of fromAccount, then the transfer is handed off to the shard of toAccount for credit
+ * (it's the same thread if both accounts live in one shard).
+ * The transferLog moves to CREDIT_TO_ACCOUNT in the shard of fromAccount before the hand-off,
+ * so the recovery completes the transfer after the crash if toAccount isn't marked by it (see lastTransferId of Account).
+ * If credit fails, the shard of fromAccount gets the money back and the transfer is marked as FAILED.
+ * Single account credit/debit runs in the shard of the account too.
+ * The caller waits for the transfer until lock.acquire.timeout,then the transfer is cancelled if it's still queued
+ * (LockServiceException,the retry is safe),the started one is waited for till the end.
+ * Metrics are the same as of TransferServiceImp (see TransferMeters),the lock phase is the wait for the shard of fromAccount.
+ * It's enabled by transfer.engine=sharded.
+ */
+@Service
+@Validated
+@Slf4j
+@ConditionalOnProperty(name = "transfer.engine", havingValue = "sharded")
+public class ShardedTransferServiceImp implements TransferService {
+
+    private final ExecutorService[] shards;
+    private final TransferRepositoryLog transferRepositoryLog;
+    private final OutboxRepository outboxRepository;
+    private final AccountsRepository accountsRepository;
+    private final Duration transferTimeout;
+
+    //no-op meters until they are injected (e.g. the service is created by the test)
+    private volatile TransferMeters meters = new TransferMeters(new CompositeMeterRegistry());
+
+    @Autowired
+    public ShardedTransferServiceImp(TransferRepositoryLog transferRepositoryLog,
+                                     OutboxRepository outboxRepository,
+                                     AccountsRepository accountsRepository,
+                                     @Value("${transfer.shards:8}") int shardCount,
+                                     @Value("${lock.acquire.timeout:5s}") Duration transferTimeout) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("transfer.shards must be positive: " + shardCount);
+        }
+        this.transferRepositoryLog = transferRepositoryLog;
+        this.outboxRepository = outboxRepository;
+        this.accountsRepository = accountsRepository;
+        this.transferTimeout = transferTimeout;
+        this.shards = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            final String name = "transfer-shard-" + i;
+            shards[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @Autowired(required = false)
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meters = new TransferMeters(meterRegistry);
+    }
+
+    int shardOf(String accountId) {
+        return Math.floorMod(accountId.hashCode(), shards.length);
+    }
+
+    @Override
+    public void transfer(@NonNull Account fromAccount, @NonNull Account toAccount, @NonNull BigDecimal amount) {
+        Amount transferAmount = Amount.of(amount, fromAccount.getScale());
+        TransferLog transferLog = transferRepositoryLog.create(fromAccount.getAccountId(), toAccount.getAccountId(), amount);
+        runOnShards(transferLog, fromAccount, toAccount, transferAmount);
+    }
+
+    /**
+     * The caller doesn't wait for the shards,the future is completed by the shard of toAccount.
+     * Like transfer(),it's cancelled after lock.acquire.timeout if it's still queued,
+     * cancel() of the future cancels it only until it starts.
+     */
+    @Override
+    public CompletableFuture<Void> transferAsync(@NonNull Account fromAccount, @NonNull Account toAccount, @NonNull BigDecimal amount) {
+        Amount transferAmount = Amount.of(amount, fromAccount.getScale());
+        TransferLog transferLog = transferRepositoryLog.create(fromAccount.getAccountId(), toAccount.getAccountId(), amount);
+        TransferFuture result = new TransferFuture();
+        submitToShards(transferLog, fromAccount, toAccount, transferAmount, result);
+        CompletableFuture.delayedExecutor(transferTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .execute(() -> result.cancel(stillWaiting(transferLog, fromAccount, toAccount)));
+        return result;
+    }
+
+    private void submitToShards(TransferLog transferLog, Account fromAccount, Account toAccount, Amount amount,
+                                TransferFuture result) {
+        long started = System.nanoTime();
+        shards[shardOf(fromAccount.getAccountId())].execute(() -> debit(transferLog, fromAccount, toAccount, amount, result, started));
+    }
+
+    private LockServiceException stillWaiting(TransferLog transferLog, Account fromAccount, Account toAccount) {
+        return new LockServiceException("Transfer " + transferLog.getId() + " is still waiting for the shards of the accounts "
+                + fromAccount.getAccountId() + "," + toAccount.getAccountId());
+    }
+
+    private void runOnShards(TransferLog transferLog, Account fromAccount, Account toAccount, Amount amount) {
+        TransferFuture result = new TransferFuture();
+        submitToShards(transferLog, fromAccount, toAccount, amount, result);
+        await(transferLog, result, () -> stillWaiting(transferLog, fromAccount, toAccount));
+    }
+
+    private void await(TransferLog transferLog, TransferFuture result, Supplier<LockServiceException> stillWaiting) {
+        try {
+            try {
+                result.get(transferTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                LockServiceException cause = stillWaiting.get();
+                if (result.cancel(cause)) {
+                    throw cause;
+                }
+                //it has started,so the caller learns how it ended
+                result.get();
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new ServiceException("Transfer " + transferLog.getId() + " failed: " + ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Transfer " + transferLog.getId() + " was interrupted");
+        }
+    }
+
+    @Override
+    public void credit(@NonNull Account account, @NonNull BigDecimal amount) {
+        TransferLog transferLog = transferRepositoryLog.create(TransferLog.EXTERNAL, account.getAccountId(), amount);
+        runOnShard(transferLog, account, false);
+    }
+
+    @Override
+    public void debit(@NonNull Account account, @NonNull BigDecimal amount, boolean allowNegative) {
+        TransferLog transferLog = transferRepositoryLog.create(account.getAccountId(), TransferLog.EXTERNAL, amount);
+        runOnShard(transferLog, account, allowNegative);
+    }
+
+    private void runOnShard(TransferLog transferLog, Account account, boolean allowNegative) {
+        TransferFuture result = new TransferFuture();
+        shards[shardOf(account.getAccountId())].execute(() -> changeExternal(transferLog, account, allowNegative, result));
+        await(transferLog, result, () -> new LockServiceException("Transfer " + transferLog.getId()
+                + " is still waiting for the shard of the account " + account.getAccountId()));
+    }
+
+    /**
+     * Run in the shard of the account.
+     */
+    private void changeExternal(TransferLog transferLog, Account account, boolean allowNegative, TransferFuture result) {
+        if (!result.start()) {
+            return;
+        }
+        try {
+            Amount amount = Amount.of(transferLog.getAmount(), account.getScale());
+            if (TransferLog.EXTERNAL.equals(transferLog.getFromAccountId())) {
+                changeBalance(transferLog, account, amount, TransferStatus.CREDIT_TO_ACCOUNT, false);
+            } else {
+                changeBalance(transferLog, account, amount, TransferStatus.DEBIT_FROM_ACCOUNT, allowNegative);
+            }
+        } catch (Exception ex) {
+            meters.failed(transferLog.getStatus(), ex);
+            fail(transferLog, result, ex);
+            return;
+        }
+        try {
+            transferLog.setStatus(TransferStatus.COMPLETED);
+            transferRepositoryLog.save(transferLog);
+            result.complete(null);
+        } catch (Exception ex) {
+            log.error("Cannot mark transfer {} as completed", transferLog.getId(), ex);
+            result.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Shards apply transfers without locks,so the batch is applied transfer by transfer.
+     */
+    @Override
+    public List<TransferResult> transferBatch(@NonNull List<TransferRequest> transfers) {
+        List<TransferResult> results = new ArrayList<>(transfers.size());
+        for (TransferRequest transfer : transfers) {
+            Account fromAccount = accountsRepository.getAccount(transfer.getFromAccountId());
+            Account toAccount = accountsRepository.getAccount(transfer.getToAccountId());
+            if (fromAccount == null || toAccount == null) {
+                String accountId = fromAccount == null ? transfer.getFromAccountId() : transfer.getToAccountId();
+                results.add(TransferResult.failed(null, "Cannot find the account " + accountId));
+                continue;
+            }
+            Amount amount;
+            try {
+                amount = Amount.of(transfer.getAmount(), fromAccount.getScale());
+            } catch (ServiceException ex) {
+                results.add(TransferResult.failed(null, ex.getMessage()));
+                continue;
+            }
+            TransferLog transferLog = transferRepositoryLog.create(fromAccount.getAccountId(), toAccount.getAccountId(), transfer.getAmount());
+            try {
+                runOnShards(transferLog, fromAccount, toAccount, amount);
+                results.add(TransferResult.completed(transferLog.getId()));
+            } catch (ServiceException ex) {
+                results.add(TransferResult.failed(transferLog.getId(), ex.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Run in the shard of fromAccount.
+     */
+    private void debit(TransferLog transferLog, Account fromAccount, Account toAccount, Amount amount, TransferFuture result, long started) {
+        if (!result.start()) {
+            //the caller gave up before the transfer started
+            return;
+        }
+        TransferMeters transferMeters = meters;
+        long phaseStarted = TransferMeters.record(transferMeters.lock, started);
+        try {
+            if (!fromAccount.hasAtLeast(amount)) {
+                outboxRepository.add(OutboxMessage.notEnoughMoney(transferLog.getId(), fromAccount.getAccountId()));
+                throw new InsufficientFundsException(fromAccount + " doesn't contain enough money.");
+            }
+            phaseStarted = TransferMeters.record(transferMeters.check, phaseStarted);
+            changeBalance(transferLog, fromAccount, amount, TransferStatus.DEBIT_FROM_ACCOUNT, false);
+        } catch (Exception ex) {
+            transferMeters.failed(transferLog.getStatus(), ex);
+            fail(transferLog, result, ex);
+            return;
+        }
+        try {
+            //from now the recovery completes the transfer,other shard may credit toAccount
+            transferLog.setStatus(TransferStatus.CREDIT_TO_ACCOUNT);
+            transferRepositoryLog.save(transferLog);
+        } catch (Exception ex) {
+            transferMeters.failed(transferLog.getStatus(), ex);
+            transferLog.setStatus(TransferStatus.DEBIT_FROM_ACCOUNT);
+            refund(transferLog, fromAccount, amount, result, ex);
+            return;
+        }
+        long creditStarted = TransferMeters.record(transferMeters.debit, phaseStarted);
+        int toShard = shardOf(toAccount.getAccountId());
+        if (toShard == shardOf(fromAccount.getAccountId())) {
+            credit(transferLog, fromAccount, toAccount, amount, result, creditStarted);
+        } else {
+            shards[toShard].execute(() -> credit(transferLog, fromAccount, toAccount, amount, result, creditStarted));
+        }
+    }
+
+    /**
+     * Run in the shard of toAccount.
+     */
+    private void credit(TransferLog transferLog, Account fromAccount, Account toAccount, Amount amount, CompletableFuture<Void> result,
+                        long started) {
+        TransferMeters transferMeters = meters;
+        long phaseStarted = started;
+        try {
+            AccountChanges.credit(accountsRepository, toAccount, amount, transferLog.getId(), 0);
+            phaseStarted = TransferMeters.record(transferMeters.credit, phaseStarted);
+        } catch (Exception ex) {
+            transferMeters.failed(transferLog.getStatus(), ex);
+            //give the money back in the shard of fromAccount
+            shards[shardOf(fromAccount.getAccountId())].execute(() -> refund(transferLog, fromAccount, amount, result, ex));
+            return;
+        }
+        try {
+            //notifications are saved before COMPLETED,OutboxRelay sends them later
+            outboxRepository.add(OutboxMessage.completed(transferLog.getId(), fromAccount.getAccountId(), toAccount.getAccountId(), amount.getValue()));
+            transferLog.setStatus(TransferStatus.COMPLETED);
+            transferRepositoryLog.save(transferLog);
+            TransferMeters.record(transferMeters.complete, phaseStarted);
+            result.complete(null);
+        } catch (Exception ex) {
+            transferMeters.failed(transferLog.getStatus(), ex);
+            //the money is moved already,so only the caller learns about the failure
+            log.error("Cannot mark transfer {} as completed", transferLog.getId(), ex);
+            result.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Run in the shard of fromAccount.
+     * Other transfers may have changed fromAccount since the debit,so it's marked by this transfer again
+     * before the transferLog goes back to DEBIT_FROM_ACCOUNT: the recovery rolls back the debit only once.
+     * If it can't be done,the transferLog stays at CREDIT_TO_ACCOUNT and the recovery completes the transfer.
+     */
+    private void refund(TransferLog transferLog, Account fromAccount, Amount amount, CompletableFuture<Void> result, Exception cause) {
+        if (transferLog.getStatus() != TransferStatus.DEBIT_FROM_ACCOUNT) {
+            try {
+                markApplied(fromAccount, transferLog.getId());
+                transferLog.setStatus(TransferStatus.DEBIT_FROM_ACCOUNT);
+                transferRepositoryLog.save(transferLog);
+            } catch (Exception ex) {
+                log.error("Transfer {} can't be rolled back,the recovery completes it", transferLog.getId(), ex);
+                result.completeExceptionally(cause);
+                return;
+            }
+        }
+        try {
+            AccountChanges.credit(accountsRepository, fromAccount, amount, null, 0);
+        } catch (Exception ex) {
+            //the transferLog stays at DEBIT_FROM_ACCOUNT,the recovery gives the money back
+            log.error("Cannot give back {} to the account {} of transfer {}", amount.getValue(), fromAccount.getAccountId(), transferLog.getId(), ex);
+            result.completeExceptionally(cause);
+            return;
+        }
+        fail(transferLog, result, cause);
+    }
+
+    private void changeBalance(TransferLog transferLog, Account account, Amount amount, TransferStatus status, boolean allowNegative) {
+        //save current state of transfer before the balance change (write ahead log)
+        transferLog.setStatus(status);
+        transferRepositoryLog.save(transferLog);
+        if (status == TransferStatus.DEBIT_FROM_ACCOUNT) {
+            AccountChanges.debit(accountsRepository, account, amount, transferLog.getId(), allowNegative, 0);
+        } else {
+            AccountChanges.credit(accountsRepository, account, amount, transferLog.getId(), 0);
+        }
+    }
+
+    private void markApplied(Account account, String transferId) {
+        account.beginWrite();
+        try {
+            String previousTransferId = account.getLastTransferId();
+            account.setLastTransferId(transferId);
+            save(account, () -> account.setLastTransferId(previousTransferId));
+        } finally {
+            account.endWrite();
+        }
+    }
+
+    private void save(Account account, Runnable undo) {
+        try {
+            accountsRepository.save(account);
+        } catch (RuntimeException ex) {
+            undo.run();
+            throw ex;
+        }
+    }
+
+    private void fail(TransferLog transferLog, CompletableFuture<Void> result, Exception cause) {
+        try {
+            transferLog.setStatus(TransferStatus.FAILED);
+            transferRepositoryLog.save(transferLog);
+        } catch (Exception ex) {
+            log.error("Cannot mark transfer {} as failed", transferLog.getId(), ex);
+        }
+        result.completeExceptionally(cause);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+    }
+}
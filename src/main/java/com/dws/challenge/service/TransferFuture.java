@@ -0,0 +1,82 @@
+package com.dws.challenge.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The result of the transfer which can be cancelled only until the transfer starts changing balances:
+ * the caller which gave up waiting knows that nothing was changed,so the retry doesn't move the money twice.
+ * Once the transfer has started,cancel() returns false and the future is completed by the transfer.
+ * The transfer which goes on in other future (e.g. after the fold of the hot account) is followed,
+ * then cancel() is passed to that future.
+ */
+class TransferFuture extends CompletableFuture<Void> {
+    private static final int WAITING = 0;
+    private static final int STARTED = 1;
+    private static final int CANCELLED = 2;
+
+    private final AtomicInteger state = new AtomicInteger(WAITING);
+    //e.g. leave the queue of the lock,it may run twice if it's set while the future is cancelled
+    private volatile Runnable onCancel = () -> {
+    };
+    private volatile CompletableFuture<Void> followed;
+
+    void onCancel(Runnable onCancel) {
+        this.onCancel = onCancel;
+        if (state.get() == CANCELLED) {
+            onCancel.run();
+        }
+    }
+
+    /**
+     * @return false if the transfer was cancelled,then it mustn't change anything.
+     */
+    boolean start() {
+        return state.compareAndSet(WAITING, STARTED);
+    }
+
+    /**
+     * This future is completed by the transfer,it's cancelled at once if this future was cancelled before.
+     */
+    void follow(CompletableFuture<Void> transfer) {
+        followed = transfer;
+        if (!start()) {
+            transfer.cancel(false);
+        }
+        transfer.whenComplete((result, ex) -> {
+            if (ex == null) {
+                complete(null);
+            } else {
+                completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            }
+        });
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        CompletableFuture<Void> transfer = followed;
+        if (transfer != null) {
+            return transfer.cancel(mayInterruptIfRunning);
+        }
+        if (!state.compareAndSet(WAITING, CANCELLED)) {
+            return isCancelled();
+        }
+        onCancel.run();
+        return super.cancel(mayInterruptIfRunning);
+    }
+
+    /**
+     * Give up the transfer which hasn't started yet (e.g. the deadline has passed),the future fails with the cause.
+     *
+     * @return false if the transfer has started already.
+     */
+    boolean cancel(RuntimeException cause) {
+        if (!state.compareAndSet(WAITING, CANCELLED)) {
+            return state.get() == CANCELLED;
+        }
+        onCancel.run();
+        completeExceptionally(cause);
+        return true;
+    }
+}
@@ -0,0 +1,72 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.InsufficientFundsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the transfer engines: transfer.phase is the time of every phase of the transfer (lock,check,debit,credit,complete),
+ * transfer.rollbacks counts failed transfers by the status they had when they failed,
+ * transfer.rejections counts transfers rejected by the business rule (e.g. insufficient funds),they aren't failures.
+ */
+final class TransferMeters {
+    final Timer lock;
+    final Timer check;
+    final Timer debit;
+    final Timer credit;
+    final Timer complete;
+    private final Map<TransferStatus, Counter> rollbacks = new EnumMap<>(TransferStatus.class);
+    private final Counter insufficientFunds;
+
+    TransferMeters(MeterRegistry registry) {
+        lock = phase(registry, "lock");
+        check = phase(registry, "check");
+        debit = phase(registry, "debit");
+        credit = phase(registry, "credit");
+        complete = phase(registry, "complete");
+        for (TransferStatus status : TransferStatus.values()) {
+            rollbacks.put(status, Counter.builder("transfer.rollbacks")
+                    .description("Failed transfers by the status they had when they failed")
+                    .tag("status", status.name())
+                    .register(registry));
+        }
+        insufficientFunds = Counter.builder("transfer.rejections")
+                .description("Transfers rejected by the business rule")
+                .tag("reason", "insufficient_funds")
+                .register(registry);
+    }
+
+    private static Timer phase(MeterRegistry registry, String phase) {
+        return Timer.builder("transfer.phase")
+                .description("Time of the phase of the transfer")
+                .tag("phase", phase)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Count the transfer which failed with the given status,the rejection is counted apart from rollbacks.
+     */
+    void failed(TransferStatus status, Throwable ex) {
+        if (ex instanceof InsufficientFundsException) {
+            insufficientFunds.increment();
+        } else {
+            rollbacks.get(status).increment();
+        }
+    }
+
+    /**
+     * Record the phase started at the given System.nanoTime() and return the start of the next phase.
+     */
+    static long record(Timer phase, long started) {
+        long now = System.nanoTime();
+        phase.record(now - started, TimeUnit.NANOSECONDS);
+        return now;
+    }
+}
@@ -0,0 +1,225 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.OutboxMessage;
+import com.dws.challenge.domain.TransferLog;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.OutboxRepository;
+import com.dws.challenge.repository.TransferRepositoryLog;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Finish transfers interrupted by the crash before the application starts serving requests.
+ * Transfer in START is saved only by the batch (see TransferServiceImp.transferBatch),it's marked as FAILED:
+ * the batch marks every account it changed by its first transfer,such account is restored by the transfers in START
+ * and the mark is cleared with it,so it's restored once.
+ * Transfer in DEBIT_FROM_ACCOUNT is rolled back: fromAccount gets the money back if it was debited.
+ * Transfer in CREDIT_TO_ACCOUNT has debited fromAccount already,so it's rolled forward:
+ * toAccount is credited if it wasn't and transfer is marked as COMPLETED,its notifications are saved to the outbox
+ * (if they were saved before the crash,the outbox skips them).
+ * The step was applied if lastTransferId of the account is the id of the transfer: it's saved with the balance
+ * and no other transfer changes the account until the step is logged as finished.
+ * Lock-free credit/debit (from/to EXTERNAL) is kept in pendingTransferIds of the account instead,
+ * other writers don't overwrite it,the recovery drops it when its transferLog is finished.
+ * All steps are checked before any account is changed,so the recovery of one transfer doesn't hide the step of other one.
+ * Transfers are recovered in parallel,partitioned by fromAccountId.
+ * In the cluster the transfer in CREDIT_TO_ACCOUNT to the account of other node is left in doubt,
+ * ClusterTransferService sends its commit again when that node is up. The credit from other node
+ * is rolled forward without notifications,the node of fromAccount saves them,its id stays pending on toAccount
+ * until that node tells to forget it.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "transfer.recovery.enabled", havingValue = "true", matchIfMissing = true)
+public class TransferRecoveryService implements SmartInitializingSingleton {
+
+    private final TransferRepositoryLog transferRepositoryLog;
+    private final AccountsRepository accountsRepository;
+    private final OutboxRepository outboxRepository;
+    private final int threads;
+    //the single node until the cluster is injected (e.g. the service is created by the test)
+    private volatile ClusterRouter clusterRouter = new ClusterRouter();
+
+    @Autowired
+    public TransferRecoveryService(TransferRepositoryLog transferRepositoryLog, AccountsRepository accountsRepository,
+                                   OutboxRepository outboxRepository,
+                                   @Value("${transfer.recovery.threads:0}") int threads) {
+        this.transferRepositoryLog = transferRepositoryLog;
+        this.accountsRepository = accountsRepository;
+        this.outboxRepository = outboxRepository;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    @Autowired(required = false)
+    public void setClusterRouter(ClusterRouter clusterRouter) {
+        this.clusterRouter = clusterRouter;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        recover();
+    }
+
+    /**
+     * @return number of recovered transfers.
+     */
+    public int recover() {
+        List<TransferLog> unfinished = transferRepositoryLog.findUnfinished();
+        if (unfinished.isEmpty()) {
+            return 0;
+        }
+        long startedAt = System.nanoTime();
+        rollbackBatches(unfinished);
+        Set<String> applied = unfinished.stream()
+                .filter(this::isApplied)
+                .map(TransferLog::getId)
+                .collect(Collectors.toSet());
+        int partitionCount = Math.min(threads, unfinished.size());
+        List<List<TransferLog>> partitions = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (TransferLog transferLog : unfinished) {
+            partitions.get(Math.floorMod(transferLog.getFromAccountId().hashCode(), partitionCount)).add(transferLog);
+        }
+        AtomicInteger recovered = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(partitionCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>(partitionCount);
+            for (List<TransferLog> partition : partitions) {
+                futures.add(executor.submit(() -> partition.forEach(transferLog -> {
+                    try {
+                        recover(transferLog, applied.contains(transferLog.getId()));
+                        recovered.incrementAndGet();
+                    } catch (Exception ex) {
+                        log.error("Cannot recover transfer {}", transferLog, ex);
+                    }
+                })));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            log.error("Recovery of transfers failed", ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        log.info("Recovered {} of {} unfinished transfers in {} ms", recovered.get(), unfinished.size(), (System.nanoTime() - startedAt) / 1_000_000);
+        return recovered.get();
+    }
+
+    /**
+     * Batches changed disjoint accounts (they were locked),so every account is restored by the sum of the transfers in START.
+     */
+    private void rollbackBatches(List<TransferLog> unfinished) {
+        Set<String> started = new HashSet<>();
+        Map<String, BigDecimal> changes = new HashMap<>();
+        for (TransferLog transferLog : unfinished) {
+            if (transferLog.getStatus() == TransferStatus.START) {
+                started.add(transferLog.getId());
+                changes.merge(transferLog.getFromAccountId(), transferLog.getAmount(), BigDecimal::add);
+                changes.merge(transferLog.getToAccountId(), transferLog.getAmount().negate(), BigDecimal::add);
+            }
+        }
+        changes.forEach((accountId, change) -> {
+            Account account = accountsRepository.getAccount(accountId);
+            if (account != null && started.contains(account.getLastTransferId())) {
+                addToBalance(account, change, null, null);
+            }
+        });
+    }
+
+    /**
+     * @return true if the last step of the transfer changed its account.
+     */
+    private boolean isApplied(TransferLog transferLog) {
+        Account account = null;
+        if (transferLog.getStatus() == TransferStatus.DEBIT_FROM_ACCOUNT) {
+            account = accountsRepository.getAccount(transferLog.getFromAccountId());
+        } else if (transferLog.getStatus() == TransferStatus.CREDIT_TO_ACCOUNT) {
+            account = accountsRepository.getAccount(transferLog.getToAccountId());
+        }
+        return account != null && account.isApplied(transferLog.getId());
+    }
+
+    void recover(TransferLog transferLog, boolean applied) {
+        TransferStatus status = transferLog.getStatus();
+        if (status == TransferStatus.DEBIT_FROM_ACCOUNT) {
+            Account fromAccount = accountsRepository.getAccount(transferLog.getFromAccountId());
+            if (fromAccount != null && applied) {
+                //the pending debit is dropped with the refund,so it isn't refunded twice
+                addToBalance(fromAccount, transferLog.getAmount(), null, transferLog.getId());
+            }
+        } else if (status == TransferStatus.CREDIT_TO_ACCOUNT) {
+            if (!clusterRouter.isLocal(transferLog.getToAccountId())) {
+                return;
+            }
+            Account toAccount = accountsRepository.getAccount(transferLog.getToAccountId());
+            if (toAccount != null) {
+                if (!applied) {
+                    addToBalance(toAccount, transferLog.getAmount(), transferLog.getId(), null);
+                }
+                //credit/debit of EXTERNAL account doesn't notify
+                if (!TransferLog.EXTERNAL.equals(transferLog.getFromAccountId()) && clusterRouter.isLocal(transferLog.getFromAccountId())) {
+                    outboxRepository.add(OutboxMessage.completed(transferLog.getId(), transferLog.getFromAccountId(),
+                            transferLog.getToAccountId(), transferLog.getAmount()));
+                }
+                transferLog.setStatus(TransferStatus.COMPLETED);
+                transferRepositoryLog.save(transferLog);
+                //only after the log is finished,otherwise the next recovery would credit it again;
+                //the commit of other node keeps its id until the coordinator tells to forget it
+                if (TransferLog.EXTERNAL.equals(transferLog.getFromAccountId()) || clusterRouter.isLocal(transferLog.getFromAccountId())) {
+                    AccountChanges.finishPending(accountsRepository, toAccount, transferLog.getId());
+                }
+                return;
+            }
+            //toAccount is lost,so fromAccount gets the money back
+            Account fromAccount = accountsRepository.getAccount(transferLog.getFromAccountId());
+            if (fromAccount != null) {
+                addToBalance(fromAccount, transferLog.getAmount(), null, null);
+            }
+        }
+        transferLog.setStatus(TransferStatus.FAILED);
+        transferRepositoryLog.save(transferLog);
+    }
+
+    /**
+     * transferId is saved as lastTransferId with the balance,the undo of the step clears it.
+     * The pending lock-free change undone by it is dropped in the same write.
+     */
+    private void addToBalance(Account account, BigDecimal amount, String transferId, String undonePendingId) {
+        account.beginWrite();
+        try {
+            account.addToBalance(amount);
+            account.setLastTransferId(transferId);
+            if (undonePendingId != null) {
+                account.removePendingTransferId(undonePendingId);
+            }
+            accountsRepository.save(account);
+        } finally {
+            account.endWrite();
+        }
+    }
+}
@@ -1,17 +1,50 @@
 package com.dws.challenge.service;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
 
+import javax.validation.constraints.Min;
 import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Transfer money by using transferLog to rollback a transfer when it fails.
- * If failure happens while transfering money, this service compares account updateAt with
- * corresponding field of TransferLog and make changes back
- * while account updatedAt >= transferLog updateAt.
+ * If failure happens while transfering money, this service makes back the balance changes it has done.
  * This service saves transferLog before every account balance change,
- * and then updates account balance and updateAt(Write ahead log).
+ * and then updates account balance and its lastTransferId (Write ahead log).
+ * Only one transfer changes the account until its transferLog is finished (the advisory lock or the shard),
+ * so after the crash TransferRecoveryService knows that the step was applied if lastTransferId of the account is its id.
+ * Lock-free credits/debits don't own the account,they keep their id in pendingTransferIds of the account instead.
  */
 public interface TransferService {
     void transfer(Account from, Account to, BigDecimal amount);
+
+    /**
+     * Transfer like transfer() without blocking the caller while it waits for the accounts.
+     *
+     * @return the future is completed exceptionally by the same exceptions as transfer() throws.
+     */
+    CompletableFuture<Void> transferAsync(Account from, Account to, BigDecimal amount);
+
+    /**
+     * Apply transfers in the given order,a failed transfer doesn't stop the others.
+     *
+     * @param transfers
+     * @return result for every transfer in the same order.
+     */
+    List<TransferResult> transferBatch(List<TransferRequest> transfers);
+
+    /**
+     * Credit the account from EXTERNAL (deposit) without the advisory lock.
+     */
+    void credit(Account account, @Min(1) BigDecimal amount);
+
+    /**
+     * Debit the account to EXTERNAL (withdrawal,fee).
+     *
+     * @param allowNegative the balance may go below zero (e.g. the fee).
+     */
+    void debit(Account account, @Min(1) BigDecimal amount, boolean allowNegative);
 }
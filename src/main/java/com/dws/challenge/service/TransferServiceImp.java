@@ -1,29 +1,70 @@
 package com.dws.challenge.service;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.Amount;
+import com.dws.challenge.domain.OutboxMessage;
 import com.dws.challenge.domain.TransferLog;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
 import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.InsufficientFundsException;
 import com.dws.challenge.exception.LockServiceException;
 import com.dws.challenge.exception.ServiceException;
 import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.OutboxRepository;
 import com.dws.challenge.repository.TransferRepositoryLog;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
 import lombok.NonNull;
 import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.annotation.Validated;
 
+import javax.annotation.PreDestroy;
 import java.math.BigDecimal;
-import java.time.LocalDateTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 
+/**
+ * Metrics: transfer.phase is the time of every phase of the transfer (lock,check,debit,credit,complete),
+ * transfer.rollbacks counts failed transfers by the status they had when they failed,
+ * transfer.rejections counts transfers rejected because of insufficient funds (see TransferMeters).
+ * Tracing: the transfer span with the child spans of lock.acquire (AdvisoryLockServiceImp) and of every phase.
+ */
 @Service
 @Validated
+@Slf4j
+@ConditionalOnProperty(name = "transfer.engine", havingValue = "locking", matchIfMissing = true)
 public class TransferServiceImp implements TransferService {
-    private static int RETRY_TIMES_TO_TAKE_LOCK = 300;
+    private static final AttributeKey<String> FROM_ACCOUNT = AttributeKey.stringKey("transfer.from_account");
+    private static final AttributeKey<String> TO_ACCOUNT = AttributeKey.stringKey("transfer.to_account");
+    private static final AttributeKey<String> AMOUNT = AttributeKey.stringKey("transfer.amount");
+
+    @Setter
+    @Value("${lock.acquire.timeout:5s}")
+    private Duration lockTimeout = Duration.ofSeconds(5);
+
     @Setter
     @Autowired
     private AdvisoryLockService lockService;
@@ -34,92 +75,444 @@ public class TransferServiceImp implements TransferService {
 
     @Autowired
     @Setter
-    private NotificationService notificationService;
+    private OutboxRepository outboxRepository;
 
     @Autowired
     @Setter
     private AccountsRepository accountsRepository;
 
+    //transferAsync changes balances and writes TransferLogs on virtual threads after the locks are granted
+    private final ExecutorService transferExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    //no-op meters and tracer until they are injected (e.g. the service is created by the test)
+    private volatile TransferMeters meters = new TransferMeters(new CompositeMeterRegistry());
+    private volatile Tracer tracer = OpenTelemetry.noop().getTracer(TransferServiceImp.class.getName());
+
+    @Autowired(required = false)
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meters = new TransferMeters(meterRegistry);
+    }
+
+    @Autowired(required = false)
+    public void setOpenTelemetry(OpenTelemetry openTelemetry) {
+        this.tracer = openTelemetry.getTracer(TransferServiceImp.class.getName());
+    }
+
 
-    private void debitOrCreditAccount(TransferLog transferLog, Account account, BigDecimal amount, TransferStatus status) {
+    private void debitOrCreditAccount(TransferLog transferLog, Account account, Amount amount, TransferStatus status, long fence) {
         transferLog.setStatus(status);
         transferRepositoryLog.save(transferLog);
-        account.setBalance(amount);
-        accountsRepository.save(account);
+        if (status == TransferStatus.DEBIT_FROM_ACCOUNT) {
+            AccountChanges.debit(accountsRepository, account, amount, transferLog.getId(), false, fence);
+        } else {
+            AccountChanges.credit(accountsRepository, account, amount, transferLog.getId(), fence);
+        }
     }
 
-    private void checkAccountBalance(Account account, BigDecimal needAmount) {
-        if (account.getBalance().compareTo(needAmount) < 0) {
-            notificationService.notifyAboutTransfer(account, "Doesn't have enough money for transfer");
-            throw new ServiceException(account + " doesn't contain enough money.");
+    /**
+     * The account is saved with the fence of the lease,if the lease has expired and the account was written
+     * by the next owner,the change is undone and StaleFenceException rolls the transfer back.
+     */
+    private void save(Account account, long fence, Runnable undo) {
+        try {
+            accountsRepository.save(account, fence);
+        } catch (RuntimeException ex) {
+            undo.run();
+            throw ex;
         }
     }
 
-    private void markTransferAsCompleted(Account fromAccount, Account toAccount, BigDecimal amount, TransferLog log) {
-        log.setStatus(TransferStatus.COMPLETED);
-        transferRepositoryLog.save(log);
-        notificationService.notifyAboutTransfer(fromAccount, "Debited the account by " + amount);
-        notificationService.notifyAboutTransfer(toAccount, "Credited the account by " + amount);
+    private void checkAccountBalance(TransferLog transferLog, Account account, Amount needAmount) {
+        if (!account.hasAtLeast(needAmount)) {
+            outboxRepository.add(OutboxMessage.notEnoughMoney(transferLog.getId(), account.getAccountId()));
+            throw new InsufficientFundsException(account + " doesn't contain enough money.");
+        }
+    }
+
+    /**
+     * Notifications are saved to the outbox before COMPLETED,OutboxRelay sends them later:
+     * if the crash happens between them,the recovery completes the transfer and its notifications are already saved.
+     */
+    private void markTransferAsCompleted(Account fromAccount, Account toAccount, BigDecimal amount, TransferLog transferLog) {
+        outboxRepository.add(OutboxMessage.completed(transferLog.getId(), fromAccount.getAccountId(), toAccount.getAccountId(), amount));
+        transferLog.setStatus(TransferStatus.COMPLETED);
+        try {
+            transferRepositoryLog.save(transferLog);
+        } catch (RuntimeException ex) {
+            if (outboxRepository.remove(transferLog.getId())) {
+                throw ex;
+            }
+            //the relay is sending the notifications already,so the transfer isn't rolled back: the recovery completes it
+            transferLog.setStatus(TransferStatus.CREDIT_TO_ACCOUNT);
+            log.error("Cannot mark transfer {} as completed,its notifications are sent,the recovery completes it", transferLog.getId(), ex);
+        }
     }
 
     @Override
     public void transfer(@NonNull Account fromAccount, @NonNull Account toAccount, @NonNull BigDecimal amount) {
-        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(fromAccount.getAccountId(), toAccount.getAccountId()), RETRY_TIMES_TO_TAKE_LOCK);
+        long started = System.nanoTime();
+        Span span = startTransferSpan(fromAccount, toAccount, amount);
+        try (Scope ignored = span.makeCurrent()) {
+            Amount transferAmount = Amount.of(amount, fromAccount.getScale());
+            Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(fromAccount.getAccountId(), toAccount.getAccountId()), lockTimeout);
+            transferLocked(fromAccount, toAccount, transferAmount, locked, TransferMeters.record(meters.lock, started));
+        } catch (RuntimeException ex) {
+            failed(span, ex);
+            throw ex;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Wait for the locks without any thread (acquireAsync),then transfer like transfer().
+     * cancel() of the future leaves the queue of the locks,the transfer can't be cancelled after it got them.
+     */
+    @Override
+    public CompletableFuture<Void> transferAsync(@NonNull Account fromAccount, @NonNull Account toAccount, @NonNull BigDecimal amount) {
+        long started = System.nanoTime();
+        Span span = startTransferSpan(fromAccount, toAccount, amount);
+        Context context = Context.current().with(span);
+        Amount transferAmount;
+        try {
+            transferAmount = Amount.of(amount, fromAccount.getScale());
+        } catch (RuntimeException ex) {
+            failed(span, ex);
+            span.end();
+            return CompletableFuture.failedFuture(ex);
+        }
+        CompletableFuture<Optional<AdvisoryLockService.Token>> locking;
+        try (Scope ignored = context.makeCurrent()) {
+            locking = lockService.acquireAsync(List.of(fromAccount.getAccountId(), toAccount.getAccountId()), lockTimeout);
+        }
+        TransferFuture result = new TransferFuture();
+        result.onCancel(() -> locking.cancel(false));
+        locking
+                .thenAcceptAsync(locked -> {
+                    if (!result.start()) {
+                        //the lock was granted while the transfer was cancelled
+                        locked.ifPresent(lockService::release);
+                        return;
+                    }
+                    try (Scope ignored = context.makeCurrent()) {
+                        transferLocked(fromAccount, toAccount, transferAmount, locked, TransferMeters.record(meters.lock, started));
+                    }
+                }, transferExecutor)
+                .whenComplete((ignored, ex) -> {
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    if (cause != null) {
+                        failed(span, cause);
+                        result.completeExceptionally(cause);
+                    } else {
+                        result.complete(null);
+                    }
+                    span.end();
+                });
+        return result;
+    }
+
+    private Span startTransferSpan(Account fromAccount, Account toAccount, BigDecimal amount) {
+        return tracer.spanBuilder("transfer")
+                .setAttribute(FROM_ACCOUNT, fromAccount.getAccountId())
+                .setAttribute(TO_ACCOUNT, toAccount.getAccountId())
+                .setAttribute(AMOUNT, amount.toPlainString())
+                .startSpan();
+    }
+
+    private static void failed(Span span, Throwable ex) {
+        span.recordException(ex);
+        span.setStatus(StatusCode.ERROR, ex.getMessage());
+    }
+
+    /**
+     * Every phase is the child span of the transfer and is measured by transfer.phase timer.
+     */
+    private void transferLocked(Account fromAccount, Account toAccount, Amount amount, Optional<AdvisoryLockService.Token> locked, long started) {
         if (locked.isEmpty())
             throw new LockServiceException("Cannot acquired the lock for the accounts " + List.of(fromAccount.getAccountId(), toAccount.getAccountId()).stream().collect(Collectors.joining(",")));
 
-        TransferLog transferLog = transferRepositoryLog.create(fromAccount.getAccountId(), toAccount.getAccountId(), amount);
+        TransferLog transferLog = transferRepositoryLog.create(fromAccount.getAccountId(), toAccount.getAccountId(), amount.getValue());
+        boolean debited = false;
+        boolean credited = false;
+        TransferMeters transferMeters = meters;
+        long phaseStarted = started;
+        Span phase = tracer.spanBuilder("transfer.check").startSpan();
         try {
             //check amount in fromAccount
-            checkAccountBalance(fromAccount, amount);
+            checkAccountBalance(transferLog, fromAccount, amount);
+            phaseStarted = TransferMeters.record(transferMeters.check, phaseStarted);
+            phase = nextPhase(phase, "transfer.debit");
             //save current state of transfer to track its progress to recover it,if it fails.
             //debit from account
-            debitOrCreditAccount(transferLog, fromAccount, fromAccount.getBalance().subtract(amount), TransferStatus.DEBIT_FROM_ACCOUNT);
+            debitOrCreditAccount(transferLog, fromAccount, amount, TransferStatus.DEBIT_FROM_ACCOUNT, locked.get().getFence());
+            debited = true;
+            phaseStarted = TransferMeters.record(transferMeters.debit, phaseStarted);
+            phase = nextPhase(phase, "transfer.credit");
             //credit to account
-            debitOrCreditAccount(transferLog, toAccount, toAccount.getBalance().add(amount), TransferStatus.CREDIT_TO_ACCOUNT);
+            debitOrCreditAccount(transferLog, toAccount, amount, TransferStatus.CREDIT_TO_ACCOUNT, locked.get().getFence());
+            credited = true;
+            phaseStarted = TransferMeters.record(transferMeters.credit, phaseStarted);
+            phase = nextPhase(phase, "transfer.complete");
             //mark transfer as completed
-            markTransferAsCompleted(fromAccount, toAccount, amount, transferLog);
+            markTransferAsCompleted(fromAccount, toAccount, amount.getValue(), transferLog);
+            TransferMeters.record(transferMeters.complete, phaseStarted);
         } catch (Exception ex) {
+            transferMeters.failed(transferLog.getStatus(), ex);
+            failed(phase, ex);
             //rollback all changes
-            rollback(transferLog, fromAccount, toAccount, amount);
+            rollback(transferLog, fromAccount, toAccount, amount, debited, credited);
             throw ex;
         } finally {
+            phase.end();
             lockService.release(locked.get());
         }
     }
 
-    private void updateAccount(Account account, BigDecimal amount, LocalDateTime transferLogUpdateAt) {
-        if (account.getUpdateAt().compareTo(transferLogUpdateAt) >= 0) {
-            try {
-                account.setBalance(amount);
-                account.setUpdateAt(LocalDateTime.now());
-                accountsRepository.save(account);
-            } catch (Exception ignored) {
+    private Span nextPhase(Span phase, String name) {
+        phase.end();
+        return tracer.spanBuilder(name).startSpan();
+    }
+
+    /**
+     * Lock the union of accounts of all transfers once (in the sorted order),
+     * check transfers one by one in the order of the requests,log all of them by one group commit,
+     * then apply the balances and complete the transfers by the second group commit
+     * (their notifications are saved to the outbox before it).
+     * If anything fails after the first group commit, balances of all accounts are restored.
+     */
+    @Override
+    public List<TransferResult> transferBatch(@NonNull List<TransferRequest> transfers) {
+        Map<String, Account> accounts = new HashMap<>();
+        for (TransferRequest transfer : transfers) {
+            findAccount(accounts, transfer.getFromAccountId());
+            findAccount(accounts, transfer.getToAccountId());
+        }
+        List<String> accountIds = new ArrayList<>(accounts.keySet());
+        if (accountIds.isEmpty()) {
+            return transfers.stream().map(transfer -> unknownAccount(transfer, accounts)).collect(Collectors.toList());
+        }
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(accountIds, lockTimeout);
+        if (locked.isEmpty())
+            throw new LockServiceException("Cannot acquired the lock for the accounts " + String.join(",", accountIds));
+        try {
+            //balances after the applied transfers of the batch
+            Map<String, BigDecimal> balances = new HashMap<>();
+            accounts.forEach((accountId, account) -> balances.put(accountId, account.getBalance()));
+            Map<String, BigDecimal> initialBalances = new HashMap<>(balances);
+            List<TransferResult> results = new ArrayList<>(transfers.size());
+            List<TransferLog> transferLogs = new ArrayList<>(transfers.size());
+            List<OutboxMessage> notifications = new ArrayList<>(transfers.size());
+            for (TransferRequest transfer : transfers) {
+                Account fromAccount = accounts.get(transfer.getFromAccountId());
+                Account toAccount = accounts.get(transfer.getToAccountId());
+                if (fromAccount == null || toAccount == null) {
+                    results.add(unknownAccount(transfer, accounts));
+                    continue;
+                }
+                TransferLog transferLog = transferRepositoryLog.create(fromAccount.getAccountId(), toAccount.getAccountId(), transfer.getAmount());
+                transferLogs.add(transferLog);
+                BigDecimal fromBalance = balances.get(fromAccount.getAccountId());
+                if (fromBalance.compareTo(transfer.getAmount()) < 0) {
+                    transferLog.setStatus(TransferStatus.FAILED);
+                    results.add(TransferResult.failed(transferLog.getId(), fromAccount.getAccountId() + " doesn't contain enough money."));
+                    notifications.add(OutboxMessage.notEnoughMoney(transferLog.getId(), fromAccount.getAccountId()));
+                    continue;
+                }
+                balances.put(fromAccount.getAccountId(), fromBalance.subtract(transfer.getAmount()));
+                balances.put(toAccount.getAccountId(), balances.get(toAccount.getAccountId()).add(transfer.getAmount()));
+                results.add(TransferResult.completed(transferLog.getId()));
+                notifications.add(OutboxMessage.completed(transferLog.getId(), fromAccount.getAccountId(), toAccount.getAccountId(), transfer.getAmount()));
             }
+            applyBatch(accounts, initialBalances, balances, transferLogs, notifications, locked.get().getFence());
+            return results;
+        } finally {
+            lockService.release(locked.get());
         }
     }
 
-    private void rollback(TransferLog transferLog, Account fromAccount, Account toAccount, BigDecimal amount) {
-        LocalDateTime transferLogUpdateAt = transferLog.getUpdatedAt();
-        TransferStatus status = transferLog.getStatus();
-        //if it debited fromAccount,let's rollback it.
-        if (status.equals(TransferStatus.DEBIT_FROM_ACCOUNT) || status.equals(TransferStatus.CREDIT_TO_ACCOUNT)) {
-            fromAccount = accountsRepository.getAccount(fromAccount.getAccountId());
-            if (fromAccount != null) {
-                //if account is updated after transfer log update date, it has been debited.
-                updateAccount(fromAccount, fromAccount.getBalance().add(amount), transferLogUpdateAt);
+    private void findAccount(Map<String, Account> accounts, String accountId) {
+        if (!accounts.containsKey(accountId)) {
+            Account account = accountsRepository.getAccount(accountId);
+            if (account != null) {
+                accounts.put(accountId, account);
             }
         }
+    }
+
+    private TransferResult unknownAccount(TransferRequest transfer, Map<String, Account> accounts) {
+        String accountId = accounts.containsKey(transfer.getFromAccountId()) ? transfer.getToAccountId() : transfer.getFromAccountId();
+        return TransferResult.failed(null, "Cannot find the account " + accountId);
+    }
+
+    /**
+     * The transfers are logged (START,or FAILED if there isn't enough money) before any balance is changed,
+     * then the net change of every balance is applied once and the account is marked by the first started transfer:
+     * the recovery restores the accounts marked by the transfers left in START (only the batch saves them).
+     */
+    private void applyBatch(Map<String, Account> accounts, Map<String, BigDecimal> initialBalances, Map<String, BigDecimal> balances,
+                            List<TransferLog> transferLogs, List<OutboxMessage> notifications, long fence) {
+        List<TransferLog> started = transferLogs.stream()
+                .filter(transferLog -> transferLog.getStatus() == TransferStatus.START)
+                .collect(Collectors.toList());
+        //write ahead log
+        transferRepositoryLog.saveAll(transferLogs);
+        if (started.isEmpty()) {
+            outboxRepository.addAll(notifications);
+            return;
+        }
+        String batchId = started.get(0).getId();
+        Map<String, BigDecimal> appliedChanges = new HashMap<>();
+        boolean notified = false;
+        try {
+            for (Map.Entry<String, BigDecimal> balance : balances.entrySet()) {
+                BigDecimal change = balance.getValue().subtract(initialBalances.get(balance.getKey()));
+                if (change.signum() != 0) {
+                    changeBalance(accounts.get(balance.getKey()), change, true, batchId, fence);
+                    appliedChanges.put(balance.getKey(), change);
+                }
+            }
+            outboxRepository.addAll(notifications);
+            notified = true;
+            started.forEach(transferLog -> transferLog.setStatus(TransferStatus.COMPLETED));
+            transferRepositoryLog.saveAll(started);
+        } catch (Exception ex) {
+            if (notified && !takeBack(notifications) && completeAgain(started, batchId)) {
+                //the relay is sending the notifications already,so the batch is completed instead of the rollback
+                return;
+            }
+            boolean restored = true;
+            for (Map.Entry<String, BigDecimal> applied : appliedChanges.entrySet()) {
+                try {
+                    //the rollback has to be saved even if the lease has expired
+                    changeBalance(accounts.get(applied.getKey()), applied.getValue().negate(), false, null, 0);
+                } catch (Exception undoEx) {
+                    log.error("Cannot rollback the batch {} of the account {}", batchId, applied.getKey(), undoEx);
+                    restored = false;
+                }
+            }
+            //if an account isn't restored,the transfers stay in START and the recovery restores it
+            if (restored) {
+                started.forEach(transferLog -> transferLog.setStatus(TransferStatus.FAILED));
+                transferRepositoryLog.saveAll(started);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * @return false if the relay has claimed any of the notifications.
+     */
+    private boolean takeBack(List<OutboxMessage> notifications) {
+        boolean removed = true;
+        for (OutboxMessage notification : notifications) {
+            removed &= outboxRepository.remove(notification.getTransferId());
+        }
+        return removed;
+    }
+
+    private boolean completeAgain(List<TransferLog> started, String batchId) {
+        try {
+            transferRepositoryLog.saveAll(started);
+            return true;
+        } catch (Exception ex) {
+            log.error("Cannot complete the batch {} whose notifications are sent,it's rolled back", batchId, ex);
+            return false;
+        }
+    }
+
+    private void changeBalance(Account account, BigDecimal change, boolean checkBalance, String transferId, long fence) {
+        account.beginWrite();
+        try {
+            Amount amount = Amount.of(change, account.getScale());
+            if (checkBalance && change.signum() < 0 && !account.hasAtLeast(change.negate())) {
+                throw new InsufficientFundsException(account.getAccountId() + " doesn't contain enough money.");
+            }
+            String previousTransferId = account.getLastTransferId();
+            account.addToBalance(amount);
+            account.setLastTransferId(transferId);
+            save(account, fence, () -> {
+                account.subtractFromBalance(amount);
+                account.setLastTransferId(previousTransferId);
+            });
+        } finally {
+            account.endWrite();
+        }
+    }
+
+    /**
+     * The transfer knows which balances it changed,so it undoes them in the reverse order.
+     * The recovery rolls CREDIT_TO_ACCOUNT forward,so transferLog goes back to DEBIT_FROM_ACCOUNT before the debit is undone,
+     * if it can't be saved,the debit stays and the recovery completes the transfer after the restart.
+     * The rollback is saved without the fence,so it's saved even if the lease has expired.
+     */
+    private void rollback(TransferLog transferLog, Account fromAccount, Account toAccount, Amount amount, boolean debited, boolean credited) {
         //if it credited toAccount,let's rollback it.
-        if (status.equals(TransferStatus.CREDIT_TO_ACCOUNT)) {
-            toAccount = accountsRepository.getAccount(toAccount.getAccountId());
-            if (toAccount != null) {
-                //if account is updated after transfer log update date, it has been credited.
-                updateAccount(toAccount, toAccount.getBalance().subtract(amount), transferLogUpdateAt);
+        if (credited) {
+            AccountChanges.undo(accountsRepository, toAccount, amount, false);
+        }
+        //if it debited fromAccount,let's rollback it.
+        if (debited) {
+            if (transferLog.getStatus() != TransferStatus.DEBIT_FROM_ACCOUNT) {
+                try {
+                    transferLog.setStatus(TransferStatus.DEBIT_FROM_ACCOUNT);
+                    transferRepositoryLog.save(transferLog);
+                } catch (RuntimeException ex) {
+                    log.error("Transfer {} can't be rolled back,the recovery completes it", transferLog.getId(), ex);
+                    return;
+                }
             }
+            AccountChanges.undo(accountsRepository, fromAccount, amount, true);
         }
         transferLog.setStatus(TransferStatus.FAILED);
         transferRepositoryLog.save(transferLog);
 
     }
+
+    @Override
+    public void credit(@NonNull Account account, @NonNull BigDecimal amount) {
+        TransferLog transferLog = transferRepositoryLog.create(TransferLog.EXTERNAL, account.getAccountId(), amount);
+        changeExternal(transferLog, account, TransferStatus.CREDIT_TO_ACCOUNT, false);
+    }
+
+    @Override
+    public void debit(@NonNull Account account, @NonNull BigDecimal amount, boolean allowNegative) {
+        TransferLog transferLog = transferRepositoryLog.create(account.getAccountId(), TransferLog.EXTERNAL, amount);
+        changeExternal(transferLog, account, TransferStatus.DEBIT_FROM_ACCOUNT, allowNegative);
+    }
+
+    /**
+     * Lock-free: it doesn't take the advisory lock,so it isn't blocked by the transfer which holds the account.
+     * The transferLog is saved ahead,then the check and the change are made in the write of the account (the CAS of its version)
+     * and saved without the fence. The id of the transferLog is kept as pending by the account until the log is finished,
+     * the writers which come after it don't overwrite it,so the recovery knows whether it was applied.
+     */
+    private void changeExternal(TransferLog transferLog, Account account, TransferStatus status, boolean allowNegative) {
+        Amount amount = Amount.of(transferLog.getAmount(), account.getScale());
+        String transferId = transferLog.getId();
+        try {
+            //write ahead log
+            transferLog.setStatus(status);
+            transferRepositoryLog.save(transferLog);
+            AccountChanges.changePending(accountsRepository, account, amount, status == TransferStatus.CREDIT_TO_ACCOUNT,
+                    transferId, allowNegative, 0);
+        } catch (RuntimeException ex) {
+            transferLog.setStatus(TransferStatus.FAILED);
+            transferRepositoryLog.save(transferLog);
+            throw ex;
+        }
+        transferLog.setStatus(TransferStatus.COMPLETED);
+        transferRepositoryLog.save(transferLog);
+        //the finished log doesn't need it,the next save of the account drops it from the storage too
+        account.beginWrite();
+        try {
+            account.removePendingTransferId(transferId);
+        } finally {
+            account.endWrite();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        transferExecutor.shutdown();
+    }
 }
@@ -1,34 +1,69 @@
 package com.dws.challenge.web;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.domain.TransferStatus;
 import com.dws.challenge.exception.DuplicateAccountIdException;
 import com.dws.challenge.exception.ServiceException;
+import com.dws.challenge.service.ClusterRouter;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import com.dws.challenge.service.AccountsService;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 import java.math.BigDecimal;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * In the cluster (see ClusterRouter) the request for the account of other node is forwarded to it
+ * or redirected by 307 (cluster.routing),the transfer goes to the node of fromAccount.
+ */
 @RestController
 @RequestMapping("/v1/accounts")
 @Slf4j
 public class AccountsController {
+    //milliseconds the client waits for the transfer
+    public static final String DEADLINE_HEADER = "X-Deadline-Ms";
 
     private final AccountsService accountsService;
+    private final ClusterRouter clusterRouter;
+    private final Tracer tracer;
 
     @Autowired
-    public AccountsController(AccountsService accountsService) {
+    public AccountsController(AccountsService accountsService, ClusterRouter clusterRouter, OpenTelemetry openTelemetry) {
         this.accountsService = accountsService;
+        this.clusterRouter = clusterRouter;
+        this.tracer = openTelemetry.getTracer(AccountsController.class.getName());
     }
 
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Object> createAccount(@RequestBody @Valid Account account) {
+    public ResponseEntity<?> createAccount(@RequestBody @Valid Account account, HttpServletRequest request) {
+        Optional<ResponseEntity<String>> routed = route(account.getAccountId(), request,
+                Map.of("accountId", account.getAccountId(), "balance", account.getBalance()));
+        if (routed.isPresent()) {
+            return routed.get();
+        }
         log.info("Creating account {}", account);
 
         try {
@@ -41,19 +76,125 @@ public class AccountsController {
     }
 
     @GetMapping(path = "/{accountId}")
-    public Account getAccount(@PathVariable String accountId) {
+    public ResponseEntity<?> getAccount(@PathVariable String accountId, HttpServletRequest request) {
+        Optional<ResponseEntity<String>> routed = route(accountId, request, null);
+        if (routed.isPresent()) {
+            return routed.get();
+        }
         log.info("Retrieving account for id {}", accountId);
         Optional<Account> ifAccount = this.accountsService.getAccount(accountId);
         if(ifAccount.isEmpty())
              throw new ServiceException("Not found the account:" + accountId);
-        return ifAccount.get();
+        return ResponseEntity.ok(ifAccount.get());
     }
 
 
     @PutMapping(path = "/transfer/{fromAccount}/{toAccount}")
-    public ResponseEntity<String> transfer(@PathVariable String fromAccount, @PathVariable String toAccount, @RequestParam("amount") BigDecimal amouunt) {
-        accountsService.transfer(fromAccount, toAccount, amouunt);
+    public ResponseEntity<String> transfer(@PathVariable String fromAccount, @PathVariable String toAccount, @RequestParam("amount") BigDecimal amouunt,
+                                           @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey,
+                                           @RequestHeader(name = DEADLINE_HEADER, required = false) Long deadlineMillis,
+                                           HttpServletRequest request) {
+        Optional<ResponseEntity<String>> routed = route(fromAccount, request, null);
+        if (routed.isPresent()) {
+            return routed.get();
+        }
+        //the root span of the transfer,the spans of the lock and of the transfer phases are its children
+        Span span = tracer.spanBuilder("PUT /v1/accounts/transfer")
+                .setSpanKind(SpanKind.SERVER)
+                .setAttribute("transfer.from_account", fromAccount)
+                .setAttribute("transfer.to_account", toAccount)
+                .startSpan();
+        try (Scope ignored = span.makeCurrent()) {
+            return transfer(fromAccount, toAccount, amouunt, idempotencyKey, deadlineMillis);
+        } catch (RuntimeException ex) {
+            span.recordException(ex);
+            span.setStatus(StatusCode.ERROR, ex.getMessage());
+            throw ex;
+        } finally {
+            span.end();
+        }
+    }
+
+    private ResponseEntity<String> transfer(String fromAccount, String toAccount, BigDecimal amouunt, String idempotencyKey, Long deadlineMillis) {
+        //the transfer is rejected by 429 if it can't be done before the deadline of the client
+        Duration deadline = deadlineMillis != null ? Duration.ofMillis(Math.max(0, deadlineMillis)) : null;
+        if (idempotencyKey == null) {
+            accountsService.transfer(fromAccount, toAccount, amouunt, deadline);
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        }
+        //the retry gets the same response as the first request
+        TransferResult result = accountsService.transfer(idempotencyKey, fromAccount, toAccount, amouunt, deadline);
+        if (result.getStatus() == TransferStatus.FAILED) {
+            throw new ServiceException(result.getMessage());
+        }
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    @PutMapping(path = "/{accountId}/credit")
+    public ResponseEntity<String> credit(@PathVariable String accountId, @RequestParam("amount") BigDecimal amount,
+                                         HttpServletRequest request) {
+        Optional<ResponseEntity<String>> routed = route(accountId, request, null);
+        if (routed.isPresent()) {
+            return routed.get();
+        }
+        accountsService.credit(accountId, amount);
         return new ResponseEntity<>(HttpStatus.NO_CONTENT);
     }
 
+    @PutMapping(path = "/{accountId}/debit")
+    public ResponseEntity<String> debit(@PathVariable String accountId, @RequestParam("amount") BigDecimal amount,
+                                        @RequestParam(name = "allowNegative", defaultValue = "false") boolean allowNegative,
+                                        HttpServletRequest request) {
+        Optional<ResponseEntity<String>> routed = route(accountId, request, null);
+        if (routed.isPresent()) {
+            return routed.get();
+        }
+        accountsService.debit(accountId, amount, allowNegative);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    /**
+     * The batch is done under one lock of all its accounts,so in the cluster all of them have to belong to one node.
+     */
+    @PostMapping(path = "/transfers/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> transferBatch(@RequestBody List<TransferRequest> transfers, HttpServletRequest request) {
+        Set<String> owners = transfers.stream()
+                .flatMap(transfer -> Stream.of(transfer.getFromAccountId(), transfer.getToAccountId()))
+                .map(clusterRouter::ownerOf)
+                .collect(Collectors.toSet());
+        if (owners.size() > 1) {
+            throw new ServiceException("The accounts of the batch belong to different nodes: " + String.join(",", owners));
+        }
+        if (!transfers.isEmpty()) {
+            Optional<ResponseEntity<String>> routed = route(transfers.get(0).getFromAccountId(), request, transfers);
+            if (routed.isPresent()) {
+                return routed.get();
+            }
+        }
+        log.info("Transferring batch of {} transfers", transfers.size());
+        return ResponseEntity.ok(accountsService.transferBatch(transfers));
+    }
+
+    /**
+     * The reply of the node which owns the account (or the redirect to it),it's empty if the account is local.
+     *
+     * @param body the body forwarded as JSON,null is no body.
+     */
+    private Optional<ResponseEntity<String>> route(String accountId, HttpServletRequest request, Object body) {
+        if (accountId == null || clusterRouter.isLocal(accountId)) {
+            return Optional.empty();
+        }
+        String owner = clusterRouter.ownerOf(accountId);
+        if (request.getHeader(ClusterRouter.FORWARDED_HEADER) != null) {
+            throw new ServiceException("The account " + accountId + " belongs to " + owner + ",the nodes have different cluster.nodes");
+        }
+        String pathAndQuery = request.getRequestURI() + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+        if (clusterRouter.getRouting() == ClusterRouter.Routing.REDIRECT) {
+            //307 keeps the method and the body of the request
+            return Optional.of(ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT).location(URI.create(owner + pathAndQuery)).build());
+        }
+        HttpHeaders headers = new HttpHeaders();
+        Collections.list(request.getHeaderNames()).forEach(name -> headers.addAll(name, Collections.list(request.getHeaders(name))));
+        return Optional.of(clusterRouter.forward(owner, request.getMethod(), pathAndQuery, headers, body));
+    }
 }
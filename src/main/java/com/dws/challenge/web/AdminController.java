@@ -0,0 +1,98 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.domain.AccountContention;
+import com.dws.challenge.domain.AdmissionStats;
+import com.dws.challenge.domain.HeldLock;
+import com.dws.challenge.domain.LockStats;
+import com.dws.challenge.exception.ServiceException;
+import com.dws.challenge.service.AdmissionService;
+import com.dws.challenge.service.AdvisoryLockService;
+import com.dws.challenge.service.ContentionReport;
+import com.dws.challenge.service.HotAccountRegistry;
+import com.dws.challenge.service.LockHeatSketch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Operational endpoints,only PUT of the hot account changes how the account is kept (it's split into stripes),
+ * its balance stays the same.
+ */
+@RestController
+@RequestMapping("/v1/admin")
+public class AdminController {
+
+    private final AdmissionService admissionService;
+    private final HotAccountRegistry hotAccountRegistry;
+    private final ContentionReport contentionReport;
+    private final AdvisoryLockService lockService;
+    private final LockHeatSketch lockHeatSketch;
+
+    @Autowired
+    public AdminController(AdmissionService admissionService, HotAccountRegistry hotAccountRegistry,
+                           ContentionReport contentionReport, AdvisoryLockService lockService,
+                           LockHeatSketch lockHeatSketch) {
+        this.admissionService = admissionService;
+        this.hotAccountRegistry = hotAccountRegistry;
+        this.contentionReport = contentionReport;
+        this.lockService = lockService;
+        this.lockHeatSketch = lockHeatSketch;
+    }
+
+    /**
+     * Transfers in flight and the queue depth of the busiest accounts.
+     */
+    @GetMapping(path = "/admission")
+    public AdmissionStats getAdmission() {
+        return admissionService.getStats();
+    }
+
+    /**
+     * Accounts the sampled transfers waited for the longest,it's empty if tracing is disabled.
+     */
+    @GetMapping(path = "/contention")
+    public List<AccountContention> getContention(@RequestParam(name = "limit", defaultValue = "10") int limit) {
+        return contentionReport.top(checkLimit(limit));
+    }
+
+    /**
+     * Held locks with their owners,age and waiters (the oldest first) and the most acquired accounts of the last window.
+     */
+    @GetMapping(path = "/locks")
+    public LockStats getLocks(@RequestParam(name = "limit", defaultValue = "100") int limit) {
+        checkLimit(limit);
+        List<HeldLock> heldLocks = lockService.heldLocks();
+        return new LockStats(heldLocks.subList(0, Math.min(limit, heldLocks.size())), lockHeatSketch.top(limit));
+    }
+
+    private static int checkLimit(int limit) {
+        if (limit < 0) {
+            throw new ServiceException("limit can't be negative: " + limit);
+        }
+        return limit;
+    }
+
+    @GetMapping(path = "/hot-accounts")
+    public Set<String> getHotAccounts() {
+        return hotAccountRegistry.getHotAccountIds();
+    }
+
+    /**
+     * Split the account into stripes,it can't be undone at runtime.
+     * The unknown account is rejected by 400.
+     */
+    @PutMapping(path = "/hot-accounts/{accountId}")
+    public ResponseEntity<String> enableHotAccount(@PathVariable String accountId) {
+        hotAccountRegistry.enable(accountId);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+}
@@ -0,0 +1,49 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.service.ClusterTransferService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.math.BigDecimal;
+
+/**
+ * Phases of the transfers between the nodes of the cluster (see ClusterTransferService),
+ * they are called by the node of fromAccount,not by the clients.
+ */
+@RestController
+@RequestMapping("/v1/cluster")
+public class ClusterController {
+
+    private final ClusterTransferService clusterTransferService;
+
+    @Autowired
+    public ClusterController(ClusterTransferService clusterTransferService) {
+        this.clusterTransferService = clusterTransferService;
+    }
+
+    @PostMapping(path = "/transfers/{transferId}/prepare")
+    public ResponseEntity<String> prepare(@PathVariable String transferId, @RequestParam("fromAccountId") String fromAccountId,
+                                          @RequestParam("toAccountId") String toAccountId, @RequestParam("amount") BigDecimal amount) {
+        clusterTransferService.prepare(transferId, fromAccountId, toAccountId, amount);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    @PostMapping(path = "/transfers/{transferId}/commit")
+    public ResponseEntity<String> commit(@PathVariable String transferId, @RequestParam("fromAccountId") String fromAccountId,
+                                         @RequestParam("toAccountId") String toAccountId, @RequestParam("amount") BigDecimal amount) {
+        clusterTransferService.commit(transferId, fromAccountId, toAccountId, amount);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    @PostMapping(path = "/transfers/{transferId}/forget")
+    public ResponseEntity<String> forget(@PathVariable String transferId, @RequestParam("toAccountId") String toAccountId) {
+        clusterTransferService.forget(transferId, toAccountId);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+}
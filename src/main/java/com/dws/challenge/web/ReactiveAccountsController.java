@@ -0,0 +1,61 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.ServiceException;
+import com.dws.challenge.service.AccountsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+
+/**
+ * Non-blocking variant of AccountsController: the request thread is returned to the container
+ * while the transfer waits for the locks (Spring MVC completes the async request when Mono is done),
+ * so the number of waiting transfers isn't limited by the number of threads.
+ * Errors are mapped to HTTP statuses by the same ExceptionHandler.
+ * The transfer with Idempotency-Key is done once for the key like in AccountsController.
+ * In the cluster it isn't routed like AccountsController: the account (fromAccount of the transfer) has to belong to this node.
+ */
+@RestController
+@RequestMapping("/v2/accounts")
+@Slf4j
+public class ReactiveAccountsController {
+
+    private final AccountsService accountsService;
+
+    @Autowired
+    public ReactiveAccountsController(AccountsService accountsService) {
+        this.accountsService = accountsService;
+    }
+
+    @GetMapping(path = "/{accountId}")
+    public Mono<Account> getAccount(@PathVariable String accountId) {
+        //reading the snapshot doesn't block
+        return Mono.fromSupplier(() -> accountsService.getAccount(accountId))
+                .flatMap(account -> account.map(Mono::just)
+                        .orElseGet(() -> Mono.error(new ServiceException("Not found the account:" + accountId))));
+    }
+
+    @PutMapping(path = "/transfer/{fromAccount}/{toAccount}")
+    public Mono<ResponseEntity<String>> transfer(@PathVariable String fromAccount, @PathVariable String toAccount,
+                                                 @RequestParam("amount") BigDecimal amount,
+                                                 @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey,
+                                                 @RequestHeader(name = AccountsController.DEADLINE_HEADER, required = false) Long deadlineMillis) {
+        Duration deadline = deadlineMillis != null ? Duration.ofMillis(Math.max(0, deadlineMillis)) : null;
+        if (idempotencyKey == null) {
+            return Mono.defer(() -> Mono.fromFuture(accountsService.transferAsync(fromAccount, toAccount, amount, deadline)))
+                    .thenReturn(new ResponseEntity<>(HttpStatus.NO_CONTENT));
+        }
+        //the retry gets the same response as the first request like in AccountsController
+        return Mono.defer(() -> Mono.fromFuture(accountsService.transferAsync(idempotencyKey, fromAccount, toAccount, amount, deadline)))
+                .flatMap(result -> result.getStatus() == TransferStatus.FAILED
+                        ? Mono.<ResponseEntity<String>>error(new ServiceException(result.getMessage()))
+                        : Mono.just(new ResponseEntity<String>(HttpStatus.NO_CONTENT)));
+    }
+}
@@ -0,0 +1,102 @@
+package com.dws.challenge.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+import java.math.BigDecimal;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.exception.ExceptionHandler;
+import com.dws.challenge.exception.LockServiceException;
+import com.dws.challenge.service.AccountsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.web.context.WebApplicationContext;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@WebAppConfiguration
+@AutoConfigureMetrics
+class MetricsConfigTest {
+
+    @Autowired
+    private AccountsService accountsService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ExceptionHandler exceptionHandler;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Test
+    void testTransferIsMeasured() {
+        long transfers = meterRegistry.get("transfer.phase").tag("phase", "debit").timer().count();
+        long holds = meterRegistry.get("lock.hold").timer().count();
+        accountsService.createAccount(new Account("Id-metrics-1", BigDecimal.valueOf(10)));
+        accountsService.createAccount(new Account("Id-metrics-2", BigDecimal.valueOf(10)));
+
+        accountsService.transfer("Id-metrics-1", "Id-metrics-2", BigDecimal.valueOf(3));
+
+        for (String phase : new String[]{"lock", "check", "debit", "credit", "complete"}) {
+            assertThat(meterRegistry.get("transfer.phase").tag("phase", phase).timer().count()).isGreaterThan(0);
+        }
+        assertThat(meterRegistry.get("transfer.phase").tag("phase", "debit").timer().count()).isEqualTo(transfers + 1);
+        assertThat(meterRegistry.get("lock.hold").timer().count()).isGreaterThan(holds);
+        assertThat(meterRegistry.get("lock.wait").tag("mode", "blocking").tag("result", "acquired").timer().count()).isGreaterThan(0);
+        assertThat(meterRegistry.get("repository.size").tag("repository", "accounts").gauge().value()).isGreaterThanOrEqualTo(2);
+    }
+
+    @Test
+    void testInsufficientFundsIsCountedAsRejection() {
+        accountsService.createAccount(new Account("Id-metrics-3", BigDecimal.valueOf(1)));
+        accountsService.createAccount(new Account("Id-metrics-4", BigDecimal.valueOf(1)));
+        double rollbacks = meterRegistry.get("transfer.rollbacks").tag("status", "START").counter().count();
+        double rejections = meterRegistry.get("transfer.rejections").tag("reason", "insufficient_funds").counter().count();
+
+        try {
+            accountsService.transfer("Id-metrics-3", "Id-metrics-4", BigDecimal.valueOf(5));
+        } catch (Exception ignored) {
+            //not enough money
+        }
+
+        //insufficient funds is the business rejection,it isn't the rollback
+        assertThat(meterRegistry.get("transfer.rejections").tag("reason", "insufficient_funds").counter().count()).isEqualTo(rejections + 1);
+        assertThat(meterRegistry.get("transfer.rollbacks").tag("status", "START").counter().count()).isEqualTo(rollbacks);
+    }
+
+    @Test
+    void testRejectionIsCounted() {
+        double rejected = meterRegistry.get("http.rejected").tag("reason", "lock").counter().count();
+
+        exceptionHandler.handleException(new LockServiceException("busy"));
+
+        assertThat(meterRegistry.get("http.rejected").tag("reason", "lock").counter().count()).isEqualTo(rejected + 1);
+    }
+
+    @Test
+    void testPrometheusEndpoint() throws Exception {
+        accountsService.createAccount(new Account("Id-metrics-5", BigDecimal.valueOf(10)));
+        accountsService.createAccount(new Account("Id-metrics-6", BigDecimal.valueOf(10)));
+        accountsService.transfer("Id-metrics-5", "Id-metrics-6", BigDecimal.ONE);
+
+        webAppContextSetup(webApplicationContext).build()
+                .perform(get("/actuator/prometheus"))
+                .andExpectAll(status().isOk(),
+                        content().string(Matchers.containsString("transfer_phase_seconds_bucket")),
+                        content().string(Matchers.containsString("lock_wait_seconds_count")),
+                        content().string(Matchers.containsString("repository_size{repository=\"accounts\",}")));
+    }
+}
@@ -0,0 +1,29 @@
+package com.dws.challenge.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "threads.virtual.enabled=true")
+public class VirtualThreadsConfigTest {
+
+    @Autowired
+    private ServletWebServerApplicationContext applicationContext;
+
+    @Test
+    public void testRequestsAreHandledByVirtualThreads() throws Exception {
+        TomcatWebServer webServer = (TomcatWebServer) applicationContext.getWebServer();
+        Executor executor = webServer.getTomcat().getConnector().getProtocolHandler().getExecutor();
+        CompletableFuture<Boolean> virtual = new CompletableFuture<>();
+        executor.execute(() -> virtual.complete(Thread.currentThread().isVirtual()));
+        assertThat(virtual.get(5, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,172 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.exception.StaleFenceException;
+import com.dws.challenge.repository.TransferRepositoryLogMappedFile.FsyncPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+public class AccountsRepositoryPersistentTest {
+
+    private static final int STRIPES = 4;
+
+    @TempDir
+    Path dir;
+
+    private AccountsRepositoryPersistent open() {
+        return new AccountsRepositoryPersistent(dir, Duration.ZERO, Duration.ZERO, STRIPES, FsyncPolicy.GROUP_COMMIT, Account.FLOATING);
+    }
+
+    @Test
+    public void testRestoreAccountsFromChangeLog() {
+        AccountsRepositoryPersistent accountsRepository = open();
+        Account account = new Account("accId1", new BigDecimal("10.50"));
+        accountsRepository.createAccount(account);
+        account.setBalance(new BigDecimal("7.25"));
+        accountsRepository.save(account);
+        accountsRepository.close();
+
+        accountsRepository = open();
+        Account restored = accountsRepository.getAccount("accId1");
+        assertThat(restored.getBalance()).isEqualTo(new BigDecimal("7.25"));
+        assertThat(restored.getUpdateAt()).isEqualTo(account.getUpdateAt());
+        accountsRepository.close();
+    }
+
+    @Test
+    public void testRestorePendingTransferIds() {
+        AccountsRepositoryPersistent accountsRepository = open();
+        Account account = new Account("accId1", BigDecimal.TEN);
+        accountsRepository.createAccount(account);
+        account.beginWrite();
+        account.addPendingTransferId("transfer1");
+        account.setLastTransferId("transfer2");
+        accountsRepository.save(account);
+        account.endWrite();
+        accountsRepository.close();
+
+        accountsRepository = open();
+        Account restored = accountsRepository.getAccount("accId1");
+        assertThat(restored.isApplied("transfer1")).isTrue();
+        assertThat(restored.isApplied("transfer2")).isTrue();
+        assertThat(restored.getPendingTransferIds()).containsExactly("transfer1");
+        accountsRepository.close();
+    }
+
+    @Test
+    public void testRestoreAccountsFromSnapshotAndChangeLogTail() throws Exception {
+        AccountsRepositoryPersistent accountsRepository = open();
+        for (int i = 0; i < 100; i++) {
+            accountsRepository.createAccount(new Account("accId" + i, BigDecimal.valueOf(i)));
+        }
+        accountsRepository.snapshot();
+        Account account = accountsRepository.getAccount("accId1");
+        account.setBalance(BigDecimal.valueOf(1000));
+        accountsRepository.save(account);
+        accountsRepository.createAccount(new Account("accId100", BigDecimal.ONE));
+        accountsRepository.snapshot();
+        accountsRepository.createAccount(new Account("accId101", BigDecimal.TEN));
+        accountsRepository.close();
+        try (Stream<Path> files = Files.list(dir)) {
+            //only the last snapshot and its change logs are left
+            assertThat(files.count()).isEqualTo(1 + STRIPES);
+        }
+
+        accountsRepository = open();
+        assertThat(accountsRepository.getAccount("accId1").getBalance()).isEqualTo(BigDecimal.valueOf(1000));
+        assertThat(accountsRepository.getAccount("accId99").getBalance()).isEqualTo(BigDecimal.valueOf(99));
+        assertThat(accountsRepository.getAccount("accId100").getBalance()).isEqualTo(BigDecimal.ONE);
+        assertThat(accountsRepository.getAccount("accId101").getBalance()).isEqualTo(BigDecimal.TEN);
+        accountsRepository.close();
+    }
+
+    @Test
+    public void testStaleFenceIsRejected() {
+        AccountsRepositoryPersistent accountsRepository = open();
+        Account account = new Account("accId1", BigDecimal.TEN);
+        accountsRepository.createAccount(account);
+        account.setBalance(BigDecimal.ONE);
+        accountsRepository.save(account, 5);
+        account.setBalance(BigDecimal.ZERO);
+
+        assertThrows(StaleFenceException.class, () -> accountsRepository.save(account, 4));
+        //the same lease and the writes without the lease are accepted
+        accountsRepository.save(account, 5);
+        accountsRepository.save(account);
+        accountsRepository.close();
+    }
+
+    @Test
+    public void testClearAccountsIsRestored() {
+        AccountsRepositoryPersistent accountsRepository = open();
+        accountsRepository.createAccount(new Account("accId1", BigDecimal.ONE));
+        accountsRepository.clearAccounts();
+        accountsRepository.createAccount(new Account("accId2", BigDecimal.ONE));
+        accountsRepository.close();
+
+        accountsRepository = open();
+        assertThat(accountsRepository.getAccount("accId1")).isNull();
+        assertThat(accountsRepository.getAccount("accId2")).isNotNull();
+        accountsRepository.close();
+    }
+
+    @Test
+    public void testRestoreFixedPointAccounts() {
+        AccountsRepositoryPersistent accountsRepository = new AccountsRepositoryPersistent(dir, Duration.ZERO, Duration.ZERO, STRIPES, FsyncPolicy.OS, 2);
+        Account account = new Account("accId1", new BigDecimal("10.5"));
+        account.useScale(2);
+        accountsRepository.createAccount(account);
+        accountsRepository.close();
+
+        accountsRepository = new AccountsRepositoryPersistent(dir, Duration.ZERO, Duration.ZERO, STRIPES, FsyncPolicy.OS, 2);
+        Account restored = accountsRepository.getAccount("accId1");
+        assertThat(restored.isFixedPoint()).isTrue();
+        assertThat(restored.getBalanceMinor()).isEqualTo(1050);
+        assertThat(restored.getBalance()).isEqualTo(new BigDecimal("10.50"));
+        accountsRepository.close();
+    }
+
+    @Test
+    public void testConcurrentSavesAreRestored() throws Exception {
+        AccountsRepositoryPersistent writer = open();
+        for (int i = 0; i < 16; i++) {
+            writer.createAccount(new Account("accId" + i, BigDecimal.ZERO));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> saves = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            Account account = writer.getAccount("accId" + i);
+            saves.add(executor.submit(() -> {
+                for (int j = 1; j <= 100; j++) {
+                    account.setBalance(BigDecimal.valueOf(j));
+                    writer.save(account);
+                }
+            }));
+        }
+        for (Future<?> save : saves) {
+            save.get();
+        }
+        executor.shutdown();
+        writer.close();
+
+        AccountsRepositoryPersistent accountsRepository = open();
+        for (int i = 0; i < 16; i++) {
+            assertThat(accountsRepository.getAccount("accId" + i).getBalance()).isEqualTo(BigDecimal.valueOf(100));
+        }
+        accountsRepository.close();
+    }
+}
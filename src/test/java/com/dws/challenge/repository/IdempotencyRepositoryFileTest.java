@@ -0,0 +1,52 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.IdempotentTransfer;
+import com.dws.challenge.domain.TransferResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+
+public class IdempotencyRepositoryFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testResultsAreRestored() {
+        long expiresAt = System.currentTimeMillis() + 60_000;
+        IdempotencyRepositoryFile idempotencyRepository = new IdempotencyRepositoryFile(dir, 100);
+        idempotencyRepository.save(new IdempotentTransfer("key1", "accId1:accId2:10", TransferResult.completed(null), expiresAt));
+        idempotencyRepository.save(new IdempotentTransfer("key2", "accId1:accId2:20",
+                TransferResult.failed(null, "accId1 doesn't contain enough money."), expiresAt));
+        idempotencyRepository.save(new IdempotentTransfer("key3", "accId1:accId2:30", TransferResult.completed(null),
+                System.currentTimeMillis() - 1));
+        idempotencyRepository.close();
+
+        idempotencyRepository = new IdempotencyRepositoryFile(dir, 100);
+        assertThat(idempotencyRepository.count()).isEqualTo(2);
+        assertThat(idempotencyRepository.find("key1").get().getResult()).isEqualTo(TransferResult.completed(null));
+        assertThat(idempotencyRepository.find("key2").get()).isEqualTo(new IdempotentTransfer("key2", "accId1:accId2:20",
+                TransferResult.failed(null, "accId1 doesn't contain enough money."), expiresAt));
+        assertThat(idempotencyRepository.find("key3")).isEmpty();
+        idempotencyRepository.close();
+    }
+
+    @Test
+    public void testJournalIsCompacted() {
+        long expiresAt = System.currentTimeMillis() + 60_000;
+        IdempotencyRepositoryFile idempotencyRepository = new IdempotencyRepositoryFile(dir, 2);
+        for (int i = 0; i < 5; i++) {
+            idempotencyRepository.save(new IdempotentTransfer("key" + i, "accId1:accId2:10", TransferResult.completed(null), expiresAt));
+        }
+        idempotencyRepository.close();
+
+        idempotencyRepository = new IdempotencyRepositoryFile(dir, 2);
+        assertThat(idempotencyRepository.find("key3")).isPresent();
+        assertThat(idempotencyRepository.find("key4")).isPresent();
+        assertThat(idempotencyRepository.count()).isEqualTo(2);
+        idempotencyRepository.close();
+    }
+}
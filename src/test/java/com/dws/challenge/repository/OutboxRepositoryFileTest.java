@@ -0,0 +1,44 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.OutboxMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.List;
+
+public class OutboxRepositoryFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testPendingMessagesAreRestored() {
+        OutboxRepositoryFile outboxRepository = new OutboxRepositoryFile(dir, 10000);
+        outboxRepository.add(OutboxMessage.completed("transfer1", "accId1", "accId2", BigDecimal.TEN));
+        outboxRepository.add(OutboxMessage.notEnoughMoney("transfer2", "accId1"));
+        outboxRepository.add(OutboxMessage.completed("transfer3", "accId2", "accId1", BigDecimal.ONE));
+        outboxRepository.markDelivered(List.of("transfer1"));
+        outboxRepository.remove("transfer3");
+        outboxRepository.close();
+
+        outboxRepository = new OutboxRepositoryFile(dir, 10000);
+        assertThat(outboxRepository.findPending(10)).containsExactly(OutboxMessage.notEnoughMoney("transfer2", "accId1"));
+        outboxRepository.close();
+    }
+
+    @Test
+    public void testMessageOfTransferIsAddedOnce() {
+        OutboxRepositoryFile outboxRepository = new OutboxRepositoryFile(dir, 1);
+        assertThat(outboxRepository.add(OutboxMessage.completed("transfer1", "accId1", "accId2", BigDecimal.TEN))).isTrue();
+        assertThat(outboxRepository.add(OutboxMessage.completed("transfer1", "accId1", "accId2", BigDecimal.TEN))).isFalse();
+        outboxRepository.markDelivered(List.of("transfer1"));
+        //delivered message isn't added again
+        assertThat(outboxRepository.add(OutboxMessage.completed("transfer1", "accId1", "accId2", BigDecimal.TEN))).isFalse();
+        assertThat(outboxRepository.countPending()).isZero();
+        outboxRepository.close();
+    }
+}
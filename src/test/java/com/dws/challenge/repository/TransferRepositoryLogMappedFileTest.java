@@ -0,0 +1,72 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.TransferLog;
+import com.dws.challenge.domain.TransferStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+public class TransferRepositoryLogMappedFileTest {
+
+    @TempDir
+    Path dir;
+
+    private TransferRepositoryLogMappedFile open(TransferRepositoryLogMappedFile.FsyncPolicy fsyncPolicy) {
+        return new TransferRepositoryLogMappedFile(dir, DataSize.ofBytes(TransferRepositoryLogMappedFile.RECORD_SIZE * 10L),
+                fsyncPolicy, Duration.ofMillis(1), 4);
+    }
+
+    @Test
+    public void testRestoreTransferLogAfterReopen() {
+        TransferRepositoryLogMappedFile transferRepositoryLog = open(TransferRepositoryLogMappedFile.FsyncPolicy.EVERY_RECORD);
+        TransferLog transferLog = transferRepositoryLog.create("accId1", "accId2", new BigDecimal("10.25"));
+        transferRepositoryLog.save(transferLog);
+        transferLog.setStatus(TransferStatus.COMPLETED);
+        transferRepositoryLog.save(transferLog);
+        transferRepositoryLog.close();
+
+        transferRepositoryLog = open(TransferRepositoryLogMappedFile.FsyncPolicy.EVERY_RECORD);
+        Optional<TransferLog> restored = transferRepositoryLog.findFor("accId1", "accId2");
+        assertThat(restored).isNotEmpty();
+        assertThat(restored.get().getId()).isEqualTo(transferLog.getId());
+        assertThat(restored.get().getAmount()).isEqualTo(new BigDecimal("10.25"));
+        assertThat(restored.get().getStatus()).isEqualTo(TransferStatus.COMPLETED);
+        assertThat(restored.get().getUpdatedAt()).isEqualTo(transferLog.getUpdatedAt());
+        transferRepositoryLog.close();
+    }
+
+    @Test
+    public void testRollSegmentsAndContinueAfterReopen() throws Exception {
+        TransferRepositoryLogMappedFile transferRepositoryLog = open(TransferRepositoryLogMappedFile.FsyncPolicy.GROUP_COMMIT);
+        for (int i = 0; i < 25; i++) {
+            transferRepositoryLog.save(transferRepositoryLog.create("accId" + i, "accId", BigDecimal.ONE));
+        }
+        transferRepositoryLog.close();
+        try (Stream<Path> segments = Files.list(dir)) {
+            assertThat(segments.count()).isEqualTo(3);
+        }
+
+        transferRepositoryLog = open(TransferRepositoryLogMappedFile.FsyncPolicy.OS);
+        transferRepositoryLog.saveAll(List.of(transferRepositoryLog.create("accId25", "accId", BigDecimal.TEN),
+                transferRepositoryLog.create("accId26", "accId", BigDecimal.TEN)));
+        transferRepositoryLog.close();
+
+        transferRepositoryLog = open(TransferRepositoryLogMappedFile.FsyncPolicy.OS);
+        for (int i = 0; i < 25; i++) {
+            assertThat(transferRepositoryLog.findFor("accId" + i, "accId")).isNotEmpty();
+        }
+        assertThat(transferRepositoryLog.findFor("accId26", "accId").get().getAmount()).isEqualTo(BigDecimal.TEN);
+        assertThat(transferRepositoryLog.count()).isEqualTo(27);
+        transferRepositoryLog.close();
+    }
+}
@@ -5,11 +5,13 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import com.dws.challenge.domain.Account;
 import com.dws.challenge.exception.DuplicateAccountIdException;
@@ -76,7 +78,7 @@ class AccountsServiceTest {
         Account account = createAccount("Id-12345", BigDecimal.valueOf(100));
         final CountDownLatch latch = new CountDownLatch(1);
         execServ.submit(() -> {
-            Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(account.getAccountId()), 1);
+            Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(account.getAccountId()), Duration.ZERO);
             System.out.println(">>>> Accounts locked");
             latch.countDown();
             sleepFor(300);
@@ -88,6 +90,20 @@ class AccountsServiceTest {
         assertThat(readAccount.getBalance()).isEqualTo(account.getBalance());
     }
 
+    @Test
+    public void testGetAccountDoesNotWaitForTheLock() {
+        Account account = createAccount("Id-123450", BigDecimal.valueOf(100));
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(account.getAccountId()), Duration.ZERO);
+        assertThat(locked).isNotEmpty();
+        try {
+            Account readAccount = accountsService.getAccount(account.getAccountId()).get();
+            assertThat(readAccount).isNotSameAs(account);
+            assertThat(readAccount.getBalance()).isEqualTo(account.getBalance());
+        } finally {
+            lockService.release(locked.get());
+        }
+    }
+
     @Test
     public void testTransfer() {
         Account account1 = createAccount("Id-123456790", BigDecimal.valueOf(100));
@@ -158,6 +174,68 @@ class AccountsServiceTest {
         assertThat(account1Changed.getBalance()).isEqualTo(BigDecimal.valueOf(0));
     }
 
+    @Test
+    public void testCreditAndDebit() {
+        Account account = createAccount("Id-credit-1", BigDecimal.valueOf(10));
+        accountsService.credit(account.getAccountId(), BigDecimal.valueOf(5));
+        accountsService.debit(account.getAccountId(), BigDecimal.valueOf(15));
+        assertThat(accountsService.getAccount(account.getAccountId()).get().getBalance()).isEqualTo(BigDecimal.valueOf(0));
+        Exception exp = assertThrows(ServiceException.class, () -> accountsService.debit(account.getAccountId(), BigDecimal.ONE));
+        assertThat(exp.getMessage()).contains("doesn't contain enough money");
+        //fee may take the balance below zero
+        accountsService.debit(account.getAccountId(), BigDecimal.ONE, true);
+        assertThat(accountsService.getAccount(account.getAccountId()).get().getBalance()).isEqualTo(BigDecimal.valueOf(-1));
+    }
+
+    @Test
+    public void testCreditAndDebitDontWaitForTheLock() throws Exception {
+        Account account = createAccount("Id-credit-2", BigDecimal.valueOf(10));
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(account.getAccountId()), Duration.ZERO);
+        assertThat(locked).isNotEmpty();
+        try {
+            execServ.submit(() -> accountsService.credit(account.getAccountId(), BigDecimal.ONE)).get(5, TimeUnit.SECONDS);
+            execServ.submit(() -> accountsService.debit(account.getAccountId(), BigDecimal.valueOf(3))).get(5, TimeUnit.SECONDS);
+            Account changed = accountsService.getAccount(account.getAccountId()).get();
+            assertThat(changed.getBalance()).isEqualTo(BigDecimal.valueOf(8));
+            //lastTransferId belongs to the owner of the lock,finished credits/debits don't keep their ids
+            assertThat(changed.getLastTransferId()).isNull();
+            assertThat(changed.getPendingTransferIds()).isEmpty();
+        } finally {
+            lockService.release(locked.get());
+        }
+    }
+
+    @Test
+    public void testCreditAndDebitWhileTransfersHappen() {
+        Account account1 = createAccount("Id-credit-3", BigDecimal.valueOf(1000));
+        Account account2 = createAccount("Id-credit-4", BigDecimal.valueOf(1000));
+        int threadCount = 4;
+        CountDownLatch done = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            final boolean transfers = i % 2 == 0;
+            execServ.submit(() -> {
+                try {
+                    for (int j = 0; j < 100; j++) {
+                        if (transfers) {
+                            accountsService.transfer(account1.getAccountId(), account2.getAccountId(), BigDecimal.ONE);
+                            accountsService.transfer(account2.getAccountId(), account1.getAccountId(), BigDecimal.ONE);
+                        } else {
+                            accountsService.credit(account1.getAccountId(), BigDecimal.valueOf(2));
+                            accountsService.debit(account2.getAccountId(), BigDecimal.ONE);
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        await(done);
+        BigDecimal total = accountsService.getAccount(account1.getAccountId()).get().getBalance()
+                .add(accountsService.getAccount(account2.getAccountId()).get().getBalance());
+        //2 credit/debit threads: +200 and -100 each
+        assertThat(total).isEqualTo(BigDecimal.valueOf(2200));
+    }
+
     private Account createAccount(String accId, BigDecimal amount) {
         Account account = new Account(accId);
         account.setBalance(amount);
@@ -0,0 +1,74 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.AdmissionStats;
+import com.dws.challenge.exception.AdmissionRejectedException;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+public class AdmissionServiceTest {
+
+    @Test
+    public void testTransferIsRejectedIfAccountIsTooBusy() {
+        AdmissionService admissionService = new AdmissionServiceImp(true, 100, 2);
+        AdmissionService.Ticket first = admissionService.admit(List.of("accId1", "accId2"), Duration.ofSeconds(5));
+        AdmissionService.Ticket second = admissionService.admit(List.of("accId1", "accId3"), Duration.ofSeconds(5));
+        assertThat(second.getDepth()).isEqualTo(1);
+        AdmissionRejectedException ex = assertThrows(AdmissionRejectedException.class,
+                () -> admissionService.admit(List.of("accId3", "accId1"), Duration.ofSeconds(5)));
+        assertThat(ex.getRetryAfterSeconds()).isGreaterThanOrEqualTo(1);
+        //other accounts are admitted
+        admissionService.release(admissionService.admit(List.of("accId2", "accId4"), Duration.ofSeconds(5)));
+
+        AdmissionStats stats = admissionService.getStats();
+        assertThat(stats.getInFlight()).isEqualTo(2);
+        assertThat(stats.getRejected()).isEqualTo(1);
+        assertThat(stats.getHotAccounts()).containsEntry("accId1", 2).containsKeys("accId2", "accId3");
+        admissionService.release(first);
+        admissionService.release(second);
+        assertThat(admissionService.getStats().getInFlight()).isZero();
+        assertThat(admissionService.getStats().getHotAccounts()).isEmpty();
+    }
+
+    @Test
+    public void testTransferIsRejectedIfProjectedWaitIsLongerThanDeadline() throws InterruptedException {
+        AdmissionService admissionService = new AdmissionServiceImp(true, 100, 100);
+        //learn the service time
+        AdmissionService.Ticket ticket = admissionService.admit(List.of("accId1", "accId2"), Duration.ofSeconds(5));
+        Thread.sleep(20);
+        admissionService.release(ticket);
+        assertThat(admissionService.getStats().getServiceTimeMicros()).isGreaterThanOrEqualTo(20_000);
+
+        AdmissionService.Ticket running = admissionService.admit(List.of("accId1", "accId2"), Duration.ofSeconds(5));
+        assertThrows(AdmissionRejectedException.class,
+                () -> admissionService.admit(List.of("accId2", "accId1"), Duration.ofMillis(5)));
+        admissionService.release(admissionService.admit(List.of("accId2", "accId1"), Duration.ofSeconds(5)));
+        admissionService.release(running);
+    }
+
+    @Test
+    public void testTransferIsRejectedIfTooManyInFlight() {
+        AdmissionService admissionService = new AdmissionServiceImp(true, 1, 100);
+        AdmissionService.Ticket ticket = admissionService.admit(List.of("accId1", "accId2"), Duration.ofSeconds(5));
+        assertThrows(AdmissionRejectedException.class,
+                () -> admissionService.admit(List.of("accId3", "accId4"), Duration.ofSeconds(5)));
+        admissionService.release(ticket);
+        admissionService.release(admissionService.admit(List.of("accId3", "accId4"), Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void testDisabledAdmissionOnlyCountsTransfers() {
+        AdmissionService admissionService = new AdmissionServiceImp(false, 1, 1);
+        AdmissionService.Ticket first = admissionService.admit(List.of("accId1", "accId2"), Duration.ZERO);
+        AdmissionService.Ticket second = admissionService.admit(List.of("accId1", "accId2"), Duration.ZERO);
+        assertThat(admissionService.getStats().getHotAccounts()).isEqualTo(Map.of("accId1", 2, "accId2", 2));
+        admissionService.release(first);
+        admissionService.release(second);
+        assertThat(admissionService.getStats().getAdmitted()).isEqualTo(2);
+    }
+}
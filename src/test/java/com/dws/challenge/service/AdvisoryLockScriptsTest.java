@@ -0,0 +1,125 @@
+package com.dws.challenge.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Lua of ACQUIRE_SCRIPT and RELEASE_SCRIPT run by the embedded Lua engine (RespStubServer runs their Java equivalents):
+ * redis.call is backed by the map of keys,unpack is global like in Lua 5.1 of Redis.
+ */
+public class AdvisoryLockScriptsTest {
+
+    private final Map<String, String> values = new HashMap<>();
+    private Globals globals;
+
+    @BeforeEach
+    public void setUp() {
+        globals = JsePlatform.standardGlobals();
+        globals.set("unpack", globals.get("table").get("unpack"));
+        LuaTable redis = new LuaTable();
+        redis.set("call", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                return call(args);
+            }
+        });
+        globals.set("redis", redis);
+    }
+
+    private LuaValue call(Varargs args) {
+        String command = args.checkjstring(1).toLowerCase();
+        String key = args.checkjstring(2);
+        switch (command) {
+            case "exists":
+                return LuaValue.valueOf(values.containsKey(key) ? 1 : 0);
+            case "get":
+                //nil reply of Redis is false in Lua
+                return values.containsKey(key) ? LuaValue.valueOf(values.get(key)) : LuaValue.FALSE;
+            case "set":
+                assertThat(args.checkjstring(4)).isEqualTo("PX");
+                values.put(key, args.checkjstring(3));
+                return LuaValue.valueOf("OK");
+            case "incr": {
+                long value = Long.parseLong(values.getOrDefault(key, "0")) + 1;
+                values.put(key, String.valueOf(value));
+                return LuaValue.valueOf(value);
+            }
+            case "del": {
+                int deleted = 0;
+                for (int i = 2; i <= args.narg(); i++) {
+                    deleted += values.remove(args.checkjstring(i)) != null ? 1 : 0;
+                }
+                return LuaValue.valueOf(deleted);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown command " + command);
+        }
+    }
+
+    private long eval(String script, List<String> keys, List<String> args) {
+        globals.set("KEYS", table(keys));
+        globals.set("ARGV", table(args));
+        return globals.load(script).call().checklong();
+    }
+
+    private static LuaTable table(List<String> values) {
+        LuaTable table = new LuaTable();
+        for (int i = 0; i < values.size(); i++) {
+            table.set(i + 1, LuaValue.valueOf(values.get(i)));
+        }
+        return table;
+    }
+
+    @Test
+    public void testAcquireTakesAllAccountsAndIncrementsFence() {
+        long fence = eval(AdvisoryLockServiceRedis.ACQUIRE_SCRIPT, List.of("lock:fence", "lock:accId1", "lock:accId2"), List.of("owner1", "30000"));
+
+        assertThat(fence).isEqualTo(1);
+        assertThat(values).containsEntry("lock:accId1", "owner1").containsEntry("lock:accId2", "owner1");
+        assertThat(eval(AdvisoryLockServiceRedis.ACQUIRE_SCRIPT, List.of("lock:fence", "lock:accId3"), List.of("owner2", "30000"))).isEqualTo(2);
+    }
+
+    @Test
+    public void testAcquireReturnsIndexOfBusyAccount() {
+        values.put("lock:accId2", "owner1");
+
+        long busy = eval(AdvisoryLockServiceRedis.ACQUIRE_SCRIPT, List.of("lock:fence", "lock:accId1", "lock:accId2"), List.of("owner2", "30000"));
+
+        assertThat(busy).isEqualTo(-3);
+        //nothing is taken and the fence isn't incremented
+        assertThat(values).doesNotContainKey("lock:accId1").doesNotContainKey("lock:fence");
+    }
+
+    @Test
+    public void testReleaseDeletesOnlyAccountsOfOwner() {
+        eval(AdvisoryLockServiceRedis.ACQUIRE_SCRIPT, List.of("lock:fence", "lock:accId1", "lock:accId2"), List.of("owner1", "30000"));
+
+        assertThat(eval(AdvisoryLockServiceRedis.RELEASE_SCRIPT, List.of("lock:accId1", "lock:accId2"), List.of("owner2"))).isEqualTo(0);
+        assertThat(values).containsKey("lock:accId1").containsKey("lock:accId2");
+
+        assertThat(eval(AdvisoryLockServiceRedis.RELEASE_SCRIPT, List.of("lock:accId1", "lock:accId2"), List.of("owner1"))).isEqualTo(1);
+        assertThat(values).doesNotContainKey("lock:accId1").doesNotContainKey("lock:accId2");
+        //the fence is never released
+        assertThat(values).containsEntry("lock:fence", "1");
+    }
+
+    @Test
+    public void testReleaseOfNotAcquiredAccountsDeletesNothing() {
+        values.put("lock:accId1", "owner1");
+
+        assertThat(eval(AdvisoryLockServiceRedis.RELEASE_SCRIPT, List.of("lock:accId1", "lock:accId2"), List.of("owner1"))).isEqualTo(0);
+        assertThat(values).containsEntry("lock:accId1", "owner1");
+    }
+}
@@ -0,0 +1,192 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.exception.LockServiceException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two instances of the application share the locks through RespStubServer.
+ */
+public class AdvisoryLockServiceRedisTest {
+
+    private RespStubServer server;
+    private AdvisoryLockServiceRedis instance1;
+    private AdvisoryLockServiceRedis instance2;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = new RespStubServer();
+        instance1 = lockService(Duration.ofSeconds(30));
+        instance2 = lockService(Duration.ofSeconds(30));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        instance1.close();
+        instance2.close();
+        server.close();
+    }
+
+    private AdvisoryLockServiceRedis lockService(Duration leaseTtl) {
+        return new AdvisoryLockServiceRedis("localhost", server.getPort(), "lock:", Duration.ofSeconds(5), leaseTtl);
+    }
+
+    @Test
+    public void testAccountsAreLockedForAllInstances() {
+        Optional<AdvisoryLockService.Token> locked1 = instance1.acquire(List.of("accId1", "accId2"), Duration.ZERO);
+        assertThat(locked1).isNotEmpty();
+        assertThat(instance2.acquire(List.of("accId2", "accId3"), Duration.ZERO)).isEmpty();
+        //all-or-nothing: accId3 wasn't taken by the failed attempt
+        Optional<AdvisoryLockService.Token> locked3 = instance2.acquire(List.of("accId3"), Duration.ZERO);
+        assertThat(locked3).isNotEmpty();
+        instance2.release(locked3.get());
+
+        instance1.release(locked1.get());
+        Optional<AdvisoryLockService.Token> locked2 = instance2.acquire(List.of("accId2", "accId3"), Duration.ZERO);
+        assertThat(locked2).isNotEmpty();
+        assertThat(locked2.get().getFence()).isGreaterThan(locked1.get().getFence());
+        instance2.release(locked2.get());
+    }
+
+    @Test
+    public void testAcquireAndReleaseAreOneRoundTripEach() {
+        //the server learns the script by the first EVAL
+        instance1.release(instance1.acquire(List.of("accId1"), Duration.ZERO).orElseThrow());
+        server.scriptCalls.set(0);
+
+        Optional<AdvisoryLockService.Token> locked = instance1.acquire(List.of("accId1", "accId2", "accId3", "accId4"), Duration.ZERO);
+        assertThat(locked).isNotEmpty();
+        instance1.release(locked.get());
+
+        assertThat(server.scriptCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testAccountHeldByThisInstanceIsNotAskedFromServer() throws Exception {
+        Optional<AdvisoryLockService.Token> locked = instance1.acquire(List.of("accId1"), Duration.ZERO);
+        server.scriptCalls.set(0);
+
+        assertThat(instance1.acquire(List.of("accId1", "accId2"), Duration.ZERO)).isEmpty();
+        CompletableFuture<Optional<AdvisoryLockService.Token>> waiter = instance1.acquireAsync(List.of("accId1"), Duration.ofSeconds(5));
+        Thread.sleep(50);
+        assertThat(server.scriptCalls.get()).isZero();
+        assertThat(instance1.heldLocks()).singleElement().satisfies(heldLock -> {
+            assertThat(heldLock.getOwner()).isEqualTo(locked.get().getToken());
+            assertThat(heldLock.getWaiters()).isEqualTo(1);
+        });
+
+        instance1.release(locked.get());
+        Optional<AdvisoryLockService.Token> next = waiter.get(5, TimeUnit.SECONDS);
+        assertThat(next).isNotEmpty();
+        instance1.release(next.get());
+    }
+
+    @Test
+    public void testWaiterOfOtherInstanceGetsAccountsAfterRelease() throws Exception {
+        Optional<AdvisoryLockService.Token> locked = instance1.acquire(List.of("accId1", "accId2"), Duration.ZERO);
+        CompletableFuture<Optional<AdvisoryLockService.Token>> waiter = instance2.acquireAsync(List.of("accId2"), Duration.ofSeconds(5));
+        Thread.sleep(50);
+        assertThat(waiter).isNotDone();
+
+        instance1.release(locked.get());
+
+        Optional<AdvisoryLockService.Token> next = waiter.get(5, TimeUnit.SECONDS);
+        assertThat(next).isNotEmpty();
+        instance2.release(next.get());
+    }
+
+    @Test
+    public void testLeaseExpiresOnServer() {
+        AdvisoryLockServiceRedis shortLease = lockService(Duration.ofMillis(100));
+        try {
+            Optional<AdvisoryLockService.Token> expired = shortLease.acquire(List.of("accId1"), Duration.ZERO);
+            assertThat(expired).isNotEmpty();
+
+            Optional<AdvisoryLockService.Token> next = instance2.acquire(List.of("accId1"), Duration.ofSeconds(5));
+            assertThat(next).isNotEmpty();
+            assertThat(next.get().getFence()).isGreaterThan(expired.get().getFence());
+
+            //the stale owner doesn't release the lock of the next one
+            shortLease.release(expired.get());
+            assertThat(instance1.acquire(List.of("accId1"), Duration.ZERO)).isEmpty();
+            instance2.release(next.get());
+            assertThrows(LockServiceException.class, () -> instance2.release(new AdvisoryLockService.Token("accId1")));
+        } finally {
+            shortLease.close();
+        }
+    }
+
+    @Test
+    public void testTimedOutAcquireIsReleasedOnServer() {
+        AdvisoryLockServiceRedis impatient = new AdvisoryLockServiceRedis("localhost", server.getPort(), "lock:",
+                Duration.ofMillis(100), Duration.ofSeconds(30));
+        try {
+            //the server takes the accounts,but the reply comes after the timeout of the client
+            server.acquireReplyDelayMillis = 300;
+            assertThrows(LockServiceException.class, () -> impatient.acquire(List.of("accId1", "accId2"), Duration.ofSeconds(5)));
+            server.acquireReplyDelayMillis = 0;
+
+            //they are released long before the lease of 30s expires
+            Optional<AdvisoryLockService.Token> locked = instance2.acquire(List.of("accId1", "accId2"), Duration.ofSeconds(5));
+            assertThat(locked).isNotEmpty();
+            instance2.release(locked.get());
+        } finally {
+            impatient.close();
+        }
+    }
+
+    @Test
+    public void testLostConnectionIsOpenedAgain() throws Exception {
+        instance1.release(instance1.acquire(List.of("accId1"), Duration.ZERO).orElseThrow());
+        server.dropClients();
+        Thread.sleep(50);
+
+        Optional<AdvisoryLockService.Token> locked = instance1.acquire(List.of("accId1"), Duration.ZERO);
+        assertThat(locked).isNotEmpty();
+        instance1.release(locked.get());
+    }
+
+    @Test
+    public void testInstancesDoNotChangeSharedStateConcurrently() throws Exception {
+        int threadCount = 4;
+        int iterations = 200;
+        long[] counter = new long[1];
+        ExecutorService execServ = Executors.newFixedThreadPool(threadCount * 2);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (AdvisoryLockServiceRedis instance : List.of(instance1, instance2)) {
+                for (int i = 0; i < threadCount; i++) {
+                    futures.add(execServ.submit(() -> {
+                        for (int j = 0; j < iterations; j++) {
+                            AdvisoryLockService.Token token = instance.acquire(List.of("shared1", "shared2"), Duration.ofSeconds(10)).orElseThrow();
+                            long value = counter[0];
+                            Thread.yield();
+                            counter[0] = value + 1;
+                            instance.release(token);
+                        }
+                    }));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            execServ.shutdown();
+        }
+        assertThat(counter[0]).isEqualTo(2L * threadCount * iterations);
+    }
+}
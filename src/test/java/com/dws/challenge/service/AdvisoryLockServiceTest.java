@@ -1,16 +1,27 @@
 package com.dws.challenge.service;
 
+import com.dws.challenge.domain.HeldLock;
 import com.dws.challenge.exception.LockServiceException;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @SpringBootTest
 public class AdvisoryLockServiceTest {
@@ -19,19 +30,19 @@ public class AdvisoryLockServiceTest {
 
     @Test
     public void testAcquireAndReleaseAccounts() {
-        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of("accId1", "accId2"), 1);
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of("accId1", "accId2"), Duration.ZERO);
         assertThat(locked).isNotEmpty();
         lockService.release(locked.get());
     }
 
     @Test
     public void testCannotAcquireTwoAccountIfOneIsAccquired() {
-        assertThat(lockService.acquire(Collections.emptyList(), 1)).isEmpty();
+        assertThat(lockService.acquire(Collections.emptyList(), Duration.ZERO)).isEmpty();
         String accId1 = "accId1";
-        Optional<AdvisoryLockService.Token> locked1 = lockService.acquire(List.of(accId1), 1);
+        Optional<AdvisoryLockService.Token> locked1 = lockService.acquire(List.of(accId1), Duration.ZERO);
         assertThat(locked1).isNotEmpty();
         String accId2 = "accId2";
-        Optional<AdvisoryLockService.Token> locked2 = lockService.acquire(List.of(accId1, accId2), 1);
+        Optional<AdvisoryLockService.Token> locked2 = lockService.acquire(List.of(accId1, accId2), Duration.ZERO);
         assertThat(locked2).isEmpty();
         lockService.release(locked1.get());
     }
@@ -40,23 +51,68 @@ public class AdvisoryLockServiceTest {
     public void testLockBAIsTheLockABInTheSameOrder() {
         String accId1 = "A";
         String accId2 = "B";
-        Optional<AdvisoryLockService.Token> locked1 = lockService.acquire(List.of(accId1, accId2), 1);
+        Optional<AdvisoryLockService.Token> locked1 = lockService.acquire(List.of(accId1, accId2), Duration.ZERO);
         assertThat(locked1).isNotEmpty();
         lockService.release(locked1.get());
-        Optional<AdvisoryLockService.Token> locked2 = lockService.acquire(List.of(accId2, accId1), 1);
+        Optional<AdvisoryLockService.Token> locked2 = lockService.acquire(List.of(accId2, accId1), Duration.ZERO);
         assertThat(locked2).isNotEmpty();
         lockService.release(locked2.get());
-        assertThat(locked1.get()).isEqualTo(locked2.get());
+        //the same accounts,but every acquire is the new lease with the greater fence
+        assertThat(locked1.get().getAccountIds()).isEqualTo(locked2.get().getAccountIds());
+        assertThat(locked1.get()).isNotEqualTo(locked2.get());
+        assertThat(locked2.get().getFence()).isGreaterThan(locked1.get().getFence());
+    }
+
+    @Test
+    public void testExpiredLeaseIsReleasedAndItsOwnerCannotReleaseTheNextOne() throws Exception {
+        AdvisoryLockServiceImp leaseLockService = new AdvisoryLockServiceImp(Duration.ofMillis(100), Duration.ofMillis(10));
+        try {
+            Optional<AdvisoryLockService.Token> expired = leaseLockService.acquire(List.of("leaseAccId1", "leaseAccId2"), Duration.ZERO);
+            assertThat(expired).isNotEmpty();
+            assertThat(leaseLockService.acquire(List.of("leaseAccId2"), Duration.ZERO)).isEmpty();
+
+            //the waiter gets the accounts when the lease expires
+            Optional<AdvisoryLockService.Token> next = leaseLockService.acquire(List.of("leaseAccId2", "leaseAccId1"), Duration.ofSeconds(5));
+            assertThat(next).isNotEmpty();
+            assertThat(expired.get().isExpired()).isTrue();
+            assertThat(next.get().getFence()).isGreaterThan(expired.get().getFence());
+
+            //the stale owner doesn't release the accounts of the next one
+            leaseLockService.release(expired.get());
+            assertThat(leaseLockService.acquire(List.of("leaseAccId1"), Duration.ZERO)).isEmpty();
+            leaseLockService.release(next.get());
+            assertThat(leaseLockService.heldLocks()).isEmpty();
+        } finally {
+            leaseLockService.close();
+        }
+    }
+
+    @Test
+    public void testReleasedLeasesDoNotStayInTheWheel() throws Exception {
+        AdvisoryLockServiceImp leaseLockService = new AdvisoryLockServiceImp(Duration.ofSeconds(30), Duration.ofMillis(10));
+        try {
+            for (int i = 0; i < 1000; i++) {
+                leaseLockService.release(leaseLockService.acquire(List.of("wheelAccId" + i), Duration.ZERO).orElseThrow());
+            }
+            Optional<AdvisoryLockService.Token> held = leaseLockService.acquire(List.of("wheelAccId"), Duration.ZERO);
+            Thread.sleep(100);
+            LeaseWheel leases = (LeaseWheel) ReflectionTestUtils.getField(leaseLockService, "leases");
+            //only the held lease and the few ones which were held when the tick moved them into the wheel
+            assertThat(leases.size()).isBetween(1, 50);
+            leaseLockService.release(held.orElseThrow());
+        } finally {
+            leaseLockService.close();
+        }
     }
 
     @Test
     public void testAcquireAccountAgainIfItWasReleased() {
         String accId1 = "accId1";
-        Optional<AdvisoryLockService.Token> locked1 = lockService.acquire(List.of(accId1), 1);
+        Optional<AdvisoryLockService.Token> locked1 = lockService.acquire(List.of(accId1), Duration.ZERO);
         assertThat(locked1).isNotEmpty();
-        assertThat(lockService.acquire(List.of(accId1), 1)).isEmpty();
+        assertThat(lockService.acquire(List.of(accId1), Duration.ZERO)).isEmpty();
         lockService.release(locked1.get());
-        locked1 = lockService.acquire(List.of(accId1), 1);
+        locked1 = lockService.acquire(List.of(accId1), Duration.ZERO);
         assertThat(locked1).isNotEmpty();
         lockService.release(locked1.get());
     }
@@ -71,4 +127,168 @@ public class AdvisoryLockServiceTest {
         });
         assertThat(exp.getMessage()).startsWith("Cannot release the lock: it DIDN'T acquired all necessary account");
     }
+
+    @Test
+    public void testAcquireDisjointAccountsConcurrently() throws Exception {
+        int threadCount = 8;
+        int iterations = 1000;
+        ExecutorService execServ = Executors.newFixedThreadPool(threadCount);
+        AtomicInteger acquired = new AtomicInteger();
+        try {
+            Future<?>[] futures = new Future<?>[threadCount];
+            for (int i = 0; i < threadCount; i++) {
+                final List<String> accIds = List.of("disjoint-" + i + "-a", "disjoint-" + i + "-b");
+                futures[i] = execServ.submit(() -> {
+                    for (int j = 0; j < iterations; j++) {
+                        Optional<AdvisoryLockService.Token> locked = lockService.acquire(accIds, Duration.ZERO);
+                        assertThat(locked).isNotEmpty();
+                        acquired.incrementAndGet();
+                        lockService.release(locked.get());
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            execServ.shutdownNow();
+        }
+        assertThat(acquired.get()).isEqualTo(threadCount * iterations);
+    }
+
+    @Test
+    public void testWaiterIsWokenUpWhenAccountIsReleased() throws Exception {
+        String accId = "waitedAccId";
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(accId), Duration.ZERO);
+        assertThat(locked).isNotEmpty();
+        ExecutorService execServ = Executors.newSingleThreadExecutor();
+        try {
+            Future<Optional<AdvisoryLockService.Token>> waiter = execServ.submit(() -> lockService.acquire(List.of(accId), Duration.ofSeconds(10)));
+            Thread.sleep(100);
+            long releasedAt = System.nanoTime();
+            lockService.release(locked.get());
+            Optional<AdvisoryLockService.Token> waited = waiter.get(10, TimeUnit.SECONDS);
+            assertThat(waited).isNotEmpty();
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - releasedAt)).isLessThan(1000);
+            lockService.release(waited.get());
+        } finally {
+            execServ.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAcquireReturnsEmptyWhenTimeoutExpires() {
+        String accId = "timedOutAccId";
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(accId), Duration.ZERO);
+        assertThat(locked).isNotEmpty();
+        long startedAt = System.nanoTime();
+        assertThat(lockService.acquire(List.of(accId), Duration.ofMillis(200))).isEmpty();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt)).isGreaterThanOrEqualTo(200);
+        lockService.release(locked.get());
+        //the queue is empty again,so the account is free for the newcomer
+        Optional<AdvisoryLockService.Token> lockedAgain = lockService.acquire(List.of(accId), Duration.ZERO);
+        assertThat(lockedAgain).isNotEmpty();
+        lockService.release(lockedAgain.get());
+    }
+
+    @Test
+    public void testWaitingVirtualThreadsDoNotTakePlatformThreads() throws Exception {
+        String accId = "virtualAccId";
+        int waiterCount = 10_000;
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(accId), Duration.ZERO);
+        assertThat(locked).isNotEmpty();
+        int platformThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        AtomicInteger acquired = new AtomicInteger();
+        try (ExecutorService execServ = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < waiterCount; i++) {
+                execServ.submit(() -> {
+                    Optional<AdvisoryLockService.Token> waited = lockService.acquire(List.of(accId), Duration.ofSeconds(60));
+                    if (waited.isPresent()) {
+                        acquired.incrementAndGet();
+                        lockService.release(waited.get());
+                    }
+                });
+            }
+            Thread.sleep(500);
+            //waiters are parked and unmounted,only carrier threads are added
+            assertThat(ManagementFactory.getThreadMXBean().getThreadCount())
+                    .isLessThan(platformThreads + Runtime.getRuntime().availableProcessors() + 16);
+            lockService.release(locked.get());
+        }
+        assertThat(acquired.get()).isEqualTo(waiterCount);
+    }
+
+    @Test
+    public void testAcquireAsyncIsCompletedWhenAccountIsReleased() throws Exception {
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of("asyncAccId1"), Duration.ZERO);
+        assertThat(locked).isNotEmpty();
+        CompletableFuture<Optional<AdvisoryLockService.Token>> waiting =
+                lockService.acquireAsync(List.of("asyncAccId2", "asyncAccId1"), Duration.ofSeconds(10));
+        Thread.sleep(100);
+        assertThat(waiting).isNotDone();
+        //the blocking newcomer doesn't overtake the async waiter
+        assertThat(lockService.acquire(List.of("asyncAccId1"), Duration.ZERO)).isEmpty();
+        lockService.release(locked.get());
+        Optional<AdvisoryLockService.Token> token = waiting.get(10, TimeUnit.SECONDS);
+        assertThat(token).isNotEmpty();
+        lockService.release(token.get());
+    }
+
+    @Test
+    public void testAcquireAsyncIsCompletedEmptyWhenTimeoutExpires() throws Exception {
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of("asyncTimedOutAccId"), Duration.ZERO);
+        assertThat(locked).isNotEmpty();
+        assertThat(lockService.acquireAsync(List.of("asyncTimedOutAccId"), Duration.ofMillis(200)).get(10, TimeUnit.SECONDS)).isEmpty();
+        CompletableFuture<Optional<AdvisoryLockService.Token>> cancelled =
+                lockService.acquireAsync(List.of("asyncTimedOutAccId"), Duration.ofSeconds(10));
+        cancelled.cancel(false);
+        lockService.release(locked.get());
+        //the cancelled waiter has left the queue
+        Optional<AdvisoryLockService.Token> lockedAgain = lockService.acquireAsync(List.of("asyncTimedOutAccId"), Duration.ofSeconds(1)).get(10, TimeUnit.SECONDS);
+        assertThat(lockedAgain).isNotEmpty();
+        lockService.release(lockedAgain.get());
+    }
+
+    @Test
+    public void testManyAsyncWaitersDoNotTakeThreads() throws Exception {
+        String accId = "asyncManyAccId";
+        int waiterCount = 10_000;
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(accId), Duration.ZERO);
+        assertThat(locked).isNotEmpty();
+        int platformThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        AtomicInteger acquired = new AtomicInteger();
+        List<CompletableFuture<Void>> waiters = new ArrayList<>();
+        for (int i = 0; i < waiterCount; i++) {
+            waiters.add(lockService.acquireAsync(List.of(accId), Duration.ofSeconds(60)).thenAccept(token -> {
+                if (token.isPresent()) {
+                    acquired.incrementAndGet();
+                    lockService.release(token.get());
+                }
+            }));
+        }
+        assertThat(ManagementFactory.getThreadMXBean().getThreadCount()).isLessThanOrEqualTo(platformThreads + 4);
+        lockService.release(locked.get());
+        CompletableFuture.allOf(waiters.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        assertThat(acquired.get()).isEqualTo(waiterCount);
+    }
+
+    @Test
+    public void testHeldLocksShowOwnerAndWaiters() throws Exception {
+        String accId = "heldAccId";
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(accId), Duration.ZERO);
+        assertThat(locked).isNotEmpty();
+        CompletableFuture<Optional<AdvisoryLockService.Token>> waiter = lockService.acquireAsync(List.of(accId), Duration.ofSeconds(10));
+        Thread.sleep(20);
+
+        HeldLock heldLock = lockService.heldLocks().stream()
+                .filter(lock -> lock.getAccountId().equals(accId))
+                .findFirst().orElseThrow();
+        assertThat(heldLock.getOwner()).isEqualTo(locked.get().getToken());
+        assertThat(heldLock.getWaiters()).isEqualTo(1);
+        assertThat(heldLock.getHeldMillis()).isGreaterThanOrEqualTo(20);
+
+        lockService.release(locked.get());
+        lockService.release(waiter.get(10, TimeUnit.SECONDS).orElseThrow());
+        assertThat(lockService.heldLocks()).noneMatch(lock -> lock.getAccountId().equals(accId));
+    }
 }
@@ -0,0 +1,126 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncNotificationServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final List<String> senderThreads = new CopyOnWriteArrayList<>();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    //it blocks the workers until release,so the next notifications wait in the queue
+    private final NotificationService blockingSender = (account, description) -> {
+        if (Thread.currentThread().getName().startsWith("notification-")) {
+            started.countDown();
+            await(release);
+        }
+        sent.add(account.getAccountId() + ": " + description);
+        senderThreads.add(Thread.currentThread().getName());
+    };
+
+    @Test
+    public void testNotificationsOfAccountAreCoalesced() {
+        AsyncNotificationService notificationService = new AsyncNotificationService(blockingSender, 10, 1, 100,
+                AsyncNotificationService.OverflowPolicy.DROP, dir);
+        notificationService.notifyAboutTransfer(new Account("accId1"), "first");
+        await(started);
+        notificationService.notifyAboutTransfer(new Account("accId2"), "Debited the account by 1");
+        notificationService.notifyAboutTransfer(new Account("accId2"), "Credited the account by 2");
+        release.countDown();
+        notificationService.close();
+        assertThat(sent).containsExactly("accId1: first", "accId2: Debited the account by 1\nCredited the account by 2");
+        assertThat(notificationService.getSubmitted()).isEqualTo(3);
+        assertThat(notificationService.getCoalesced()).isEqualTo(1);
+        assertThat(notificationService.getDelivered()).isEqualTo(2);
+    }
+
+    @Test
+    public void testNotificationIsDroppedIfQueueIsFull() {
+        AsyncNotificationService notificationService = new AsyncNotificationService(blockingSender, 1, 1, 100,
+                AsyncNotificationService.OverflowPolicy.DROP, dir);
+        notificationService.notifyAboutTransfer(new Account("accId1"), "first");
+        await(started);
+        notificationService.notifyAboutTransfer(new Account("accId2"), "queued");
+        notificationService.notifyAboutTransfer(new Account("accId3"), "dropped");
+        assertThat(notificationService.getDropped()).isEqualTo(1);
+        release.countDown();
+        notificationService.close();
+        assertThat(sent).containsExactly("accId1: first", "accId2: queued");
+    }
+
+    @Test
+    public void testNotificationIsSentByCallerIfQueueIsFull() {
+        AsyncNotificationService notificationService = new AsyncNotificationService(blockingSender, 1, 1, 100,
+                AsyncNotificationService.OverflowPolicy.CALLER_RUNS, dir);
+        notificationService.notifyAboutTransfer(new Account("accId1"), "first");
+        await(started);
+        notificationService.notifyAboutTransfer(new Account("accId2"), "queued");
+        notificationService.notifyAboutTransfer(new Account("accId3"), "caller");
+        assertThat(sent).containsExactly("accId3: caller");
+        assertThat(senderThreads).containsExactly(Thread.currentThread().getName());
+        release.countDown();
+        notificationService.close();
+        assertThat(sent).containsExactly("accId3: caller", "accId1: first", "accId2: queued");
+        assertThat(notificationService.getCallerRuns()).isEqualTo(1);
+        assertThat(notificationService.getDropped()).isZero();
+    }
+
+    @Test
+    public void testNotificationIsSpilledIfQueueIsFull() {
+        AsyncNotificationService notificationService = new AsyncNotificationService(blockingSender, 1, 1, 100,
+                AsyncNotificationService.OverflowPolicy.SPILL, dir);
+        notificationService.notifyAboutTransfer(new Account("accId1"), "first");
+        await(started);
+        notificationService.notifyAboutTransfer(new Account("accId2"), "queued");
+        notificationService.notifyAboutTransfer(new Account("accId3"), "spilled");
+        //the caller doesn't send it,it's sent by the worker after the queue has room
+        assertThat(sent).isEmpty();
+        assertThat(notificationService.getSpilled()).isEqualTo(1);
+        release.countDown();
+        notificationService.close();
+        assertThat(sent).containsExactly("accId1: first", "accId2: queued", "accId3: spilled");
+        assertThat(notificationService.getDropped()).isZero();
+    }
+
+    @Test
+    public void testAsyncNotificationIsCompletedWhenItIsSent() throws Exception {
+        AsyncNotificationService notificationService = new AsyncNotificationService(blockingSender, 1, 1, 100,
+                AsyncNotificationService.OverflowPolicy.SPILL, dir);
+        CompletableFuture<Void> first = notificationService.notifyAboutTransferAsync(new Account("accId1"), "first");
+        await(started);
+        CompletableFuture<Void> debited = notificationService.notifyAboutTransferAsync(new Account("accId2"), "Debited the account by 1");
+        CompletableFuture<Void> credited = notificationService.notifyAboutTransferAsync(new Account("accId2"), "Credited the account by 2");
+        //the queue is full,the notification isn't spilled but fails,so its sender retries it
+        CompletableFuture<Void> overflowed = notificationService.notifyAboutTransferAsync(new Account("accId3"), "dropped");
+        assertThat(overflowed.isCompletedExceptionally()).isTrue();
+        assertThat(notificationService.getSpilled()).isZero();
+        assertThat(first.isDone() || debited.isDone() || credited.isDone()).isFalse();
+        release.countDown();
+        CompletableFuture.allOf(first, debited, credited).get(5, TimeUnit.SECONDS);
+        assertThat(sent).containsExactly("accId1: first", "accId2: Debited the account by 1\nCredited the account by 2");
+        notificationService.close();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.SubAccount;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ClusterRouterTest {
+    private static final String[] NODES = {"http://node1:8080", "http://node2:8080", "http://node3:8080/"};
+
+    private static ClusterRouter router(String[] nodes, String self) {
+        return new ClusterRouter(nodes, self, 128, ClusterRouter.Routing.FORWARD, Duration.ofSeconds(1));
+    }
+
+    @Test
+    public void testSingleNodeOwnsEverything() {
+        ClusterRouter router = new ClusterRouter();
+        assertThat(router.isEnabled()).isFalse();
+        assertThat(router.isLocal("accId1")).isTrue();
+        assertThat(router.isLocal(SubAccount.id("accId1", 3))).isTrue();
+    }
+
+    @Test
+    public void testNodesAgreeOnOwners() {
+        ClusterRouter node1 = router(NODES, "http://node1:8080");
+        ClusterRouter node3 = router(NODES, "http://node3:8080");
+        assertThat(node3.getSelf()).isEqualTo("http://node3:8080");
+        for (int i = 0; i < 1000; i++) {
+            String accountId = "accId" + i;
+            assertThat(node1.ownerOf(accountId)).isEqualTo(node3.ownerOf(accountId));
+            assertThat(node1.isLocal(accountId)).isEqualTo(node1.ownerOf(accountId).equals("http://node1:8080"));
+        }
+    }
+
+    @Test
+    public void testAccountsAreSpreadOverNodes() {
+        ClusterRouter router = router(NODES, "http://node1:8080");
+        Map<String, Integer> accounts = new HashMap<>();
+        for (int i = 0; i < 30000; i++) {
+            accounts.merge(router.ownerOf("accId" + i), 1, Integer::sum);
+        }
+        assertThat(accounts).hasSize(3);
+        accounts.values().forEach(count -> assertThat(count).isBetween(7000, 13000));
+    }
+
+    @Test
+    public void testStripesLiveWithMainAccount() {
+        ClusterRouter router = router(NODES, "http://node1:8080");
+        for (int i = 0; i < 100; i++) {
+            assertThat(router.ownerOf(SubAccount.id("accId" + i, i % 8))).isEqualTo(router.ownerOf("accId" + i));
+        }
+    }
+
+    @Test
+    public void testAddedNodeTakesItsShareOnly() {
+        ClusterRouter before = router(NODES, "http://node1:8080");
+        ClusterRouter after = router(new String[]{NODES[0], NODES[1], NODES[2], "http://node4:8080"}, "http://node1:8080");
+        int moved = 0;
+        for (int i = 0; i < 20000; i++) {
+            String accountId = "accId" + i;
+            if (!before.ownerOf(accountId).equals(after.ownerOf(accountId))) {
+                //the accounts move only to the new node
+                assertThat(after.ownerOf(accountId)).isEqualTo("http://node4:8080");
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(3000, 7000);
+    }
+
+    @Test
+    public void testSelfMustBeNode() {
+        assertThrows(IllegalArgumentException.class, () -> router(NODES, "http://node4:8080"));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ClusterRouter(NODES, "http://node1:8080", 0, ClusterRouter.Routing.FORWARD, Duration.ofSeconds(1)));
+    }
+}
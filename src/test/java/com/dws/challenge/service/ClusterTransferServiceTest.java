@@ -0,0 +1,228 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferLog;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.NodeUnavailableException;
+import com.dws.challenge.exception.ServiceException;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.OutboxRepositoryInMemory;
+import com.dws.challenge.repository.TransferRepositoryLogInMemory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Two nodes call each other directly instead of HTTP,the node of toAccount may be down or lose the commits.
+ */
+public class ClusterTransferServiceTest {
+    private static final String[] NODES = {"http://node1:8080", "http://node2:8080"};
+
+    private final Map<String, Node> nodes = new HashMap<>();
+    private Node node1;
+    private Node node2;
+    private Account fromAccount;
+    private Account toAccount;
+
+    private class Node {
+        final AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+        final TransferRepositoryLogInMemory transferRepositoryLog = new TransferRepositoryLogInMemory();
+        final OutboxRepositoryInMemory outboxRepository = new OutboxRepositoryInMemory();
+        final AdvisoryLockServiceImp lockService = new AdvisoryLockServiceImp();
+        final ClusterRouter router;
+        final ClusterTransferServiceImp service;
+        volatile boolean down;
+        volatile boolean commitLost;
+        volatile boolean forgetLost;
+
+        Node(String self) {
+            router = new ClusterRouter(NODES, self, 128, ClusterRouter.Routing.FORWARD, Duration.ofSeconds(1)) {
+                @Override
+                public void call(String node, String pathAndQuery) {
+                    nodes.get(node).handle(pathAndQuery);
+                }
+            };
+            service = new ClusterTransferServiceImp(router, lockService, transferRepositoryLog, outboxRepository,
+                    accountsRepository, Duration.ofSeconds(1), Duration.ZERO);
+        }
+
+        //ClusterController
+        void handle(String pathAndQuery) {
+            if (down) {
+                throw new NodeUnavailableException("The node is down");
+            }
+            URI uri = URI.create(pathAndQuery);
+            String[] path = uri.getPath().split("/");
+            Map<String, String> params = new HashMap<>();
+            for (String param : uri.getRawQuery().split("&")) {
+                String[] pair = param.split("=");
+                params.put(pair[0], URLDecoder.decode(pair[1], StandardCharsets.UTF_8));
+            }
+            String phase = path[path.length - 1];
+            if (phase.equals("forget")) {
+                if (forgetLost) {
+                    throw new NodeUnavailableException("The acknowledgment is lost");
+                }
+                service.forget(path[path.length - 2], params.get("toAccountId"));
+                return;
+            }
+            BigDecimal amount = new BigDecimal(params.get("amount"));
+            if (phase.equals("prepare")) {
+                service.prepare(path[path.length - 2], params.get("fromAccountId"), params.get("toAccountId"), amount);
+            } else if (commitLost) {
+                throw new NodeUnavailableException("The commit is lost");
+            } else {
+                service.commit(path[path.length - 2], params.get("fromAccountId"), params.get("toAccountId"), amount);
+            }
+        }
+    }
+
+    @BeforeEach
+    void createNodes() {
+        node1 = new Node(NODES[0]);
+        node2 = new Node(NODES[1]);
+        nodes.put(NODES[0], node1);
+        nodes.put(NODES[1], node2);
+        fromAccount = new Account(accountOf(node1, "from"), BigDecimal.valueOf(100));
+        node1.accountsRepository.createAccount(fromAccount);
+        toAccount = new Account(accountOf(node2, "to"), BigDecimal.ZERO);
+        node2.accountsRepository.createAccount(toAccount);
+    }
+
+    private static String accountOf(Node node, String prefix) {
+        for (int i = 0; ; i++) {
+            if (node.router.isLocal(prefix + i)) {
+                return prefix + i;
+            }
+        }
+    }
+
+    @Test
+    public void testTransferToOtherNode() {
+        node1.service.transfer(fromAccount, toAccount.getAccountId(), BigDecimal.TEN);
+        assertThat(fromAccount.getBalance()).isEqualByComparingTo("90");
+        assertThat(toAccount.getBalance()).isEqualByComparingTo("10");
+        TransferLog transferLog = node1.transferRepositoryLog.findFor(fromAccount.getAccountId(), toAccount.getAccountId()).get();
+        assertThat(transferLog.getStatus()).isEqualTo(TransferStatus.COMPLETED);
+        //the participant logs the credit with the id of the coordinator
+        assertThat(node2.transferRepositoryLog.findFor(fromAccount.getAccountId(), toAccount.getAccountId()).get().getId())
+                .isEqualTo(transferLog.getId());
+        assertThat(node1.outboxRepository.countPending()).isEqualTo(1);
+        assertThat(node2.outboxRepository.countPending()).isZero();
+        //the coordinator has acknowledged it
+        assertThat(toAccount.getPendingTransferIds()).isEmpty();
+    }
+
+    @Test
+    public void testNotEnoughMoney() {
+        assertThrows(ServiceException.class, () -> node1.service.transfer(fromAccount, toAccount.getAccountId(), BigDecimal.valueOf(101)));
+        assertThat(fromAccount.getBalance()).isEqualByComparingTo("100");
+        assertThat(toAccount.getBalance()).isEqualByComparingTo("0");
+        assertThat(node1.transferRepositoryLog.findFor(fromAccount.getAccountId(), toAccount.getAccountId()).get().getStatus())
+                .isEqualTo(TransferStatus.FAILED);
+    }
+
+    @Test
+    public void testUnknownAccountOfOtherNode() {
+        assertThrows(ServiceException.class, () -> node1.service.transfer(fromAccount, accountOf(node2, "missing"), BigDecimal.TEN));
+        assertThat(fromAccount.getBalance()).isEqualByComparingTo("100");
+    }
+
+    @Test
+    public void testNothingChangesIfNodeIsDownBeforePrepare() {
+        node2.down = true;
+        assertThrows(NodeUnavailableException.class, () -> node1.service.transfer(fromAccount, toAccount.getAccountId(), BigDecimal.TEN));
+        assertThat(fromAccount.getBalance()).isEqualByComparingTo("100");
+        assertThat(node1.transferRepositoryLog.findUnfinished()).isEmpty();
+    }
+
+    @Test
+    public void testTransferInDoubtIsCommittedOnce() {
+        node2.commitLost = true;
+        //the money has left fromAccount,so the transfer doesn't fail
+        node1.service.transfer(fromAccount, toAccount.getAccountId(), BigDecimal.TEN);
+        assertThat(fromAccount.getBalance()).isEqualByComparingTo("90");
+        assertThat(toAccount.getBalance()).isEqualByComparingTo("0");
+        TransferLog inDoubt = node1.transferRepositoryLog.findFor(fromAccount.getAccountId(), toAccount.getAccountId()).get();
+        assertThat(inDoubt.getStatus()).isEqualTo(TransferStatus.CREDIT_TO_ACCOUNT);
+        assertThat(node1.service.resolveInDoubt()).isZero();
+
+        node2.commitLost = false;
+        assertThat(node1.service.resolveInDoubt()).isEqualTo(1);
+        assertThat(toAccount.getBalance()).isEqualByComparingTo("10");
+        assertThat(inDoubt.getStatus()).isEqualTo(TransferStatus.COMPLETED);
+        assertThat(node1.service.resolveInDoubt()).isZero();
+        //the repeated commit doesn't credit it again
+        node2.service.commit(inDoubt.getId(), fromAccount.getAccountId(), toAccount.getAccountId(), BigDecimal.TEN);
+        assertThat(toAccount.getBalance()).isEqualByComparingTo("10");
+    }
+
+    @Test
+    public void testNextTransferCommitsTransferInDoubt() {
+        node2.commitLost = true;
+        node1.service.transfer(fromAccount, toAccount.getAccountId(), BigDecimal.TEN);
+        node2.commitLost = false;
+        node1.service.transfer(fromAccount, toAccount.getAccountId(), BigDecimal.ONE);
+        assertThat(fromAccount.getBalance()).isEqualByComparingTo("89");
+        assertThat(toAccount.getBalance()).isEqualByComparingTo("11");
+        assertThat(node1.transferRepositoryLog.findUnfinished()).isEmpty();
+        assertThat(node1.outboxRepository.countPending()).isEqualTo(2);
+    }
+
+    @Test
+    public void testStaleCommitDoesNotCreditAgain() {
+        node2.forgetLost = true;
+        node1.service.transfer(fromAccount, toAccount.getAccountId(), BigDecimal.TEN);
+        TransferLog first = node1.transferRepositoryLog.findFor(fromAccount.getAccountId(), toAccount.getAccountId()).get();
+        assertThat(first.getStatus()).isEqualTo(TransferStatus.COMPLETED);
+        node2.forgetLost = false;
+        node1.service.transfer(fromAccount, toAccount.getAccountId(), BigDecimal.ONE);
+        assertThat(toAccount.getBalance()).isEqualByComparingTo("11");
+        assertThat(toAccount.getPendingTransferIds()).containsExactly(first.getId());
+
+        //the delayed commit of the first transfer comes after the next transfer between the accounts
+        node2.service.commit(first.getId(), fromAccount.getAccountId(), toAccount.getAccountId(), BigDecimal.TEN);
+        assertThat(toAccount.getBalance()).isEqualByComparingTo("11");
+
+        node2.service.forget(first.getId(), toAccount.getAccountId());
+        assertThat(toAccount.getPendingTransferIds()).isEmpty();
+    }
+
+    @Test
+    public void testCommitIsRejectedIfToAccountWasWrittenByNewerLease() {
+        //the lease of the commit has expired and the next owner of toAccount has written it
+        toAccount.advanceFence(Long.MAX_VALUE);
+        node1.service.transfer(fromAccount, toAccount.getAccountId(), BigDecimal.TEN);
+        assertThat(toAccount.getBalance()).isEqualByComparingTo("0");
+        assertThat(node1.transferRepositoryLog.findFor(fromAccount.getAccountId(), toAccount.getAccountId()).get().getStatus())
+                .isEqualTo(TransferStatus.CREDIT_TO_ACCOUNT);
+    }
+
+    @Test
+    public void testCommitWaitsForLockOfToAccount() {
+        Optional<AdvisoryLockService.Token> locked = node2.lockService.acquire(List.of(toAccount.getAccountId()), Duration.ZERO);
+        assertThat(locked).isNotEmpty();
+        try {
+            //the commit gives up after the half of cluster.timeout,the transfer stays in doubt
+            node1.service.transfer(fromAccount, toAccount.getAccountId(), BigDecimal.TEN);
+            assertThat(toAccount.getBalance()).isEqualByComparingTo("0");
+        } finally {
+            node2.lockService.release(locked.get());
+        }
+        assertThat(node1.service.resolveInDoubt()).isEqualTo(1);
+        assertThat(fromAccount.getBalance()).isEqualByComparingTo("90");
+        assertThat(toAccount.getBalance()).isEqualByComparingTo("10");
+    }
+}
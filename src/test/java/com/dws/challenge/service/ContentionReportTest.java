@@ -0,0 +1,117 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountContention;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.OutboxRepositoryInMemory;
+import com.dws.challenge.repository.TransferRepositoryLogInMemory;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class ContentionReportTest {
+
+    private final ContentionReport contentionReport = new ContentionReport(100);
+    private final List<SpanData> spans = new CopyOnWriteArrayList<>();
+    private final AdvisoryLockServiceImp lockService = new AdvisoryLockServiceImp();
+    private SdkTracerProvider tracerProvider;
+
+    @BeforeEach
+    public void setUp() {
+        SpanProcessor collector = new SpanProcessor() {
+            @Override
+            public void onStart(Context parentContext, ReadWriteSpan span) {
+            }
+
+            @Override
+            public boolean isStartRequired() {
+                return false;
+            }
+
+            @Override
+            public void onEnd(ReadableSpan span) {
+                spans.add(span.toSpanData());
+            }
+
+            @Override
+            public boolean isEndRequired() {
+                return true;
+            }
+        };
+        tracerProvider = SdkTracerProvider.builder()
+                .addSpanProcessor(contentionReport)
+                .addSpanProcessor(collector)
+                .build();
+        lockService.setOpenTelemetry(OpenTelemetrySdk.builder().setTracerProvider(tracerProvider).build());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        lockService.close();
+        tracerProvider.close();
+    }
+
+    @Test
+    public void testWaitIsAttributedToBusyAccountAndItsOwner() throws Exception {
+        Optional<AdvisoryLockService.Token> owner = lockService.acquire(List.of("accId1"), Duration.ZERO);
+        assertThat(owner).isNotEmpty();
+
+        Optional<AdvisoryLockService.Token> waiter = CompletableFuture
+                .supplyAsync(() -> lockService.acquire(List.of("accId1", "accId2"), Duration.ofMillis(200)))
+                .get(5, TimeUnit.SECONDS);
+
+        assertThat(waiter).isEmpty();
+        lockService.release(owner.get());
+        List<AccountContention> top = contentionReport.top(10);
+        assertThat(top).hasSize(1);
+        assertThat(top.get(0).getAccountId()).isEqualTo("accId1");
+        assertThat(top.get(0).getWaits()).isEqualTo(1);
+        assertThat(top.get(0).getLastOwner()).isEqualTo(owner.get().getToken());
+        assertThat(top.get(0).getTotalWaitMicros()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toMicros(150));
+    }
+
+    @Test
+    public void testTransferPhasesAreChildSpansOfTransfer() {
+        TransferServiceImp transferService = new TransferServiceImp();
+        AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+        transferService.setLockService(lockService);
+        transferService.setAccountsRepository(accountsRepository);
+        transferService.setTransferRepositoryLog(new TransferRepositoryLogInMemory());
+        transferService.setOutboxRepository(new OutboxRepositoryInMemory());
+        transferService.setOpenTelemetry(OpenTelemetrySdk.builder().setTracerProvider(tracerProvider).build());
+        Account fromAccount = new Account("accId1", BigDecimal.TEN);
+        Account toAccount = new Account("accId2", BigDecimal.ZERO);
+        accountsRepository.createAccount(fromAccount);
+        accountsRepository.createAccount(toAccount);
+
+        transferService.transfer(fromAccount, toAccount, BigDecimal.ONE);
+        transferService.close();
+
+        SpanData transfer = spans.stream().filter(span -> span.getName().equals("transfer")).findFirst().orElseThrow();
+        List<String> children = spans.stream()
+                .filter(span -> span.getParentSpanId().equals(transfer.getSpanId()))
+                .map(SpanData::getName)
+                .collect(Collectors.toList());
+        assertThat(children).containsExactly("lock.acquire", "transfer.check", "transfer.debit", "transfer.credit", "transfer.complete");
+        //nobody waited for the accounts
+        assertThat(contentionReport.top(10)).isEmpty();
+    }
+}
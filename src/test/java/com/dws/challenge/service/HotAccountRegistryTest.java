@@ -0,0 +1,139 @@
+package com.dws.challenge.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.SubAccount;
+import com.dws.challenge.exception.ServiceException;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+class HotAccountRegistryTest {
+
+    @Autowired
+    private AccountsService accountsService;
+
+    @Autowired
+    private AccountsRepository accountsRepository;
+
+    @Autowired
+    private HotAccountRegistry hotAccountRegistry;
+
+    @Autowired
+    private TransferService transferService;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testTransfersToHotAccountGoToStripes() {
+        String hotId = "Hot-" + System.nanoTime();
+        accountsService.createAccount(new Account(hotId, BigDecimal.ZERO));
+        accountsService.createAccount(new Account(hotId + "-payer", new BigDecimal("100")));
+        hotAccountRegistry.enable(hotId);
+        for (int i = 0; i < 10; i++) {
+            accountsService.transfer(hotId + "-payer", hotId, BigDecimal.TEN);
+        }
+        accountsService.credit(hotId, new BigDecimal("5"));
+        assertThat(accountsRepository.getAccount(hotId).getBalance()).isEqualByComparingTo("0");
+        assertThat(accountsService.getAccount(hotId).get().getBalance()).isEqualByComparingTo("105");
+
+        //the main account doesn't have enough,the stripes are folded before the debit
+        accountsService.transfer(hotId, hotId + "-payer", new BigDecimal("60"));
+        accountsService.debit(hotId, new BigDecimal("40"));
+        assertThat(accountsService.getAccount(hotId).get().getBalance()).isEqualByComparingTo("5");
+        assertThat(accountsService.getAccount(hotId + "-payer").get().getBalance()).isEqualByComparingTo("60");
+        hotAccountRegistry.rebalance();
+        assertThat(accountsRepository.getAccount(hotId).getBalance()).isEqualByComparingTo("5");
+        assertThat(accountsRepository.getAccount(SubAccount.id(hotId, 0)).getBalance()).isEqualByComparingTo("0");
+    }
+
+    @Test
+    void testUnknownAccountIsRejected() {
+        String accountId = "Hot-" + System.nanoTime();
+        assertThrows(ServiceException.class, () -> hotAccountRegistry.enable(accountId));
+        assertThat(hotAccountRegistry.isHot(accountId)).isFalse();
+        assertThat(accountsRepository.getAccount(SubAccount.id(accountId, 0))).isNull();
+    }
+
+    @Test
+    void testHotAccountIsEnabledAgainAfterRestart() {
+        AccountsRepository persistentAccounts = new AccountsRepositoryInMemory();
+        persistentAccounts.createAccount(new Account("Hot-1", BigDecimal.ZERO));
+        HotAccountRegistry registry = new HotAccountRegistry(persistentAccounts, transferService, new String[0], 2,
+                Duration.ZERO, Account.FLOATING, "persistent", dir);
+        registry.enable("Hot-1");
+        registry.close();
+
+        HotAccountRegistry restarted = new HotAccountRegistry(persistentAccounts, transferService, new String[0], 2,
+                Duration.ZERO, Account.FLOATING, "persistent", dir);
+        assertThat(restarted.isHot("Hot-1")).isTrue();
+        restarted.close();
+    }
+
+    @Test
+    void testStripeCannotBeCreatedByClient() {
+        assertThrows(ServiceException.class,
+                () -> accountsService.createAccount(new Account(SubAccount.id("Id-" + System.nanoTime(), 0), BigDecimal.ONE)));
+    }
+
+    @Test
+    void testBalanceOfHotAccountNeverGoesBackWhileStripesAreFolded() throws Exception {
+        String hotId = "Hot-" + System.nanoTime();
+        accountsService.createAccount(new Account(hotId, BigDecimal.ZERO));
+        hotAccountRegistry.enable(hotId);
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            String payerId = hotId + "-payer" + i;
+            accountsService.createAccount(new Account(payerId, new BigDecimal("1000")));
+            writers.add(executor.submit(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    accountsService.transfer(payerId, hotId, BigDecimal.ONE);
+                }
+            }));
+        }
+        writers.add(executor.submit(() -> {
+            while (running.get()) {
+                hotAccountRegistry.rebalance();
+            }
+        }));
+        Future<?> reader = executor.submit(() -> {
+            BigDecimal last = BigDecimal.ZERO;
+            while (running.get()) {
+                BigDecimal balance = accountsService.getAccount(hotId).get().getBalance();
+                assertThat(balance).isGreaterThanOrEqualTo(last);
+                last = balance;
+            }
+        });
+        for (int i = 0; i < 4; i++) {
+            writers.get(i).get();
+        }
+        running.set(false);
+        writers.get(4).get();
+        reader.get();
+        executor.shutdown();
+        assertThat(accountsService.getAccount(hotId).get().getBalance()).isEqualByComparingTo("4000");
+    }
+}
@@ -0,0 +1,125 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.LockServiceException;
+import com.dws.challenge.exception.ServiceException;
+import com.dws.challenge.repository.IdempotencyRepositoryInMemory;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IdempotencyServiceTest {
+
+    private final IdempotencyRepositoryInMemory idempotencyRepository = new IdempotencyRepositoryInMemory(2);
+    private final IdempotencyService idempotencyService = new IdempotencyServiceImp(idempotencyRepository,
+            Duration.ofHours(1), Duration.ofSeconds(5));
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @Test
+    public void testTransferIsRunOnceForKey() {
+        TransferResult first = idempotencyService.execute("key1", "accId1:accId2:10", this::completed);
+        TransferResult retry = idempotencyService.execute("key1", "accId1:accId2:10", this::completed);
+        assertThat(retry).isEqualTo(first);
+        assertThat(first.getStatus()).isEqualTo(TransferStatus.COMPLETED);
+        assertThat(runs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFailedTransferIsStored() {
+        TransferResult first = idempotencyService.execute("key1", "accId1:accId2:10", () -> {
+            runs.incrementAndGet();
+            throw new ServiceException("accId1 doesn't contain enough money.");
+        });
+        TransferResult retry = idempotencyService.execute("key1", "accId1:accId2:10", this::completed);
+        assertThat(retry).isEqualTo(TransferResult.failed(null, "accId1 doesn't contain enough money."));
+        assertThat(first).isEqualTo(retry);
+        assertThat(runs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testTransferIsRunAgainAfterLockServiceException() {
+        assertThrows(LockServiceException.class, () -> idempotencyService.execute("key1", "accId1:accId2:10", () -> {
+            runs.incrementAndGet();
+            throw new LockServiceException("Cannot acquire the lock");
+        }));
+        assertThat(idempotencyService.execute("key1", "accId1:accId2:10", this::completed).getStatus())
+                .isEqualTo(TransferStatus.COMPLETED);
+        assertThat(runs.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testKeyOfAnotherTransferIsRejected() {
+        idempotencyService.execute("key1", "accId1:accId2:10", this::completed);
+        ServiceException ex = assertThrows(ServiceException.class,
+                () -> idempotencyService.execute("key1", "accId1:accId2:20", this::completed));
+        assertThat(ex.getMessage()).isEqualTo("Idempotency-Key key1 is already used by another transfer");
+        assertThat(runs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testConcurrentDuplicateWaitsForRunningTransfer() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<TransferResult> first = CompletableFuture.supplyAsync(() ->
+                idempotencyService.execute("key1", "accId1:accId2:10", () -> {
+                    started.countDown();
+                    await(release);
+                    return completed();
+                }));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<TransferResult> duplicate = CompletableFuture.supplyAsync(() ->
+                idempotencyService.execute("key1", "accId1:accId2:10", this::completed));
+        release.countDown();
+        assertThat(duplicate.get(5, TimeUnit.SECONDS)).isEqualTo(first.get(5, TimeUnit.SECONDS));
+        assertThat(runs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAsyncDuplicateGetsFutureOfRunningTransfer() throws Exception {
+        CompletableFuture<TransferResult> transfer = new CompletableFuture<>();
+        CompletableFuture<TransferResult> first = idempotencyService.executeAsync("key1", "accId1:accId2:10", () -> {
+            runs.incrementAndGet();
+            return transfer;
+        });
+        CompletableFuture<TransferResult> duplicate = idempotencyService.executeAsync("key1", "accId1:accId2:10",
+                () -> CompletableFuture.completedFuture(completed()));
+        //nobody waits for the running transfer
+        assertThat(first.isDone() || duplicate.isDone()).isFalse();
+        transfer.completeExceptionally(new ServiceException("accId1 doesn't contain enough money."));
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(TransferResult.failed(null, "accId1 doesn't contain enough money."));
+        assertThat(duplicate.get(5, TimeUnit.SECONDS)).isEqualTo(first.get());
+        assertThat(idempotencyService.execute("key1", "accId1:accId2:10", this::completed)).isEqualTo(first.get());
+        assertThat(runs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testOldestKeyIsEvicted() {
+        idempotencyService.execute("key1", "accId1:accId2:10", this::completed);
+        idempotencyService.execute("key2", "accId1:accId2:10", this::completed);
+        idempotencyService.execute("key3", "accId1:accId2:10", this::completed);
+        assertThat(idempotencyRepository.count()).isEqualTo(2);
+        assertThat(idempotencyRepository.find("key1")).isEmpty();
+        assertThat(idempotencyRepository.find("key3")).isPresent();
+    }
+
+    private TransferResult completed() {
+        runs.incrementAndGet();
+        return TransferResult.completed(null);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
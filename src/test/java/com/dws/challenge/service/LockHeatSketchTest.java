@@ -0,0 +1,71 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.AccountRate;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.List;
+
+public class LockHeatSketchTest {
+
+    @Test
+    public void testHottestAccountsComeFirst() {
+        long started = System.nanoTime();
+        LockHeatSketch sketch = new LockHeatSketch(Duration.ofMinutes(10), 2, 256, 4, 3);
+        for (int i = 0; i < 1000; i++) {
+            sketch.record(List.of("cold-" + i));
+            if (i % 2 == 0) {
+                sketch.record(List.of("hot1"));
+            }
+            if (i % 5 == 0) {
+                sketch.record(List.of("hot2", "cold-" + i));
+            }
+        }
+
+        List<AccountRate> top = sketch.top(2);
+        double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+
+        assertThat(top).extracting(AccountRate::getAccountId).containsExactly("hot1", "hot2");
+        //count-min never underestimates
+        assertThat(top.get(0).getAcquires()).isGreaterThanOrEqualTo(500);
+        assertThat(top.get(1).getAcquires()).isGreaterThanOrEqualTo(200);
+        //the rate is over the time the sketch has been running,not over the whole window
+        assertThat(top.get(0).getPerSecond()).isGreaterThanOrEqualTo(top.get(0).getAcquires() / elapsedSeconds);
+        assertThat(sketch.estimate("cold-1")).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    public void testAcquiresExpireWithTheWindow() throws Exception {
+        LockHeatSketch sketch = new LockHeatSketch(Duration.ofMillis(100), 2, 64, 2, 10);
+        sketch.record(List.of("accId1"));
+        assertThat(sketch.estimate("accId1")).isEqualTo(1);
+
+        Thread.sleep(250);
+
+        assertThat(sketch.estimate("accId1")).isZero();
+        assertThat(sketch.top(10)).isEmpty();
+    }
+
+    @Test
+    public void testExpiredBucketIsReusedAfterItIsCleared() throws Exception {
+        LockHeatSketch sketch = new LockHeatSketch(Duration.ofMillis(40), 2, 64, 2, 10);
+        try {
+            for (int i = 0; i < 10; i++) {
+                sketch.record(List.of("accId1"));
+                //the bucket swapped in is clear,so only this acquire is counted
+                assertThat(sketch.estimate("accId1")).isEqualTo(1);
+                Thread.sleep(60);
+            }
+        } finally {
+            sketch.shutdown();
+        }
+    }
+
+    @Test
+    public void testWidthMustBePowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new LockHeatSketch(Duration.ofSeconds(60), 6, 1000, 4, 100));
+    }
+}
@@ -0,0 +1,77 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.OutboxMessage;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.OutboxRepository;
+import com.dws.challenge.repository.OutboxRepositoryInMemory;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class OutboxRelayTest {
+
+    private final OutboxRepository outboxRepository = new OutboxRepositoryInMemory();
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean notifierIsDown = new AtomicBoolean();
+    private final NotificationService notificationService = (account, description) -> {
+        if (notifierIsDown.get()) {
+            throw new IllegalStateException("SMTP server is down");
+        }
+        sent.add(account.getAccountId() + ": " + description);
+    };
+    private final OutboxRelay relay = new OutboxRelay(outboxRepository, notificationService, new AccountsRepositoryInMemory(), 2, Duration.ZERO);
+
+    @Test
+    public void testRelayDeliversMessagesInBatches() {
+        for (int i = 0; i < 5; i++) {
+            outboxRepository.add(OutboxMessage.notEnoughMoney("transfer" + i, "accId" + i));
+        }
+        assertThat(relay.relay()).isEqualTo(5);
+        assertThat(sent).hasSize(5).first().isEqualTo("accId0: Doesn't have enough money for transfer");
+        assertThat(outboxRepository.countPending()).isZero();
+    }
+
+    @Test
+    public void testMessageIsRetriedIfNotifierFails() {
+        outboxRepository.add(OutboxMessage.completed("transfer1", "accId1", "accId2", BigDecimal.TEN));
+        notifierIsDown.set(true);
+        assertThat(relay.relay()).isZero();
+        assertThat(outboxRepository.countPending()).isEqualTo(1);
+        notifierIsDown.set(false);
+        assertThat(relay.relay()).isEqualTo(1);
+        assertThat(sent).containsExactly("accId1: Debited the account by 10", "accId2: Credited the account by 10");
+    }
+
+    @Test
+    public void testDeliveredMessageIsNotSentAgain() {
+        outboxRepository.add(OutboxMessage.notEnoughMoney("transfer1", "accId1"));
+        relay.relay();
+        outboxRepository.add(OutboxMessage.notEnoughMoney("transfer1", "accId1"));
+        assertThat(relay.relay()).isZero();
+        assertThat(sent).hasSize(1);
+    }
+
+    @Test
+    public void testMessageIsNotTakenBackWhileItIsSent() {
+        outboxRepository.add(OutboxMessage.completed("transfer1", "accId1", "accId2", BigDecimal.TEN));
+        //the transfer fails to save COMPLETED while the relay sends its notifications
+        List<Boolean> removed = new CopyOnWriteArrayList<>();
+        OutboxRelay rollingBackRelay = new OutboxRelay(outboxRepository,
+                (account, description) -> removed.add(outboxRepository.remove("transfer1")),
+                new AccountsRepositoryInMemory(), 2, Duration.ZERO);
+        assertThat(rollingBackRelay.relay()).isEqualTo(1);
+        assertThat(removed).containsExactly(false, false);
+        assertThat(outboxRepository.remove("transfer1")).isFalse();
+        //the message taken back before the relay claimed it isn't sent
+        outboxRepository.add(OutboxMessage.notEnoughMoney("transfer2", "accId1"));
+        assertThat(outboxRepository.remove("transfer2")).isTrue();
+        assertThat(relay.relay()).isZero();
+        assertThat(sent).isEmpty();
+    }
+}
@@ -0,0 +1,193 @@
+package com.dws.challenge.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in of the Redis server for the tests: it speaks RESP2 and runs the scripts
+ * of AdvisoryLockServiceRedis by their Java equivalents (it has no Lua,AdvisoryLockScriptsTest runs the Lua),keys expire like PX.
+ * Every client is served by its own thread,the scripts run one at a time like in Redis.
+ */
+class RespStubServer implements Closeable {
+    private final ServerSocket serverSocket;
+    private final Map<String, String> values = new HashMap<>();
+    private final Map<String, Long> expiresAt = new HashMap<>();
+    private final Set<String> knownScripts = ConcurrentHashMap.newKeySet();
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    //EVAL and EVALSHA commands,it's the number of round trips of the lock service
+    final AtomicInteger scriptCalls = new AtomicInteger();
+    //the acquire is applied,then its reply is delayed,e.g. longer than the timeout of the client
+    volatile long acquireReplyDelayMillis;
+
+    RespStubServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "resp-stub-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Close connections of the clients,they have to connect again.
+     */
+    void dropClients() throws IOException {
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket client = serverSocket.accept();
+                client.setTcpNoDelay(true);
+                clients.add(client);
+                Thread thread = new Thread(() -> serve(client), "resp-stub-client");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException ex) {
+            //closed
+        }
+    }
+
+    private void serve(Socket client) {
+        try (client) {
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            OutputStream out = new BufferedOutputStream(client.getOutputStream());
+            while (true) {
+                @SuppressWarnings("unchecked")
+                List<Object> command = (List<Object>) RespConnection.read(in);
+                out.write(execute(command).getBytes(StandardCharsets.UTF_8));
+                //flush only when the pipeline is read,like the server replies to the batch of commands
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException ex) {
+            //the client is gone
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private String execute(List<Object> command) {
+        String name = ((String) command.get(0)).toUpperCase();
+        switch (name) {
+            case "PING":
+                return "+PONG\r\n";
+            case "EVAL":
+            case "EVALSHA": {
+                scriptCalls.incrementAndGet();
+                String script = (String) command.get(1);
+                String sha = name.equals("EVAL") ? sha1(script) : script;
+                if (name.equals("EVAL")) {
+                    knownScripts.add(sha);
+                } else if (!knownScripts.contains(sha)) {
+                    return "-NOSCRIPT No matching script. Please use EVAL.\r\n";
+                }
+                int keyCount = Integer.parseInt((String) command.get(2));
+                List<String> keys = command.subList(3, 3 + keyCount).stream().map(String.class::cast).toList();
+                List<String> args = command.subList(3 + keyCount, command.size()).stream().map(String.class::cast).toList();
+                if (sha.equals(sha1(AdvisoryLockServiceRedis.ACQUIRE_SCRIPT))) {
+                    long fence;
+                    synchronized (this) {
+                        fence = acquire(keys, args);
+                    }
+                    delay(acquireReplyDelayMillis);
+                    return ":" + fence + "\r\n";
+                }
+                synchronized (this) {
+                    if (sha.equals(sha1(AdvisoryLockServiceRedis.RELEASE_SCRIPT))) {
+                        return ":" + release(keys, args) + "\r\n";
+                    }
+                }
+                return "-ERR unknown script\r\n";
+            }
+            default:
+                return "-ERR unknown command '" + name + "'\r\n";
+        }
+    }
+
+    private long acquire(List<String> keys, List<String> args) {
+        for (int i = 1; i < keys.size(); i++) {
+            if (get(keys.get(i)) != null) {
+                //KEYS of Lua are numbered from 1
+                return -(i + 1);
+            }
+        }
+        long expiry = System.currentTimeMillis() + Long.parseLong(args.get(1));
+        for (int i = 1; i < keys.size(); i++) {
+            values.put(keys.get(i), args.get(0));
+            expiresAt.put(keys.get(i), expiry);
+        }
+        long fence = Long.parseLong(values.getOrDefault(keys.get(0), "0")) + 1;
+        values.put(keys.get(0), String.valueOf(fence));
+        return fence;
+    }
+
+    private long release(List<String> keys, List<String> args) {
+        for (String key : keys) {
+            if (!args.get(0).equals(get(key))) {
+                return 0;
+            }
+        }
+        keys.forEach(key -> {
+            values.remove(key);
+            expiresAt.remove(key);
+        });
+        return 1;
+    }
+
+    private static void delay(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private String get(String key) {
+        Long expiry = expiresAt.get(key);
+        if (expiry != null && expiry <= System.currentTimeMillis()) {
+            values.remove(key);
+            expiresAt.remove(key);
+        }
+        return values.get(key);
+    }
+
+    private static String sha1(String script) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        dropClients();
+    }
+}
@@ -0,0 +1,164 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.exception.LockServiceException;
+import com.dws.challenge.exception.ServiceException;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.OutboxRepositoryInMemory;
+import com.dws.challenge.repository.TransferRepositoryLogInMemory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@SpringBootTest(properties = {"transfer.engine=sharded", "transfer.shards=4"})
+public class ShardedTransferServiceTest {
+    @Autowired
+    private TransferService transferService;
+
+    @Autowired
+    private AccountsRepository accountsRepository;
+
+    @Test
+    public void testShardedEngineIsSelected() {
+        assertThat(transferService).isInstanceOf(ShardedTransferServiceImp.class);
+    }
+
+    @Test
+    public void testTransferMoney() {
+        Account fromAccount = createAccount("sharded-1", BigDecimal.valueOf(100));
+        Account toAccount = createAccount("sharded-2", BigDecimal.ZERO);
+        transferService.transfer(fromAccount, toAccount, BigDecimal.valueOf(100));
+        assertThat(accountsRepository.getAccount("sharded-1").getBalance()).isEqualTo(BigDecimal.ZERO);
+        assertThat(accountsRepository.getAccount("sharded-2").getBalance()).isEqualTo(BigDecimal.valueOf(100));
+    }
+
+    @Test
+    public void testDontTransferIfBalanceIsNotEnough() {
+        Account fromAccount = createAccount("sharded-3", BigDecimal.TEN);
+        Account toAccount = createAccount("sharded-4", BigDecimal.ZERO);
+        Exception exp = assertThrows(ServiceException.class, () -> transferService.transfer(fromAccount, toAccount, BigDecimal.valueOf(100)));
+        assertThat(exp.getMessage()).contains("doesn't contain enough money.");
+        assertThat(fromAccount.getBalance()).isEqualTo(BigDecimal.TEN);
+        assertThat(toAccount.getBalance()).isEqualTo(BigDecimal.ZERO);
+    }
+
+    @Test
+    public void testConcurrentTransfersKeepTotalBalance() throws Exception {
+        int accountCount = 10;
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < accountCount; i++) {
+            accounts.add(createAccount("sharded-concurrent-" + i, BigDecimal.valueOf(1000)));
+        }
+        ExecutorService execServ = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(execServ.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int j = 0; j < 500; j++) {
+                        Account from = accounts.get(random.nextInt(accountCount));
+                        Account to = accounts.get(random.nextInt(accountCount));
+                        try {
+                            transferService.transfer(from, to, BigDecimal.valueOf(random.nextInt(1, 50)));
+                        } catch (ServiceException ignored) {
+                            //not enough money
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            execServ.shutdownNow();
+        }
+        BigDecimal total = accounts.stream().map(Account::getBalance).reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertThat(total).isEqualTo(BigDecimal.valueOf(1000L * accountCount));
+        assertThat(accounts).allMatch(account -> account.getBalance().signum() >= 0);
+    }
+
+    @Test
+    public void testQueuedTransferIsCancelledAfterTimeout() throws Exception {
+        CountDownLatch saving = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AccountsRepository slowRepository = new AccountsRepositoryInMemory() {
+            @Override
+            public void save(Account account) {
+                if (account.getAccountId().equals("slow")) {
+                    saving.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.save(account);
+            }
+        };
+        ShardedTransferServiceImp oneShard = new ShardedTransferServiceImp(new TransferRepositoryLogInMemory(),
+                new OutboxRepositoryInMemory(), slowRepository, 1, Duration.ofMillis(100));
+        Account slow = new Account("slow", BigDecimal.TEN);
+        Account fromAccount = new Account("queued-1", BigDecimal.TEN);
+        Account toAccount = new Account("queued-2", BigDecimal.ZERO);
+        ExecutorService execServ = Executors.newSingleThreadExecutor();
+        try {
+            //the started transfer is waited for after the timeout
+            Future<?> started = execServ.submit(() -> oneShard.transfer(slow, toAccount, BigDecimal.ONE));
+            assertThat(saving.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThrows(LockServiceException.class, () -> oneShard.transfer(fromAccount, toAccount, BigDecimal.ONE));
+            release.countDown();
+            started.get(5, TimeUnit.SECONDS);
+            //the queued transfer was cancelled,so the shard skips it
+            oneShard.transfer(slow, toAccount, BigDecimal.ONE);
+        } finally {
+            release.countDown();
+            execServ.shutdownNow();
+            oneShard.shutdown();
+        }
+        assertThat(fromAccount.getBalance()).isEqualTo(BigDecimal.TEN);
+        assertThat(toAccount.getBalance()).isEqualTo(BigDecimal.valueOf(2));
+    }
+
+    @Test
+    public void testTransferIsMeasured() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ShardedTransferServiceImp sharded = new ShardedTransferServiceImp(new TransferRepositoryLogInMemory(),
+                new OutboxRepositoryInMemory(), new AccountsRepositoryInMemory(), 2, Duration.ofSeconds(5));
+        sharded.setMeterRegistry(meterRegistry);
+        Account fromAccount = new Account("measured-1", BigDecimal.TEN);
+        Account toAccount = new Account("measured-2", BigDecimal.ZERO);
+        try {
+            sharded.transfer(fromAccount, toAccount, BigDecimal.ONE);
+            assertThrows(ServiceException.class, () -> sharded.transfer(fromAccount, toAccount, BigDecimal.valueOf(100)));
+        } finally {
+            sharded.shutdown();
+        }
+        for (String phase : new String[]{"lock", "check", "debit", "credit", "complete"}) {
+            assertThat(meterRegistry.get("transfer.phase").tag("phase", phase).timer().count()).isGreaterThan(0);
+        }
+        assertThat(meterRegistry.get("transfer.rejections").tag("reason", "insufficient_funds").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("transfer.rollbacks").tag("status", "START").counter().count()).isEqualTo(0);
+    }
+
+    private Account createAccount(String accId, BigDecimal amount) {
+        Account account = new Account(accId, amount);
+        accountsRepository.save(account);
+        return account;
+    }
+}
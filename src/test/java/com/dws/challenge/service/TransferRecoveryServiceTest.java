@@ -0,0 +1,192 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.OutboxMessage;
+import com.dws.challenge.domain.TransferLog;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.OutboxRepository;
+import com.dws.challenge.repository.OutboxRepositoryInMemory;
+import com.dws.challenge.repository.TransferRepositoryLog;
+import com.dws.challenge.repository.TransferRepositoryLogInMemory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+
+public class TransferRecoveryServiceTest {
+
+    private AccountsRepository accountsRepository;
+    private TransferRepositoryLog transferRepositoryLog;
+    private OutboxRepository outboxRepository;
+    private TransferRecoveryService recoveryService;
+
+    @BeforeEach
+    void createRepositories() {
+        accountsRepository = new AccountsRepositoryInMemory();
+        transferRepositoryLog = new TransferRepositoryLogInMemory();
+        outboxRepository = new OutboxRepositoryInMemory();
+        recoveryService = new TransferRecoveryService(transferRepositoryLog, accountsRepository, outboxRepository, 2);
+    }
+
+    @Test
+    public void testFailTransferInStart() {
+        Account fromAccount = createAccount("accId1", BigDecimal.valueOf(100));
+        Account toAccount = createAccount("accId2", BigDecimal.ZERO);
+        TransferLog transferLog = logTransfer(fromAccount, toAccount, BigDecimal.TEN, TransferStatus.START);
+        assertThat(recoveryService.recover()).isEqualTo(1);
+        assertThat(transferLog.getStatus()).isEqualTo(TransferStatus.FAILED);
+        assertThat(fromAccount.getBalance()).isEqualTo(BigDecimal.valueOf(100));
+        assertThat(toAccount.getBalance()).isEqualTo(BigDecimal.ZERO);
+        assertThat(transferRepositoryLog.findUnfinished()).isEmpty();
+    }
+
+    @Test
+    public void testRollbackAppliedBatch() {
+        Account account1 = createAccount("accId1", BigDecimal.valueOf(100));
+        Account account2 = createAccount("accId2", BigDecimal.ZERO);
+        Account account3 = createAccount("accId3", BigDecimal.ZERO);
+        TransferLog first = logTransfer(account1, account2, BigDecimal.TEN, TransferStatus.START);
+        TransferLog second = logTransfer(account2, account3, BigDecimal.ONE, TransferStatus.START);
+        //the crash happened after the batch changed account1 and account2,account3 wasn't changed
+        account1.setBalance(BigDecimal.valueOf(90));
+        account1.setLastTransferId(first.getId());
+        accountsRepository.save(account1);
+        account2.setBalance(BigDecimal.valueOf(9));
+        account2.setLastTransferId(first.getId());
+        accountsRepository.save(account2);
+        assertThat(recoveryService.recover()).isEqualTo(2);
+        assertThat(first.getStatus()).isEqualTo(TransferStatus.FAILED);
+        assertThat(second.getStatus()).isEqualTo(TransferStatus.FAILED);
+        assertThat(account1.getBalance()).isEqualTo(BigDecimal.valueOf(100));
+        assertThat(account2.getBalance()).isEqualTo(BigDecimal.ZERO);
+        assertThat(account3.getBalance()).isEqualTo(BigDecimal.ZERO);
+        //the restored account isn't restored again by the next recovery
+        assertThat(account1.getLastTransferId()).isNull();
+    }
+
+    @Test
+    public void testRollbackDebitedTransfer() {
+        Account fromAccount = createAccount("accId1", BigDecimal.valueOf(100));
+        Account toAccount = createAccount("accId2", BigDecimal.ZERO);
+        TransferLog transferLog = logTransfer(fromAccount, toAccount, BigDecimal.TEN, TransferStatus.DEBIT_FROM_ACCOUNT);
+        //the crash happened after debit
+        fromAccount.setBalance(BigDecimal.valueOf(90));
+        fromAccount.setLastTransferId(transferLog.getId());
+        accountsRepository.save(fromAccount);
+        recoveryService.recover();
+        assertThat(transferLog.getStatus()).isEqualTo(TransferStatus.FAILED);
+        assertThat(fromAccount.getBalance()).isEqualTo(BigDecimal.valueOf(100));
+        assertThat(toAccount.getBalance()).isEqualTo(BigDecimal.ZERO);
+    }
+
+    @Test
+    public void testDontRollbackTransferIfDebitWasNotApplied() {
+        Account fromAccount = createAccount("accId1", BigDecimal.valueOf(100));
+        Account toAccount = createAccount("accId2", BigDecimal.ZERO);
+        TransferLog transferLog = logTransfer(fromAccount, toAccount, BigDecimal.TEN, TransferStatus.DEBIT_FROM_ACCOUNT);
+        recoveryService.recover();
+        assertThat(transferLog.getStatus()).isEqualTo(TransferStatus.FAILED);
+        assertThat(fromAccount.getBalance()).isEqualTo(BigDecimal.valueOf(100));
+    }
+
+    @Test
+    public void testRollForwardCreditedTransfer() {
+        Account fromAccount = createAccount("accId1", BigDecimal.valueOf(100));
+        Account toAccount = createAccount("accId2", BigDecimal.ZERO);
+        TransferLog transferLog = logTransfer(fromAccount, toAccount, BigDecimal.TEN, TransferStatus.CREDIT_TO_ACCOUNT);
+        //the crash happened after debit and before credit
+        fromAccount.setBalance(BigDecimal.valueOf(90));
+        fromAccount.setLastTransferId(transferLog.getId());
+        accountsRepository.save(fromAccount);
+        recoveryService.recover();
+        assertThat(transferLog.getStatus()).isEqualTo(TransferStatus.COMPLETED);
+        assertThat(fromAccount.getBalance()).isEqualTo(BigDecimal.valueOf(90));
+        assertThat(toAccount.getBalance()).isEqualTo(BigDecimal.TEN);
+        //notifications of the completed transfer are waiting in the outbox
+        assertThat(outboxRepository.findPending(10)).extracting(OutboxMessage::getTransferId).containsExactly(transferLog.getId());
+    }
+
+    @Test
+    public void testDontCreditTwice() {
+        Account fromAccount = createAccount("accId1", BigDecimal.valueOf(90));
+        Account toAccount = createAccount("accId2", BigDecimal.TEN);
+        TransferLog transferLog = logTransfer(fromAccount, toAccount, BigDecimal.TEN, TransferStatus.CREDIT_TO_ACCOUNT);
+        //the crash happened after credit,toAccount was changed by the transfer
+        toAccount.setLastTransferId(transferLog.getId());
+        accountsRepository.save(toAccount);
+        recoveryService.recover();
+        assertThat(transferLog.getStatus()).isEqualTo(TransferStatus.COMPLETED);
+        assertThat(toAccount.getBalance()).isEqualTo(BigDecimal.TEN);
+    }
+
+    @Test
+    public void testRollbackLockFreeDebitOverwrittenByTransfer() {
+        Account account = createAccount("accId1", BigDecimal.valueOf(90));
+        TransferLog debit = transferRepositoryLog.create(account.getAccountId(), TransferLog.EXTERNAL, BigDecimal.TEN);
+        debit.setStatus(TransferStatus.DEBIT_FROM_ACCOUNT);
+        transferRepositoryLog.save(debit);
+        //the crash happened after the lock-free debit,then a transfer of the account changed lastTransferId
+        account.beginWrite();
+        account.addPendingTransferId(debit.getId());
+        account.setLastTransferId("otherTransfer");
+        accountsRepository.save(account);
+        account.endWrite();
+        recoveryService.recover();
+        assertThat(debit.getStatus()).isEqualTo(TransferStatus.FAILED);
+        assertThat(account.getBalance()).isEqualTo(BigDecimal.valueOf(100));
+        assertThat(account.getPendingTransferIds()).isEmpty();
+        //the next recovery doesn't refund it again
+        debit.setStatus(TransferStatus.DEBIT_FROM_ACCOUNT);
+        transferRepositoryLog.save(debit);
+        recoveryService.recover();
+        assertThat(account.getBalance()).isEqualTo(BigDecimal.valueOf(100));
+    }
+
+    @Test
+    public void testCreditEveryTransferToOneAccountOnce() {
+        Account fromAccount1 = createAccount("accId1", BigDecimal.valueOf(90));
+        Account fromAccount2 = createAccount("accId2", BigDecimal.valueOf(90));
+        Account toAccount = createAccount("accId3", BigDecimal.TEN);
+        TransferLog credited = logTransfer(fromAccount1, toAccount, BigDecimal.TEN, TransferStatus.CREDIT_TO_ACCOUNT);
+        TransferLog waiting = logTransfer(fromAccount2, toAccount, BigDecimal.TEN, TransferStatus.CREDIT_TO_ACCOUNT);
+        //the first was credited,the second was waiting for the shard of toAccount
+        toAccount.setLastTransferId(credited.getId());
+        accountsRepository.save(toAccount);
+        assertThat(recoveryService.recover()).isEqualTo(2);
+        assertThat(waiting.getStatus()).isEqualTo(TransferStatus.COMPLETED);
+        assertThat(toAccount.getBalance()).isEqualTo(BigDecimal.valueOf(20));
+    }
+
+    @Test
+    public void testRecoverManyTransfersInParallel() {
+        int transferCount = 1000;
+        for (int i = 0; i < transferCount; i++) {
+            Account fromAccount = createAccount("from" + i, BigDecimal.valueOf(100));
+            Account toAccount = createAccount("to" + i, BigDecimal.ZERO);
+            logTransfer(fromAccount, toAccount, BigDecimal.TEN, TransferStatus.CREDIT_TO_ACCOUNT);
+        }
+        assertThat(recoveryService.recover()).isEqualTo(transferCount);
+        for (int i = 0; i < transferCount; i++) {
+            assertThat(accountsRepository.getAccount("to" + i).getBalance()).isEqualTo(BigDecimal.TEN);
+        }
+        assertThat(transferRepositoryLog.findUnfinished()).isEmpty();
+    }
+
+    private Account createAccount(String accountId, BigDecimal balance) {
+        Account account = new Account(accountId, balance);
+        account.setUpdateAt(account.getUpdateAt().minusSeconds(1));
+        accountsRepository.createAccount(account);
+        return account;
+    }
+
+    private TransferLog logTransfer(Account fromAccount, Account toAccount, BigDecimal amount, TransferStatus status) {
+        TransferLog transferLog = transferRepositoryLog.create(fromAccount.getAccountId(), toAccount.getAccountId(), amount);
+        transferLog.setStatus(status);
+        transferRepositoryLog.save(transferLog);
+        return transferLog;
+    }
+}
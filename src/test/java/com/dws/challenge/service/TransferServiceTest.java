@@ -2,7 +2,9 @@ package com.dws.challenge.service;
 
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.Money;
 import com.dws.challenge.exception.ServiceException;
+import com.dws.challenge.exception.StaleFenceException;
 import com.dws.challenge.repository.AccountsRepository;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,11 +14,16 @@ import static org.assertj.core.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 @SpringBootTest
 public class TransferServiceTest {
@@ -58,7 +65,7 @@ public class TransferServiceTest {
         Exception exp = assertThrows(ServiceException.class, () -> transferService.transfer(fromAccount, toAccount, amount));
         assertThat(exp.getMessage()).contains("doesn't contain enough money.");
         //check that accounts are available after failed transfer
-        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(fromAccount.getAccountId(), toAccount.getAccountId()), 1);
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(fromAccount.getAccountId(), toAccount.getAccountId()), Duration.ZERO);
         assertThat(locked).isNotEmpty();
         lockService.release(locked.get());
     }
@@ -74,7 +81,7 @@ public class TransferServiceTest {
         accountsRepository.save(toAccount);
         CountDownLatch latch = new CountDownLatch(1);
         execServ.submit(() -> {
-            Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(fromAccount.getAccountId(), toAccount.getAccountId()), 1);
+            Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(fromAccount.getAccountId(), toAccount.getAccountId()), Duration.ZERO);
             System.out.println(">>>>>>Accounts locked");
             latch.countDown();
             sleepFor(200);
@@ -86,6 +93,38 @@ public class TransferServiceTest {
         assertThat(fromAccount1Changed.getBalance()).isEqualTo(BigDecimal.ZERO);
     }
 
+    @Test
+    public void testTransferFixedPointMoney() {
+        Account fromAccount = new Account("accId1", new BigDecimal("100.50"));
+        Account toAccount = new Account("accId2");
+        fromAccount.useScale(2);
+        toAccount.useScale(2);
+        accountsRepository.save(fromAccount);
+        accountsRepository.save(toAccount);
+        transferService.transfer(fromAccount, toAccount, new BigDecimal("0.25"));
+        assertThat(fromAccount.getBalanceMinor()).isEqualTo(10025);
+        assertThat(toAccount.getBalanceMinor()).isEqualTo(25);
+        assertThat(accountsRepository.getAccount("accId2").getBalance()).isEqualTo(new BigDecimal("0.25"));
+        //the amount doesn't fit the scale of cents
+        assertThrows(ServiceException.class, () -> transferService.transfer(fromAccount, toAccount, new BigDecimal("0.001")));
+        assertThat(fromAccount.getBalanceMinor()).isEqualTo(10025);
+        assertThat(toAccount.getBalanceMinor()).isEqualTo(25);
+    }
+
+    @Test
+    public void testDontTransferIfFixedPointBalanceOverflows() {
+        Account fromAccount = new Account("accId1", BigDecimal.ONE);
+        Account toAccount = new Account("accId2", Money.toDecimal(Long.MAX_VALUE, 2));
+        fromAccount.useScale(2);
+        toAccount.useScale(2);
+        accountsRepository.save(fromAccount);
+        accountsRepository.save(toAccount);
+        assertThrows(ServiceException.class, () -> transferService.transfer(fromAccount, toAccount, BigDecimal.ONE));
+        //fromAccount is rolled back
+        assertThat(accountsRepository.getAccount("accId1").getBalance()).isEqualByComparingTo(BigDecimal.ONE);
+        assertThat(toAccount.getBalanceMinor()).isEqualTo(Long.MAX_VALUE);
+    }
+
     private void await(CountDownLatch latch) {
         try {
             latch.await();
@@ -100,4 +139,69 @@ public class TransferServiceTest {
         }
 
     }
+
+    @Test
+    public void testTransferAsyncWaitsForLockWithoutThread() throws Exception {
+        Account fromAccount = new Account("asyncAccId1", BigDecimal.valueOf(100));
+        Account toAccount = new Account("asyncAccId2", BigDecimal.ZERO);
+        accountsRepository.save(fromAccount);
+        accountsRepository.save(toAccount);
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(fromAccount.getAccountId()), Duration.ZERO);
+        assertThat(locked).isNotEmpty();
+        List<CompletableFuture<Void>> transfers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            transfers.add(transferService.transferAsync(fromAccount, toAccount, BigDecimal.TEN));
+        }
+        Thread.sleep(100);
+        assertThat(transfers).noneMatch(CompletableFuture::isDone);
+        lockService.release(locked.get());
+        CompletableFuture.allOf(transfers.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        assertThat(accountsRepository.getAccount("asyncAccId1").getBalance()).isEqualByComparingTo("0");
+        assertThat(accountsRepository.getAccount("asyncAccId2").getBalance()).isEqualByComparingTo("100");
+
+        //the 11th transfer fails like the blocking one
+        ExecutionException ex = assertThrows(ExecutionException.class,
+                () -> transferService.transferAsync(fromAccount, toAccount, BigDecimal.TEN).get(10, TimeUnit.SECONDS));
+        assertThat(ex.getCause()).isInstanceOf(ServiceException.class);
+    }
+
+    @Test
+    public void testCancelledAsyncTransferLeavesTheQueueOfTheLock() throws Exception {
+        Account fromAccount = new Account("cancelAccId1", BigDecimal.TEN);
+        Account toAccount = new Account("cancelAccId2", BigDecimal.ZERO);
+        accountsRepository.save(fromAccount);
+        accountsRepository.save(toAccount);
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of(fromAccount.getAccountId(), toAccount.getAccountId()), Duration.ZERO);
+        assertThat(locked).isNotEmpty();
+        CompletableFuture<Void> transfer = transferService.transferAsync(fromAccount, toAccount, BigDecimal.ONE);
+        assertThat(transfer.cancel(false)).isTrue();
+        lockService.release(locked.get());
+        Thread.sleep(100);
+        //the cancelled transfer neither took the lock nor moved the money
+        Optional<AdvisoryLockService.Token> free = lockService.acquire(List.of(fromAccount.getAccountId(), toAccount.getAccountId()), Duration.ZERO);
+        assertThat(free).isNotEmpty();
+        lockService.release(free.get());
+        assertThat(accountsRepository.getAccount("cancelAccId1").getBalance()).isEqualTo(BigDecimal.TEN);
+
+        //the started transfer can't be cancelled
+        CompletableFuture<Void> done = transferService.transferAsync(fromAccount, toAccount, BigDecimal.ONE);
+        done.get(10, TimeUnit.SECONDS);
+        assertThat(done.cancel(false)).isFalse();
+        assertThat(accountsRepository.getAccount("cancelAccId2").getBalance()).isEqualTo(BigDecimal.ONE);
+    }
+
+    @Test
+    public void testTransferIsRolledBackIfAccountWasWrittenByNewerLease() {
+        Account fromAccount = new Account("fencedAccId1", BigDecimal.TEN);
+        Account toAccount = new Account("fencedAccId2", BigDecimal.ZERO);
+        accountsRepository.save(fromAccount);
+        accountsRepository.save(toAccount);
+        //the lease of the transfer has expired and the next owner has written toAccount
+        toAccount.advanceFence(Long.MAX_VALUE);
+
+        assertThrows(StaleFenceException.class, () -> transferService.transfer(fromAccount, toAccount, BigDecimal.ONE));
+
+        assertThat(accountsRepository.getAccount("fencedAccId1").getBalance()).isEqualTo(BigDecimal.TEN);
+        assertThat(accountsRepository.getAccount("fencedAccId2").getBalance()).isEqualTo(BigDecimal.ZERO);
+    }
 }
@@ -106,7 +106,7 @@ class AccountsControllerTest {
         this.accountsService.createAccount(account);
         this.mockMvc.perform(get("/v1/accounts/" + uniqueAccountId))
                 .andExpectAll(status().isOk(), jsonPath("$.accountId").value(uniqueAccountId),
-                        jsonPath("$.balance").value("123.45"));
+                        jsonPath("$.balance").value("123.45"), jsonPath("$.fixedPoint").doesNotExist());
     }
 
     @Test
@@ -155,4 +155,71 @@ class AccountsControllerTest {
                 .andExpectAll(status().isBadRequest(), jsonPath("$.msg").value("transfer.amount: must be greater than or equal to 1"));
 
     }
+
+    @Test
+    void testTransferMoneyWithIdempotencyKey() throws Exception {
+        String uniqueAccountId = "Id-" + System.currentTimeMillis();
+        accountsService.createAccount(new Account(uniqueAccountId + "-1", new BigDecimal("100")));
+        accountsService.createAccount(new Account(uniqueAccountId + "-2", new BigDecimal("20")));
+        String transfer = "/v1/accounts/transfer/" + uniqueAccountId + "-1/" + uniqueAccountId + "-2";
+        mockMvc.perform(put(transfer + "?amount=60").header("Idempotency-Key", uniqueAccountId + "-key1"))
+                .andExpect(status().isNoContent());
+        //the retry doesn't transfer the money again
+        mockMvc.perform(put(transfer + "?amount=60").header("Idempotency-Key", uniqueAccountId + "-key1"))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(put(transfer + "?amount=60").header("Idempotency-Key", uniqueAccountId + "-key2"))
+                .andExpect(status().isBadRequest());
+        //the failed result is stored too,the retry isn't run after the credit
+        accountsService.credit(uniqueAccountId + "-1", new BigDecimal("100"));
+        mockMvc.perform(put(transfer + "?amount=60").header("Idempotency-Key", uniqueAccountId + "-key2"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(put(transfer + "?amount=70").header("Idempotency-Key", uniqueAccountId + "-key1"))
+                .andExpectAll(status().isBadRequest(),
+                        jsonPath("$.msg").value("Idempotency-Key " + uniqueAccountId + "-key1 is already used by another transfer"));
+        assertThat(accountsService.getAccount(uniqueAccountId + "-1").get().getBalance()).isEqualByComparingTo("140");
+        assertThat(accountsService.getAccount(uniqueAccountId + "-2").get().getBalance()).isEqualByComparingTo("80");
+    }
+
+    @Test
+    void testCreditAndDebit() throws Exception {
+        String uniqueAccountId = "Id-" + System.currentTimeMillis();
+        Account account = new Account(uniqueAccountId, new BigDecimal("100"));
+        accountsService.createAccount(account);
+        mockMvc.perform(put("/v1/accounts/" + uniqueAccountId + "/credit?amount=50"))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(put("/v1/accounts/" + uniqueAccountId + "/debit?amount=120"))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(put("/v1/accounts/" + uniqueAccountId + "/debit?amount=31"))
+                .andExpectAll(status().isBadRequest(), jsonPath("$.msg").value(uniqueAccountId + " doesn't contain enough money."));
+        assertThat(accountsService.getAccount(uniqueAccountId).get().getBalance()).isEqualTo(new BigDecimal("30"));
+    }
+
+    @Test
+    void testTransferBatch() throws Exception {
+        String uniqueAccountId = "Id-" + System.currentTimeMillis();
+        accountsService.createAccount(new Account(uniqueAccountId + "-1", new BigDecimal("100")));
+        accountsService.createAccount(new Account(uniqueAccountId + "-2", new BigDecimal("20")));
+        String batch = "["
+                + "{\"fromAccountId\":\"" + uniqueAccountId + "-1\",\"toAccountId\":\"" + uniqueAccountId + "-2\",\"amount\":70},"
+                + "{\"fromAccountId\":\"" + uniqueAccountId + "-1\",\"toAccountId\":\"" + uniqueAccountId + "-2\",\"amount\":70},"
+                + "{\"fromAccountId\":\"" + uniqueAccountId + "-2\",\"toAccountId\":\"123\",\"amount\":10},"
+                + "{\"fromAccountId\":\"" + uniqueAccountId + "-2\",\"toAccountId\":\"" + uniqueAccountId + "-1\",\"amount\":90}"
+                + "]";
+        mockMvc.perform(post("/v1/accounts/transfers/batch").contentType(MediaType.APPLICATION_JSON).content(batch))
+                .andExpectAll(status().isOk(),
+                        jsonPath("$[0].status").value("COMPLETED"),
+                        jsonPath("$[1].status").value("FAILED"),
+                        jsonPath("$[2].status").value("FAILED"),
+                        jsonPath("$[2].message").value("Cannot find the account 123"),
+                        jsonPath("$[3].status").value("COMPLETED"));
+        assertThat(accountsService.getAccount(uniqueAccountId + "-1").get().getBalance()).isEqualByComparingTo("120");
+        assertThat(accountsService.getAccount(uniqueAccountId + "-2").get().getBalance()).isEqualByComparingTo("0");
+    }
+
+    @Test
+    void testTransferBatchIfAmountLess1() throws Exception {
+        String batch = "[{\"fromAccountId\":\"Id-1\",\"toAccountId\":\"Id-2\",\"amount\":0}]";
+        mockMvc.perform(post("/v1/accounts/transfers/batch").contentType(MediaType.APPLICATION_JSON).content(batch))
+                .andExpect(status().isBadRequest());
+    }
 }
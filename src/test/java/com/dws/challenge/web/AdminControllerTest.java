@@ -0,0 +1,85 @@
+package com.dws.challenge.web;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import com.dws.challenge.service.AdvisoryLockService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@WebAppConfiguration
+class AdminControllerTest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private AdvisoryLockService lockService;
+
+    @BeforeEach
+    void prepareMockMvc() {
+        this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+    }
+
+    @Test
+    void getAdmission() throws Exception {
+        mockMvc.perform(get("/v1/admin/admission"))
+                .andExpectAll(status().isOk(),
+                        jsonPath("$.inFlight").value(0),
+                        jsonPath("$.maxInFlight").value(150),
+                        jsonPath("$.hotAccounts").isEmpty());
+    }
+
+    @Test
+    void enableUnknownHotAccount() throws Exception {
+        mockMvc.perform(put("/v1/admin/hot-accounts/Id-admin-unknown"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getContentionIsEmptyIfTracingIsDisabled() throws Exception {
+        mockMvc.perform(get("/v1/admin/contention").param("limit", "5"))
+                .andExpectAll(status().isOk(),
+                        jsonPath("$").isArray(),
+                        jsonPath("$").isEmpty());
+    }
+
+    @Test
+    void getLocksWithNegativeLimit() throws Exception {
+        mockMvc.perform(get("/v1/admin/locks").param("limit", "-1"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/v1/admin/contention").param("limit", "-1"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getLocks() throws Exception {
+        Optional<AdvisoryLockService.Token> locked = lockService.acquire(List.of("Id-admin-locked"), Duration.ZERO);
+        try {
+            mockMvc.perform(get("/v1/admin/locks"))
+                    .andExpectAll(status().isOk(),
+                            jsonPath("$.heldLocks[?(@.accountId == 'Id-admin-locked')].owner").value("Id-admin-locked"),
+                            jsonPath("$.hottest[?(@.accountId == 'Id-admin-locked')].acquires").isNotEmpty());
+        } finally {
+            lockService.release(locked.orElseThrow());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.ChallengeApplication;
+import com.dws.challenge.service.ClusterRouter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Three instances of the application on localhost,the third one redirects the requests of other nodes.
+ */
+public class ClusterControllerTest {
+
+    private final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+    private final String[] nodes = new String[3];
+    private final HttpClient client = HttpClient.newHttpClient();
+    private ClusterRouter router;
+
+    @BeforeEach
+    public void startNodes() throws IOException {
+        for (int i = 0; i < nodes.length; i++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                nodes[i] = "http://localhost:" + socket.getLocalPort();
+            }
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            contexts.add(SpringApplication.run(ChallengeApplication.class,
+                    "--server.port=" + URI.create(nodes[i]).getPort(),
+                    "--cluster.nodes=" + String.join(",", nodes),
+                    "--cluster.self=" + nodes[i],
+                    "--cluster.routing=" + (i == 2 ? "REDIRECT" : "FORWARD"),
+                    "--cluster.retry-interval=0s",
+                    "--transfer.recovery.enabled=false"));
+        }
+        router = new ClusterRouter(nodes, nodes[0], 128, ClusterRouter.Routing.FORWARD, Duration.ofSeconds(2));
+    }
+
+    @AfterEach
+    public void stopNodes() {
+        contexts.forEach(ConfigurableApplicationContext::close);
+    }
+
+    private String accountOf(int node, String prefix) {
+        for (int i = 0; ; i++) {
+            if (router.ownerOf(prefix + i).equals(nodes[node])) {
+                return prefix + i;
+            }
+        }
+    }
+
+    private HttpResponse<String> send(int node, String method, String pathAndQuery, String json) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(nodes[node] + pathAndQuery)).timeout(Duration.ofSeconds(10));
+        if (json != null) {
+            request.header("Content-Type", "application/json").method(method, HttpRequest.BodyPublishers.ofString(json));
+        } else {
+            request.method(method, HttpRequest.BodyPublishers.noBody());
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void createAccount(String accountId, int balance) throws Exception {
+        HttpResponse<String> reply = send(0, "POST", "/v1/accounts", "{\"accountId\":\"" + accountId + "\",\"balance\":" + balance + "}");
+        assertThat(reply.statusCode()).isEqualTo(201);
+    }
+
+    private String getAccount(int node, String accountId) throws Exception {
+        HttpResponse<String> reply = send(node, "GET", "/v1/accounts/" + accountId, null);
+        assertThat(reply.statusCode()).isEqualTo(200);
+        return reply.body();
+    }
+
+    @Test
+    public void testRequestsAreForwardedToOwner() throws Exception {
+        String fromAccountId = accountOf(1, "from");
+        String toAccountId = accountOf(2, "to");
+        createAccount(fromAccountId, 100);
+        createAccount(toAccountId, 0);
+        assertThat(getAccount(1, toAccountId)).contains("\"balance\":0");
+
+        //node 0 forwards it to node 1 which coordinates the transfer with node 2
+        assertThat(send(0, "PUT", "/v1/accounts/transfer/" + fromAccountId + "/" + toAccountId + "?amount=30", null).statusCode())
+                .isEqualTo(204);
+        assertThat(getAccount(0, fromAccountId)).contains("\"balance\":70");
+        assertThat(getAccount(1, toAccountId)).contains("\"balance\":30");
+
+        HttpResponse<String> notEnoughMoney = send(0, "PUT", "/v1/accounts/transfer/" + fromAccountId + "/" + toAccountId + "?amount=71", null);
+        assertThat(notEnoughMoney.statusCode()).isEqualTo(400);
+        assertThat(notEnoughMoney.body()).contains("doesn't contain enough money");
+        assertThat(getAccount(0, fromAccountId)).contains("\"balance\":70");
+    }
+
+    @Test
+    public void testRequestsAreRedirectedToOwner() throws Exception {
+        String accountId = accountOf(0, "acc");
+        createAccount(accountId, 100);
+        HttpResponse<String> reply = send(2, "GET", "/v1/accounts/" + accountId, null);
+        assertThat(reply.statusCode()).isEqualTo(307);
+        assertThat(reply.headers().firstValue("Location")).hasValue(nodes[0] + "/v1/accounts/" + accountId);
+    }
+
+    @Test
+    public void testBatchMustBelongToOneNode() throws Exception {
+        String json = "[{\"fromAccountId\":\"" + accountOf(0, "from") + "\",\"toAccountId\":\"" + accountOf(1, "to") + "\",\"amount\":1}]";
+        assertThat(send(0, "POST", "/v1/accounts/transfers/batch", json).statusCode()).isEqualTo(400);
+    }
+
+    @Test
+    public void testTransferIsRejectedIfOtherNodeIsDown() throws Exception {
+        String fromAccountId = accountOf(0, "from");
+        String toAccountId = accountOf(1, "to");
+        createAccount(fromAccountId, 100);
+        createAccount(toAccountId, 0);
+        contexts.get(1).close();
+
+        assertThat(send(0, "PUT", "/v1/accounts/transfer/" + fromAccountId + "/" + toAccountId + "?amount=30", null).statusCode())
+                .isEqualTo(429);
+        assertThat(getAccount(0, fromAccountId)).contains("\"balance\":100");
+        assertThat(send(0, "GET", "/v1/accounts/" + toAccountId, null).statusCode()).isEqualTo(429);
+    }
+}
@@ -0,0 +1,95 @@
+package com.dws.challenge.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+import java.math.BigDecimal;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.service.AccountsService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.context.WebApplicationContext;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@WebAppConfiguration
+class ReactiveAccountsControllerTest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AccountsService accountsService;
+
+    @Autowired
+    private AccountsRepository accountsRepository;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @BeforeEach
+    void prepareMockMvc() {
+        this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+        accountsRepository.clearAccounts();
+    }
+
+    @Test
+    void getAccount() throws Exception {
+        accountsService.createAccount(new Account("Id-123", new BigDecimal("1000")));
+        MvcResult result = mockMvc.perform(get("/v2/accounts/Id-123"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpectAll(status().isOk(), jsonPath("$.accountId").value("Id-123"), jsonPath("$.balance").value(1000));
+
+        result = mockMvc.perform(get("/v2/accounts/Id-404")).andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpectAll(status().isBadRequest(), jsonPath("$.msg").value("Not found the account:Id-404"));
+    }
+
+    @Test
+    void testTransferMoney() throws Exception {
+        accountsService.createAccount(new Account("Id-1", new BigDecimal("100")));
+        accountsService.createAccount(new Account("Id-2", new BigDecimal("20")));
+        MvcResult result = mockMvc.perform(put("/v2/accounts/transfer/Id-1/Id-2?amount=70"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isNoContent());
+        assertThat(accountsService.getAccount("Id-1").get().getBalance()).isEqualByComparingTo("30");
+        assertThat(accountsService.getAccount("Id-2").get().getBalance()).isEqualByComparingTo("90");
+
+        result = mockMvc.perform(put("/v2/accounts/transfer/Id-1/Id-2?amount=70")).andReturn();
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isBadRequest());
+        result = mockMvc.perform(put("/v2/accounts/transfer/Id-1/123?amount=10")).andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpectAll(status().isBadRequest(), jsonPath("$.msg").value("Cannot find the account 123"));
+    }
+
+    @Test
+    void testTransferOnceForIdempotencyKey() throws Exception {
+        accountsService.createAccount(new Account("Id-3", new BigDecimal("100")));
+        accountsService.createAccount(new Account("Id-4", new BigDecimal("0")));
+        for (int i = 0; i < 2; i++) {
+            MvcResult result = mockMvc.perform(put("/v2/accounts/transfer/Id-3/Id-4?amount=70").header("Idempotency-Key", "v2-key-1"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(result)).andExpect(status().isNoContent());
+        }
+        assertThat(accountsService.getAccount("Id-3").get().getBalance()).isEqualByComparingTo("30");
+        assertThat(accountsService.getAccount("Id-4").get().getBalance()).isEqualByComparingTo("70");
+    }
+}